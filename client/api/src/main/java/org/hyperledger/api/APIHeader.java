@@ -86,6 +86,11 @@ public class APIHeader implements Header {
         return header.getID();
     }
 
+    @Override
+    public Hash getProofOfWorkHash() {
+        return header.getProofOfWorkHash();
+    }
+
     @Override
     public int getVersion() {
         return header.getVersion();
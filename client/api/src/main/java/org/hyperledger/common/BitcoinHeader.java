@@ -73,6 +73,16 @@ public class BitcoinHeader implements Header {
         return ID;
     }
 
+    /**
+     * The hash compared to the difficulty target. For a Bitcoin header this is its ID.
+     *
+     * @return proof of work hash
+     */
+    @Override
+    public Hash getProofOfWorkHash() {
+        return getID();
+    }
+
     /**
      * The header version
      *
@@ -19,6 +19,11 @@ import java.time.LocalTime;
 public interface Header {
     BID getID();
 
+    /**
+     * @return the hash that must meet the difficulty target
+     */
+    Hash getProofOfWorkHash();
+
     int getVersion();
 
     BID getPreviousID();
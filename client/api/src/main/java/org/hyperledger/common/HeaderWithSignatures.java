@@ -16,8 +16,14 @@ package org.hyperledger.common;
 import java.io.IOException;
 
 public class HeaderWithSignatures extends BitcoinHeader {
+    /**
+     * Version bit of headers which proof of work does not cover the signatures, see {@link #getProofOfWorkHash()}.
+     */
+    public static final int UNSIGNED_PROOF_OF_WORK = 0x00010000;
+
     private final Script inScript;
     private final byte[] nextScriptHash;
+    private Hash proofOfWorkHash;
 
     public HeaderWithSignatures(int version, BID previousID, MerkleRoot merkleRoot, int createTime, int encodedDifficulty, int nonce, Script inScript, byte[] nextScriptHash) {
         super(version, previousID, merkleRoot, createTime, encodedDifficulty, nonce);
@@ -63,6 +69,36 @@ public class HeaderWithSignatures extends BitcoinHeader {
         super.toWireHeader(writer);
     }
 
+    /**
+     * @return true if the version has the {@link #UNSIGNED_PROOF_OF_WORK} bit
+     */
+    public boolean hasUnsignedProofOfWork() {
+        return (getVersion() & UNSIGNED_PROOF_OF_WORK) != 0;
+    }
+
+    /**
+     * The proof of work of a signed header covers the full header, its ID. With the {@link #UNSIGNED_PROOF_OF_WORK}
+     * version bit it covers the Bitcoin header only, that is also what the signatures sign, so that a miner
+     * searches the nonce first and signs once for the block found.
+     *
+     * @return ID, or hash of the Bitcoin header without signatures if the version has the bit
+     */
+    @Override
+    public Hash getProofOfWorkHash() {
+        if (!hasUnsignedProofOfWork()) {
+            return getID();
+        }
+        if (proofOfWorkHash == null) {
+            try {
+                WireFormat.HashWriter writer = new WireFormat.HashWriter();
+                toWireBitcoinHeader(writer);
+                proofOfWorkHash = writer.hash();
+            } catch (IOException e) {
+            }
+        }
+        return proofOfWorkHash;
+    }
+
     protected static Builder fromWire(Builder builder, WireFormat.Reader reader) throws IOException {
         BitcoinHeader.fromWire(builder, reader);
         return builder.inScript(reader.readVarBytes())
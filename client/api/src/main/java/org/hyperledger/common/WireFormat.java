@@ -16,6 +16,7 @@ package org.hyperledger.common;
 import java.io.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * Wire format serializer and deserializer. Use to parse P2P messages.
@@ -232,6 +233,79 @@ public class WireFormat {
     }
 
 
+    /**
+     * A reader of a byte array that reads directly from the array instead of through a stream.
+     */
+    public static class ArrayReader extends Reader {
+        private final byte[] bytes;
+        private final int limit;
+        private int position;
+
+        public ArrayReader(byte[] bytes) throws IOException {
+            this(bytes, 0, bytes.length);
+        }
+
+        public ArrayReader(byte[] bytes, int offset, int length) throws IOException {
+            super((InputStream) null);
+            this.bytes = bytes;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        /**
+         * @return index of the next byte to read in the underlying array
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        private void require(int n) throws InsufficientBytesException {
+            if (limit - position < n) {
+                throw new InsufficientBytesException(n, limit - position);
+            }
+        }
+
+        @Override
+        public boolean eof() {
+            return position >= limit;
+        }
+
+        @Override
+        public int readByte() throws IOException {
+            require(1);
+            return bytes[position++] & 0xFF;
+        }
+
+        @Override
+        public void readBytes(byte[] b) throws IOException {
+            require(b.length);
+            System.arraycopy(bytes, position, b, 0, b.length);
+            position += b.length;
+        }
+
+        @Override
+        public int readUint16() throws IOException {
+            require(2);
+            int n = (bytes[position] & 0xFF) | ((bytes[position + 1] & 0xFF) << 8);
+            position += 2;
+            return n;
+        }
+
+        @Override
+        public int readUint32() throws IOException {
+            require(4);
+            int n = (bytes[position] & 0xFF) | ((bytes[position + 1] & 0xFF) << 8) | ((bytes[position + 2] & 0xFF) << 16)
+                    | ((bytes[position + 3] & 0xFF) << 24);
+            position += 4;
+            return n;
+        }
+
+        @Override
+        public long readUint64() throws IOException {
+            return (readUint32() & 0xFFFFFFFFL) | ((long) readUint32() << 32);
+        }
+    }
+
     /**
      * a wire format writer that computes
      * the double sha256 digest of the stream
@@ -274,6 +348,69 @@ public class WireFormat {
         }
     }
 
+    /**
+     * A writer into a byte array of the expected size, as computed by a SizeWriter. The array grows if needed.
+     * If the expected size was exact, the array is returned without copy.
+     */
+    public static class BufferWriter extends Writer {
+        private byte[] buffer;
+        private int position;
+
+        public BufferWriter(int expectedSize) {
+            super(null);
+            buffer = new byte[expectedSize];
+        }
+
+        private void ensure(int n) {
+            if (buffer.length - position < n) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + n));
+            }
+        }
+
+        @Override
+        public void writeByte(int n) throws IOException {
+            ensure(1);
+            buffer[position++] = (byte) n;
+        }
+
+        @Override
+        public void writeUint16(int n) throws IOException {
+            ensure(2);
+            buffer[position++] = (byte) n;
+            buffer[position++] = (byte) (n >>> 8);
+        }
+
+        @Override
+        public void writeUint32(int n) throws IOException {
+            ensure(4);
+            buffer[position++] = (byte) n;
+            buffer[position++] = (byte) (n >>> 8);
+            buffer[position++] = (byte) (n >>> 16);
+            buffer[position++] = (byte) (n >>> 24);
+        }
+
+        @Override
+        public void writeUint64(long n) throws IOException {
+            writeUint32((int) n);
+            writeUint32((int) (n >>> 32));
+        }
+
+        @Override
+        public void writeBytes(byte[] b) throws IOException {
+            ensure(b.length);
+            System.arraycopy(b, 0, buffer, position, b.length);
+            position += b.length;
+        }
+
+        public int size() {
+            return position;
+        }
+
+        public byte[] toByteArray() {
+            return position == buffer.length ? buffer : Arrays.copyOf(buffer, position);
+        }
+    }
+
     /**
      * A writer that only computes size of written output.
      */
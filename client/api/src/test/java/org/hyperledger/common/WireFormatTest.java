@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class WireFormatTest {
+    @Test
+    public void arrayReaderMatchesStreamReader() throws IOException {
+        WireFormat.ArrayWriter writer = new WireFormat.ArrayWriter();
+        writer.writeByte(7);
+        writer.writeUint16(0xfedc);
+        writer.writeUint32(0x89abcdef);
+        writer.writeUint64(0x0123456789abcdefL);
+        writer.writeVarInt(0x10000);
+        writer.writeVarBytes(new byte[]{1, 2, 3});
+        writer.writeString("hyperledger");
+        byte[] bytes = writer.toByteArray();
+
+        WireFormat.Reader stream = new WireFormat.Reader(bytes);
+        WireFormat.ArrayReader array = new WireFormat.ArrayReader(bytes);
+        assertEquals(stream.readByte(), array.readByte());
+        assertEquals(stream.readUint16(), array.readUint16());
+        assertEquals(stream.readUint32(), array.readUint32());
+        assertEquals(stream.readUint64(), array.readUint64());
+        assertEquals(stream.readVarInt(), array.readVarInt());
+        assertArrayEquals(stream.readVarBytes(), array.readVarBytes());
+        assertEquals(stream.readString(), array.readString());
+        assertTrue(array.eof());
+        assertEquals(bytes.length, array.getPosition());
+    }
+
+    @Test(expected = WireFormat.InsufficientBytesException.class)
+    public void arrayReaderInsufficientBytes() throws IOException {
+        new WireFormat.ArrayReader(new byte[]{1, 2, 3, 4, 5}, 2, 3).readUint32();
+    }
+
+    @Test
+    public void bufferWriterMatchesArrayWriter() throws IOException {
+        for (int expected : new int[]{0, 3, 19}) {
+            WireFormat.ArrayWriter array = new WireFormat.ArrayWriter();
+            WireFormat.BufferWriter buffer = new WireFormat.BufferWriter(expected);
+            for (WireFormat.Writer writer : new WireFormat.Writer[]{array, buffer}) {
+                writer.writeByte(7);
+                writer.writeUint16(0xfedc);
+                writer.writeUint32(0x89abcdef);
+                writer.writeUint64(0x0123456789abcdefL);
+                writer.writeVarBytes(new byte[]{1, 2, 3});
+            }
+            assertArrayEquals(array.toByteArray(), buffer.toByteArray());
+            assertEquals(19, buffer.size());
+        }
+    }
+}
@@ -21,4 +21,12 @@ import java.util.Map;
 
 public interface BlockBodyValidator {
     StoredBlock validateBody(BlockStore blockStore, StoredBlock b, Map<Outpoint, Transaction> referred) throws HyperLedgerException;
+
+    /**
+     * Validate the body of a block certified by consensus. Validators may skip checks the certificate
+     * vouches for, by default the body is fully validated.
+     */
+    default StoredBlock validateCertifiedBody(BlockStore blockStore, StoredBlock b, Map<Outpoint, Transaction> referred) throws HyperLedgerException {
+        return validateBody(blockStore, b, referred);
+    }
 }
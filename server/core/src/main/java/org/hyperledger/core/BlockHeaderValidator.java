@@ -13,6 +13,7 @@
  */
 package org.hyperledger.core;
 
+import org.hyperledger.common.Header;
 import org.hyperledger.common.HyperLedgerException;
 
 import java.util.List;
@@ -20,5 +21,22 @@ import java.util.List;
 public interface BlockHeaderValidator {
     void validateHeader(BlockStore blockStore, StoredHeader b) throws HyperLedgerException;
 
+    /**
+     * The checks of validateHeader that need nothing but the header and its predecessor, such as proof of work
+     * and signatures. Headers added in bulk are checked with this in parallel, then with validateHeaderInContext
+     * in order.
+     *
+     * @param previous the header b extends, it might not be stored yet
+     */
+    default void checkHeader(StoredHeader b, Header previous) throws HyperLedgerException {
+    }
+
+    /**
+     * The checks of validateHeader not done by checkHeader.
+     */
+    default void validateHeaderInContext(BlockStore blockStore, StoredHeader b) throws HyperLedgerException {
+        validateHeader(blockStore, b);
+    }
+
     void validatePath(BlockStore blockStore, StoredHeader join, List<StoredHeader> path) throws HyperLedgerException;
 }
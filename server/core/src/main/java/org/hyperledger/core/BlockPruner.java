@@ -0,0 +1,318 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.hyperledger.common.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Prunes spent transactions of the trunk below a limit, apart from block storage.
+ * <p>
+ * A sweep is started as the trunk advanced by pruneAfterEvery blocks. It processes the trunk in batches:
+ * blocks of a batch are analyzed in parallel against a snapshot of the trunk below the limit, holding the read lock
+ * of the block store only to look up headers, then the pruned blocks are written in one batch under the write lock of the block store. A batch is
+ * discarded if the trunk was reorganized at or below the limit since its snapshot.
+ */
+class BlockPruner {
+    private static final Logger log = LoggerFactory.getLogger(BlockPruner.class);
+
+    private static final int BATCH_SIZE = 64;
+
+    private final PersistentBlocks persistentBlocks;
+    private final CompactHeaderStore headers;
+    private final Trunk trunk;
+    private final ReadWriteLock lock;
+    private final PrunerSettings settings;
+
+    private final ExecutorService analysisPool = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            new ThreadFactoryBuilder().setNameFormat("pruning-%d").setDaemon(true).build());
+    private Thread thread;
+
+    private static class PrunedBlock {
+        final StoredBlock block;
+        final int prunedCount;
+
+        PrunedBlock(StoredBlock block, int prunedCount) {
+            this.block = block;
+            this.prunedCount = prunedCount;
+        }
+    }
+
+    // highest trunk height seen, guarded by this
+    private int tipHeight = -1;
+
+    private final AtomicLong blocksAnalyzed = new AtomicLong();
+    private final AtomicLong blocksPruned = new AtomicLong();
+    private final AtomicLong transactionsPruned = new AtomicLong();
+    private volatile long analysisTime;
+    private volatile long writeTime;
+    private volatile int backlog;
+
+    BlockPruner(PersistentBlocks persistentBlocks, CompactHeaderStore headers, Trunk trunk, ReadWriteLock lock,
+                PrunerSettings settings) {
+        this.persistentBlocks = persistentBlocks;
+        this.headers = headers;
+        this.trunk = trunk;
+        this.lock = lock;
+        this.settings = settings;
+    }
+
+    void start() {
+        thread = new Thread(this::run);
+        thread.setDaemon(true);
+        thread.setName("pruning");
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+        analysisPool.shutdownNow();
+    }
+
+    /**
+     * Called as blocks are stored on the trunk.
+     */
+    synchronized void tipAdvanced(int height) {
+        if (height > tipHeight) {
+            tipHeight = height;
+            notifyAll();
+        }
+    }
+
+    private synchronized int awaitTip(int sweptAt) throws InterruptedException {
+        while (tipHeight < 0 || (sweptAt >= 0 && tipHeight < sweptAt + Math.max(1, settings.pruneAfterEvery))) {
+            wait();
+        }
+        return tipHeight;
+    }
+
+    PruningStatistics getStatistics() {
+        return new PruningStatistics(blocksAnalyzed.get(), blocksPruned.get(), transactionsPruned.get(),
+                analysisTime, writeTime, backlog);
+    }
+
+    private void run() {
+        try {
+            int sweptAt = -1;
+            while (true) {
+                sweptAt = awaitTip(sweptAt);
+                sweep(limit(sweptAt));
+            }
+        } catch (InterruptedException e) {
+            log.info("Pruning stopped");
+        }
+    }
+
+    private int limit(int tip) {
+        if (settings.pruneOnlyLowerThanHeight >= 0) {
+            return Math.min(settings.pruneOnlyLowerThanHeight, tip);
+        }
+        return Math.max(0, tip - settings.doNotPruneTopBlocks + 1);
+    }
+
+    private void sweep(int limit) throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long prunedBefore = transactionsPruned.get();
+        for (int height = settings.pruneFrom; height < limit; height += BATCH_SIZE) {
+            backlog = limit - height;
+            pruneBatch(height, Math.min(limit, height + BATCH_SIZE), limit);
+        }
+        backlog = 0;
+        log.info("Pruning from {} to {} took {} ms, pruned {} transactions. Since start {}", settings.pruneFrom, limit,
+                stopwatch.elapsed(TimeUnit.MILLISECONDS), transactionsPruned.get() - prunedBefore, getStatistics());
+    }
+
+    private void pruneBatch(int from, int to, int limit) throws InterruptedException {
+        // only the trunk up to the limit matters, a reorg above does not invalidate the analysis
+        Trunk snapshot;
+        List<StoredHeader> batch = new ArrayList<>(to - from);
+        try {
+            lock.readLock().lock();
+            if (trunk.size() <= limit) {
+                return;
+            }
+            snapshot = trunk.snapshot(limit + 1);
+            for (int height = from; height < to; ++height) {
+                batch.add(snapshot.get(height));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<Future<PrunedBlock>> analyses = new ArrayList<>(batch.size());
+        for (StoredHeader h : batch) {
+            analyses.add(analysisPool.submit(() -> analyze(h.getID(), h.getHeight(), limit, snapshot)));
+        }
+        List<PrunedBlock> pruned = new ArrayList<>();
+        for (Future<PrunedBlock> analysis : analyses) {
+            try {
+                PrunedBlock block = analysis.get();
+                if (block != null) {
+                    pruned.add(block);
+                }
+            } catch (ExecutionException e) {
+                log.warn("Error while pruning: {}", e.getCause().getMessage());
+            }
+        }
+        blocksAnalyzed.addAndGet(batch.size());
+        analysisTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+        if (!pruned.isEmpty()) {
+            write(pruned, limit, snapshot);
+        }
+    }
+
+    private void write(List<PrunedBlock> pruned, int limit, Trunk snapshot) {
+        List<StoredBlock> blocks = new ArrayList<>(pruned.size());
+        int prunedCount = 0;
+        for (PrunedBlock p : pruned) {
+            blocks.add(p.block);
+            prunedCount += p.prunedCount;
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            lock.writeLock().lock();
+            if (trunk.size() <= limit || !trunk.get(limit).getID().equals(snapshot.get(limit).getID())) {
+                log.info("Trunk changed at or below pruning limit {}, discarding pruning of {} blocks", limit, pruned.size());
+                return;
+            }
+            persistentBlocks.updateBlocks(blocks);
+            blocksPruned.addAndGet(pruned.size());
+            transactionsPruned.addAndGet(prunedCount);
+        } catch (HyperLedgerException e) {
+            log.warn("Exception while writing {} pruned blocks: {}", pruned.size(), e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            writeTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Prune a single block against the current trunk, as the standalone pruner does.
+     */
+    void pruneBlock(BID id, int limit) throws HyperLedgerException {
+        Trunk snapshot;
+        int height;
+        try {
+            lock.readLock().lock();
+            snapshot = trunk.snapshot(limit + 1);
+            height = headers.get(id).getHeight();
+        } finally {
+            lock.readLock().unlock();
+        }
+        PrunedBlock block = analyze(id, height, limit, snapshot);
+        if (block != null) {
+            write(Collections.singletonList(block), Math.min(limit, snapshot.size() - 1), snapshot);
+        }
+    }
+
+    /**
+     * @return the block with prunable transactions replaced by pruned nodes, null if nothing to prune
+     */
+    private PrunedBlock analyze(BID id, int height, int limit, BlockStore.TrunkFilter snapshot) throws HyperLedgerException {
+        if (height > limit) {
+            return null;
+        }
+        StoredBlock block = persistentBlocks.readBlock(id);
+        if (block == null) {
+            return null;
+        }
+        List<MerkleTreeNode> nodes = new ArrayList<>();
+        int prunedCount = 0;
+        for (MerkleTreeNode n : block.getMerkleTreeNodes()) {
+            if (!(n instanceof PrunedNode) && isPrunableThroughHops((Transaction) n, limit, 2, snapshot)) {
+                log.debug("Pruning transaction {} in block {} at height {} (with limit {})", n.getID(), id, height, limit);
+                nodes.add(new PrunedNode(n.getID(), 0));
+                prunedCount++;
+            } else {
+                nodes.add(n);
+            }
+        }
+        if (prunedCount == 0) {
+            return null;
+        }
+        StoredBlock prunedBlock = new StoredBlock(block.getHeader(), MerkleTree.compress(nodes));
+        if (!prunedBlock.getMerkleRoot().equals(block.getMerkleRoot())) {
+            log.error("Merkle root mismatch between pruned and original block {} at height {}. Keeping the original block", id, height);
+            return null;
+        }
+        log.debug("Pruned {} transactions out of {} in block {} at height {} (with limit {})", prunedCount,
+                block.getMerkleTreeNodes().size(), id, height, limit);
+        return new PrunedBlock(prunedBlock, prunedCount);
+    }
+
+    // only those transactions can be pruned which spending transaction's spending transaction's containing
+    // block's hight is below the  checkHeightLimit.
+    private boolean isPrunableThroughHops(Transaction t, int checkHeightLimit, int hopCount, BlockStore.TrunkFilter snapshot) throws HyperLedgerException {
+        for (Coin coin : t.getCoins()) {
+            StoredTransaction spendingTransaction = oneOnTrunk(persistentBlocks.getSpendingTransactions(coin.getOutpoint()), snapshot);
+            if (spendingTransaction == null || getMaxHeightOfContainingBlocks(spendingTransaction) > checkHeightLimit) {
+                return false;
+            }
+            if (hopCount > 1) {
+                if (!isPrunableThroughHops(spendingTransaction, checkHeightLimit, hopCount - 1, snapshot)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // the header store, also behind the trunk snapshot, is read under the lock as ingestion writes it
+    private StoredTransaction oneOnTrunk(Set<StoredTransaction> ts, BlockStore.TrunkFilter snapshot) {
+        try {
+            lock.readLock().lock();
+            for (StoredTransaction t : ts) {
+                for (BID b : t.getBlocks()) {
+                    if (snapshot.contains(b)) {
+                        return t;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int getMaxHeightOfContainingBlocks(StoredTransaction t) throws HyperLedgerException {
+        int maxHeight = -1;
+        try {
+            lock.readLock().lock();
+            for (BID blockId : t.getBlocks()) {
+                // heights from the header store, no database read per hop
+                int slot = headers.slotOf(blockId);
+                maxHeight = Math.max(maxHeight, slot >= 0 ? headers.height(slot) : persistentBlocks.readHeader(blockId).getHeight());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return maxHeight;
+    }
+}
@@ -15,8 +15,10 @@ package org.hyperledger.core;
 
 import org.hyperledger.common.*;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 public interface BlockStore {
 
@@ -52,24 +54,99 @@ public interface BlockStore {
 
     boolean hasTransaction(TID hash) throws HyperLedgerException;
 
+    /**
+     * Check filters of transactions that were recently rejected or confirmed, without reading the store.
+     * False positives are possible, though rare.
+     *
+     * @param hash transaction ID
+     * @return true if the transaction was recently rejected or confirmed
+     */
+    boolean isRecentlyRejectedOrConfirmed(TID hash);
+
+    /**
+     * Batched existence check, e.g. for the content of an inv message. Blocks are answered from the headers
+     * held in memory, transactions from the mempool, only the remaining ones are looked up in the store.
+     *
+     * @param ids block (BID) and transaction (TID) ids
+     * @return the ids of stored blocks and of stored or mempool transactions
+     * @throws HyperLedgerException if the store can not be read
+     */
+    Set<Hash> filterKnown(Collection<? extends Hash> ids) throws HyperLedgerException;
+
     ValidatedTransaction getTransaction(TID hash) throws HyperLedgerException;
 
     BID getTrunkBlockID(Transaction t);
 
     List<BID> getMissingBlocks(int max);
 
+    /**
+     * Stored blocks on the trunk following a block, read by height.
+     *
+     * @param after a stored block on the trunk
+     * @param limit the number of blocks wanted
+     * @return ids of at most limit blocks in chain order, empty if after is not on the trunk
+     */
+    List<BID> getTrunkBlocksAfter(BID after, int limit);
+
     byte[] getMiscData(BID id);
 
     ValidatedTransaction addTransaction(Transaction t) throws HyperLedgerException;
 
     HeaderStoredInfo addHeader(Header b) throws HyperLedgerException;
 
+    /**
+     * Add headers in bulk. Proof of work and signatures of all headers are checked in parallel, then the headers
+     * extending the trunk are validated in order and stored with one trunk update. Headers already known are
+     * skipped, others are added one by one as with {@link #addHeader(Header)}.
+     *
+     * @param headers headers in chain order
+     * @return info on the headers stored, in order
+     * @throws HyperLedgerException at the first invalid header, the headers before it are stored
+     */
+    List<HeaderStoredInfo> addHeaders(List<? extends Header> headers) throws HyperLedgerException;
+
     boolean hasBlock(BID h) throws HyperLedgerException;
 
     BlockStoredInfo addBlock(Block block) throws HyperLedgerException;
 
     boolean validateBlock(final Block block) throws HyperLedgerException;
 
+    /**
+     * Read the inputs of a block in the background, so that they are in the database caches as the block
+     * is validated. Used to read ahead of the blocks being stored while downloading many.
+     *
+     * @param block a block to be added soon
+     */
+    void prefetchInputs(Block block);
+
+    /**
+     * Validate a block without storing it. The header of the block is added.
+     *
+     * @param block the block to validate
+     * @return the validated block to be committed with {@link #commitBlock(PreparedBlock)}
+     * @throws HyperLedgerException if the block is invalid
+     */
+    PreparedBlock prepareBlock(Block block) throws HyperLedgerException;
+
+    /**
+     * Store a prepared block. The block is validated again only if the chain tops moved since it was prepared.
+     *
+     * @param prepared a block returned by {@link #prepareBlock(Block)}
+     * @return info on the stored block
+     * @throws HyperLedgerException if the block is no longer valid or already stored
+     */
+    BlockStoredInfo commitBlock(PreparedBlock prepared) throws HyperLedgerException;
+
+    /**
+     * Store a block whose header was certified by consensus, such as a block with a quorum of PBFT commits.
+     * Checks the certificate vouches for, like script validation, are skipped.
+     *
+     * @param block the certified block
+     * @return info on the stored block
+     * @throws HyperLedgerException if the block is invalid
+     */
+    BlockStoredInfo addCertifiedBlock(Block block) throws HyperLedgerException;
+
     ValidatedTransaction addClientTransaction(Transaction t) throws HyperLedgerException;
 
     BlockStoredInfo addClientBlock(Block block) throws HyperLedgerException;
@@ -95,6 +172,27 @@ public interface BlockStore {
 
     List<ValidatedTransaction> scanUnconfirmedPool(Set<ByteVector> matchSet);
 
+    /**
+     * Find transactions in the mempool by id, only the matching ones are decoded.
+     *
+     * @param filter selects the transaction ids wanted
+     * @return matching mempool transactions in no particular order
+     */
+    List<ValidatedTransaction> getMempoolTransactions(Predicate<TID> filter);
+
+    /**
+     * @return ids of mempool transactions, highest fee first but parents before their children, none decoded
+     */
+    List<TID> getMempoolOrder();
+
+    /**
+     * Decode mempool transactions by id, as they are consumed in the order of {@link #getMempoolOrder()}.
+     *
+     * @param ids transaction ids
+     * @return the transactions in the order of ids, those no longer in the mempool are left out
+     */
+    List<ValidatedTransaction> getMempoolTransactionsInOrder(List<TID> ids);
+
     List<StoredTransaction> filterTransactions(Set<ByteVector> matchSet)
             throws HyperLedgerException;
 
@@ -102,8 +200,16 @@ public interface BlockStore {
 
     void removeBlockListener(BlockListener listener);
 
+    void addTransactionListener(TransactionListener listener);
+
+    void removeTransactionListener(TransactionListener listener);
+
     interface BlockListener {
         void blockStored(BlockStoredInfo content);
     }
 
+    interface TransactionListener {
+        void transactionAdded(ValidatedTransaction transaction);
+    }
+
 }
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.common.*;
+import org.hyperledger.model.LevelDBStore;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * What connecting a block changed: the transactions it confirmed with the outpoints they spent and created.
+ * Stored with the block, so a reorganization knows what to undo without reading the transactions.
+ */
+public class BlockUndo {
+    public static class TransactionUndo {
+        private final TID id;
+        private final List<Outpoint> spent;
+        private final int outputCount;
+
+        public TransactionUndo(TID id, List<Outpoint> spent, int outputCount) {
+            this.id = id;
+            this.spent = spent;
+            this.outputCount = outputCount;
+        }
+
+        public static TransactionUndo create(Transaction t) {
+            List<Outpoint> spent = new ArrayList<>(t.getInputs().size());
+            if (!t.isCoinBase()) {
+                for (TransactionInput in : t.getInputs()) {
+                    spent.add(in.getSource());
+                }
+            }
+            return new TransactionUndo(t.getID(), spent, t.getOutputs().size());
+        }
+
+        public TID getID() {
+            return id;
+        }
+
+        /**
+         * @return outpoints spent, empty for a coinbase
+         */
+        public List<Outpoint> getSpent() {
+            return spent;
+        }
+
+        /**
+         * @return number of outpoints created
+         */
+        public int getOutputCount() {
+            return outputCount;
+        }
+    }
+
+    private final List<TransactionUndo> transactions;
+
+    public BlockUndo(List<TransactionUndo> transactions) {
+        this.transactions = transactions;
+    }
+
+    public static BlockUndo create(Block block) {
+        List<TransactionUndo> transactions = new ArrayList<>(block.getTransactions().size());
+        for (Transaction t : block.getTransactions()) {
+            transactions.add(TransactionUndo.create(t));
+        }
+        return new BlockUndo(transactions);
+    }
+
+    /**
+     * @return transactions in block order, the first is the coinbase
+     */
+    public List<TransactionUndo> getTransactions() {
+        return transactions;
+    }
+
+    public List<TID> getTransactionIDs() {
+        List<TID> ids = new ArrayList<>(transactions.size());
+        for (TransactionUndo t : transactions) {
+            ids.add(t.getID());
+        }
+        return ids;
+    }
+
+    public Set<Outpoint> getSpent() {
+        Set<Outpoint> spent = new HashSet<>();
+        for (TransactionUndo t : transactions) {
+            spent.addAll(t.getSpent());
+        }
+        return spent;
+    }
+
+    public byte[] toLevelDB() {
+        LevelDBStore.UNDO.Builder builder = LevelDBStore.UNDO.newBuilder();
+        for (TransactionUndo t : transactions) {
+            LevelDBStore.UNDO.TXUNDO.Builder tb = LevelDBStore.UNDO.TXUNDO.newBuilder();
+            tb.setHash(ByteString.copyFrom(t.getID().unsafeGetArray()));
+            for (Outpoint o : t.getSpent()) {
+                byte[] op = Arrays.copyOf(o.getTransactionId().unsafeGetArray(), 36);
+                ByteBuffer.wrap(op).putInt(32, o.getOutputIndex());
+                tb.addSpent(ByteString.copyFrom(op));
+            }
+            tb.setOutputs(t.getOutputCount());
+            builder.addTx(tb);
+        }
+        return builder.build().toByteArray();
+    }
+
+    public static BlockUndo fromLevelDB(byte[] data) throws HyperLedgerException {
+        try {
+            LevelDBStore.UNDO p = LevelDBStore.UNDO.parseFrom(data);
+            List<TransactionUndo> transactions = new ArrayList<>(p.getTxCount());
+            for (LevelDBStore.UNDO.TXUNDO t : p.getTxList()) {
+                List<Outpoint> spent = new ArrayList<>(t.getSpentCount());
+                for (ByteString s : t.getSpentList()) {
+                    byte[] op = s.toByteArray();
+                    spent.add(new Outpoint(TID.createFromSafeArray(Arrays.copyOf(op, 32)), ByteBuffer.wrap(op).getInt(32)));
+                }
+                transactions.add(new TransactionUndo(TID.createFromSafeArray(t.getHash().toByteArray()), spent, t.getOutputs()));
+            }
+            return new BlockUndo(transactions);
+        } catch (InvalidProtocolBufferException e) {
+            throw new HyperLedgerException(e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.RateLimiter;
+import org.hyperledger.common.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reads what is likely needed first into the caches after a start, in the background and with a bound of
+ * database reads per second.
+ * <p>
+ * The top blocks of the trunk are read oldest first and handed over for the coin cache, the index entries of
+ * their output scripts are read for the database cache. Then the transactions clients queried last before the
+ * previous stop are read for the database cache.
+ */
+class CacheWarmer {
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+    private final PersistentBlocks persistentBlocks;
+    private final WarmUpSettings settings;
+
+    // ids of transactions recently queried, in access order
+    private final Map<TID, Boolean> recentTransactions;
+
+    private Thread thread;
+    private volatile int steps;
+    private final AtomicInteger stepsDone = new AtomicInteger();
+    private final AtomicLong reads = new AtomicLong();
+    private volatile long time;
+    private volatile boolean complete;
+
+    CacheWarmer(PersistentBlocks persistentBlocks, WarmUpSettings settings) {
+        this.persistentBlocks = persistentBlocks;
+        this.settings = settings;
+        this.recentTransactions = new LinkedHashMap<TID, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TID, Boolean> eldest) {
+                return size() > settings.recentTransactions;
+            }
+        };
+    }
+
+    /**
+     * @param top        ids of the top blocks of the trunk, oldest first
+     * @param coinLoader receives the blocks read, oldest first
+     */
+    void start(List<BID> top, Consumer<List<StoredBlock>> coinLoader) {
+        List<TID> recent = readRecentTransactions();
+        steps = top.size() + recent.size();
+        thread = new Thread(() -> run(top, recent, coinLoader));
+        thread.setDaemon(true);
+        thread.setName("warm-up");
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+        writeRecentTransactions();
+    }
+
+    /**
+     * Called as a client queried a stored transaction.
+     */
+    void queried(TID id) {
+        synchronized (recentTransactions) {
+            recentTransactions.put(id, Boolean.TRUE);
+        }
+    }
+
+    WarmUpStatistics getStatistics() {
+        return new WarmUpStatistics(steps, stepsDone.get(), reads.get(), time, complete);
+    }
+
+    private void run(List<BID> top, List<TID> recent, Consumer<List<StoredBlock>> coinLoader) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        RateLimiter limiter = settings.maxReadsPerSecond > 0 ? RateLimiter.create(settings.maxReadsPerSecond) : null;
+        try {
+            List<StoredBlock> blocks = new ArrayList<>(top.size());
+            for (BID id : top) {
+                StoredBlock block = persistentBlocks.readBlock(id);
+                read(limiter, block == null ? 1 : 1 + block.getTransactions().size());
+                if (block != null) {
+                    blocks.add(block);
+                    for (Transaction t : block.getTransactions()) {
+                        for (TransactionOutput o : t.getOutputs()) {
+                            persistentBlocks.probablyHadTransactionsWithOutput(o.getScript());
+                            read(limiter, 1);
+                        }
+                    }
+                }
+                stepsDone.incrementAndGet();
+            }
+            coinLoader.accept(blocks);
+
+            for (TID id : recent) {
+                persistentBlocks.readTransaction(id);
+                read(limiter, 1);
+                stepsDone.incrementAndGet();
+            }
+            time = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            complete = true;
+            log.info("Warm-up {}", getStatistics());
+        } catch (InterruptedException e) {
+            log.info("Warm-up stopped");
+        } catch (HyperLedgerException | RuntimeException e) {
+            // a cold cache is only slower, do not hold up the server for it
+            time = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            complete = true;
+            log.warn("Warm-up failed, continuing with cold caches: {}", e.getMessage());
+        }
+    }
+
+    private void read(RateLimiter limiter, int count) throws InterruptedException {
+        reads.addAndGet(count);
+        if (limiter != null) {
+            limiter.acquire(count);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private List<TID> readRecentTransactions() {
+        File file = settings.recentTransactionsFile;
+        List<TID> recent = new ArrayList<>();
+        if (file == null || !file.exists()) {
+            return recent;
+        }
+        try {
+            ByteBuffer ids = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            while (ids.remaining() >= 32 && recent.size() < settings.recentTransactions) {
+                byte[] id = new byte[32];
+                ids.get(id);
+                recent.add(TID.createFromSafeArray(id));
+            }
+        } catch (IOException e) {
+            log.warn("Can not read recently queried transactions {}: {}", file, e.getMessage());
+        }
+        // still recent at the next stop unless displaced by new queries
+        for (int i = recent.size() - 1; i >= 0; --i) {
+            queried(recent.get(i));
+        }
+        return recent;
+    }
+
+    private void writeRecentTransactions() {
+        File file = settings.recentTransactionsFile;
+        if (file == null) {
+            return;
+        }
+        List<TID> recent;
+        synchronized (recentTransactions) {
+            recent = new ArrayList<>(recentTransactions.keySet());
+        }
+        // the most recent first, so that they are read first
+        Collections.reverse(recent);
+        ByteBuffer ids = ByteBuffer.allocate(32 * recent.size());
+        for (TID id : recent) {
+            ids.put(id.unsafeGetArray());
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), ids.array());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Can not write recently queried transactions {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Accumulated work of a chain, an unsigned 256 bit integer in four longs.
+ * <p>
+ * Adding and comparing works on the longs, so the work of a new header is computed and compared without
+ * BigInteger arithmetic. Immutable.
+ */
+public final class ChainWork implements Comparable<ChainWork> {
+    public static final int BYTES = 32;
+
+    public static final ChainWork ZERO = new ChainWork(0, 0, 0, 0);
+    public static final ChainWork ONE = new ChainWork(0, 0, 0, 1);
+
+    // w3 is the most significant
+    private final long w3;
+    private final long w2;
+    private final long w1;
+    private final long w0;
+
+    private ChainWork(long w3, long w2, long w1, long w0) {
+        this.w3 = w3;
+        this.w2 = w2;
+        this.w1 = w1;
+        this.w0 = w0;
+    }
+
+    public static ChainWork valueOf(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("chain work can not be negative");
+        }
+        return new ChainWork(0, 0, 0, value);
+    }
+
+    public static ChainWork valueOf(BigInteger value) {
+        if (value.signum() < 0 || value.bitLength() > 256) {
+            throw new IllegalArgumentException("chain work out of range " + value);
+        }
+        return new ChainWork(value.shiftRight(192).longValue(), value.shiftRight(128).longValue(),
+                value.shiftRight(64).longValue(), value.longValue());
+    }
+
+    /**
+     * Chain work of headers stored before it was kept exact, rounded.
+     */
+    public static ChainWork valueOf(double value) {
+        return valueOf(new BigDecimal(value).toBigInteger());
+    }
+
+    /**
+     * @param bytes 32 bytes big endian
+     */
+    public static ChainWork fromByteArray(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("chain work must be " + BYTES + " bytes");
+        }
+        return read(ByteBuffer.wrap(bytes), 0);
+    }
+
+    /**
+     * @return 32 bytes big endian
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[BYTES];
+        write(ByteBuffer.wrap(bytes), 0);
+        return bytes;
+    }
+
+    public static ChainWork read(ByteBuffer buffer, int offset) {
+        return new ChainWork(buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+                buffer.getLong(offset + 24));
+    }
+
+    public void write(ByteBuffer buffer, int offset) {
+        buffer.putLong(offset, w3);
+        buffer.putLong(offset + 8, w2);
+        buffer.putLong(offset + 16, w1);
+        buffer.putLong(offset + 24, w0);
+    }
+
+    /**
+     * @return the sum, modulo 2^256
+     */
+    public ChainWork add(ChainWork other) {
+        long r0 = w0 + other.w0;
+        long carry = Long.compareUnsigned(r0, w0) < 0 ? 1 : 0;
+        long r1 = w1 + other.w1 + carry;
+        carry = Long.compareUnsigned(r1, w1) < 0 || (carry != 0 && r1 == w1) ? 1 : 0;
+        long r2 = w2 + other.w2 + carry;
+        carry = Long.compareUnsigned(r2, w2) < 0 || (carry != 0 && r2 == w2) ? 1 : 0;
+        long r3 = w3 + other.w3 + carry;
+        return new ChainWork(r3, r2, r1, r0);
+    }
+
+    @Override
+    public int compareTo(ChainWork other) {
+        if (w3 != other.w3) {
+            return Long.compareUnsigned(w3, other.w3);
+        }
+        if (w2 != other.w2) {
+            return Long.compareUnsigned(w2, other.w2);
+        }
+        if (w1 != other.w1) {
+            return Long.compareUnsigned(w1, other.w1);
+        }
+        return Long.compareUnsigned(w0, other.w0);
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toByteArray());
+    }
+
+    public double doubleValue() {
+        return toBigInteger().doubleValue();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ChainWork)) {
+            return false;
+        }
+        ChainWork other = (ChainWork) o;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Long.hashCode(w3);
+        h = 31 * h + Long.hashCode(w2);
+        h = 31 * h + Long.hashCode(w1);
+        return 31 * h + Long.hashCode(w0);
+    }
+
+    @Override
+    public String toString() {
+        return toBigInteger().toString();
+    }
+}
@@ -0,0 +1,406 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The headers of the block tree packed into fixed size slots outside of the Java heap.
+ * <p>
+ * A slot holds the id, the fields of the 80 byte bitcoin header, height, chain work, flags and the slots of
+ * the previous header and of a skip ancestor (see {@link #skipHeight(int)}). Ids are resolved to slots by an
+ * open addressing table of slot numbers. {@link StoredHeader} objects are views created on demand.
+ * Headers with signatures do not fit into a slot, their full header is also kept on the heap, so a chain of
+ * signed headers takes no less heap than with plain header objects, only the index and links are compact.
+ * <p>
+ * Headers are never removed. Writes must be guarded by the lock of the block store.
+ */
+class CompactHeaderStore extends AbstractMap<BID, StoredHeader> {
+    // slot layout
+    private static final int ID = 0;
+    private static final int VERSION = 32;
+    private static final int PREVIOUS_ID = 36;
+    private static final int MERKLE_ROOT = 68;
+    private static final int CREATE_TIME = 100;
+    private static final int DIFFICULTY = 104;
+    private static final int NONCE = 108;
+    private static final int HEIGHT = 112;
+    private static final int CHAIN_WORK = 116;
+    private static final int FLAGS = 148;
+    private static final int PREVIOUS = 152;
+    private static final int SKIP = 156;
+    static final int SLOT_SIZE = 160;
+
+    private static final int FLAG_EXTENDED = 1;
+
+    private static final int CHUNK_BITS = 15;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_BITS;
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile int size;
+
+    // slot + 1 of each id, 0 marks an empty entry
+    private volatile int[] index = new int[1 << 10];
+
+    // full headers of slots flagged extended, put before the slot is published as views are read without lock
+    private final Map<Integer, Header> extended = new ConcurrentHashMap<>();
+
+    private final EntrySet entrySet = new EntrySet();
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Hash && slotOf((Hash) key) >= 0;
+    }
+
+    @Override
+    public StoredHeader get(Object key) {
+        if (!(key instanceof Hash)) {
+            return null;
+        }
+        int slot = slotOf((Hash) key);
+        return slot >= 0 ? view(slot) : null;
+    }
+
+    /**
+     * Store a header. The header is linked to its previous if that is already stored.
+     * Storing a known id updates height and chain work only.
+     *
+     * @return the view of the header replaced, null if new
+     */
+    @Override
+    public StoredHeader put(BID id, StoredHeader header) {
+        int slot = slotOf(id);
+        if (slot >= 0) {
+            StoredHeader replaced = view(slot);
+            ByteBuffer chunk = chunk(slot);
+            int offset = offset(slot);
+            chunk.putInt(offset + HEIGHT, header.getHeight());
+            header.getChainWork().write(chunk, offset + CHAIN_WORK);
+            header.attach(this, slot, id);
+            return replaced;
+        }
+        slot = allocate();
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        putHash(chunk, offset + ID, id);
+        chunk.putInt(offset + VERSION, header.getVersion());
+        putHash(chunk, offset + PREVIOUS_ID, header.getPreviousID());
+        putHash(chunk, offset + MERKLE_ROOT, header.getMerkleRoot());
+        chunk.putInt(offset + CREATE_TIME, header.getCreateTime());
+        chunk.putInt(offset + DIFFICULTY, header.getEncodedDifficulty());
+        chunk.putInt(offset + NONCE, header.getNonce());
+        chunk.putInt(offset + HEIGHT, header.getHeight());
+        header.getChainWork().write(chunk, offset + CHAIN_WORK);
+        int flags = 0;
+        Header full = header.getHeader();
+        while (full instanceof ValidatedHeader) {
+            full = ((ValidatedHeader) full).getHeader();
+        }
+        if (full.getClass() != BitcoinHeader.class) {
+            extended.put(slot, full);
+            flags |= FLAG_EXTENDED;
+        }
+        chunk.putInt(offset + FLAGS, flags);
+        link(slot);
+        publish(id.unsafeGetArray(), slot);
+        header.attach(this, slot, id);
+        return null;
+    }
+
+    /**
+     * Store a slot as copied by {@link #copySlot(int, ByteBuffer)}, consuming its bytes from the source.
+     * Links are not set, call {@link #relink()} once all slots are stored.
+     *
+     * @param extendedHeader the full header if the slot is flagged extended
+     * @return false if the id was already stored
+     */
+    boolean putSlot(ByteBuffer source, Header extendedHeader) {
+        byte[] id = getHash(source, source.position() + ID);
+        if (slotOf(id) >= 0) {
+            source.position(source.position() + SLOT_SIZE);
+            return false;
+        }
+        int slot = allocate();
+        int offset = offset(slot);
+        ByteBuffer slice = source.duplicate();
+        slice.limit(source.position() + SLOT_SIZE);
+        ByteBuffer target = chunk(slot).duplicate();
+        target.position(offset);
+        target.put(slice);
+        source.position(source.position() + SLOT_SIZE);
+
+        ByteBuffer chunk = chunk(slot);
+        chunk.putInt(offset + PREVIOUS, -1);
+        chunk.putInt(offset + SKIP, -1);
+        if ((chunk.getInt(offset + FLAGS) & FLAG_EXTENDED) != 0) {
+            if (extendedHeader == null) {
+                throw new IllegalArgumentException("Extended slot without header");
+            }
+            extended.put(slot, extendedHeader);
+        }
+        publish(id, slot);
+        return true;
+    }
+
+    /**
+     * Copy the bytes of a slot to the target, advancing its position by {@link #SLOT_SIZE}.
+     *
+     * @return the full header if the slot is flagged extended, null otherwise
+     */
+    Header copySlot(int slot, ByteBuffer target) {
+        ByteBuffer source = chunk(slot).duplicate();
+        int offset = offset(slot);
+        source.position(offset);
+        source.limit(offset + SLOT_SIZE);
+        target.put(source);
+        return extended.get(slot);
+    }
+
+    private int allocate() {
+        int slot = size;
+        if (slot >> CHUNK_BITS >= chunks.length) {
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT_SIZE);
+            chunks = grown;
+        }
+        return slot;
+    }
+
+    private void publish(byte[] id, int slot) {
+        if ((size + 1) * 2 > index.length) {
+            rehash(index.length * 2);
+        }
+        insert(index, id, slot);
+        size = slot + 1;
+    }
+
+    /**
+     * Link all headers to their previous. Needed after headers were stored in an order other than
+     * previous before next, as when read from the database.
+     */
+    void relink() {
+        long[] byHeight = new long[size];
+        for (int slot = 0; slot < size; ++slot) {
+            byHeight[slot] = ((long) height(slot) << 32) | slot;
+        }
+        Arrays.sort(byHeight);
+        for (long entry : byHeight) {
+            link((int) entry);
+        }
+    }
+
+    private void link(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        int previous = slotOf(getHash(chunk, offset + PREVIOUS_ID));
+        chunk.putInt(offset + PREVIOUS, previous);
+        chunk.putInt(offset + SKIP, previous >= 0 ? ancestorSlot(previous, skipHeight(height(slot))) : -1);
+    }
+
+    int slotOf(Hash id) {
+        return slotOf(id.unsafeGetArray());
+    }
+
+    private int slotOf(byte[] id) {
+        int[] index = this.index;
+        long[] key = keyOf(id);
+        int mask = index.length - 1;
+        for (int i = hash(key) & mask; index[i] != 0; i = (i + 1) & mask) {
+            int slot = index[i] - 1;
+            if (matches(slot, key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    int height(int slot) {
+        return chunk(slot).getInt(offset(slot) + HEIGHT);
+    }
+
+    int previousSlot(int slot) {
+        return chunk(slot).getInt(offset(slot) + PREVIOUS);
+    }
+
+    /**
+     * Find the ancestor at a height in O(log n) steps following skip links.
+     *
+     * @return the slot of the ancestor, -1 if out of range or not linked
+     */
+    int ancestorSlot(int slot, int height) {
+        int walkHeight = height(slot);
+        if (height > walkHeight || height < 0) {
+            return -1;
+        }
+        int walk = slot;
+        while (walk >= 0 && walkHeight > height) {
+            int heightSkip = skipHeight(walkHeight);
+            int heightSkipPrev = skipHeight(walkHeight - 1);
+            int skip = chunk(walk).getInt(offset(walk) + SKIP);
+            // take the skip unless the skip of the previous gets closer without overshooting
+            if (skip >= 0 && (heightSkip == height ||
+                    (heightSkip > height && !(heightSkipPrev < heightSkip - 2 && heightSkipPrev >= height)))) {
+                walk = skip;
+                walkHeight = heightSkip;
+            } else {
+                walk = previousSlot(walk);
+                --walkHeight;
+            }
+        }
+        return walk;
+    }
+
+    /**
+     * The height a header's skip link points to. Chosen so any ancestor is reachable in logarithmic steps
+     * and nearby heights share skip targets, as pskip of bitcoind.
+     */
+    static int skipHeight(int height) {
+        if (height < 2) {
+            return 0;
+        }
+        return (height & 1) != 0 ? clearLowestBit(clearLowestBit(height - 1)) + 1 : clearLowestBit(height);
+    }
+
+    private static int clearLowestBit(int n) {
+        return n & (n - 1);
+    }
+
+    @SuppressWarnings("deprecation")
+    StoredHeader view(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        Header header;
+        if ((chunk.getInt(offset + FLAGS) & FLAG_EXTENDED) != 0) {
+            header = extended.get(slot);
+        } else {
+            header = BitcoinHeader.create()
+                    .version(chunk.getInt(offset + VERSION))
+                    .previousID(BID.createFromSafeArray(getHash(chunk, offset + PREVIOUS_ID)))
+                    .merkleRoot(MerkleRoot.createFromSafeArray(getHash(chunk, offset + MERKLE_ROOT)))
+                    .createTime(chunk.getInt(offset + CREATE_TIME))
+                    .difficultyTarget(chunk.getInt(offset + DIFFICULTY))
+                    .nonce(chunk.getInt(offset + NONCE)).build();
+        }
+        StoredHeader view = new StoredHeader(header, ChainWork.read(chunk, offset + CHAIN_WORK), chunk.getInt(offset + HEIGHT));
+        view.attach(this, slot, BID.createFromSafeArray(getHash(chunk, offset + ID)));
+        return view;
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks[slot >>> CHUNK_BITS];
+    }
+
+    private static int offset(int slot) {
+        return (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+    }
+
+    private static void putHash(ByteBuffer chunk, int offset, Hash hash) {
+        byte[] bytes = hash.unsafeGetArray();
+        for (int i = 0; i < 32; ++i) {
+            chunk.put(offset + i, bytes[i]);
+        }
+    }
+
+    private static byte[] getHash(ByteBuffer chunk, int offset) {
+        byte[] bytes = new byte[32];
+        ByteBuffer target = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < 32; i += 8) {
+            target.putLong(i, chunk.getLong(offset + i));
+        }
+        return bytes;
+    }
+
+    private static long[] keyOf(byte[] id) {
+        ByteBuffer bytes = ByteBuffer.wrap(id);
+        return new long[]{bytes.getLong(0), bytes.getLong(8), bytes.getLong(16), bytes.getLong(24)};
+    }
+
+    private boolean matches(int slot, long[] key) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot) + ID;
+        for (int i = 0; i < 4; ++i) {
+            if (chunk.getLong(offset + 8 * i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(long[] key) {
+        long h = key[0] ^ key[1] * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 29);
+    }
+
+    private void insert(int[] index, byte[] id, int slot) {
+        int mask = index.length - 1;
+        int i = hash(keyOf(id)) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] grown = new int[capacity];
+        for (int slot = 0; slot < size; ++slot) {
+            insert(grown, getHash(chunk(slot), offset(slot) + ID), slot);
+        }
+        index = grown;
+    }
+
+    @Override
+    public Set<Entry<BID, StoredHeader>> entrySet() {
+        return entrySet;
+    }
+
+    private class EntrySet extends AbstractSet<Entry<BID, StoredHeader>> {
+        @Override
+        public Iterator<Entry<BID, StoredHeader>> iterator() {
+            return new Iterator<Entry<BID, StoredHeader>>() {
+                private final int end = size;
+                private int slot = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return slot < end;
+                }
+
+                @Override
+                public Entry<BID, StoredHeader> next() {
+                    if (slot >= end) {
+                        throw new NoSuchElementException();
+                    }
+                    StoredHeader header = view(slot++);
+                    return new SimpleImmutableEntry<>(header.getID(), header);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
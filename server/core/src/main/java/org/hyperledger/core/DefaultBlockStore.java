@@ -14,6 +14,7 @@
 package org.hyperledger.core;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.hyperledger.common.*;
 import org.hyperledger.core.bitcoin.BitcoinBlockStore;
 import org.hyperledger.core.bitcoin.BitcoinValidatorFactory;
@@ -22,9 +23,13 @@ import org.hyperledger.core.signed.BlockSignatureConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -52,7 +57,8 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     // not call another method that uses the executor.
     private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final List<BlockListener> blockListeners = new ArrayList<>();
-    private int heightAtPrevPruning = 0;
+    // called from addTransaction which may run on several threads at once
+    private final List<TransactionListener> transactionListeners = new CopyOnWriteArrayList<>();
 
     private abstract static class PrioritizedOrderedCallable<T> implements Callable<T> {
         public final int order;
@@ -123,16 +129,16 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     private final Mempool mempool = new Mempool();
 
     // This is the map of block header kept in memory all time for
-    // the entire chain
-    private final Map<BID, StoredHeader> headers = new HashMap<>();
+    // the entire chain, packed off heap
+    private final CompactHeaderStore headers = new CompactHeaderStore();
 
-    // The set of block headers (a subset of above) that are along
-    // the trunk (the longes chain in the tree of blocks)
-    private final Set<BID> trunk = new HashSet<>();
+    // The block headers (a subset of above) that are along
+    // the trunk (the longes chain in the tree of blocks), indexed by height
+    private final Trunk trunk = new Trunk(headers);
 
-    // This is an ordered representation of the above trunk set
-    // useful for quick traversal first is highest block, last is genesis
-    final LinkedList<StoredHeader> trunkList = new LinkedList<>();
+    // headers as stored, for a fast start. Null if none is kept
+    private HeaderSnapshot headerSnapshot;
+    private volatile StartupStatistics startupStatistics;
 
     // id of the highest known header and block
     // this has to be volatile as read-write lock does not
@@ -140,8 +146,28 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     private volatile Tops tops = new Tops(null, null);
 
     private final PrunerSettings prunerSettings;
+    private final BlockPruner pruner;
     private final BlockSignatureConfig blockSignatureConfig;
 
+    // While catching up, consecutive blocks are written as one group of the persistent store,
+    // committed as bounded by size and time or as the store is no longer downloading.
+    // Client events of the blocks of a group are sent once it is committed. Used by the single threaded executor.
+    private final GroupCommitSettings groupCommitSettings;
+    private boolean inGroup;
+    private long groupStarted;
+    private int groupBlocks;
+    private final List<ClientEventQueue.BlockAdded> pendingBlockEvents = new ArrayList<>();
+    // header log positions of the blocks of the group, appended to the header snapshot once it is committed
+    private final Map<BID, Integer> pendingSnapshot = new LinkedHashMap<>();
+    private final WarmUpSettings warmUpSettings;
+    private final CacheWarmer warmer;
+
+    // spares database lookups of transactions not stored
+    private final StoredTransactionFilter storedTransactions;
+
+    private final ScheduledExecutorService groupTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("group-commit").setDaemon(true).build());
+
     // UTXO cache of unspent coins that were already stored in blocks.
     // The coins are guaranteed unspent, but here is no guarantee that they are along a trunk,
     // further check is needed after retrieval with isOnTrunk.
@@ -173,18 +199,30 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
 
     private final CoinCache coinCache = new CoinCache();
 
+    // Transactions recently rejected with all inputs found and transactions recently confirmed on the trunk.
+    // Peers and clients re-send these, checking the filters avoids reads and validation for them.
+    // A new top may make a rejected transaction valid and a reorg unconfirm, so they are reset there.
+    private static final int RECENT_FILTER_CAPACITY = 50000;
+    private final RollingBloomFilter recentlyRejected = new RollingBloomFilter(RECENT_FILTER_CAPACITY, 0.000001);
+    private final RollingBloomFilter recentlyConfirmed = new RollingBloomFilter(RECENT_FILTER_CAPACITY, 0.000001);
+
     // A thread pool used to parallel read of spent coins if not found in cache or mempool
     private final ExecutorService readerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
+    // Reads inputs of blocks about to be added, apart from the reader pool so that it does not delay validation
+    private final ExecutorService prefetchPool = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            new ThreadFactoryBuilder().setNameFormat("prefetch-%d").setDaemon(true).build());
+
 
     // helper class for a potentially different view of the trunk set
     // while validating on a branch of the block tree
     private static class DeltaHashSet implements TrunkFilter {
-        private final Set<BID> original;
+        private final TrunkFilter original;
         private final Set<BID> added;
         private final Set<BID> removed;
 
-        public DeltaHashSet(Set<BID> original) {
+        public DeltaHashSet(TrunkFilter original) {
             this.original = original;
             added = new HashSet<>();
             removed = new HashSet<>();
@@ -289,12 +327,40 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
                              ClientEventQueue clientEventQueue,
                              PrunerSettings prunerSettings,
                              BlockSignatureConfig blockSignatureConfig) {
+        this(validatorChain, persistentBlocks, outbox, clientEventQueue, prunerSettings, blockSignatureConfig,
+                GroupCommitSettings.NO_GROUPING);
+    }
+
+    public DefaultBlockStore(ValidatorChain validatorChain,
+                             PersistentBlocks persistentBlocks,
+                             CoreOutbox outbox,
+                             ClientEventQueue clientEventQueue,
+                             PrunerSettings prunerSettings,
+                             BlockSignatureConfig blockSignatureConfig,
+                             GroupCommitSettings groupCommitSettings) {
+        this(validatorChain, persistentBlocks, outbox, clientEventQueue, prunerSettings, blockSignatureConfig,
+                groupCommitSettings, WarmUpSettings.NO_WARM_UP);
+    }
+
+    public DefaultBlockStore(ValidatorChain validatorChain,
+                             PersistentBlocks persistentBlocks,
+                             CoreOutbox outbox,
+                             ClientEventQueue clientEventQueue,
+                             PrunerSettings prunerSettings,
+                             BlockSignatureConfig blockSignatureConfig,
+                             GroupCommitSettings groupCommitSettings,
+                             WarmUpSettings warmUpSettings) {
         this.persistentBlocks = persistentBlocks;
         this.validatorChain = validatorChain;
         this.outbox = outbox;
         this.clientEventQueue = clientEventQueue;
         this.prunerSettings = prunerSettings;
         this.blockSignatureConfig = blockSignatureConfig;
+        this.groupCommitSettings = groupCommitSettings;
+        this.warmUpSettings = warmUpSettings;
+        this.warmer = new CacheWarmer(persistentBlocks, warmUpSettings);
+        this.storedTransactions = new StoredTransactionFilter(persistentBlocks, readWriteLock);
+        this.pruner = new BlockPruner(persistentBlocks, headers, trunk, readWriteLock, prunerSettings);
     }
 
     @Override
@@ -306,15 +372,60 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     public void start() throws HyperLedgerException {
 
         initializePersistentBlocks();
+        storedTransactions.start();
 
         if (prunerSettings.enabled) {
-            setupPruning();
+            pruner.tipAdvanced(getFullHeight());
+            pruner.start();
+        }
+
+        if (warmUpSettings.enabled) {
+            startWarmUp();
         }
     }
 
+    private void startWarmUp() {
+        List<BID> top = new ArrayList<>();
+        BID fullTop;
+        try {
+            readWriteLock.readLock().lock();
+            fullTop = tops.fullTop;
+            int height = getFullHeight();
+            for (int h = Math.max(0, height - warmUpSettings.blocks + 1); h <= height; ++h) {
+                top.add(trunk.get(h).getID());
+            }
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+        warmer.start(top, blocks -> singleThreadedExecutor.submit(() -> {
+            // as storeBlock would have, unless blocks were stored since that could spend the coins
+            if (fullTop != null && fullTop.equals(tops.fullTop)) {
+                for (StoredBlock b : blocks) {
+                    for (StoredTransaction t : b.getTransactions()) {
+                        coinCache.add(t);
+                        for (TransactionInput in : t.getInputs()) {
+                            coinCache.remove(in.getSource());
+                        }
+                    }
+                }
+            } else {
+                log.info("Trunk advanced while warming up, coin cache is not preloaded");
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * @return progress of reading caches after start, complete if no warm-up is configured
+     */
+    public WarmUpStatistics getWarmUpStatistics() {
+        return warmUpSettings.enabled ? warmer.getStatistics() : WarmUpStatistics.COMPLETE;
+    }
+
     private void initializePersistentBlocks() throws HyperLedgerException {
         try {
             singleThreadedExecutor.submit(() -> {
+                Stopwatch started = Stopwatch.createStarted();
                 persistentBlocks.start();
                 try {
                     readWriteLock.writeLock().lock();
@@ -331,26 +442,7 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
                         addGenesisSingleThreaded(genesisBlock);
                     }
 
-                    log.info("Reading all block header...");
-                    // read in all headers
-                    persistentBlocks.readHeaders(headers);
-
-                    // find highest work
-                    StoredHeader last = null;
-                    for (StoredHeader b : headers.values()) {
-                        if (last == null || StoredHeader.compareHeaders(b, last) > 0)
-                            last = b;
-                    }
-                    // find trunk
-                    if (last != null) {
-                        log.info("Highest block is " + last.getID());
-                        tops = new Tops(last.getID(), last.getID());
-                        do {
-                            if (trunk.add(last.getID()))
-                                trunkList.addLast(last);
-                            last = headers.get(last.getPreviousID());
-                        } while (last != null);
-                    }
+                    readHeaders(started);
                 } finally {
                     readWriteLock.writeLock().unlock();
                 }
@@ -364,91 +456,159 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         }
     }
 
-    private void setupPruning() {
-        Thread pruningThread = new Thread(() -> {
-            while (true) {
-                CountDownLatch latch = null;
-                final int blockHeight;
-                try {
-                    readWriteLock.readLock().lock();
-                    blockHeight = headers.get(tops.fullTop).getHeight();
-                } finally {
-                    readWriteLock.readLock().unlock();
+    private void readHeaders(Stopwatch started) throws HyperLedgerException {
+        int logSize = persistentBlocks.getHeaderLogSize();
+        File snapshotFile = persistentBlocks.getHeaderSnapshotFile();
+        int logPosition = -1;
+
+        Stopwatch phase = Stopwatch.createStarted();
+        if (snapshotFile != null) {
+            log.info("Reading header snapshot {}...", snapshotFile);
+            headerSnapshot = new HeaderSnapshot(snapshotFile);
+            try {
+                logPosition = headerSnapshot.load(headers, logSize);
+            } catch (IOException | HyperLedgerException | RuntimeException e) {
+                // headers of the snapshot are all stored, those read are completed from the database
+                log.warn("Can not read header snapshot {}: {}", snapshotFile, e.getMessage());
+                logPosition = -1;
+            }
+            if (logPosition < 0 && snapshotFile.length() > 0) {
+                log.warn("Header snapshot {} is damaged or ahead of the database, it is rebuilt", snapshotFile);
+            }
+            if (logPosition >= 0 && headers.size() > 0 && !persistentBlocks.hasBlock(headers.view(headers.size() - 1).getID())) {
+                throw LoggedHyperLedgerException.loggedError(log, "Header snapshot " + snapshotFile +
+                        " does not belong to the database, remove it to rebuild");
+            }
+        }
+        int snapshotHeaders = headers.size();
+        long snapshotTime = phase.elapsed(TimeUnit.MILLISECONDS);
+
+        List<BID> logged = Collections.emptyList();
+        phase.reset().start();
+        if (logPosition >= 0) {
+            logged = persistentBlocks.readHeaderLog(logPosition);
+            readHeadersParallel(logged);
+        }
+        long logTime = phase.elapsed(TimeUnit.MILLISECONDS);
+
+        phase.reset().start();
+        if (logPosition < 0) {
+            log.info("Reading all block header...");
+            persistentBlocks.readHeaders(headers);
+        }
+        int databaseHeaders = logPosition < 0 ? headers.size() - snapshotHeaders : 0;
+        long databaseTime = phase.elapsed(TimeUnit.MILLISECONDS);
+
+        phase.reset().start();
+        // headers are read in no particular order
+        headers.relink();
+
+        // find highest work
+        StoredHeader last = null;
+        for (StoredHeader b : headers.values()) {
+            if (last == null || StoredHeader.compareHeaders(b, last) > 0)
+                last = b;
+        }
+        // find trunk
+        if (last != null) {
+            log.info("Highest block is " + last.getID());
+            tops = new Tops(last.getID(), last.getID());
+            trunk.reset(last);
+        }
+        long linkTime = phase.elapsed(TimeUnit.MILLISECONDS);
+
+        if (headerSnapshot != null) {
+            try {
+                if (logPosition >= 0) {
+                    headerSnapshot.resume();
+                    for (int i = 0; i < logged.size(); ++i) {
+                        headerSnapshot.append(headers, headers.slotOf(logged.get(i)), logPosition + i + 1);
+                    }
+                } else {
+                    log.info("Writing header snapshot {}...", snapshotFile);
+                    headerSnapshot.write(headers, logSize);
                 }
+            } catch (IOException e) {
+                disableHeaderSnapshot(e);
+            }
+        }
 
-                if (heightAtPrevPruning < blockHeight) {
-                    try {
-                        readWriteLock.readLock().lock();
+        startupStatistics = new StartupStatistics(snapshotHeaders, snapshotTime, logged.size(), logTime,
+                databaseHeaders, databaseTime, linkTime, started.elapsed(TimeUnit.MILLISECONDS));
+        log.info("Read {} headers at start: {}", headers.size(), startupStatistics);
+    }
 
-                        StandalonePruner.StopWatch.start(0);
+    private void readHeadersParallel(List<BID> ids) throws HyperLedgerException {
+        List<Future<StoredHeader>> reads = new ArrayList<>(ids.size());
+        for (BID id : ids) {
+            reads.add(readerPool.submit(() -> persistentBlocks.readHeader(id)));
+        }
+        try {
+            for (int i = 0; i < ids.size(); ++i) {
+                StoredHeader header = reads.get(i).get();
+                if (header != null) {
+                    headers.put(ids.get(i), header);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new HyperLedgerException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new HyperLedgerException(e);
+        }
+    }
 
-                        heightAtPrevPruning = blockHeight;
+    private void appendHeaderSnapshot(BID id, int logPosition) {
+        if (headerSnapshot != null) {
+            try {
+                headerSnapshot.append(headers, headers.slotOf(id), logPosition);
+            } catch (IOException e) {
+                disableHeaderSnapshot(e);
+            }
+        }
+    }
 
-                        int fromHeight = prunerSettings.pruneFrom;
-                        int toHeight;
-                        if (prunerSettings.pruneOnlyLowerThanHeight >= 0) {
-                            toHeight = Math.min(prunerSettings.pruneOnlyLowerThanHeight, blockHeight);
-                        } else {
-                            toHeight = Math.max(0, blockHeight - prunerSettings.doNotPruneTopBlocks + 1);
-                        }
+    private void disableHeaderSnapshot(IOException e) {
+        log.warn("Can not write header snapshot {}, it is rebuilt at next start: {}", headerSnapshot.getFile(), e.getMessage());
+        try {
+            headerSnapshot.close();
+            Files.deleteIfExists(headerSnapshot.getFile().toPath());
+        } catch (IOException ignored) {
+        }
+        headerSnapshot = null;
+    }
 
-                        ListIterator<StoredHeader> it = trunkList.listIterator(trunkList.size() - fromHeight);
-                        int blockProcessed = fromHeight;
-                        int priority = isDownloading() ? 0 : 1;
+    public PruningStatistics getPruningStatistics() {
+        return pruner.getStatistics();
+    }
 
+    public MempoolStatistics getMempoolStatistics() {
+        return mempool.getStatistics();
+    }
 
-                        if (toHeight - fromHeight - 1 > 0) {
-                            latch = new CountDownLatch(toHeight - fromHeight);
-                        }
-                        final CountDownLatch finalLatch = latch;
-
-                        while (it.hasPrevious()) {
-                            if (blockProcessed >= toHeight) break;
-                            StoredHeader h = it.previous();
-
-                            singleThreadedExecutor.submit(new PrioritizedOrderedCallable<Void>(priority, h.getHeight()) {
-                                @Override
-                                public Void call() throws Exception {
-                                    try {
-                                        pruneBlock(h.getID(), toHeight);
-                                    } catch (Throwable e) {
-                                        log.warn("Error while pruning at height {}, {}", h.getHeight(), e);
-                                    } finally {
-                                        if (finalLatch != null) {
-                                            finalLatch.countDown();
-                                        }
-                                    }
-                                    return null;
-                                }
-                            });
-                            blockProcessed++;
-                        }
-                        StandalonePruner.StopWatch.stop(0);
-                        log.info("Scheduling pruning from {} to {} took {} ms", fromHeight, toHeight, StandalonePruner.StopWatch.getEllapsedTime(0));
-                    } finally {
-                        readWriteLock.readLock().unlock();
-                    }
-                } else {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
-                try {
-                    if (latch != null) latch.await();
-                } catch (InterruptedException e) {
-                    break;
-                }
-            } // while(true)
-        });
-        pruningThread.setDaemon(true);
-        pruningThread.setName("pruning");
-        pruningThread.start();
+    /**
+     * @return time spent reading headers at start, null before started
+     */
+    public StartupStatistics getStartupStatistics() {
+        return startupStatistics;
     }
 
     @Override
     public void stop() {
+        pruner.stop();
+        storedTransactions.stop();
+        if (warmUpSettings.enabled) {
+            warmer.stop();
+        }
+        prefetchPool.shutdownNow();
+        groupTimer.shutdownNow();
+        singleThreadedExecutor.submit(() -> {
+            commitGroup();
+            if (headerSnapshot != null) {
+                headerSnapshot.close();
+                headerSnapshot = null;
+            }
+            return null;
+        });
         singleThreadedExecutor.shutdown();
     }
 
@@ -476,7 +636,14 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     public ValidatedTransaction getTransaction(TID hash) throws HyperLedgerException {
         return readOpE(() -> {
             ValidatedTransaction t = mempool.get(hash);
-            return t != null ? t : onTrunk(persistentBlocks.readTransaction(hash));
+            if (t != null) {
+                return t;
+            }
+            StoredTransaction stored = onTrunk(persistentBlocks.readTransaction(hash));
+            if (stored != null && warmUpSettings.enabled) {
+                warmer.queried(hash);
+            }
+            return stored;
         });
     }
 
@@ -491,15 +658,26 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     @Override
     public List<BID> getMissingBlocks(int max) {
         return readOp(() -> {
-            LinkedList<BID> missing = new LinkedList<>();
+            List<BID> missing = new ArrayList<>();
 
-            if (trunk.size() > getFullHeight() + 1) {
-                ListIterator<StoredHeader> iterator = trunkList.listIterator(trunkList.size() - getFullHeight() - 1);
+            for (int height = getFullHeight() + 1; height < trunk.size() && missing.size() < max; ++height)
+                missing.add(trunk.get(height).getID());
+            return missing;
+        });
+    }
 
-                for (int n = 0; iterator.hasPrevious() && n < max; ++n)
-                    missing.add(iterator.previous().getID());
+    @Override
+    public List<BID> getTrunkBlocksAfter(BID after, int limit) {
+        return readOp(() -> {
+            List<BID> ids = new ArrayList<>();
+            StoredHeader start = headers.get(after);
+            if (start == null || !trunk.contains(start)) {
+                return ids;
             }
-            return missing;
+            int fullHeight = getFullHeight();
+            for (int height = start.getHeight() + 1; height <= fullHeight && height < trunk.size() && ids.size() < limit; ++height)
+                ids.add(trunk.get(height).getID());
+            return ids;
         });
     }
 
@@ -544,7 +722,40 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
 
     @Override
     public boolean hasTransaction(TID hash) throws HyperLedgerException {
-        return readOpE(() -> mempool.get(hash) != null || persistentBlocks.hasTransaction(hash));
+        return readOpE(() -> mempool.contains(hash) || (storedTransactions.mightContain(hash) && persistentBlocks.hasTransaction(hash)));
+    }
+
+    @Override
+    public Set<Hash> filterKnown(Collection<? extends Hash> ids) throws HyperLedgerException {
+        return readOpE(() -> {
+            Set<Hash> known = new HashSet<>();
+            StoredHeader fullTop = tops.fullTop != null ? headers.get(tops.fullTop) : null;
+            for (Hash id : ids) {
+                if (id instanceof BID) {
+                    StoredHeader header = headers.get(id);
+                    // blocks are persisted with their header, every header persisted is in memory
+                    if (header == null) {
+                        continue;
+                    }
+                    boolean belowFullTop = fullTop != null && trunk.contains(header) && header.getHeight() <= fullTop.getHeight();
+                    if (belowFullTop || persistentBlocks.hasBlock((BID) id)) {
+                        known.add(id);
+                    }
+                } else if (id instanceof TID) {
+                    // only ids the filter might know are looked up
+                    if (mempool.contains((TID) id) ||
+                            (storedTransactions.mightContain((TID) id) && persistentBlocks.hasTransaction((TID) id))) {
+                        known.add(id);
+                    }
+                }
+            }
+            return known;
+        });
+    }
+
+    @Override
+    public boolean isRecentlyRejectedOrConfirmed(TID hash) {
+        return recentlyRejected.contains(hash) || recentlyConfirmed.contains(hash);
     }
 
     @Override
@@ -556,14 +767,13 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     public List<BID> getHeaderLocator() {
         return readOp(() -> {
             List<BID> th = new ArrayList<>();
+            // n counts from the top, sample each multiple of step, step doubles after ten samples
             int step = 1, n = 1;
-            for (StoredHeader h : trunkList) {
-                if (n % step == 0) {
-                    th.add(h.getID());
-                    if (n > 10)
-                        step *= 2;
-                }
-                ++n;
+            while (n <= trunk.size()) {
+                th.add(trunk.get(trunk.size() - n).getID());
+                if (n > 10)
+                    step *= 2;
+                n = (n / step + 1) * step;
             }
             if (th.isEmpty())
                 th.add(BID.INVALID);
@@ -573,66 +783,35 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
 
     @Override
     public List<BID> catchUpHeaders(List<BID> inventory, int limit) throws HyperLedgerException {
-        return readOp(() -> {
-            List<BID> added = new ArrayList<>();
-            BID catchUpFrom = null;
-            for (BID sample : inventory) {
-                if (trunk.contains(sample)) {
-                    catchUpFrom = sample;
-                    break;
-                }
-            }
-
-            BID curr = tops.spvTop;
-            if (headers.containsKey(curr)) {
-                BID prev;
-                do {
-                    if (added.size() >= limit) {
-                        break;
-                    }
-                    if (catchUpFrom != null && curr.equals(catchUpFrom)) {
-                        break;
-                    }
-                    added.add(curr);
-                    prev = headers.get(curr).getPreviousID();
-                    curr = prev;
-                } while (!BID.INVALID.equals(prev));
-            }
-            Collections.reverse(added);
-            return added;
-        });
+        return readOp(() -> catchUp(inventory, tops.spvTop, limit));
     }
 
     @Override
     public List<BID> catchUpBlocks(List<BID> inventory, int limit) throws HyperLedgerException {
-        return readOp(() -> {
-            List<BID> added = new ArrayList<>();
-            BID catchUpFrom = null;
-            for (BID sample : inventory) {
-                if (trunk.contains(sample)) {
-                    catchUpFrom = sample;
-                    break;
-                }
-            }
+        return readOp(() -> catchUp(inventory, tops.fullTop, limit));
+    }
 
-            BID curr = tops.fullTop;
-            if (headers.containsKey(curr)) {
-                BID prev;
-                do {
-                    if (added.size() >= limit) {
-                        break;
-                    }
-                    if (catchUpFrom != null && curr.equals(catchUpFrom)) {
-                        break;
-                    }
-                    added.add(curr);
-                    prev = headers.get(curr).getPreviousID();
-                    curr = prev;
-                } while (!BID.INVALID.equals(prev));
-            }
-            Collections.reverse(added);
+    // the highest limit ids up to top, above the first of inventory found on the trunk
+    private List<BID> catchUp(List<BID> inventory, BID top, int limit) {
+        List<BID> added = new ArrayList<>();
+        StoredHeader topHeader = headers.get(top);
+        if (topHeader == null) {
             return added;
-        });
+        }
+        int from = 0;
+        for (BID sample : inventory) {
+            StoredHeader h = headers.get(sample);
+            if (h != null && trunk.contains(h)) {
+                from = h.getHeight() + 1;
+                break;
+            }
+        }
+        from = Math.max(from, topHeader.getHeight() - limit + 1);
+        for (StoredHeader h = topHeader; h != null && h.getHeight() >= from; h = h.getPrevious()) {
+            added.add(h.getID());
+        }
+        Collections.reverse(added);
+        return added;
     }
 
     @Override
@@ -722,6 +901,21 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         return readOp(() -> mempool.scanUnconfirmedPool(matchSet));
     }
 
+    @Override
+    public List<ValidatedTransaction> getMempoolTransactions(Predicate<TID> filter) {
+        return readOp(() -> mempool.find(filter));
+    }
+
+    @Override
+    public List<TID> getMempoolOrder() {
+        return readOp(mempool::getOrder);
+    }
+
+    @Override
+    public List<ValidatedTransaction> getMempoolTransactionsInOrder(List<TID> ids) {
+        return readOp(() -> mempool.getAll(ids));
+    }
+
     @Override
     public List<StoredTransaction> filterTransactions(Set<ByteVector> matchSet) throws HyperLedgerException {
         return readOpE(() -> {
@@ -937,13 +1131,12 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
 
         log.info("Storing genesis block ...");
         StoredHeader storedHeader =
-                new StoredHeader(b.getHeader(), 1.0, 0);
+                new StoredHeader(b.getHeader(), ChainWork.ONE, 0);
         try {
             readWriteLock.writeLock().lock();
 
             headers.put(b.getID(), storedHeader);
-            trunkList.add(storedHeader);
-            trunk.add(b.getID());
+            trunk.push(storedHeader);
             tops = new Tops(b.getID(), b.getID());
             List<StoredTransaction> st = new ArrayList<>();
             Transaction gt = b.getTransactions().get(0);
@@ -961,8 +1154,8 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     @SuppressWarnings("deprecation")
     public int medianBlockTime(int window) {
         List<Integer> times = new ArrayList<>(window);
-        for (Header h : trunkList) {
-            times.add(h.getCreateTime());
+        for (int height = trunk.size() - 1; height >= 0; --height) {
+            times.add(trunk.get(height).getCreateTime());
             if (--window < 0)
                 break;
         }
@@ -973,7 +1166,8 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     @Override
     public boolean isBlockVersionUsed(int version, BID until, int required, int window) {
         int have = 0;
-        for (StoredHeader h : trunkList) {
+        for (int height = trunk.size() - 1; height >= 0; --height) {
+            StoredHeader h = trunk.get(height);
             if (Integer.compareUnsigned(h.getVersion(), version) >= 0)
                 ++have;
 
@@ -1028,6 +1222,13 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
                 log.debug("Ignoring known transaction " + t.getID());
                 return validated;
             }
+            if (recentlyRejected.contains(t.getID())) {
+                throw LoggedHyperLedgerException.loggedInfo(log, "Mempool rejects " + t.getID() + " : recently rejected.");
+            }
+            // a single read to rule out a false positive instead of reading all inputs
+            if (recentlyConfirmed.contains(t.getID()) && persistentBlocks.hasTransaction(t.getID())) {
+                throw LoggedHyperLedgerException.loggedInfo(log, "Mempool rejects " + t.getID() + " : already confirmed.");
+            }
 
             CompletionService<DBReadResult> resolver = new ExecutorCompletionService<>(readerPool);
 
@@ -1060,6 +1261,7 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
                     }
                 }
                 if (referred.put(op, referredTransaction) != null) {
+                    recentlyRejected.add(t.getID());
                     throw LoggedHyperLedgerException.loggedInfo(log, "Mempool rejects " + t.getID() + " : attempts to reuse inputs.");
                 }
             }
@@ -1074,11 +1276,13 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
                                 + result.source);
                     }
                     if (isAnyOnTrunk(result.spends)) {
+                        recentlyRejected.add(result.validating);
                         StoredTransaction firstSpend = oneOnTrunk(result.spends);
                         throw LoggedHyperLedgerException.loggedInfo(log, "Mempool rejects " + result.validating + " : refers to spent input. "
                                 + result.source + " first spend " + firstSpend.getID());
                     }
                     if (referred.put(result.source, result.transaction) != null) {
+                        recentlyRejected.add(t.getID());
                         throw LoggedHyperLedgerException.loggedInfo(log, "Mempool rejects " + result.transaction.getID() + " : attempts to reuse inputs.");
                     }
                 } catch (ExecutionException e) {
@@ -1091,6 +1295,7 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
             try {
                 validated = validatorChain.validateTransaction(t, getFullHeight(), referred);
             } catch (HyperLedgerException e) {
+                recentlyRejected.add(t.getID());
                 throw LoggedHyperLedgerException.loggedInfo(log, "Mempool rejects " + t.getID() + " : " + e.getMessage());
             }
 
@@ -1100,8 +1305,11 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
             // is only within write lock and double spend can not be added as add method checks sources
             mempool.add(validated);
 
-            log.info("Mempool accepts {} size {} reads {} vt {} ms", t.getID(), mempool.size(), dbread,
-                    stopwatch.stop().elapsed(TimeUnit.MILLISECONDS));
+            MempoolStatistics mempoolStatistics = mempool.getStatistics();
+            log.info("Mempool accepts {} size {} heap {} B/tx reads {} vt {} ms", t.getID(), mempoolStatistics.getSize(),
+                    mempoolStatistics.getHeapPerTransaction(), dbread, stopwatch.stop().elapsed(TimeUnit.MILLISECONDS));
+
+            callTransactionListeners(validated);
 
             if (!isDownloading())
                 clientEventQueue.sendStoreEvent(new ClientEventQueue.TransactionAdded(validated));
@@ -1122,12 +1330,154 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         }
     }
 
+    @Override
+    public List<HeaderStoredInfo> addHeaders(final List<? extends Header> list) throws HyperLedgerException {
+        List<StoredHeader> batch = new ArrayList<>(list.size());
+        for (Header h : list) {
+            batch.add(new StoredHeader(h, ChainWork.ZERO, 0));
+        }
+        HyperLedgerException[] failures = checkHeaders(batch);
+        int checked = 0;
+        while (checked < batch.size() && failures[checked] == null) {
+            ++checked;
+        }
+        final int valid = checked;
+        List<HeaderStoredInfo> infos;
+        try {
+            infos = singleThreadedExecutor.submit(() -> addHeadersSingleThreaded(batch, valid)).get();
+        } catch (ExecutionException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e.getCause());
+        } catch (InterruptedException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e);
+        }
+        if (valid < batch.size()) {
+            throw LoggedHyperLedgerException.loggedWarn(log, "Rejected header " + batch.get(valid).getID() + " : " +
+                    failures[valid].getMessage());
+        }
+        return infos;
+    }
+
+    /**
+     * Run the checks of headers that need nothing but the header and its predecessor in parallel.
+     *
+     * @return the failure of each header, null if passed
+     */
+    private HyperLedgerException[] checkHeaders(List<StoredHeader> batch) throws HyperLedgerException {
+        Map<BID, Header> inBatch = new HashMap<>();
+        for (StoredHeader b : batch) {
+            inBatch.put(b.getID(), b.getHeader());
+        }
+        HyperLedgerException[] failures = new HyperLedgerException[batch.size()];
+        int chunk = Math.max(16, batch.size() / Runtime.getRuntime().availableProcessors() + 1);
+        List<Future<?>> checks = new ArrayList<>();
+        for (int from = 0; from < batch.size(); from += chunk) {
+            int start = from;
+            int end = Math.min(batch.size(), from + chunk);
+            checks.add(readerPool.submit(() -> {
+                for (int i = start; i < end; ++i) {
+                    StoredHeader b = batch.get(i);
+                    Header previous = inBatch.get(b.getPreviousID());
+                    if (previous == null) {
+                        StoredHeader stored = getHeader(b.getPreviousID());
+                        // unconnected headers are rejected as added
+                        previous = stored != null ? stored.getHeader() : null;
+                    }
+                    if (previous != null) {
+                        try {
+                            validatorChain.checkHeader(b, previous);
+                        } catch (HyperLedgerException e) {
+                            failures[i] = e;
+                        }
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> check : checks) {
+                check.get();
+            }
+        } catch (ExecutionException e) {
+            throw new HyperLedgerException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new HyperLedgerException(e);
+        }
+        return failures;
+    }
+
+    /**
+     * Add headers checked by checkHeaders. Consecutive headers extending the trunk are validated and stored in one
+     * pass under the write lock, any other header is added as a single one.
+     */
+    private List<HeaderStoredInfo> addHeadersSingleThreaded(List<StoredHeader> batch, int size) throws HyperLedgerException {
+        List<HeaderStoredInfo> infos = new ArrayList<>();
+        int i = 0;
+        while (i < size) {
+            i = extendTrunk(batch, i, size, infos);
+            if (i < size) {
+                infos.add(addHeaderSingleThreaded(batch.get(i).getHeader()));
+                ++i;
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * @return the index of the first header not known and not extending the trunk
+     */
+    private int extendTrunk(List<StoredHeader> batch, int from, int size, List<HeaderStoredInfo> infos) throws HyperLedgerException {
+        List<BID> added = new ArrayList<>();
+        HyperLedgerException rejected = null;
+        int i = from;
+        HeaderStoredInfo info;
+        try {
+            readWriteLock.writeLock().lock();
+            for (; i < size; ++i) {
+                StoredHeader b = batch.get(i);
+                if (headers.containsKey(b.getID())) {
+                    continue;
+                }
+                if (!b.getPreviousID().equals(tops.spvTop)) {
+                    break;
+                }
+                StoredHeader prev = headers.get(b.getPreviousID());
+                try {
+                    validatorChain.validateHeaderInContext(this, b);
+                    validatorChain.validatePath(this, prev, Collections.singletonList(b));
+                } catch (HyperLedgerException e) {
+                    rejected = LoggedHyperLedgerException.loggedWarn(log, "Rejected header " + b.getID() + " : " + e.getMessage());
+                    break;
+                }
+                headers.put(b.getID(), b);
+                trunk.push(headers.get(b.getID()));
+                // a block is only stored after its header, the full top stays
+                tops = new Tops(b.getID(), tops.fullTop);
+                added.add(b.getID());
+            }
+            if (!added.isEmpty()) {
+                recentlyRejected.clear();
+            }
+            info = new HeaderStoredInfo(getSpvHeight(), added, new ArrayList<>());
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
+        if (!added.isEmpty()) {
+            log.info("Accepted " + added.size() + " headers, height: " + info.getSpvHeight());
+            infos.add(info);
+            if (!isDownloading())
+                clientEventQueue.sendStoreEvent(new ClientEventQueue.HeaderAdded(info));
+        }
+        if (rejected != null) {
+            throw rejected;
+        }
+        return i;
+    }
+
     private HeaderStoredInfo addHeaderSingleThreaded(final Header h) throws HyperLedgerException {
         if (headers.containsKey(h.getID())) {
             throw LoggedHyperLedgerException.loggedInfo(log, "Rejected header " + h.getID() + " : duplicate.");
         }
 
-        StoredHeader b = new StoredHeader(h, 0.0, 0);
+        StoredHeader b = new StoredHeader(h, ChainWork.ZERO, 0);
 
         // do not care unconnected
         StoredHeader prev = headers.get(b.getPreviousID());
@@ -1145,22 +1495,21 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         List<StoredHeader> path = new ArrayList<>();
         path.add(b);
         // find path from join with trunk
-        BID join = prev.getID();
-        while (!trunk.contains(join)) {
-            StoredHeader c = headers.get(join);
+        StoredHeader fork = trunk.findFork(prev);
+        for (StoredHeader c = prev; c.getHeight() > fork.getHeight(); c = c.getPrevious()) {
             path.add(c);
-            join = c.getPreviousID();
         }
+        BID join = fork.getID();
         Collections.reverse(path);
 
         // evaluate the path
         try {
-            validatorChain.validatePath(this, headers.get(join), path);
+            validatorChain.validatePath(this, fork, path);
         } catch (HyperLedgerException e) {
             throw LoggedHyperLedgerException.loggedWarn(log, "Rejected header " + b.getID() + " : " + e.getMessage());
         }
 
-        Set<TID> resurrect = new HashSet<>();
+        List<StoredTransaction> resurrect = new ArrayList<>();
         Set<TID> confirm = new HashSet<>();
         Set<TID> coinbases = new HashSet<>();
         List<BID> removed = new ArrayList<>();
@@ -1177,25 +1526,40 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
             // remove old trunk until join
             while (!best.getID().equals(join)) {
                 removed.add(best.getID());
-                List<TID> blockContent = persistentBlocks.readBlockTIDList(best.getID());
-                if (!blockContent.isEmpty()) {
-                    // resurrect all including(!) coinbase (so remove dependency works thereafter)
-                    resurrect.addAll(blockContent);
-                    // transitive remove mempool dependency on destroyed coinbase
-                    coinbases.add(blockContent.get(0));
-                }
-                best = headers.get(best.getPreviousID());
+                best = best.getPrevious();
             }
             Collections.reverse(removed);
 
             // addTransaction new path
             for (StoredHeader blk : path) {
                 added.add(blk.getID());
-                // no need to resurrect confirmed on new trunk
-                List<TID> blockContent = persistentBlocks.readBlockTIDList(blk.getID());
-                resurrect.removeAll(blockContent);
-                confirm.addAll(blockContent);
             }
+
+            Map<BID, BlockUndo> undo = readUndo(removed, added);
+            Set<Outpoint> spentOnPath = new HashSet<>();
+            for (BID id : added) {
+                BlockUndo u = undo.get(id);
+                if (u != null) {
+                    confirm.addAll(u.getTransactionIDs());
+                    spentOnPath.addAll(u.getSpent());
+                }
+            }
+            Set<TID> revived = new LinkedHashSet<>();
+            for (BID id : removed) {
+                BlockUndo u = undo.get(id);
+                if (u != null && !u.getTransactions().isEmpty()) {
+                    // transitive remove mempool dependency on destroyed coinbase
+                    coinbases.add(u.getTransactions().get(0).getID());
+                    for (BlockUndo.TransactionUndo t : u.getTransactions()) {
+                        // resurrect all including(!) coinbase (so remove dependency works thereafter),
+                        // but not those confirmed or double spent on the new trunk
+                        if (!confirm.contains(t.getID()) && Collections.disjoint(t.getSpent(), spentOnPath)) {
+                            revived.add(t.getID());
+                        }
+                    }
+                }
+            }
+            resurrect = readTransactions(revived);
             log.info("Accepted header " + b.getID() + " height: " + getSpvHeight());
         } else {
             log.info("Accepted orphan header " + b.getID() + " height: " + getSpvHeight());
@@ -1211,17 +1575,18 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
             BID newSpvTop = oldTops.spvTop;
             BID newFullTop = oldTops.fullTop;
             for (BID rh : removed) {
-                if (trunk.remove(rh)) {
-                    trunkList.removeFirst();
-                    newSpvTop = trunkList.getFirst().getID();
+                if (trunk.contains(rh)) {
+                    trunk.pop();
+                    newSpvTop = trunk.getTop().getID();
                     if (persistentBlocks.hasBlock(newSpvTop)) {
                         newFullTop = newSpvTop;
                     }
                 }
             }
             for (BID ah : added) {
-                if (trunk.add(ah)) {
-                    trunkList.addFirst(headers.get(ah));
+                StoredHeader ahHeader = headers.get(ah);
+                if (!trunk.contains(ahHeader)) {
+                    trunk.push(ahHeader);
                     newSpvTop = ah;
                     if (persistentBlocks.hasBlock(newSpvTop)) {
                         newFullTop = newSpvTop;
@@ -1231,9 +1596,12 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
             tops = new Tops(newSpvTop, newFullTop);
 
             // resurrect
-            for (TID hash : resurrect) {
-                StoredTransaction t = persistentBlocks.readTransaction(hash);
-                mempool.add(t);
+            for (StoredTransaction t : resurrect) {
+                try {
+                    mempool.add(t);
+                } catch (HyperLedgerException e) {
+                    log.debug("Not resurrecting {}: {}", t.getID(), e.getMessage());
+                }
             }
             // transitive remove mempool dependency on destroyed coinbase
             for (TID hash : coinbases) {
@@ -1243,6 +1611,15 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
             for (TID hash : confirm) {
                 mempool.remove(hash, false);
             }
+            if (!removed.isEmpty()) {
+                recentlyConfirmed.clear();
+            }
+            for (TID hash : confirm) {
+                recentlyConfirmed.add(hash);
+            }
+            if (!added.isEmpty()) {
+                recentlyRejected.clear();
+            }
             info = new HeaderStoredInfo(getSpvHeight(), added, removed);
         } finally {
             readWriteLock.writeLock().unlock();
@@ -1272,6 +1649,57 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         return info;
     }
 
+    /**
+     * Read undo records of blocks in parallel, headers without block are missing from the result.
+     */
+    private Map<BID, BlockUndo> readUndo(List<BID> removed, List<BID> added) throws HyperLedgerException {
+        Map<BID, Future<BlockUndo>> reads = new HashMap<>();
+        for (BID id : removed) {
+            reads.put(id, readerPool.submit(() -> persistentBlocks.readUndo(id)));
+        }
+        for (BID id : added) {
+            reads.put(id, readerPool.submit(() -> persistentBlocks.readUndo(id)));
+        }
+        Map<BID, BlockUndo> undo = new HashMap<>();
+        try {
+            for (Map.Entry<BID, Future<BlockUndo>> e : reads.entrySet()) {
+                BlockUndo u = e.getValue().get();
+                if (u != null) {
+                    undo.put(e.getKey(), u);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new HyperLedgerException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new HyperLedgerException(e);
+        }
+        return undo;
+    }
+
+    /**
+     * Read transactions in parallel, those not stored (pruned) are skipped.
+     */
+    private List<StoredTransaction> readTransactions(Collection<TID> ids) throws HyperLedgerException {
+        List<Future<StoredTransaction>> reads = new ArrayList<>(ids.size());
+        for (TID id : ids) {
+            reads.add(readerPool.submit(() -> persistentBlocks.readTransaction(id)));
+        }
+        List<StoredTransaction> transactions = new ArrayList<>(ids.size());
+        try {
+            for (Future<StoredTransaction> read : reads) {
+                StoredTransaction t = read.get();
+                if (t != null) {
+                    transactions.add(t);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new HyperLedgerException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new HyperLedgerException(e);
+        }
+        return transactions;
+    }
+
     private boolean isDownloading() {
         if (tops.fullTop == null)
             return true;
@@ -1289,22 +1717,68 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         }
     }
 
-    private class ValidateBlockResult {
-        List<BID> added;
-        List<BID> removed;
-        StoredBlock storedBlock;
-        long validationTime;
+    @Override
+    public BlockStoredInfo addBlock(final Block block) throws HyperLedgerException {
+        try {
+            return singleThreadedExecutor.submit(() -> storeBlock(validate(block))).get();
+        } catch (ExecutionException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e.getCause());
+        } catch (InterruptedException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e);
+        }
     }
 
     @Override
-    public BlockStoredInfo addBlock(final Block block) throws HyperLedgerException {
+    public void prefetchInputs(final Block block) {
+        Set<TID> inBlock = new HashSet<>();
+        for (Transaction t : block.getTransactions()) {
+            inBlock.add(t.getID());
+        }
+        for (Transaction t : block.getTransactions()) {
+            if (t.isCoinBase()) {
+                continue;
+            }
+            prefetchPool.execute(() -> {
+                try {
+                    // the same reads as collectReferredOutputs, results are dropped. Reading under the read lock
+                    // overlaps with validation of the block being added, only its write excludes them
+                    for (TransactionInput in : t.getInputs()) {
+                        if (!inBlock.contains(in.getSourceTransactionID())) {
+                            readOpE(() -> persistentBlocks.readTransaction(in.getSource()) != null
+                                    ? persistentBlocks.getSpendingTransactions(in.getSource()) : null);
+                        }
+                    }
+                } catch (HyperLedgerException e) {
+                    log.trace("Prefetch of inputs of {} failed: {}", t.getID(), e.getMessage());
+                }
+            });
+        }
+    }
+
+    @Override
+    public PreparedBlock prepareBlock(final Block block) throws HyperLedgerException {
+        try {
+            return singleThreadedExecutor.submit(() -> validate(block)).get();
+        } catch (ExecutionException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e.getCause());
+        } catch (InterruptedException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e);
+        }
+    }
+
+    @Override
+    public BlockStoredInfo commitBlock(final PreparedBlock prepared) throws HyperLedgerException {
         try {
             return singleThreadedExecutor.submit(() -> {
-                ValidateBlockResult validateResult = validate(block);
-                return storeBlock(validateResult.added,
-                        validateResult.removed,
-                        validateResult.storedBlock,
-                        validateResult.validationTime);
+                Tops current = tops;
+                if (prepared.isPreparedOn(current.spvTop, current.fullTop)) {
+                    if (persistentBlocks.hasBlock(prepared.getID())) {
+                        throw LoggedHyperLedgerException.loggedWarn(log, "Rejected block " + prepared.getID() + " : duplicate.");
+                    }
+                    return storeBlock(prepared);
+                }
+                log.debug("Tops moved since block {} was prepared, validating again", prepared.getID());
+                return storeBlock(validate(prepared.getBlock()));
             }).get();
         } catch (ExecutionException e) {
             throw LoggedHyperLedgerException.loggedError(log, e.getCause());
@@ -1313,6 +1787,17 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         }
     }
 
+    @Override
+    public BlockStoredInfo addCertifiedBlock(final Block block) throws HyperLedgerException {
+        try {
+            return singleThreadedExecutor.submit(() -> storeBlock(validate(block, true))).get();
+        } catch (ExecutionException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e.getCause());
+        } catch (InterruptedException e) {
+            throw LoggedHyperLedgerException.loggedError(log, e);
+        }
+    }
+
     public boolean validateBlock(final Block block) throws HyperLedgerException {
         try {
             return singleThreadedExecutor.submit(() -> {
@@ -1331,9 +1816,11 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
 
     }
 
-    private ValidateBlockResult validate(final Block block) throws HyperLedgerException {
-        ValidateBlockResult result = new ValidateBlockResult();
+    private PreparedBlock validate(final Block block) throws HyperLedgerException {
+        return validate(block, false);
+    }
 
+    private PreparedBlock validate(final Block block, boolean certified) throws HyperLedgerException {
         if (persistentBlocks.hasBlock(block.getID())) {
             throw LoggedHyperLedgerException.loggedWarn(log, "Rejected block " + block.getID() + " : duplicate.");
         }
@@ -1342,25 +1829,28 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
             throw LoggedHyperLedgerException.loggedWarn(log, "Rejected block " + block.getID() + " : unconnected.");
         }
 
-        result.added = new ArrayList<>();
-        result.removed = new ArrayList<>();
+        List<BID> added = new ArrayList<>();
+        List<BID> removed = new ArrayList<>();
 
-        addHeaderForBlock(block, result.added, result.removed);
+        addHeaderForBlock(block, added, removed);
 
-        TrunkFilter validationTrunk = computeValidationTrunk(result.removed, block);
+        TrunkFilter validationTrunk = computeValidationTrunk(removed, block);
 
         Map<Outpoint, Transaction> referred = collectReferredOutputs(block, validationTrunk);
 
-        result.storedBlock = createStoredBlock(block);
+        StoredBlock storedBlock = createStoredBlock(block);
         Stopwatch stopwatch = Stopwatch.createStarted();
         try {
-            result.storedBlock = validatorChain.validateBody(this, result.storedBlock, referred);
+            storedBlock = certified
+                    ? validatorChain.validateCertifiedBody(this, storedBlock, referred)
+                    : validatorChain.validateBody(this, storedBlock, referred);
         } catch (HyperLedgerException e) {
             throw LoggedHyperLedgerException.loggedWarn(log, "Rejected block " + block.getID() + " : " + e.getMessage());
         }
-        result.validationTime = stopwatch.stop().elapsed(TimeUnit.MILLISECONDS);
+        long validationTime = stopwatch.stop().elapsed(TimeUnit.MILLISECONDS);
 
-        return result;
+        Tops current = tops;
+        return new PreparedBlock(block, storedBlock, referred, added, removed, validationTime, current.spvTop, current.fullTop);
     }
 
     private StoredBlock createStoredBlock(Block b) {
@@ -1371,15 +1861,28 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         return new StoredBlock(headers.get(b.getID()), txlist);
     }
 
-    private BlockStoredInfo storeBlock(List<BID> added, List<BID> removed, StoredBlock b, long validationTime) throws HyperLedgerException {
+    private BlockStoredInfo storeBlock(PreparedBlock prepared) throws HyperLedgerException {
+        StoredBlock b = prepared.getValidatedBlock();
+        List<BID> added = prepared.getAdded();
+        List<BID> removed = prepared.getRemoved();
         BlockStoredInfo info;
         PersistenceStatistics stats = null;
         try {
             readWriteLock.writeLock().lock();
 
+            if (groupCommitSettings.enabled && !inGroup) {
+                startGroup();
+            }
             stats = persistentBlocks.writeBlock(b);
+            // the snapshot must not get ahead of what is durable
+            if (inGroup) {
+                pendingSnapshot.put(b.getID(), persistentBlocks.getHeaderLogSize());
+            } else {
+                appendHeaderSnapshot(b.getID(), persistentBlocks.getHeaderLogSize());
+            }
 
             for (StoredTransaction t : b.getTransactions()) {
+                storedTransactions.add(t.getID());
 
                 // cache must reflect db if hit. Filter on trunk view is at use.
                 t.addBlock(b.getID());
@@ -1395,12 +1898,14 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
                 tops = new Tops(tops.spvTop, b.getID());
                 // erase confirmed from mempool (not transitive)
                 // erase double spends from mempool
+                recentlyRejected.clear();
                 for (StoredTransaction t : b.getTransactions()) {
                     mempool.remove(t.getID(), false);
-                    for (ValidatedTransaction c : mempool.getConflicts(t)) {
-                        log.info("Confirmed double-spend of {}  by {}", c.getID(), t.getID());
-                        for (ValidatedTransaction d : mempool.remove(c.getID(), true)) {
-                            log.info("Dropping from mempool {}", d.getID());
+                    recentlyConfirmed.add(t.getID());
+                    for (TID c : mempool.getConflicts(t)) {
+                        log.info("Confirmed double-spend of {}  by {}", c, t.getID());
+                        for (TID d : mempool.remove(c, true)) {
+                            log.info("Dropping from mempool {}", d);
                         }
                     }
                 }
@@ -1412,16 +1917,66 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         } finally {
             readWriteLock.writeLock().unlock();
         }
+        pruner.tipAdvanced(getFullHeight());
         log.info("Stored  {} block  {} h: {} tx: {} mr: {} vt: {} prev: {} ms mempool: {} reads: {} rt: {} ms wt: {} ms", (!trunk.contains(b.getID()) ? "orphan " : ""), b.getID(), getFullHeight(),
-                b.getTransactions().size(), b.getMerkleRoot(), validationTime, b.getPreviousID(), mempool.size(), stats.getnReads(), stats.getReadTime(), stats.getWriteTime());
+                b.getTransactions().size(), b.getMerkleRoot(), prepared.getValidationTime(), b.getPreviousID(), mempool.size(), stats.getnReads(), stats.getReadTime(), stats.getWriteTime());
 
         if (!isDownloading())
-            clientEventQueue.sendStoreEvent(new ClientEventQueue.BlockAdded(info));
+            pendingBlockEvents.add(new ClientEventQueue.BlockAdded(info));
+        if (inGroup) {
+            groupBlocks++;
+            if (!isDownloading() || persistentBlocks.getGroupSize() >= groupCommitSettings.maxBytes ||
+                    System.currentTimeMillis() - groupStarted >= groupCommitSettings.maxMillis) {
+                commitGroup();
+            }
+        } else {
+            commitGroup();
+        }
 
         callBlockListeners(info);
         return info;
     }
 
+    private void startGroup() {
+        persistentBlocks.startGroup();
+        inGroup = true;
+        groupStarted = System.currentTimeMillis();
+        groupBlocks = 0;
+        // commit a group no further block arrives for in time
+        groupTimer.schedule(() -> singleThreadedExecutor.submit(() -> {
+            if (inGroup && System.currentTimeMillis() - groupStarted >= groupCommitSettings.maxMillis) {
+                commitGroup();
+            }
+            return null;
+        }), groupCommitSettings.maxMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Make the blocks of the group durable, then append them to the header snapshot and send their client events.
+     * Only events are sent if not in a group.
+     */
+    private void commitGroup() {
+        if (inGroup) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            long size = persistentBlocks.getGroupSize();
+            inGroup = false;
+            try {
+                persistentBlocks.endGroup();
+                for (Map.Entry<BID, Integer> e : pendingSnapshot.entrySet()) {
+                    appendHeaderSnapshot(e.getKey(), e.getValue());
+                }
+            } finally {
+                pendingSnapshot.clear();
+            }
+            log.debug("Committed group of {} blocks, {} bytes in {} ms", groupBlocks, size,
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        }
+        for (ClientEventQueue.BlockAdded event : pendingBlockEvents) {
+            clientEventQueue.sendStoreEvent(event);
+        }
+        pendingBlockEvents.clear();
+    }
+
     @Override
     public boolean addMiscData(BID id, byte[] data) throws HyperLedgerException {
         try {
@@ -1443,99 +1998,11 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         }
     }
 
-    private boolean isPrunable(Transaction t, int blockHeight, int checkHeightLimit) throws HyperLedgerException {
-        if (blockHeight > checkHeightLimit) return false;
-        return isPrunableThroughHops(t, checkHeightLimit, 2);
-    }
-
-    // only those transactions can be pruned which spending transaction's spending transaction's containing
-    // block's hight is below the  checkHeightLimit.
-    private boolean isPrunableThroughHops(Transaction t, int checkHeightLimit, int hopCount) throws HyperLedgerException {
-        for (Coin coin : t.getCoins()) {
-            Outpoint outpoint = coin.getOutpoint();
-            StoredTransaction spendingTransaction = oneOnTrunk(persistentBlocks.getSpendingTransactions(outpoint));
-            if (spendingTransaction == null || getMaxHeightOfContainingBlocks(spendingTransaction) > checkHeightLimit) {
-                return false;
-            }
-            if (hopCount > 1) {
-                if (!isPrunableThroughHops(spendingTransaction, checkHeightLimit, hopCount - 1)) {
-                    return false;
-                }
-            }
-        }
-        return true;
-    }
-
-    private int getMaxHeightOfContainingBlocks(StoredTransaction t) throws HyperLedgerException {
-        int maxHeight = -1;
-        for (BID blockId : t.getBlocks()) {
-            maxHeight = Math.max(maxHeight, persistentBlocks.readHeader(blockId).getHeight());
-        }
-        return maxHeight;
-    }
-
     @Override
     public void standalonePruneBlock(BID id, int toHeight) throws HyperLedgerException {
-        try {
-            singleThreadedExecutor.submit(new PrioritizedOrderedCallable<Void>(0, 0) {
-                @Override
-                public Void call() throws Exception {
-                    pruneBlock(id, toHeight);
-                    return null;
-                }
-            }).get();
-        } catch (InterruptedException e) {
-            throw new HyperLedgerException(e);
-        } catch (ExecutionException e) {
-            throw new HyperLedgerException(e.getCause());
-        }
+        pruner.pruneBlock(id, toHeight);
     }
 
-    private void pruneBlock(BID h, int checkHeightLimit) throws HyperLedgerException {
-        StoredBlock block = null;
-        int prunedCount = 0;
-        try {
-            block = persistentBlocks.readBlock(h);
-            List<MerkleTreeNode> pruned = new ArrayList<>();
-            for (MerkleTreeNode n : block.getMerkleTreeNodes()) {
-                if (n instanceof PrunedNode) {
-                    pruned.add(n);
-                } else {
-                    Transaction t = (Transaction) n;
-                    if (isPrunable(t, block.getHeight(), checkHeightLimit)) {
-                        log.info("Pruning transaction {} in block {} at height {} (with limit {})", t.getID(), block.getID(), block.getHeight(), checkHeightLimit);
-                        pruned.add(new PrunedNode(t.getID(), 0));
-                        prunedCount++;
-                    } else {
-                        pruned.add(t);
-                    }
-                }
-            }
-
-            Hash oldMerkleRoot = block.getMerkleRoot();
-
-            if (prunedCount > 0) {
-                StoredBlock prunedBlock = new StoredBlock(block.getHeader(), MerkleTree.compress(pruned));
-                if (!prunedBlock.getMerkleRoot().equals(oldMerkleRoot)) {
-                    log.error("Merkle root mismatch between pruned and original block {} at height {}. Keeping the original block", block.getID(), block.getHeight());
-                    return;
-                }
-
-                try {
-                    readWriteLock.writeLock().lock();
-
-                    persistentBlocks.updateBlock(prunedBlock);
-                } finally {
-                    readWriteLock.writeLock().unlock();
-                }
-            }
-            log.info("Pruned {} transactions out of {} in block {} at height {} (with limit {})", prunedCount, block.getMerkleTreeNodes().size(), block.getID(), block.getHeight(), checkHeightLimit);
-        } catch (HyperLedgerException e) {
-            log.warn("Exception while pruning block {} at height {} (with limit {}). Exception is: ", block.getID(), block.getHeight(), checkHeightLimit, e);
-        }
-    }
-
-
     // BIP30 exception list is Bitcoin specific, and is unlikely to matter in other chain.
     // Reuse of transaction ids have to be disallowed.
     private final List<BID> dirtyBIP30Hacks = Arrays.asList(
@@ -1609,17 +2076,15 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
         DeltaHashSet validationTrunk = new DeltaHashSet(trunk);
 
         // addTransaction hashes that lead to join point from here
-        BID join = b.getPreviousID();
-        while (!trunk.contains(join)) {
-            validationTrunk.add(join);
-            join = headers.get(join).getPreviousID();
+        StoredHeader previous = headers.get(b.getPreviousID());
+        StoredHeader fork = trunk.findFork(previous);
+        for (StoredHeader h = previous; h.getHeight() > fork.getHeight(); h = h.getPrevious()) {
+            validationTrunk.add(h.getID());
         }
 
         // remove hashes that led to current fullTop
-        BID tp = tops.fullTop;
-        while (!tp.equals(join)) {
-            validationTrunk.remove(tp);
-            tp = headers.get(tp).getPreviousID();
+        for (StoredHeader h = headers.get(tops.fullTop); h.getHeight() > fork.getHeight(); h = h.getPrevious()) {
+            validationTrunk.remove(h.getID());
         }
         Collections.reverse(removed);
         return validationTrunk;
@@ -1654,4 +2119,18 @@ public class DefaultBlockStore implements BlockStore, BitcoinBlockStore {
     public void removeBlockListener(BlockListener listener) {
         blockListeners.remove(listener);
     }
+
+    private void callTransactionListeners(ValidatedTransaction transaction) {
+        for (TransactionListener listener : transactionListeners) {
+            listener.transactionAdded(transaction);
+        }
+    }
+
+    public void addTransactionListener(TransactionListener listener) {
+        transactionListeners.add(listener);
+    }
+
+    public void removeTransactionListener(TransactionListener listener) {
+        transactionListeners.remove(listener);
+    }
 }
@@ -0,0 +1,36 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+/**
+ * Bounds of the groups of blocks written at once while the block store catches up with the network.
+ */
+public class GroupCommitSettings {
+
+    public static final GroupCommitSettings NO_GROUPING = new GroupCommitSettings(false, 0, 0);
+
+    final boolean enabled;
+    final long maxBytes;
+    final long maxMillis;
+
+    public GroupCommitSettings(boolean enabled, long maxBytes, long maxMillis) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.BitcoinHeader;
+import org.hyperledger.common.Header;
+import org.hyperledger.common.HyperLedgerException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A file of header slots of a {@link CompactHeaderStore}, read on start instead of decoding every header
+ * of the database.
+ * <p>
+ * The file starts with magic, version, the position in the header log of the database covered, a CRC32 of
+ * the records and the length of the records. A record is the length of the database encoding of an extended
+ * header (0 for plain bitcoin headers), the raw slot and the encoding if any. Records are appended as blocks
+ * are stored, the file header is rewritten after each append, so a torn append is detected by the CRC and
+ * the snapshot is then discarded.
+ * <p>
+ * Not thread safe, used by the single threaded executor of the block store.
+ */
+class HeaderSnapshot implements Closeable {
+    private static final int MAGIC = 0x484c4853; // HLHS
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 24;
+
+    private final File file;
+    private FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private long end;
+
+    HeaderSnapshot(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Read the snapshot into the header store. The headers loaded are not linked.
+     * <p>
+     * A snapshot covering more of the header log than is stored is not usable, it holds headers of blocks not
+     * durably written, as of a group of writes lost by a crash.
+     *
+     * @param logSize the size of the header log of the database
+     * @return the position in the header log covered by the snapshot, -1 if there is no usable snapshot
+     */
+    int load(CompactHeaderStore headers, int logSize) throws IOException, HyperLedgerException {
+        if (!file.exists()) {
+            return -1;
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (in.size() < FILE_HEADER_SIZE) {
+                return -1;
+            }
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                return -1;
+            }
+            int logPosition = map.getInt(8);
+            if (logPosition > logSize) {
+                return -1;
+            }
+            int checksum = map.getInt(12);
+            long length = map.getLong(16);
+            if (length < 0 || length > in.size() - FILE_HEADER_SIZE) {
+                return -1;
+            }
+            ByteBuffer records = map.duplicate();
+            records.position(FILE_HEADER_SIZE);
+            records.limit(FILE_HEADER_SIZE + (int) length);
+            CRC32 check = new CRC32();
+            check.update(records.duplicate());
+            if ((int) check.getValue() != checksum) {
+                return -1;
+            }
+            while (records.hasRemaining()) {
+                int extendedLength = records.getInt();
+                int slot = records.position();
+                Header extended = null;
+                if (extendedLength > 0) {
+                    byte[] encoded = new byte[extendedLength];
+                    records.position(slot + CompactHeaderStore.SLOT_SIZE);
+                    records.get(encoded);
+                    extended = StoredHeader.fromLevelDB(encoded).getHeader();
+                    records.position(slot);
+                }
+                headers.putSlot(records, extended);
+                records.position(slot + CompactHeaderStore.SLOT_SIZE + extendedLength);
+            }
+            return logPosition;
+        }
+    }
+
+    /**
+     * Replace the snapshot with all headers of the store. The new file is written aside and moved in place.
+     */
+    void write(CompactHeaderStore headers, int logPosition) throws IOException {
+        close();
+        File temp = new File(file.getPath() + ".tmp");
+        Files.deleteIfExists(temp.toPath());
+        channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        crc.reset();
+        end = FILE_HEADER_SIZE;
+        int size = headers.size();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        for (int slot = 0; slot < size; ++slot) {
+            byte[] encoded = encode(headers, slot);
+            if (buffer.remaining() < 4 + CompactHeaderStore.SLOT_SIZE + encoded.length) {
+                flush(buffer);
+            }
+            if (buffer.remaining() < 4 + CompactHeaderStore.SLOT_SIZE + encoded.length) {
+                buffer = ByteBuffer.allocate(4 + CompactHeaderStore.SLOT_SIZE + encoded.length);
+            }
+            buffer.putInt(encoded.length);
+            headers.copySlot(slot, buffer);
+            buffer.put(encoded);
+        }
+        flush(buffer);
+        writeFileHeader(logPosition);
+        channel.force(true);
+        channel.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Open an existing snapshot for appending, after it was loaded.
+     */
+    void resume() throws IOException {
+        close();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        channel.read(fileHeader, 0);
+        long length = fileHeader.getLong(16);
+        crc.reset();
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, FILE_HEADER_SIZE, length);
+        crc.update(records);
+        end = FILE_HEADER_SIZE + length;
+    }
+
+    /**
+     * Append a stored header.
+     *
+     * @param logPosition the position in the header log of the database including this header
+     */
+    void append(CompactHeaderStore headers, int slot, int logPosition) throws IOException {
+        byte[] encoded = encode(headers, slot);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + CompactHeaderStore.SLOT_SIZE + encoded.length);
+        buffer.putInt(encoded.length);
+        headers.copySlot(slot, buffer);
+        buffer.put(encoded);
+        flush(buffer);
+        writeFileHeader(logPosition);
+    }
+
+    private static byte[] encode(CompactHeaderStore headers, int slot) {
+        StoredHeader header = headers.view(slot);
+        return header.getHeader().getClass() != BitcoinHeader.class ? header.toLevelDB() : new byte[0];
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+        buffer.clear();
+    }
+
+    private void writeFileHeader(int logPosition) throws IOException {
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        fileHeader.putInt(MAGIC).putInt(VERSION).putInt(logPosition).putInt((int) crc.getValue())
+                .putLong(end - FILE_HEADER_SIZE);
+        fileHeader.flip();
+        while (fileHeader.hasRemaining()) {
+            channel.write(fileHeader, FILE_HEADER_SIZE - fileHeader.remaining());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -13,53 +13,143 @@
  */
 package org.hyperledger.core;
 
+import org.hyperledger.HyperLedgerSettings;
 import org.hyperledger.common.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Predicate;
 
 class Mempool {
     private static final Logger log = LoggerFactory.getLogger(DefaultBlockStore.class);
 
-    private final Map<TID, ValidatedTransaction> transactions = new HashMap<>();
+    // rough heap cost of an entry besides its arrays: entry, its TID with array, map node and array headers
+    private static final int ENTRY_OVERHEAD = 160;
+    private static final int OUTPOINT_SIZE = 36;
+    // decoded transactions kept, those added last are likely parents of the next ones
+    private static final int DECODED_CACHE_SIZE = 1024;
+
+    private final Map<TID, Entry> transactions = new HashMap<>();
     private final Map<Outpoint, TID> spends = new HashMap<>();
+    private final Map<TID, ValidatedTransaction> decoded = new LinkedHashMap<TID, ValidatedTransaction>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TID, ValidatedTransaction> eldest) {
+            return size() > DECODED_CACHE_SIZE;
+        }
+    };
+    private long heapSize = 0;
+
+    // A transaction in wire format with what is needed to maintain the pool without decoding it
+    private static class Entry {
+        final TID id;
+        final byte[] wire;
+        final long fee;
+        final long arrival;
+        final int outputCount;
+        // source outpoints of inputs, 32 byte transaction id followed by 4 byte little endian output index each
+        final byte[] inputs;
+
+        Entry(ValidatedTransaction t) throws IOException {
+            id = t.getID();
+            wire = HyperLedgerSettings.getInstance().getTxWireFormatter().toWireBytes(t);
+            fee = t.getFee();
+            arrival = System.currentTimeMillis();
+            outputCount = t.getOutputs().size();
+            WireFormat.ArrayWriter writer = new WireFormat.ArrayWriter();
+            for (TransactionInput in : t.getInputs()) {
+                writer.writeHash(in.getSourceTransactionID());
+                writer.writeUint32(in.getOutputIndex());
+            }
+            inputs = writer.toByteArray();
+        }
+
+        int getInputCount() {
+            return inputs.length / OUTPOINT_SIZE;
+        }
+
+        TID getSourceTransactionID(int i) {
+            return TID.createFromSafeArray(Arrays.copyOfRange(inputs, i * OUTPOINT_SIZE, i * OUTPOINT_SIZE + 32));
+        }
+
+        long getHeapSize() {
+            return ENTRY_OVERHEAD + wire.length + inputs.length;
+        }
+
+        ValidatedTransaction decode() {
+            try {
+                Transaction t = HyperLedgerSettings.getInstance().getTxWireFormatter().fromWire(wire);
+                return new ValidatedTransaction(t, fee);
+            } catch (IOException e) {
+                // should not happen, it was serialized by us
+                log.error("Can not decode mempool entry {}", id, e);
+                return null;
+            }
+        }
+    }
 
     public synchronized ValidatedTransaction get(TID hash) {
-        return transactions.get(hash);
+        Entry e = transactions.get(hash);
+        if (e == null) {
+            return null;
+        }
+        ValidatedTransaction t = decoded.get(hash);
+        if (t == null && (t = e.decode()) != null) {
+            decoded.put(hash, t);
+        }
+        return t;
+    }
+
+    public synchronized boolean contains(TID hash) {
+        return transactions.containsKey(hash);
     }
 
     public synchronized int size() {
         return transactions.size();
     }
 
-    public synchronized Set<ValidatedTransaction> getConflicts(Transaction t) {
-        Set<ValidatedTransaction> conflicts = new HashSet<>();
+    /**
+     * @return estimated heap used by mempool entries in bytes, without the bounded cache of decoded transactions
+     */
+    public synchronized long getHeapSize() {
+        return heapSize;
+    }
+
+    public synchronized MempoolStatistics getStatistics() {
+        return new MempoolStatistics(transactions.size(), heapSize);
+    }
+
+    public synchronized Set<TID> getConflicts(Transaction t) {
+        Set<TID> conflicts = new HashSet<>();
         for (TransactionInput in : t.getInputs()) {
             TID ch = spends.get(in.getSource());
             if (ch != null && transactions.containsKey(ch))
-                conflicts.add(transactions.get(ch));
+                conflicts.add(ch);
         }
         return conflicts;
     }
 
     public synchronized Set<ValidatedTransaction> getSupported(Transaction t) {
-        Set<ValidatedTransaction> supported = new HashSet<>();
-        for (Coin o : t.getCoins()) {
-            TID sh = spends.get(o.getOutpoint());
-            if (sh != null && transactions.containsKey(sh)) {
-                ValidatedTransaction sup = transactions.get(sh);
-                supported.add(sup);
-                supported.addAll(getSupported(sup));
+        Set<TID> supported = new HashSet<>();
+        collectSupported(t.getID(), t.getOutputs().size(), supported);
+        return new HashSet<>(decode(supported));
+    }
+
+    private void collectSupported(TID id, int outputCount, Set<TID> supported) {
+        for (int i = 0; i < outputCount; ++i) {
+            TID sh = spends.get(new Outpoint(id, i));
+            Entry sup;
+            if (sh != null && (sup = transactions.get(sh)) != null && supported.add(sh)) {
+                collectSupported(sh, sup.outputCount, supported);
             }
         }
-        return supported;
     }
 
     public synchronized ValidatedTransaction getSpend(Coin c) {
         TID s = spends.get(c.getOutpoint());
-        if (s != null && transactions.containsKey(s)) {
-            return transactions.get(s);
+        if (s != null) {
+            return get(s);
         }
         return null;
     }
@@ -80,8 +170,8 @@ class Mempool {
     }
 
     public synchronized boolean isAvailable(Outpoint outpoint) {
-        ValidatedTransaction tv = transactions.get(outpoint.getTransactionId());
-        return tv != null && outpoint.getOutputIndex() < tv.getOutputs().size() && !spends.containsKey(outpoint);
+        Entry e = transactions.get(outpoint.getTransactionId());
+        return e != null && outpoint.getOutputIndex() < e.outputCount && !spends.containsKey(outpoint);
     }
 
     public synchronized void add(ValidatedTransaction t) throws HyperLedgerException {
@@ -91,26 +181,39 @@ class Mempool {
                 throw new HyperLedgerException("Transaction " + t + " would double spend " + in.getSource());
             }
         }
-        transactions.put(t.getID(), t);
+        Entry e;
+        try {
+            e = new Entry(t);
+        } catch (IOException ex) {
+            throw new HyperLedgerException(ex);
+        }
+        Entry replaced = transactions.put(t.getID(), e);
+        if (replaced != null) {
+            heapSize -= replaced.getHeapSize();
+        }
+        heapSize += e.getHeapSize();
+        decoded.put(t.getID(), t);
         for (TransactionInput in : t.getInputs()) {
             spends.put(in.getSource(), t.getID());
         }
     }
 
-    public synchronized Set<ValidatedTransaction> remove(TID hash, boolean transitive) {
-        Set<ValidatedTransaction> dropped = new HashSet<>();
+    public synchronized Set<TID> remove(TID hash, boolean transitive) {
+        Set<TID> dropped = new HashSet<>();
         if (hash != null) {
-            ValidatedTransaction t;
-            if ((t = transactions.remove(hash)) != null) {
-                dropped.add(t);
+            Entry e;
+            if ((e = transactions.remove(hash)) != null) {
+                heapSize -= e.getHeapSize();
+                decoded.remove(hash);
+                dropped.add(hash);
                 if (transitive) {
-                    for (Coin o : t.getCoins()) {
-                        dropped.addAll(remove(spends.remove(o.getOutpoint()), true));
+                    for (int i = 0; i < e.outputCount; ++i) {
+                        dropped.addAll(remove(spends.remove(new Outpoint(hash, i)), true));
                     }
                     return dropped;
                 } else {
-                    for (Coin o : t.getCoins()) {
-                        spends.remove(o.getOutpoint());
+                    for (int i = 0; i < e.outputCount; ++i) {
+                        spends.remove(new Outpoint(hash, i));
                     }
                 }
             }
@@ -119,18 +222,32 @@ class Mempool {
     }
 
     public synchronized List<ValidatedTransaction> getInventory() {
-        List<ValidatedTransaction> result = new ArrayList<>();
-        DependencyOrderedTx dependencyOrder = new DependencyOrderedTx();
-        for (ValidatedTransaction tx : dependencyOrder) {
-            result.add(tx);
+        return decode(dependencyOrder());
+    }
+
+    /**
+     * @return ids highest fee first, but parents before their children, without decoding
+     */
+    public synchronized List<TID> getOrder() {
+        return dependencyOrder();
+    }
+
+    /**
+     * @return the transactions in the order of ids, those not in the pool are left out
+     */
+    public synchronized List<ValidatedTransaction> getAll(List<TID> ids) {
+        List<TID> present = new ArrayList<>(ids.size());
+        for (TID id : ids) {
+            if (transactions.containsKey(id)) {
+                present.add(id);
+            }
         }
-        return result;
+        return decode(present);
     }
 
     public synchronized List<ValidatedTransaction> scanUnconfirmedPool(Set<ByteVector> matchSet) {
         List<ValidatedTransaction> matched = new ArrayList<>();
-        DependencyOrderedTx dependencyOrder = new DependencyOrderedTx();
-        for (ValidatedTransaction t : dependencyOrder) {
+        for (ValidatedTransaction t : decode(dependencyOrder())) {
             if (TransactionMatcher.matches(t, matchSet)) {
                 matched.add(t);
             }
@@ -138,6 +255,31 @@ class Mempool {
         return matched;
     }
 
+    public synchronized List<ValidatedTransaction> find(Predicate<TID> filter) {
+        List<TID> matched = new ArrayList<>();
+        for (TID id : transactions.keySet()) {
+            if (filter.test(id)) {
+                matched.add(id);
+            }
+        }
+        return decode(matched);
+    }
+
+    private List<ValidatedTransaction> decode(Collection<TID> ids) {
+        List<ValidatedTransaction> result = new ArrayList<>(ids.size());
+        for (TID id : ids) {
+            // not added to the cache, a full listing would displace the recent ones
+            ValidatedTransaction t = decoded.get(id);
+            if (t == null) {
+                t = transactions.get(id).decode();
+            }
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
     private static void transitiveOrder(List<ValidatedTransaction> ordered, Set<TID> used, ValidatedTransaction t,
                                         Map<TID, ValidatedTransaction> context) {
         for (TransactionInput in : t.getInputs()) {
@@ -150,21 +292,29 @@ class Mempool {
         }
     }
 
-    private class DependencyOrderedTx implements Iterable<ValidatedTransaction> {
-        @Override
-        public Iterator<ValidatedTransaction> iterator() {
-            synchronized (Mempool.this) {
-                Set<TID> used = new HashSet<>(transactions.size());
-                List<ValidatedTransaction> ordered = new ArrayList<>(transactions.size());
-
-                List<ValidatedTransaction> feeOrder = new ArrayList<>();
-                feeOrder.addAll(transactions.values());
-                Collections.sort(feeOrder, (a, b) -> (int) (b.getFee() - a.getFee()));
-                for (ValidatedTransaction t : feeOrder) {
-                    transitiveOrder(ordered, used, t, transactions);
-                }
-                return ordered.iterator();
+    private void transitiveOrder(List<TID> ordered, Set<TID> used, Entry e) {
+        for (int i = 0; i < e.getInputCount(); ++i) {
+            TID source = e.getSourceTransactionID(i);
+            Entry s;
+            if (!used.contains(source) && (s = transactions.get(source)) != null) {
+                transitiveOrder(ordered, used, s);
             }
         }
+        if (used.add(e.id)) {
+            ordered.add(e.id);
+        }
+    }
+
+    // highest fee first, but parents before their children
+    private List<TID> dependencyOrder() {
+        Set<TID> used = new HashSet<>(transactions.size());
+        List<TID> ordered = new ArrayList<>(transactions.size());
+
+        List<Entry> feeOrder = new ArrayList<>(transactions.values());
+        Collections.sort(feeOrder, (a, b) -> (int) (b.fee - a.fee));
+        for (Entry e : feeOrder) {
+            transitiveOrder(ordered, used, e);
+        }
+        return ordered;
     }
 }
@@ -0,0 +1,50 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+/**
+ * Size of the mempool and its estimated heap use.
+ */
+public class MempoolStatistics {
+    private final int size;
+    private final long heapSize;
+
+    public MempoolStatistics(int size, long heapSize) {
+        this.size = size;
+        this.heapSize = heapSize;
+    }
+
+    /**
+     * @return number of transactions
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return estimated heap used by the transactions in bytes
+     */
+    public long getHeapSize() {
+        return heapSize;
+    }
+
+    public long getHeapPerTransaction() {
+        return heapSize / Math.max(1, size);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d transactions, heap %d B, %d B/tx", size, heapSize, getHeapPerTransaction());
+    }
+}
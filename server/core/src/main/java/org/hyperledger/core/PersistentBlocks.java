@@ -15,9 +15,11 @@ package org.hyperledger.core;
 
 import org.hyperledger.common.*;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface PersistentBlocks {
     void start();
@@ -32,16 +34,58 @@ public interface PersistentBlocks {
 
     byte[] readMisc(BID id);
 
+    /**
+     * @return the undo record of a stored block, built from its transactions for blocks stored before undo
+     * records were kept. Null if the block is not stored.
+     */
+    BlockUndo readUndo(BID id) throws HyperLedgerException;
+
     PersistenceStatistics writeBlock(StoredBlock b) throws HyperLedgerException;
 
     boolean writeMisc(BID id, byte[] data);
 
+    /**
+     * Collect the writes until endGroup into one write of the store. Blocks written in a group are readable at once,
+     * but durable only after endGroup.
+     */
+    void startGroup();
+
+    /**
+     * @return bytes written since startGroup
+     */
+    long getGroupSize();
+
+    void endGroup();
+
     void readHeaders(Map<BID, StoredHeader> headers) throws HyperLedgerException;
 
+    /**
+     * @return the number of entries in the header log, that lists the ids of headers in the order stored
+     */
+    int getHeaderLogSize();
+
+    /**
+     * @return the ids in the header log from a position to its end
+     */
+    List<BID> readHeaderLog(int from) throws HyperLedgerException;
+
+    /**
+     * @return the file to keep a snapshot of the stored headers in, null if no snapshot is kept
+     */
+    File getHeaderSnapshotFile();
+
     boolean isEmpty();
 
     boolean hasTransaction(TID hash) throws HyperLedgerException;
 
+    /**
+     * Read the ids of stored transactions.
+     *
+     * @param prefix   the first bytes of the ids wanted
+     * @param consumer receives the ids in no particular order
+     */
+    void readTransactionIds(byte[] prefix, Consumer<TID> consumer) throws HyperLedgerException;
+
     List<TID> readBlockTIDList(BID hash) throws HyperLedgerException;
 
     boolean hasBlock(BID hash) throws HyperLedgerException;
@@ -53,4 +97,9 @@ public interface PersistentBlocks {
     Set<StoredTransaction> getSpendingTransactions(Outpoint outpoint) throws HyperLedgerException;
 
     void updateBlock(StoredBlock prunedBlock) throws HyperLedgerException;
+
+    /**
+     * Store several pruned blocks in one batch.
+     */
+    void updateBlocks(List<StoredBlock> prunedBlocks) throws HyperLedgerException;
 }
@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.BID;
+import org.hyperledger.common.Block;
+import org.hyperledger.common.Outpoint;
+import org.hyperledger.common.Transaction;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A block validated by {@link BlockStore#prepareBlock(Block)}, ready to be committed with
+ * {@link BlockStore#commitBlock(PreparedBlock)}.
+ * <p>
+ * The validation result holds as long as the chain tops did not move since the block was prepared.
+ */
+public class PreparedBlock {
+    private final Block block;
+    private final StoredBlock validatedBlock;
+    private final Map<Outpoint, Transaction> referredOutputs;
+    private final List<BID> added;
+    private final List<BID> removed;
+    private final long validationTime;
+
+    // tops at the time of validation
+    private final BID spvTop;
+    private final BID fullTop;
+
+    PreparedBlock(Block block, StoredBlock validatedBlock, Map<Outpoint, Transaction> referredOutputs,
+                  List<BID> added, List<BID> removed, long validationTime, BID spvTop, BID fullTop) {
+        this.block = block;
+        this.validatedBlock = validatedBlock;
+        this.referredOutputs = referredOutputs;
+        this.added = added;
+        this.removed = removed;
+        this.validationTime = validationTime;
+        this.spvTop = spvTop;
+        this.fullTop = fullTop;
+    }
+
+    public BID getID() {
+        return block.getID();
+    }
+
+    /**
+     * @return the block as it was offered
+     */
+    public Block getBlock() {
+        return block;
+    }
+
+    /**
+     * @return the block with validated transactions
+     */
+    public StoredBlock getValidatedBlock() {
+        return validatedBlock;
+    }
+
+    /**
+     * @return the transactions holding the outputs spent by the block
+     */
+    public Map<Outpoint, Transaction> getReferredOutputs() {
+        return referredOutputs;
+    }
+
+    List<BID> getAdded() {
+        return added;
+    }
+
+    List<BID> getRemoved() {
+        return removed;
+    }
+
+    long getValidationTime() {
+        return validationTime;
+    }
+
+    boolean isPreparedOn(BID spvTop, BID fullTop) {
+        return this.spvTop.equals(spvTop) && this.fullTop.equals(fullTop);
+    }
+}
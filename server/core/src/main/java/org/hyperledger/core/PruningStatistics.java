@@ -0,0 +1,80 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+/**
+ * Progress of the pruner since start. Times are in milliseconds.
+ */
+public class PruningStatistics {
+    private final long blocksAnalyzed;
+    private final long blocksPruned;
+    private final long transactionsPruned;
+    private final long analysisTime;
+    private final long writeTime;
+    private final int backlog;
+
+    public PruningStatistics(long blocksAnalyzed, long blocksPruned, long transactionsPruned, long analysisTime,
+                             long writeTime, int backlog) {
+        this.blocksAnalyzed = blocksAnalyzed;
+        this.blocksPruned = blocksPruned;
+        this.transactionsPruned = transactionsPruned;
+        this.analysisTime = analysisTime;
+        this.writeTime = writeTime;
+        this.backlog = backlog;
+    }
+
+    public long getBlocksAnalyzed() {
+        return blocksAnalyzed;
+    }
+
+    public long getBlocksPruned() {
+        return blocksPruned;
+    }
+
+    public long getTransactionsPruned() {
+        return transactionsPruned;
+    }
+
+    /**
+     * @return wall clock time of analysis, batches are analyzed in parallel
+     */
+    public long getAnalysisTime() {
+        return analysisTime;
+    }
+
+    /**
+     * @return time the block store was locked for writing pruned blocks
+     */
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * @return blocks left in the current sweep
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public double getBlocksPerSecond() {
+        long time = analysisTime + writeTime;
+        return time > 0 ? blocksAnalyzed * 1000.0 / time : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("analyzed %d blocks, pruned %d transactions in %d blocks, %.1f blocks/s, backlog %d",
+                blocksAnalyzed, transactionsPruned, blocksPruned, getBlocksPerSecond(), backlog);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.Hash;
+
+/**
+ * A bloom filter of the most recently added hashes.
+ * <p>
+ * Two generations of filters are kept. Once the current generation holds its capacity it becomes the previous
+ * and a new one is started, so the filter remembers at least the last capacity and at most twice that many
+ * entries, with a false positive rate bounded by that of a single generation times two.
+ */
+public class RollingBloomFilter {
+    private final int capacity;
+    private final double falsePositiveProbability;
+
+    private BloomFilter current;
+    private BloomFilter previous;
+    private int count;
+
+    /**
+     * @param capacity                 number of hashes a generation holds
+     * @param falsePositiveProbability target false positive probability of a generation
+     */
+    public RollingBloomFilter(int capacity, double falsePositiveProbability) {
+        this.capacity = capacity;
+        this.falsePositiveProbability = falsePositiveProbability;
+        clear();
+    }
+
+    public synchronized void add(Hash hash) {
+        if (count == capacity) {
+            previous = current;
+            current = createGeneration();
+            count = 0;
+        }
+        current.add(hash.unsafeGetArray());
+        ++count;
+    }
+
+    /**
+     * @param hash a hash
+     * @return true if the hash was recently added, or by chance of a false positive
+     */
+    public synchronized boolean contains(Hash hash) {
+        byte[] data = hash.unsafeGetArray();
+        return current.contains(data) || (previous != null && previous.contains(data));
+    }
+
+    public synchronized void clear() {
+        current = createGeneration();
+        previous = null;
+        count = 0;
+    }
+
+    private BloomFilter createGeneration() {
+        return BloomFilter.createOptimalFilter(capacity, falsePositiveProbability, BloomFilter.UpdateMode.none);
+    }
+}
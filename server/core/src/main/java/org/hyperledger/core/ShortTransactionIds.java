@@ -0,0 +1,55 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.hyperledger.common.BID;
+import org.hyperledger.common.Hash;
+import org.hyperledger.common.TID;
+
+/**
+ * Short transaction ids of a compact block, 48 bits of SipHash-2-4 of the transaction id.
+ * <p>
+ * The hash is keyed with the block id and a nonce of the sender, so that colliding transactions
+ * can not be prepared in advance.
+ */
+public class ShortTransactionIds {
+    public static final int SHORT_ID_BITS = 48;
+    private static final long SHORT_ID_MASK = (1L << SHORT_ID_BITS) - 1;
+
+    private final HashFunction sipHash;
+
+    public ShortTransactionIds(BID blockID, long nonce) {
+        byte[] seed = new byte[40];
+        System.arraycopy(blockID.unsafeGetArray(), 0, seed, 0, 32);
+        for (int i = 0; i < 8; ++i) {
+            seed[32 + i] = (byte) (nonce >>> (8 * i));
+        }
+        byte[] key = Hash.sha256(seed);
+        sipHash = Hashing.sipHash24(littleEndian(key, 0), littleEndian(key, 8));
+    }
+
+    public long shortId(TID id) {
+        return sipHash.hashBytes(id.unsafeGetArray()).asLong() & SHORT_ID_MASK;
+    }
+
+    private static long littleEndian(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; --i) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
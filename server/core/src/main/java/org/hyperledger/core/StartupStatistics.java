@@ -0,0 +1,91 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+/**
+ * Time spent in the phases of reading the block tree at start, in milliseconds.
+ */
+public class StartupStatistics {
+    private final int snapshotHeaders;
+    private final long snapshotTime;
+    private final int logHeaders;
+    private final long logTime;
+    private final int databaseHeaders;
+    private final long databaseTime;
+    private final long linkTime;
+    private final long totalTime;
+
+    public StartupStatistics(int snapshotHeaders, long snapshotTime, int logHeaders, long logTime,
+                             int databaseHeaders, long databaseTime, long linkTime, long totalTime) {
+        this.snapshotHeaders = snapshotHeaders;
+        this.snapshotTime = snapshotTime;
+        this.logHeaders = logHeaders;
+        this.logTime = logTime;
+        this.databaseHeaders = databaseHeaders;
+        this.databaseTime = databaseTime;
+        this.linkTime = linkTime;
+        this.totalTime = totalTime;
+    }
+
+    /**
+     * @return headers read from the header snapshot
+     */
+    public int getSnapshotHeaders() {
+        return snapshotHeaders;
+    }
+
+    public long getSnapshotTime() {
+        return snapshotTime;
+    }
+
+    /**
+     * @return headers stored after the snapshot was taken, read in parallel
+     */
+    public int getLogHeaders() {
+        return logHeaders;
+    }
+
+    public long getLogTime() {
+        return logTime;
+    }
+
+    /**
+     * @return headers read by a full scan of the database, if there was no usable snapshot
+     */
+    public int getDatabaseHeaders() {
+        return databaseHeaders;
+    }
+
+    public long getDatabaseTime() {
+        return databaseTime;
+    }
+
+    /**
+     * @return time to link headers and find the trunk
+     */
+    public long getLinkTime() {
+        return linkTime;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    @Override
+    public String toString() {
+        return "snapshot " + snapshotHeaders + " headers in " + snapshotTime + " ms, log " + logHeaders +
+                " headers in " + logTime + " ms, database " + databaseHeaders + " headers in " + databaseTime +
+                " ms, linking " + linkTime + " ms, total " + totalTime + " ms";
+    }
+}
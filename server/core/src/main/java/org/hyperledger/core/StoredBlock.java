@@ -15,7 +15,6 @@ package org.hyperledger.core;
 
 import com.google.protobuf.ByteString;
 import org.hyperledger.common.Block;
-import org.hyperledger.common.HeaderWithSignatures;
 import org.hyperledger.common.MerkleTreeNode;
 import org.hyperledger.model.LevelDBStore;
 
@@ -29,7 +28,7 @@ public class StoredBlock extends Block {
         super(header, transactions);
     }
 
-    public double getChainWork() {
+    public ChainWork getChainWork() {
         return getHeader().getChainWork();
     }
 
@@ -50,24 +49,8 @@ public class StoredBlock extends Block {
     }
 
 
-    @SuppressWarnings("deprecation")
     public byte[] toLevelDBHeader() {
-        LevelDBStore.BLOCKHEADER.Builder builder = LevelDBStore.BLOCKHEADER.newBuilder();
-        builder.setVersion(getVersion());
-        builder.setPreviousHash(ByteString.copyFrom(getPreviousID().unsafeGetArray()));
-        builder.setMerkleRoot(ByteString.copyFrom(getMerkleRoot().unsafeGetArray()));
-        builder.setCreateTime(getCreateTime());
-        builder.setDifficultyTarget(getDifficultyTarget());
-        builder.setNonce(getNonce());
-        builder.setHeight(getHeight());
-        builder.setChainWork(getChainWork());
-        if (getHeader().getHeader() instanceof HeaderWithSignatures) {
-            HeaderWithSignatures headerWithSignatures = (HeaderWithSignatures) getHeader().getHeader();
-            builder.setInScript(ByteString.copyFrom(headerWithSignatures.getInScript().toByteArray()));
-            builder.setNextScriptHash(ByteString.copyFrom(headerWithSignatures.getNextScriptHash()));
-        }
-
-        return builder.build().toByteArray();
+        return getHeader().toLevelDB();
     }
 
     public byte[] toLevelDBContent() {
@@ -13,25 +13,31 @@
  */
 package org.hyperledger.core;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.hyperledger.common.*;
 import org.hyperledger.model.LevelDBStore;
 
 public class StoredHeader extends ValidatedHeader {
-    private double chainWork;
+    private ChainWork chainWork;
     private int height;
 
-    public StoredHeader(Header h, double chainWork, int height) {
+    // set if this is a view of a header in a CompactHeaderStore
+    private CompactHeaderStore store;
+    private int slot;
+    private BID id;
+
+    public StoredHeader(Header h, ChainWork chainWork, int height) {
         super(h);
         this.chainWork = chainWork;
         this.height = height;
     }
 
-    public double getChainWork() {
+    public ChainWork getChainWork() {
         return chainWork;
     }
 
-    public void setChainWork(double chainWork) {
+    public void setChainWork(ChainWork chainWork) {
         this.chainWork = chainWork;
     }
 
@@ -43,6 +49,75 @@ public class StoredHeader extends ValidatedHeader {
         this.height = height;
     }
 
+    void attach(CompactHeaderStore store, int slot, BID id) {
+        this.store = store;
+        this.slot = slot;
+        this.id = id;
+    }
+
+    /**
+     * @return the slot in the header store, -1 if not stored
+     */
+    int getSlot() {
+        return store != null ? slot : -1;
+    }
+
+    @Override
+    public BID getID() {
+        // the stored id spares hashing the header again
+        return id != null ? id : super.getID();
+    }
+
+    /**
+     * @return the previous header if this header is stored and connected
+     */
+    public StoredHeader getPrevious() {
+        if (store == null) {
+            return null;
+        }
+        int previous = store.previousSlot(slot);
+        return previous >= 0 ? store.view(previous) : null;
+    }
+
+    /**
+     * Find the ancestor at a height in O(log n) steps following skip links.
+     *
+     * @param height the height of the ancestor
+     * @return the ancestor, this header at its own height, or null if out of range or not stored
+     */
+    public StoredHeader getAncestor(int height) {
+        if (height == this.height) {
+            return this;
+        }
+        if (store == null) {
+            return null;
+        }
+        int ancestor = store.ancestorSlot(slot, height);
+        return ancestor >= 0 ? store.view(ancestor) : null;
+    }
+
+    @SuppressWarnings("deprecation")
+    public byte[] toLevelDB() {
+        LevelDBStore.BLOCKHEADER.Builder builder = LevelDBStore.BLOCKHEADER.newBuilder();
+        builder.setVersion(getVersion());
+        builder.setPreviousHash(ByteString.copyFrom(getPreviousID().unsafeGetArray()));
+        builder.setMerkleRoot(ByteString.copyFrom(getMerkleRoot().unsafeGetArray()));
+        builder.setCreateTime(getCreateTime());
+        builder.setDifficultyTarget(getDifficultyTarget());
+        builder.setNonce(getNonce());
+        builder.setHeight(getHeight());
+        // the double is kept for earlier versions reading the record
+        builder.setChainWork(getChainWork().doubleValue());
+        builder.setWork(ByteString.copyFrom(getChainWork().toByteArray()));
+        if (getHeader() instanceof HeaderWithSignatures) {
+            HeaderWithSignatures headerWithSignatures = (HeaderWithSignatures) getHeader();
+            builder.setInScript(ByteString.copyFrom(headerWithSignatures.getInScript().toByteArray()));
+            builder.setNextScriptHash(ByteString.copyFrom(headerWithSignatures.getNextScriptHash()));
+        }
+
+        return builder.build().toByteArray();
+    }
+
     public static StoredHeader fromLevelDB(byte[] data) throws HyperLedgerException {
         LevelDBStore.BLOCKHEADER p;
         try {
@@ -61,14 +136,16 @@ public class StoredHeader extends ValidatedHeader {
                     .createTime(p.getCreateTime())
                     .difficultyTarget(p.getDifficultyTarget())
                     .nonce(p.getNonce()).build();
-            return new StoredHeader(b, p.getChainWork(), p.getHeight());
+            ChainWork chainWork = p.hasWork() ? ChainWork.fromByteArray(p.getWork().toByteArray()) :
+                    ChainWork.valueOf(p.getChainWork());
+            return new StoredHeader(b, chainWork, p.getHeight());
         } catch (InvalidProtocolBufferException e) {
             throw new HyperLedgerException(e);
         }
     }
 
     public static int compareHeaders(StoredHeader a, StoredHeader b) {
-        return Double.compare(a.getChainWork(), b.getChainWork());
+        return a.getChainWork().compareTo(b.getChainWork());
     }
 
 
@@ -0,0 +1,142 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import com.google.common.base.Stopwatch;
+import org.hyperledger.common.HyperLedgerException;
+import org.hyperledger.common.TID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * A bloom filter of the ids of stored transactions, a transaction it does not contain is not looked up in the database.
+ * <p>
+ * The stored ids are read in the background after a start, transactions stored meanwhile and thereafter are added as
+ * written. Until all are read every id might be stored. The filter grows by generations of doubling capacity, so that
+ * it never has to be read again. Ids of pruned transactions remain, at the cost of a lookup.
+ */
+class StoredTransactionFilter {
+    private static final Logger log = LoggerFactory.getLogger(StoredTransactionFilter.class);
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    // bits of a generation must be addressable by int
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private final PersistentBlocks persistentBlocks;
+    private final ReadWriteLock lock;
+    private final int tweak = new SecureRandom().nextInt();
+
+    private final List<BloomFilter> generations = new ArrayList<>();
+    private int capacity;
+    private int count;
+    private long size;
+
+    private Thread thread;
+    private volatile boolean complete;
+
+    StoredTransactionFilter(PersistentBlocks persistentBlocks, ReadWriteLock lock) {
+        this.persistentBlocks = persistentBlocks;
+        this.lock = lock;
+        addGeneration(INITIAL_CAPACITY);
+    }
+
+    void start() {
+        thread = new Thread(this::readStored);
+        thread.setDaemon(true);
+        thread.setName("stored-transactions");
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    synchronized void add(TID id) {
+        if (count == capacity) {
+            addGeneration(Math.min(capacity * 2, MAX_CAPACITY));
+        }
+        generations.get(generations.size() - 1).add(id.unsafeGetArray());
+        ++count;
+        ++size;
+    }
+
+    /**
+     * @param id a transaction id
+     * @return false only if the transaction is certainly not stored
+     */
+    boolean mightContain(TID id) {
+        if (!complete) {
+            return true;
+        }
+        byte[] data = id.unsafeGetArray();
+        synchronized (this) {
+            for (BloomFilter generation : generations) {
+                if (generation.contains(data)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    private void addGeneration(int capacity) {
+        // http://en.wikipedia.org/wiki/Bloom_filter#Probability_of_false_positives
+        double ln2 = Math.log(2.0);
+        int bytes = (int) Math.ceil(-capacity * Math.log(FALSE_POSITIVE_PROBABILITY) / (ln2 * ln2) / 8.0);
+        int hashFunctions = Math.max(1, (int) Math.round(bytes * 8.0 / capacity * ln2));
+        generations.add(new BloomFilter(new byte[bytes], hashFunctions, tweak, BloomFilter.UpdateMode.none));
+        this.capacity = capacity;
+        count = 0;
+    }
+
+    private void readStored() {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            // in slices by first byte, the store is written only between them
+            for (int first = 0; first < 256; ++first) {
+                if (Thread.interrupted()) {
+                    return;
+                }
+                lock.readLock().lock();
+                try {
+                    persistentBlocks.readTransactionIds(new byte[]{(byte) first}, this::add);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            complete = true;
+            log.info("Read ids of stored transactions in {} ms, filter of {} ids in {} generations",
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS), size, generationCount());
+        } catch (HyperLedgerException | RuntimeException e) {
+            log.warn("Can not read ids of stored transactions, all are looked up in the database: {}", e.getMessage());
+        }
+    }
+
+    private synchronized int generationCount() {
+        return generations.size();
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.BID;
+
+import java.util.Arrays;
+
+/**
+ * The trunk (the longest chain in the tree of headers) as slots of the header store indexed by height.
+ * <p>
+ * Not thread safe, guarded by the lock of the block store.
+ */
+class Trunk implements BlockStore.TrunkFilter {
+    private final CompactHeaderStore headers;
+    private int[] chain = new int[1024];
+    private int size;
+
+    Trunk(CompactHeaderStore headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public boolean contains(BID id) {
+        int slot = headers.slotOf(id);
+        return slot >= 0 && containsSlot(slot);
+    }
+
+    public boolean contains(StoredHeader header) {
+        int slot = header.getSlot();
+        return slot >= 0 ? containsSlot(slot) : contains(header.getID());
+    }
+
+    private boolean containsSlot(int slot) {
+        int height = headers.height(slot);
+        return height < size && chain[height] == slot;
+    }
+
+    /**
+     * @return number of headers on the trunk, that is the height of the top plus one
+     */
+    public int size() {
+        return size;
+    }
+
+    public StoredHeader get(int height) {
+        return height >= 0 && height < size ? headers.view(chain[height]) : null;
+    }
+
+    public StoredHeader getTop() {
+        return size > 0 ? headers.view(chain[size - 1]) : null;
+    }
+
+    /**
+     * Extend the trunk with a stored header building on its top.
+     */
+    public void push(StoredHeader header) {
+        if (header.getHeight() != size || header.getSlot() < 0) {
+            throw new IllegalArgumentException("Header " + header.getID() + " at height " + header.getHeight() +
+                    " does not extend a trunk of size " + size);
+        }
+        if (size == chain.length) {
+            chain = Arrays.copyOf(chain, size * 2);
+        }
+        chain[size++] = header.getSlot();
+    }
+
+    /**
+     * Remove the top header.
+     */
+    public StoredHeader pop() {
+        return headers.view(chain[--size]);
+    }
+
+    /**
+     * Replace the trunk with the chain leading to a stored header.
+     */
+    public void reset(StoredHeader top) {
+        size = top.getHeight() + 1;
+        if (size > chain.length) {
+            chain = new int[Math.max(size * 2, 1024)];
+        }
+        for (int slot = top.getSlot(); slot >= 0; slot = headers.previousSlot(slot)) {
+            chain[headers.height(slot)] = slot;
+        }
+    }
+
+    /**
+     * @return a copy of the lowest headers of the trunk, not affected by later changes
+     */
+    public Trunk snapshot(int size) {
+        Trunk copy = new Trunk(headers);
+        copy.size = Math.min(size, this.size);
+        copy.chain = Arrays.copyOf(chain, Math.max(copy.size, 1));
+        return copy;
+    }
+
+    /**
+     * Find the highest header shared by the trunk and the chain leading to header.
+     * Trunk membership of ancestors is monotone in height, so this is a binary search over skip lookups.
+     *
+     * @return the fork point, null if header does not connect to the trunk
+     */
+    public StoredHeader findFork(StoredHeader header) {
+        if (contains(header)) {
+            return header;
+        }
+        int slot = header.getSlot() >= 0 ? header.getSlot() : headers.slotOf(header.getPreviousID());
+        if (slot < 0) {
+            return null;
+        }
+        int low = 0;
+        int high = Math.min(headers.height(slot), size - 1);
+        int fork = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int ancestor = headers.ancestorSlot(slot, mid);
+            if (ancestor >= 0 && containsSlot(ancestor)) {
+                fork = ancestor;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return fork >= 0 ? headers.view(fork) : null;
+    }
+}
@@ -40,7 +40,7 @@ public class UnitTestBitcoinValidatorFactory extends BitcoinValidatorFactory {
                     ++height;
 
                     next.setChainWork(
-                            p.getChainWork() + 1.0);
+                            p.getChainWork().add(ChainWork.ONE));
                     next.setHeight(height);
                     p = next;
                 }
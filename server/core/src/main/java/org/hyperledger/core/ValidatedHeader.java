@@ -14,6 +14,7 @@
 package org.hyperledger.core;
 
 import org.hyperledger.common.BID;
+import org.hyperledger.common.Hash;
 import org.hyperledger.common.Header;
 import org.hyperledger.common.MerkleRoot;
 import org.hyperledger.common.WireFormat;
@@ -33,6 +34,11 @@ public class ValidatedHeader implements Header {
         return header.getID();
     }
 
+    @Override
+    public Hash getProofOfWorkHash() {
+        return header.getProofOfWorkHash();
+    }
+
     @Override
     public int getVersion() {
         return header.getVersion();
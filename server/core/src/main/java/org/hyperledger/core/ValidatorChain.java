@@ -13,6 +13,7 @@
  */
 package org.hyperledger.core;
 
+import org.hyperledger.common.Header;
 import org.hyperledger.common.HyperLedgerException;
 import org.hyperledger.common.Outpoint;
 import org.hyperledger.common.Transaction;
@@ -41,6 +42,14 @@ public class ValidatorChain implements BlockHeaderValidator, BlockBodyValidator,
         return b;
     }
 
+    @Override
+    public StoredBlock validateCertifiedBody(BlockStore blockStore, StoredBlock b, Map<Outpoint, Transaction> referred) throws HyperLedgerException {
+        for (ValidatorFactory vf : validatorFactories) {
+            b = vf.getBodyValidator().validateCertifiedBody(blockStore, b, referred);
+        }
+        return b;
+    }
+
     @Override
     public void validateHeader(BlockStore blockStore, StoredHeader b) throws HyperLedgerException {
         for (ValidatorFactory vf : validatorFactories) {
@@ -48,6 +57,20 @@ public class ValidatorChain implements BlockHeaderValidator, BlockBodyValidator,
         }
     }
 
+    @Override
+    public void checkHeader(StoredHeader b, Header previous) throws HyperLedgerException {
+        for (ValidatorFactory vf : validatorFactories) {
+            vf.getHeaderValidator().checkHeader(b, previous);
+        }
+    }
+
+    @Override
+    public void validateHeaderInContext(BlockStore blockStore, StoredHeader b) throws HyperLedgerException {
+        for (ValidatorFactory vf : validatorFactories) {
+            vf.getHeaderValidator().validateHeaderInContext(blockStore, b);
+        }
+    }
+
     @Override
     public void validatePath(BlockStore blockStore, StoredHeader join, List<StoredHeader> path) throws HyperLedgerException {
         for (ValidatorFactory vf : validatorFactories) {
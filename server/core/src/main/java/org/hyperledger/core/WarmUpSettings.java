@@ -0,0 +1,48 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import java.io.File;
+
+/**
+ * What is read into the caches after a start, see {@link CacheWarmer}.
+ */
+public class WarmUpSettings {
+
+    public static final WarmUpSettings NO_WARM_UP = new WarmUpSettings(false, 0, 0, 0, null);
+
+    final boolean enabled;
+    final int blocks;
+    final int recentTransactions;
+    final int maxReadsPerSecond;
+    final File recentTransactionsFile;
+
+    /**
+     * @param blocks                 unspent outputs and output script index entries of this many top blocks are read
+     * @param recentTransactions     this many transactions last queried by clients are read
+     * @param maxReadsPerSecond      bound of database reads, 0 for no bound
+     * @param recentTransactionsFile file to keep the ids of recently queried transactions in at stop, null if not kept
+     */
+    public WarmUpSettings(boolean enabled, int blocks, int recentTransactions, int maxReadsPerSecond, File recentTransactionsFile) {
+        this.enabled = enabled;
+        this.blocks = blocks;
+        this.recentTransactions = recentTransactions;
+        this.maxReadsPerSecond = maxReadsPerSecond;
+        this.recentTransactionsFile = recentTransactionsFile;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
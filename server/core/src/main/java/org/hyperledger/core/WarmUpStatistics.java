@@ -0,0 +1,74 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+/**
+ * Progress of reading caches after a start. Times are in milliseconds.
+ */
+public class WarmUpStatistics {
+    public static final WarmUpStatistics COMPLETE = new WarmUpStatistics(0, 0, 0, 0, true);
+
+    private final int steps;
+    private final int stepsDone;
+    private final long reads;
+    private final long time;
+    private final boolean complete;
+
+    public WarmUpStatistics(int steps, int stepsDone, long reads, long time, boolean complete) {
+        this.steps = steps;
+        this.stepsDone = stepsDone;
+        this.reads = reads;
+        this.time = time;
+        this.complete = complete;
+    }
+
+    /**
+     * @return blocks and transactions to read
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    public int getStepsDone() {
+        return stepsDone;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return between 0 and 1, 1 once complete
+     */
+    public double getProgress() {
+        if (complete) {
+            return 1.0;
+        }
+        return steps == 0 ? 0.0 : Math.min(1.0, (double) stepsDone / steps);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d of %d blocks and transactions read with %d reads in %d ms",
+                complete ? "complete" : "warming up", stepsDone, steps, reads, time);
+    }
+}
@@ -13,10 +13,15 @@
  */
 package org.hyperledger.core.bitcoin;
 
+import org.hyperledger.common.Hash;
 import org.hyperledger.common.Header;
 import org.hyperledger.core.BlockStore;
+import org.hyperledger.core.ChainWork;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BitcoinDifficulty {
 
@@ -26,10 +31,71 @@ public class BitcoinDifficulty {
 
     private final int targetBlockTime;
 
+    // the encoded difficulty changes rarely, so conversions are cached by it
+    private static final int CACHE_SIZE = 1024;
+    private static final Map<Integer, byte[]> targetBytesCache = new ConcurrentHashMap<>();
+    private final Map<Integer, ChainWork> workCache = new ConcurrentHashMap<>();
+
     public static BigInteger getTarget(int compactTarget) {
         return BigInteger.valueOf(compactTarget & 0x7fffffL).shiftLeft((int) (8 * ((compactTarget >>> 24) - 3)));
     }
 
+    /**
+     * The target as a 32 byte little endian unsigned integer, the byte order of a Hash
+     *
+     * @param compactTarget encoded difficulty
+     * @return target in the byte order of a Hash
+     */
+    public static byte[] getTargetBytes(int compactTarget) {
+        BigInteger target = getTarget(compactTarget);
+        byte[] bytes = new byte[32];
+        if (target.bitLength() > 256) {
+            Arrays.fill(bytes, (byte) 0xff);
+            return bytes;
+        }
+        byte[] bigEndian = target.toByteArray();
+        for (int i = 0; i < bigEndian.length && i < 32; ++i) {
+            bytes[i] = bigEndian[bigEndian.length - 1 - i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Proof-of-work check comparing the raw bytes of the hash to the cached target.
+     *
+     * @param hash          proof-of-work hash of a header
+     * @param compactTarget encoded difficulty of the header
+     * @return true if the hash is not greater than the target
+     */
+    public static boolean meetsTarget(Hash hash, int compactTarget) {
+        byte[] target = targetBytesCache.get(compactTarget);
+        if (target == null) {
+            if (targetBytesCache.size() >= CACHE_SIZE) {
+                targetBytesCache.clear();
+            }
+            targetBytesCache.put(compactTarget, target = getTargetBytes(compactTarget));
+        }
+        return isBelowTarget(hash.unsafeGetArray(), target);
+    }
+
+    /**
+     * Proof-of-work check without conversion to BigInteger.
+     *
+     * @param hash   a digest in the byte order of a Hash
+     * @param target a target as returned by getTargetBytes
+     * @return true if hash interpreted as little endian unsigned integer is not greater than target
+     */
+    public static boolean isBelowTarget(byte[] hash, byte[] target) {
+        for (int i = 31; i >= 0; --i) {
+            int h = hash[i] & 0xff;
+            int t = target[i] & 0xff;
+            if (h != t) {
+                return h < t;
+            }
+        }
+        return true;
+    }
+
     public static int getEncodedDifficulty(BigInteger target) {
         int log2 = target.bitLength();
         int s = (log2 / 8 + 1) * 8;
@@ -52,6 +118,20 @@ public class BitcoinDifficulty {
         return minimumTarget.divide(getTarget(compactTarget)).doubleValue();
     }
 
+    /**
+     * @return the exact difficulty of a header, what it adds to the chain work
+     */
+    public ChainWork getWork(int compactTarget) {
+        ChainWork work = workCache.get(compactTarget);
+        if (work == null) {
+            if (workCache.size() >= CACHE_SIZE) {
+                workCache.clear();
+            }
+            workCache.put(compactTarget, work = ChainWork.valueOf(minimumTarget.divide(getTarget(compactTarget))));
+        }
+        return work;
+    }
+
     public int getNextEncodedDifficulty(int periodLength, int currentCompactTarget) {
         // Limit the adjustment step.
         periodLength = Math.max(Math.min(periodLength, targetBlockTime * 4), targetBlockTime / 4);
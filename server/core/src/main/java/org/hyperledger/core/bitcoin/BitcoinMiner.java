@@ -13,32 +13,46 @@
  */
 package org.hyperledger.core.bitcoin;
 
-import org.hyperledger.HyperLedgerSettings;
 import org.hyperledger.common.*;
 import org.hyperledger.common.color.Color;
 import org.hyperledger.common.color.ColoredTransactionOutput;
 import org.hyperledger.core.*;
+import org.hyperledger.core.signed.BlockCoSigner;
 import org.hyperledger.core.signed.BlockSignatureConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BitcoinMiner implements Runnable, BlockStore.BlockListener {
     private static final Logger log = LoggerFactory.getLogger(BitcoinMiner.class);
+    private static final int CO_SIGNATURE_TIMEOUT_SECS = 10;
 
     private final BlockStore store;
     private MiningConfig miningConfig;
     private final BitcoinValidatorConfig config;
     private final BlockSignatureConfig blockSignatureConfig;
+    private final BlockTemplateBuilder templateBuilder;
+    private final NonceSearch nonceSearch;
+    private final List<BlockCoSigner> coSigners = new CopyOnWriteArrayList<>();
     private Address minerAddress;
     private volatile boolean running = true;
     private AtomicBoolean abortMiningNextBlock = new AtomicBoolean(false);
+    // not yet stored blocks the current block is mined on, storing them does not abort mining
+    private volatile Set<BID> pendingIDs = Collections.emptySet();
 
 
     public BitcoinMiner(BlockStore store, MiningConfig miningConfig, BitcoinValidatorConfig config, BlockSignatureConfig blockSignatureConfig) {
@@ -47,6 +61,8 @@ public class BitcoinMiner implements Runnable, BlockStore.BlockListener {
         this.config = config;
         this.blockSignatureConfig = blockSignatureConfig;
         minerAddress = miningConfig.getMinerAddress();
+        templateBuilder = new BlockTemplateBuilder(store, config);
+        nonceSearch = new NonceSearch(miningConfig.getMinerThreads());
         store.addBlockListener(this);
     }
 
@@ -66,6 +82,7 @@ public class BitcoinMiner implements Runnable, BlockStore.BlockListener {
 
     public void stop() {
         running = false;
+        nonceSearch.shutdown();
     }
 
     public void mineContinuously() {
@@ -99,22 +116,54 @@ public class BitcoinMiner implements Runnable, BlockStore.BlockListener {
     }
 
     public Block mineOneBlock() throws HyperLedgerException {
+        return mineOneBlock(Collections.emptyList());
+    }
+
+    /**
+     * Mine a block on top of blocks that are not yet stored, for consensus protocols agreeing on several
+     * blocks at once. Transactions of the pending blocks are not included again.
+     *
+     * @param pending blocks extending the highest stored block in chain order, those already stored are skipped
+     * @return the mined block, null if mining was aborted or pending does not extend the highest stored block
+     * @throws HyperLedgerException if the block template could not be built
+     */
+    public Block mineOneBlock(List<Block> pending) throws HyperLedgerException {
         abortMiningNextBlock.set(false);
         Block block;
         StoredBlock previous = store.getHighestBlock();
+        List<Block> unstored = new ArrayList<>();
+        Set<BID> unstoredIDs = new HashSet<>();
+        for (Block b : pending) {
+            if (!store.hasBlock(b.getID())) {
+                if (!b.getPreviousID().equals(previous.getID())) {
+                    log.info("Pending block {} does not extend {}, not mining", b.getID(), previous.getID());
+                    return null;
+                }
+                previous = new StoredBlock(new StoredHeader(b.getHeader(), previous.getChainWork(), previous.getHeight() + 1),
+                        Collections.emptyList());
+                unstored.add(b);
+                unstoredIDs.add(b.getID());
+            }
+        }
+        pendingIDs = unstoredIDs;
         int intendedHeight = previous.getHeight() + 1;
         log.info("Attempting mining the next block at h: {}, p: {}", intendedHeight, previous.getID());
 
         int target = previous.getHeader().getEncodedDifficulty();
         if ((previous.getHeight() + 1) % config.getReviewBlocks() == 0 && previous.getHeight() + 1 > config.getReviewBlocks()) {
+            if (!unstored.isEmpty()) {
+                // difficulty review needs the previous headers in the store
+                log.info("Not mining on pending blocks at difficulty review height: {}", intendedHeight);
+                return null;
+            }
             target = config.getDifficulty().computeNextDifficulty(store, previous.getHeader());
             log.info("New difficulty target: {} at height: {}", String.format("%x", target), previous.getHeight() + 1);
         }
 
         if (blockSignatureConfig.enabled()) {
-            block = mineWithBlockSignature(previous, target, minerAddress);
+            block = mineWithBlockSignature(previous, unstored, target, minerAddress);
         } else {
-            block = mineRegular(previous, target, minerAddress);
+            block = mineRegular(previous, unstored, target, minerAddress);
         }
         if (block != null) {
             log.info("Mined block, id: {}, intended h: {}, ct: {}, d: {}, p: {}", block.getID(), intendedHeight, block.getLocalCreateTime(), block.getDifficultyTarget(), block.getPreviousID());
@@ -124,44 +173,90 @@ public class BitcoinMiner implements Runnable, BlockStore.BlockListener {
         return block;
     }
 
-    private Block mineRegular(StoredBlock previous, int target, Address minerAddress) throws HyperLedgerException {
+    private Block mineRegular(StoredBlock previous, List<Block> pending, int target, Address minerAddress) throws HyperLedgerException {
         if (abortMiningNextBlock.compareAndSet(true, false) || !running) return null;
         while (true) {
             int createTime = calculateNextCreateTime(previous);
-            List<Transaction> include = collectTransactions(previous, minerAddress);
-            MerkleRoot root = MerkleTree.computeMerkleRoot(include);
-            for (int nonce = Integer.MIN_VALUE; nonce < Integer.MAX_VALUE; ++nonce) {
-                if (abortMiningNextBlock.compareAndSet(true, false) || !running) {
-                    return null;
-                }
-                BitcoinHeader header = new BitcoinHeader(config.getNewBlockVersion(), previous.getID(), root, createTime, target, nonce);
-                if (header.getID().toBigInteger().compareTo(BitcoinDifficulty.getTarget(target)) <= 0) {
-                    return new Block(header, include);
-                }
+            List<Transaction> include = new ArrayList<>();
+            MerkleRoot root = collectTransactions(previous, pending, minerAddress, include);
+            BitcoinHeader header = searchNonce(previous, root, createTime, target);
+            if (header != null) {
+                return new Block(header, include);
+            }
+            if (abortMiningNextBlock.compareAndSet(true, false) || !running) {
+                return null;
             }
         }
     }
 
-    private Block mineWithBlockSignature(StoredBlock previous, int target, Address minerAddress) throws HyperLedgerException {
+    private Block mineWithBlockSignature(StoredBlock previous, List<Block> pending, int target, Address minerAddress) throws HyperLedgerException {
         if (abortMiningNextBlock.compareAndSet(true, false) || !running) return null;
         byte[] script = Script.create().blockSignature(blockSignatureConfig.getRequiredSignatureCount(), blockSignatureConfig.getPublicKeys()).build().toByteArray();
         byte[] scriptHash = Hash.keyHash(script);
         while (true) {
             int createTime = calculateNextCreateTime(previous);
-            List<Transaction> include = collectTransactions(previous, minerAddress);
-            MerkleRoot root = MerkleTree.computeMerkleRoot(include);
-            for (int nonce = Integer.MIN_VALUE; nonce < Integer.MAX_VALUE; ++nonce) {
-                if (abortMiningNextBlock.compareAndSet(true, false) || !running) {
-                    return null;
-                }
-                BitcoinHeader header = new BitcoinHeader(config.getNewBlockVersion(), previous.getID(), root, createTime, target, nonce);
-                Script inScript = calculateInScript(header, script);
-                HeaderWithSignatures headerWithSignatures = new HeaderWithSignatures(config.getNewBlockVersion(), previous.getID(), root, createTime, target, nonce, inScript, scriptHash);
-                if (headerWithSignatures.getID().toBigInteger().compareTo(BitcoinDifficulty.getTarget(target)) <= 0) {
-                    return new Block(headerWithSignatures, include);
-                }
+            List<Transaction> include = new ArrayList<>();
+            MerkleRoot root = collectTransactions(previous, pending, minerAddress, include);
+            HeaderWithSignatures header;
+            if (blockSignatureConfig.isUnsignedProofOfWork()) {
+                header = searchUnsignedNonce(previous, root, createTime, target, script, scriptHash);
+            } else {
+                header = searchSignedNonce(previous, root, createTime, target, script, scriptHash);
+            }
+            if (header != null) {
+                return new Block(header, include);
             }
+            if (abortMiningNextBlock.compareAndSet(true, false) || !running) {
+                return null;
+            }
+        }
+    }
+
+    private BitcoinHeader searchNonce(StoredBlock previous, MerkleRoot root, int createTime, int target) throws HyperLedgerException {
+        return searchNonce(config.getNewBlockVersion(), previous, root, createTime, target);
+    }
+
+    private BitcoinHeader searchNonce(int version, StoredBlock previous, MerkleRoot root, int createTime, int target) throws HyperLedgerException {
+        BitcoinHeader header = new BitcoinHeader(version, previous.getID(), root, createTime, target, 0);
+        Integer nonce = nonceSearch.search(header, () -> abortMiningNextBlock.get() || !running);
+        if (nonce == null) {
+            return null;
         }
+        return new BitcoinHeader(version, previous.getID(), root, createTime, target, nonce);
+    }
+
+    /**
+     * Proof of work of the Bitcoin header only, the header found is signed once, with the co-signatures.
+     */
+    private HeaderWithSignatures searchUnsignedNonce(StoredBlock previous, MerkleRoot root, int createTime, int target,
+                                                     byte[] script, byte[] scriptHash) throws HyperLedgerException {
+        int version = config.getNewBlockVersion() | HeaderWithSignatures.UNSIGNED_PROOF_OF_WORK;
+        BitcoinHeader header = searchNonce(version, previous, root, createTime, target);
+        if (header == null) {
+            return null;
+        }
+        return new HeaderWithSignatures(version, previous.getID(), root, createTime, target, header.getNonce(),
+                calculateInScript(header, script, true), scriptHash);
+    }
+
+    /**
+     * Proof of work of the full header, every nonce tried is signed, by the key of the miner only.
+     */
+    private HeaderWithSignatures searchSignedNonce(StoredBlock previous, MerkleRoot root, int createTime, int target,
+                                                   byte[] script, byte[] scriptHash) throws HyperLedgerException {
+        int version = config.getNewBlockVersion();
+        for (int nonce = Integer.MIN_VALUE; nonce < Integer.MAX_VALUE; ++nonce) {
+            if (abortMiningNextBlock.get() || !running) {
+                return null;
+            }
+            BitcoinHeader header = new BitcoinHeader(version, previous.getID(), root, createTime, target, nonce);
+            HeaderWithSignatures headerWithSignatures = new HeaderWithSignatures(version, previous.getID(), root, createTime,
+                    target, nonce, calculateInScript(header, script, false), scriptHash);
+            if (BitcoinDifficulty.meetsTarget(headerWithSignatures.getID(), target)) {
+                return headerWithSignatures;
+            }
+        }
+        return null;
     }
 
     @SuppressWarnings("deprecation")
@@ -176,50 +271,108 @@ public class BitcoinMiner implements Runnable, BlockStore.BlockListener {
         return createTime;
     }
 
-    private Script calculateInScript(BitcoinHeader header, byte[] script) {
-        ScriptBuilder scriptBuilder = Script.create();
-        for (int i = 0; i < blockSignatureConfig.getPrivateKeyIndex(); i++) {
-            scriptBuilder.data(new byte[0]);
-        }
+    private Script calculateInScript(BitcoinHeader header, byte[] script, boolean coSign) throws HyperLedgerException {
+        byte[] hash;
         try {
-            byte[] sign = blockSignatureConfig.getMinerPrivateKey().sign(Hash.keyHash(header.toByteArray()));
-            scriptBuilder.data(sign);
+            hash = Hash.keyHash(header.toByteArray());
         } catch (IOException e) {
-            // should not happen
+            throw new HyperLedgerException(e);
         }
-        for (int i = blockSignatureConfig.getPrivateKeyIndex() + 1; i < blockSignatureConfig.getPublicKeys().size(); i++) {
-            scriptBuilder.data(new byte[0]);
+        byte[][] signatures = new byte[blockSignatureConfig.getPublicKeys().size()][];
+        signatures[blockSignatureConfig.getPrivateKeyIndex()] = blockSignatureConfig.getMinerPrivateKey().sign(hash);
+        if (coSign) {
+            collectCoSignatures(header, hash, signatures);
+        }
+
+        ScriptBuilder scriptBuilder = Script.create();
+        for (byte[] signature : signatures) {
+            scriptBuilder.data(signature == null ? new byte[0] : signature);
         }
         return scriptBuilder.data(script).build();
     }
 
-    private List<Transaction> collectTransactions(StoredBlock previous, Address minerAddress) throws HyperLedgerException {
-        WireFormat.SizeWriter sizeWriter = new WireFormat.SizeWriter();
-        WireFormatter wireFormatter = HyperLedgerSettings.getInstance().getTxWireFormatter();
-        int height = previous.getHeight() + 1;
-        Transaction coinbase = createCoinbase(height, minerAddress, config.getRewardForHeight(height));
-        List<Transaction> include = new ArrayList<>();
-        try {
-            wireFormatter.toWire(coinbase, sizeWriter);
-            Iterator<ValidatedTransaction> transactionList = store.getMempoolContent().iterator();
-
-            long fee = 0;
-            include.add(coinbase);
-            while (transactionList.hasNext()) {
-                ValidatedTransaction transaction = transactionList.next();
-                wireFormatter.toWire(transaction, sizeWriter);
-                if (sizeWriter.size() > config.getMaxBlockSize())
-                    break;
-                fee += transaction.getFee();
-                include.add(transaction);
+    /**
+     * Ask all co-signers at once and wait until enough valid signatures arrived, all of them answered or the
+     * timeout passed. Signatures are filled into their key's slot.
+     */
+    private void collectCoSignatures(BitcoinHeader header, byte[] hash, byte[][] signatures) {
+        int needed = blockSignatureConfig.getRequiredSignatureCount() - 1;
+        List<PublicKey> keys = blockSignatureConfig.getPublicKeys();
+        List<BlockCoSigner> asked = new ArrayList<>();
+        for (BlockCoSigner coSigner : coSigners) {
+            int index = coSigner.getKeyIndex();
+            if (index >= 0 && index < keys.size() && signatures[index] == null) {
+                asked.add(coSigner);
             }
-            if (fee != 0L) {
-                include.set(0, createCoinbase(height, minerAddress, config.getRewardForHeight(height) + fee));
+        }
+        if (needed <= 0 || asked.isEmpty()) {
+            return;
+        }
+
+        byte[][] collected = new byte[signatures.length][];
+        AtomicInteger valid = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        for (BlockCoSigner coSigner : asked) {
+            int index = coSigner.getKeyIndex();
+            coSigner.sign(header).whenComplete((signature, error) -> {
+                if (error == null && signature != null && keys.get(index).verify(hash, signature)) {
+                    synchronized (collected) {
+                        if (collected[index] == null) {
+                            collected[index] = signature;
+                            valid.incrementAndGet();
+                        }
+                    }
+                } else {
+                    log.debug("No valid co-signature from key {} for {}", index, header.getID());
+                }
+                if (valid.get() >= needed || answered.incrementAndGet() == asked.size()) {
+                    done.complete(null);
+                }
+            });
+        }
+        try {
+            done.get(CO_SIGNATURE_TIMEOUT_SECS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Timeout collecting co-signatures for {}", header.getID());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // not completed exceptionally
+        }
+        synchronized (collected) {
+            for (int i = 0; i < collected.length; ++i) {
+                if (collected[i] != null) {
+                    signatures[i] = collected[i];
+                }
             }
-        } catch (IOException e) {
-            throw new HyperLedgerException(e);
         }
-        return include;
+        if (valid.get() < needed) {
+            log.warn("Collected {} of {} required co-signatures for {}", valid.get(), needed, header.getID());
+        }
+    }
+
+    /**
+     * Add a holder of another block signature key, asked to co-sign blocks mined with unsignedProofOfWork.
+     */
+    public void addCoSigner(BlockCoSigner coSigner) {
+        if (!blockSignatureConfig.isUnsignedProofOfWork()) {
+            log.warn("Co-signers are asked only with unsignedProofOfWork, every nonce is signed otherwise");
+        }
+        coSigners.add(coSigner);
+    }
+
+    public void removeCoSigner(BlockCoSigner coSigner) {
+        coSigners.remove(coSigner);
+    }
+
+    private MerkleRoot collectTransactions(StoredBlock previous, List<Block> pending, Address minerAddress, List<Transaction> include) throws HyperLedgerException {
+        int height = previous.getHeight() + 1;
+        long reward = config.getRewardForHeight(height);
+        BlockTemplate template = templateBuilder.getTemplate(previous, createCoinbase(height, minerAddress, reward), pending);
+        Transaction coinbase = createCoinbase(height, minerAddress, reward + template.getFees());
+        include.addAll(template.getTransactions(coinbase));
+        return template.getMerkleRoot(coinbase);
     }
 
     private static Transaction createCoinbase(int height, Address address, long subsidy) throws HyperLedgerException {
@@ -252,6 +405,9 @@ public class BitcoinMiner implements Runnable, BlockStore.BlockListener {
 
     @Override
     public void blockStored(BlockStoredInfo content) {
-        abortMiningNextBlock.set(true);
+        Set<BID> pending = pendingIDs;
+        if (pending.isEmpty() || !pending.containsAll(content.getAddedToTrunk())) {
+            abortMiningNextBlock.set(true);
+        }
     }
 }
@@ -14,6 +14,7 @@
 package org.hyperledger.core.bitcoin;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.primitives.Ints;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.hyperledger.common.*;
@@ -22,23 +23,36 @@ import org.hyperledger.core.kvstore.OrderedMapStore;
 import org.hyperledger.core.kvstore.OrderedMapStoreKey;
 import org.hyperledger.model.LevelDBStore;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * blocks stored persistently.
  */
 public class BitcoinPersistentBlocks implements PersistentBlocks {
     protected final OrderedMapStore store;
+    private final File headerSnapshotFile;
+    private volatile int headerLogSize = 0;
 
     @Override
     public void start() {
         store.open();
+        byte[] last = store.getFloorKey(headerLogKey(-1));
+        if (last != null && OrderedMapStoreKey.hasType(OrderedMapStoreKey.KeyType.HEADERLOG, last)) {
+            headerLogSize = Ints.fromByteArray(Arrays.copyOfRange(last, 1, last.length)) + 1;
+        }
     }
 
     public BitcoinPersistentBlocks(OrderedMapStore store) {
+        this(store, null);
+    }
+
+    public BitcoinPersistentBlocks(OrderedMapStore store, File headerSnapshotFile) {
         this.store = store;
+        this.headerSnapshotFile = headerSnapshotFile;
     }
 
     private volatile int nRead = 0;
@@ -141,16 +155,23 @@ public class BitcoinPersistentBlocks implements PersistentBlocks {
 
     @Override
     public void updateBlock(StoredBlock prunedBlock) throws HyperLedgerException {
+        updateBlocks(Collections.singletonList(prunedBlock));
+    }
+
+    @Override
+    public void updateBlocks(List<StoredBlock> prunedBlocks) throws HyperLedgerException {
         try {
             store.startBatch();
 
-            for (TID tId : readBlockTIDList(prunedBlock.getID())) {
-                if (!contained(prunedBlock.getTransactions(), tId)) {
-                    removeTransaction(tId);
+            for (StoredBlock prunedBlock : prunedBlocks) {
+                for (TID tId : readBlockTIDList(prunedBlock.getID())) {
+                    if (!contained(prunedBlock.getTransactions(), tId)) {
+                        removeTransaction(tId);
+                    }
                 }
+                store.put(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.BLOCKCONTENT,
+                        prunedBlock.getID().unsafeGetArray()), prunedBlock.toLevelDBContent());
             }
-            store.put(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.BLOCKCONTENT,
-                    prunedBlock.getID().unsafeGetArray()), prunedBlock.toLevelDBContent());
         } catch (Exception e) {
             store.cancelBatch();
             throw e;
@@ -180,6 +201,9 @@ public class BitcoinPersistentBlocks implements PersistentBlocks {
                     b.toLevelDBHeader());
             store.put(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.BLOCKCONTENT, b.getID().unsafeGetArray()),
                     b.toLevelDBContent());
+            store.put(headerLogKey(headerLogSize), b.getID().unsafeGetArray());
+            store.put(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.UNDO, b.getID().unsafeGetArray()),
+                    BlockUndo.create(b).toLevelDB());
             for (StoredTransaction t : b.getTransactions()) {
                 byte[] stored = store.get(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.TX, t.getID().unsafeGetArray()));
                 if (stored != null) {
@@ -188,6 +212,7 @@ public class BitcoinPersistentBlocks implements PersistentBlocks {
                 } else
                     writeTx(t, b.getID());
             }
+            headerLogSize++;
         } catch (Exception e) {
             store.cancelBatch();
             throw e;
@@ -213,10 +238,47 @@ public class BitcoinPersistentBlocks implements PersistentBlocks {
         return true;
     }
 
+    @Override
+    public void startGroup() {
+        store.startGroup();
+    }
+
+    @Override
+    public long getGroupSize() {
+        return store.getGroupSize();
+    }
+
+    @Override
+    public void endGroup() {
+        store.endGroup();
+    }
+
     public byte[] readMisc(BID id) {
         return store.get(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.MISC, id.unsafeGetArray()));
     }
 
+    @Override
+    public BlockUndo readUndo(BID id) throws HyperLedgerException {
+        byte[] data = store.get(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.UNDO, id.unsafeGetArray()));
+        if (data != null) {
+            return BlockUndo.fromLevelDB(data);
+        }
+        if (!hasBlock(id)) {
+            return null;
+        }
+        List<BlockUndo.TransactionUndo> transactions = new ArrayList<>();
+        for (TID tid : readBlockTIDList(id)) {
+            StoredTransaction t = readTransaction(tid);
+            if (t == null) {
+                // pruned
+                transactions.add(new BlockUndo.TransactionUndo(tid, Collections.emptyList(), 0));
+            } else {
+                transactions.add(BlockUndo.TransactionUndo.create(t));
+            }
+        }
+        return new BlockUndo(transactions);
+    }
+
     @Override
     public void readHeaders(Map<BID, StoredHeader> headers) throws HyperLedgerException {
         store.forAll(OrderedMapStoreKey.KeyType.BLOCKHEADER, (key, data) -> {
@@ -226,6 +288,31 @@ public class BitcoinPersistentBlocks implements PersistentBlocks {
         });
     }
 
+    @Override
+    public int getHeaderLogSize() {
+        return headerLogSize;
+    }
+
+    @Override
+    public List<BID> readHeaderLog(int from) throws HyperLedgerException {
+        List<BID> ids = new ArrayList<>();
+        byte[] data;
+        for (int i = from; (data = store.get(headerLogKey(i))) != null; ++i) {
+            ids.add(BID.createFromSafeArray(data));
+        }
+        return ids;
+    }
+
+    @Override
+    public File getHeaderSnapshotFile() {
+        return headerSnapshotFile;
+    }
+
+    private static byte[] headerLogKey(int sequence) {
+        // big endian, so the log is ordered and the last entry found as floor key of 0xffffffff
+        return OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.HEADERLOG, Ints.toByteArray(sequence));
+    }
+
     @Override
     public boolean isEmpty() {
         return store.isEmpty();
@@ -237,6 +324,14 @@ public class BitcoinPersistentBlocks implements PersistentBlocks {
         return store.get(OrderedMapStoreKey.createKey(OrderedMapStoreKey.KeyType.TX, hash.unsafeGetArray())) != null;
     }
 
+    @Override
+    public void readTransactionIds(byte[] prefix, Consumer<TID> consumer) throws HyperLedgerException {
+        store.forAll(OrderedMapStoreKey.KeyType.TX, prefix, (key, data) -> {
+            consumer.accept(new TID(Arrays.copyOfRange(key, 1, key.length)));
+            return true;
+        });
+    }
+
 
     @Override
     public List<TID> readBlockTIDList(BID hash) throws HyperLedgerException {
@@ -38,13 +38,23 @@ public class BitcoinValidator implements BlockHeaderValidator, BlockBodyValidato
     @Override
     @SuppressWarnings("deprecation")
     public void validateHeader(BlockStore blockStore, StoredHeader b) throws HyperLedgerException {
+        checkHeader(b, null);
+        validateHeaderInContext(blockStore, b);
+    }
+
+    @Override
+    public void checkHeader(StoredHeader b, Header previous) throws HyperLedgerException {
         // TODO: fix this before 06:28:15 UTC on Sun, 7 February 2106
         if (Integer.toUnsignedLong(b.getCreateTime()) > new Date().getTime() / 1000 + 2 * 60 * 60)
             throw new HyperLedgerException("block header timestamp too far in the future.");
 
-        if (b.getID().toBigInteger().compareTo(BitcoinDifficulty.getTarget(b.getEncodedDifficulty())) > 0)
+        if (!BitcoinDifficulty.meetsTarget(b.getProofOfWorkHash(), b.getEncodedDifficulty()))
             throw new HyperLedgerException("block header does not have the required work.");
+    }
 
+    @Override
+    @SuppressWarnings("deprecation")
+    public void validateHeaderInContext(BlockStore blockStore, StoredHeader b) throws HyperLedgerException {
         if (Integer.compareUnsigned(b.getCreateTime(), ((BitcoinBlockStore) blockStore).medianBlockTime(
                 parameters.getBlocktimeMedianWindow())) <= 0)
             throw new HyperLedgerException("block header is too old " + b.getID());
@@ -74,7 +84,7 @@ public class BitcoinValidator implements BlockHeaderValidator, BlockBodyValidato
                 throw new HyperLedgerException("Difficulty does not adjust as expected.");
             }
             next.setChainWork(
-                    p.getChainWork() + parameters.getDifficulty().getDifficulty(next.getEncodedDifficulty()));
+                    p.getChainWork().add(parameters.getDifficulty().getWork(next.getEncodedDifficulty())));
             next.setHeight(height);
             p = next;
         }
@@ -87,6 +97,14 @@ public class BitcoinValidator implements BlockHeaderValidator, BlockBodyValidato
         return b;
     }
 
+    @Override
+    public StoredBlock validateCertifiedBody(BlockStore blockStore, StoredBlock b, Map<Outpoint, Transaction> referred) throws HyperLedgerException {
+        // scripts were validated by the replicas that certified the block
+        checkBlockSize(b);
+        cheapBlockChecks((BitcoinBlockStore) blockStore, b, referred);
+        return b;
+    }
+
     @SuppressWarnings("deprecation")
     private void expensiveBlockChecks(BitcoinBlockStore blockStore, Block b, Map<Outpoint, Transaction> referred) throws HyperLedgerException {
         List<ScriptValidator.ScriptValidation> validations = new ArrayList<>();
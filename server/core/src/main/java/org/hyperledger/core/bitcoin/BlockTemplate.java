@@ -0,0 +1,189 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core.bitcoin;
+
+import org.hyperledger.common.*;
+import org.hyperledger.core.ValidatedTransaction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The transactions selected for the next block on top of a given previous block, without the coinbase.
+ * <p>
+ * The merkle branch of the coinbase position is cached, so computing the merkle root for a new coinbase
+ * costs one hash per tree level instead of rehashing all transactions.
+ */
+public class BlockTemplate {
+    /**
+     * Size of the smallest transaction: version, an input without script, an output without script and lock time.
+     */
+    public static final int MIN_TRANSACTION_SIZE = 60;
+
+    private final BID previousID;
+    private final int maxSize;
+    private final int coinbaseSize;
+
+    private final List<ValidatedTransaction> transactions = new ArrayList<>();
+    // all transactions offered to this template, included or not
+    private final Set<TID> considered = new HashSet<>();
+    private final Set<TID> included = new HashSet<>();
+    private int size;
+    private long fees;
+
+    // sibling hashes along the path of the coinbase to the root, null if not yet computed
+    private List<Hash> coinbaseBranch;
+
+    public BlockTemplate(BID previousID, int maxSize, int coinbaseSize) {
+        this.previousID = previousID;
+        this.maxSize = maxSize;
+        this.coinbaseSize = coinbaseSize;
+        this.size = coinbaseSize;
+    }
+
+    public BID getPreviousID() {
+        return previousID;
+    }
+
+    public int getCoinbaseSize() {
+        return coinbaseSize;
+    }
+
+    /**
+     * Offer a transaction to the template. Transactions must be offered in dependency order.
+     * A transaction that does not fit or depends on an other that was not included is skipped.
+     *
+     * @param t    a validated transaction
+     * @param size its serialized size
+     * @return true if the transaction was included
+     */
+    public synchronized boolean add(ValidatedTransaction t, int size) {
+        if (!considered.add(t.getID())) {
+            return included.contains(t.getID());
+        }
+        for (TransactionInput in : t.getInputs()) {
+            TID source = in.getSourceTransactionID();
+            if (considered.contains(source) && !included.contains(source)) {
+                return false;
+            }
+        }
+        if (this.size + size > maxSize) {
+            return false;
+        }
+        this.size += size;
+        fees += t.getFee();
+        transactions.add(t);
+        included.add(t.getID());
+        coinbaseBranch = null;
+        return true;
+    }
+
+    /**
+     * Skip a transaction without decoding it, as its size is known not to fit.
+     * Transactions spending its outputs are skipped as well.
+     *
+     * @param id   the transaction id
+     * @param size its serialized size
+     * @return true if skipped, false if it fits and has to be offered
+     */
+    public synchronized boolean skipIfTooLarge(TID id, int size) {
+        if (this.size + size <= maxSize) {
+            return false;
+        }
+        considered.add(id);
+        return true;
+    }
+
+    /**
+     * @return true if there is room for the smallest possible transaction
+     */
+    public synchronized boolean hasRoom() {
+        return maxSize - size >= MIN_TRANSACTION_SIZE;
+    }
+
+    /**
+     * Exclude a transaction confirmed by a pending block this template builds on.
+     * Transactions spending its outputs may still be included.
+     *
+     * @param id the transaction id
+     */
+    public synchronized void exclude(TID id) {
+        considered.add(id);
+        included.add(id);
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public synchronized long getFees() {
+        return fees;
+    }
+
+    public synchronized int getTransactionCount() {
+        return transactions.size();
+    }
+
+    /**
+     * @param coinbase the coinbase of the block
+     * @return coinbase followed by the selected transactions
+     */
+    public synchronized List<Transaction> getTransactions(Transaction coinbase) {
+        List<Transaction> include = new ArrayList<>(transactions.size() + 1);
+        include.add(coinbase);
+        include.addAll(transactions);
+        return include;
+    }
+
+    /**
+     * Compute the merkle root of the block with the given coinbase.
+     *
+     * @param coinbase the coinbase of the block
+     * @return merkle root equal to MerkleTree.computeMerkleRoot(getTransactions(coinbase))
+     */
+    public synchronized MerkleRoot getMerkleRoot(Transaction coinbase) {
+        if (coinbaseBranch == null) {
+            coinbaseBranch = computeCoinbaseBranch();
+        }
+        Hash root = coinbase.getID();
+        for (Hash sibling : coinbaseBranch) {
+            root = Hash.merge(root, sibling);
+        }
+        return new MerkleRoot(root);
+    }
+
+    private List<Hash> computeCoinbaseBranch() {
+        List<Hash> branch = new ArrayList<>();
+        List<Hash> level = new ArrayList<>(transactions.size() + 1);
+        // the coinbase is not known here, nothing on its path is computed
+        level.add(null);
+        for (Transaction t : transactions) {
+            level.add(t.getID());
+        }
+        while (level.size() > 1) {
+            branch.add(level.get(1));
+            List<Hash> next = new ArrayList<>((level.size() + 1) / 2);
+            next.add(null);
+            for (int i = 2; i < level.size(); i += 2) {
+                Hash left = level.get(i);
+                Hash right = i + 1 < level.size() ? level.get(i + 1) : left;
+                next.add(Hash.merge(left, right));
+            }
+            level = next;
+        }
+        return branch;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core.bitcoin;
+
+import org.hyperledger.HyperLedgerSettings;
+import org.hyperledger.common.*;
+import org.hyperledger.core.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps a block template ready for the miner.
+ * <p>
+ * The template is built from the mempool once per new top block, transactions accepted thereafter
+ * are appended as they arrive. Serialized transaction sizes are cached so a transaction is measured only once.
+ * Mempool transactions are decoded only as the template takes them, until it is full.
+ */
+public class BlockTemplateBuilder implements BlockStore.BlockListener, BlockStore.TransactionListener {
+    private static final Logger log = LoggerFactory.getLogger(BlockTemplateBuilder.class);
+    private static final int DECODE_BATCH = 256;
+
+    private final BlockStore store;
+    private final BitcoinValidatorConfig config;
+    private final WireFormatter wireFormatter;
+
+    private final Map<TID, Integer> sizes = new ConcurrentHashMap<>();
+
+    // transactions accepted into the mempool since the template was built
+    private final ConcurrentLinkedQueue<ValidatedTransaction> added = new ConcurrentLinkedQueue<>();
+
+    private volatile BlockTemplate template;
+    private volatile boolean building;
+
+    public BlockTemplateBuilder(BlockStore store, BitcoinValidatorConfig config) {
+        this.store = store;
+        this.config = config;
+        this.wireFormatter = HyperLedgerSettings.getInstance().getTxWireFormatter();
+        store.addBlockListener(this);
+        store.addTransactionListener(this);
+    }
+
+    /**
+     * Get the template for the block on top of previous. This does not hold the monitor of the block store,
+     * listeners are only collecting changes, these are applied here.
+     *
+     * @param previous the block to mine on
+     * @param coinbase a coinbase for the next block, only its size is used
+     * @return the block template
+     * @throws HyperLedgerException if a transaction could not be serialized
+     */
+    public BlockTemplate getTemplate(StoredBlock previous, Transaction coinbase) throws HyperLedgerException {
+        return getTemplate(previous, coinbase, Collections.emptyList());
+    }
+
+    /**
+     * Get the template for a block on top of pending blocks not yet stored.
+     *
+     * @param previous the block to mine on, the last of pending if there are any
+     * @param coinbase a coinbase for the next block, only its size is used
+     * @param pending  blocks between the highest stored block and previous, their transactions are not included
+     * @return the block template
+     * @throws HyperLedgerException if a transaction could not be serialized
+     */
+    public synchronized BlockTemplate getTemplate(StoredBlock previous, Transaction coinbase, List<Block> pending) throws HyperLedgerException {
+        BlockTemplate current = template;
+        int coinbaseSize = measure(coinbase);
+        if (current == null || !current.getPreviousID().equals(previous.getID()) || current.getCoinbaseSize() != coinbaseSize) {
+            current = build(previous, coinbaseSize, pending);
+        }
+        ValidatedTransaction t;
+        while ((t = added.poll()) != null) {
+            current.add(t, sizeOf(t));
+        }
+        template = current;
+        return current;
+    }
+
+    private BlockTemplate build(StoredBlock previous, int coinbaseSize, List<Block> pending) throws HyperLedgerException {
+        building = true;
+        try {
+            added.clear();
+            BlockTemplate current = new BlockTemplate(previous.getID(), config.getMaxBlockSize(), coinbaseSize);
+            for (Block b : pending) {
+                for (Transaction t : b.getTransactions()) {
+                    current.exclude(t.getID());
+                }
+            }
+            // decoded in batches as consumed, those of known size not fitting are not decoded
+            List<TID> order = store.getMempoolOrder();
+            Set<TID> inMempool = new HashSet<>(order);
+            int skipped = 0;
+            for (int from = 0; from < order.size() && current.hasRoom(); from += DECODE_BATCH) {
+                List<TID> batch = new ArrayList<>(DECODE_BATCH);
+                for (TID id : order.subList(from, Math.min(order.size(), from + DECODE_BATCH))) {
+                    Integer size = sizes.get(id);
+                    if (size != null && current.skipIfTooLarge(id, size)) {
+                        ++skipped;
+                    } else {
+                        batch.add(id);
+                    }
+                }
+                for (ValidatedTransaction t : store.getMempoolTransactionsInOrder(batch)) {
+                    if (!current.add(t, sizeOf(t))) {
+                        ++skipped;
+                    }
+                }
+            }
+            sizes.keySet().retainAll(inMempool);
+            log.debug("Built block template on {} with {} transactions, {} skipped, size {}",
+                    previous.getID(), current.getTransactionCount(), skipped, current.getSize());
+            // published before building is cleared, so transactions arriving meanwhile are still collected
+            template = current;
+            return current;
+        } finally {
+            building = false;
+        }
+    }
+
+    private int sizeOf(ValidatedTransaction t) throws HyperLedgerException {
+        Integer size = sizes.get(t.getID());
+        if (size == null) {
+            size = measure(t);
+            sizes.put(t.getID(), size);
+        }
+        return size;
+    }
+
+    private int measure(Transaction t) throws HyperLedgerException {
+        WireFormat.SizeWriter sizeWriter = new WireFormat.SizeWriter();
+        try {
+            wireFormatter.toWire(t, sizeWriter);
+        } catch (IOException e) {
+            throw new HyperLedgerException(e);
+        }
+        return sizeWriter.size();
+    }
+
+    @Override
+    public void blockStored(BlockStoredInfo content) {
+        template = null;
+        added.clear();
+    }
+
+    @Override
+    public void transactionAdded(ValidatedTransaction transaction) {
+        // nothing to collect for if no one is mining
+        if (template != null || building) {
+            added.offer(transaction);
+        }
+    }
+}
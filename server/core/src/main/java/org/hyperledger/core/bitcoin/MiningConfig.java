@@ -23,11 +23,17 @@ public class MiningConfig implements ValidatorConfig {
     private final boolean enabled;
     private final Address minerAddress;
     private final int delayBetweenMiningBlocksSecs;
+    private final int minerThreads;
 
     public MiningConfig(boolean enabled, String minerAddress, int delayBetweenMiningBlocksSecs) throws HyperLedgerException {
+        this(enabled, minerAddress, delayBetweenMiningBlocksSecs, 1);
+    }
+
+    public MiningConfig(boolean enabled, String minerAddress, int delayBetweenMiningBlocksSecs, int minerThreads) throws HyperLedgerException {
         Address tempMinerAddress;
         this.enabled = enabled;
         this.delayBetweenMiningBlocksSecs = delayBetweenMiningBlocksSecs;
+        this.minerThreads = minerThreads;
         try {
             tempMinerAddress = UIAddress.fromSatoshiStyle(minerAddress).getAddress();
         } catch (HyperLedgerException e) {
@@ -62,4 +68,8 @@ public class MiningConfig implements ValidatorConfig {
     public int getDelayBetweenMiningBlocksSecs() {
         return delayBetweenMiningBlocksSecs;
     }
+
+    public int getMinerThreads() {
+        return minerThreads;
+    }
 }
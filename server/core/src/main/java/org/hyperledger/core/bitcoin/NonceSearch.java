@@ -0,0 +1,160 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core.bitcoin;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.hyperledger.common.BitcoinHeader;
+import org.hyperledger.common.HyperLedgerException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Proof-of-work search over the nonce of an 80 byte Bitcoin header.
+ * <p>
+ * The SHA-256 state after the first 64 bytes of the header does not depend on the nonce, it is computed
+ * once and only the remaining 16 bytes are hashed per nonce. The nonce space is split among worker threads,
+ * each hashing into its own reused buffers and comparing the result to the target as raw bytes.
+ */
+public class NonceSearch {
+    // how often workers look at the abort condition
+    private static final int ABORT_CHECK_MASK = (1 << 12) - 1;
+    private static final long NONCE_SPACE = 1L << 32;
+
+    private final int threads;
+    // started by the first search after construction or shutdown, guarded by this
+    private ExecutorService workers;
+
+    public NonceSearch(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    private synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "NonceSearch");
+                thread.setDaemon(true);
+                // same as the miner thread, yield to getting/storing new blocks from the network
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        }
+        return workers;
+    }
+
+    /**
+     * Stop the worker threads once a running search returned. A later search starts them again.
+     */
+    public synchronized void shutdown() {
+        if (workers != null) {
+            // not shutdownNow, a search waits for all of its tasks, those queued must still run and see the abort
+            workers.shutdown();
+            workers = null;
+        }
+    }
+
+    /**
+     * Search a nonce that makes the header meet its difficulty target.
+     *
+     * @param header a header, its nonce is ignored
+     * @param abort  polled by the workers, the search stops if it returns true
+     * @return the nonce or null if aborted, shut down or no nonce meets the target
+     * @throws HyperLedgerException if interrupted
+     */
+    public Integer search(BitcoinHeader header, BooleanSupplier abort) throws HyperLedgerException {
+        byte[] headerBytes;
+        try {
+            headerBytes = header.toWireHeaderBytes();
+        } catch (IOException e) {
+            throw new HyperLedgerException(e);
+        }
+        byte[] target = BitcoinDifficulty.getTargetBytes(header.getEncodedDifficulty());
+
+        SHA256Digest midstate = new SHA256Digest();
+        midstate.update(headerBytes, 0, 64);
+        byte[] tail = Arrays.copyOfRange(headerBytes, 64, 80);
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Integer> found = new AtomicReference<>();
+        long span = NONCE_SPACE / threads;
+        ExecutorService workers = workers();
+        List<Future<?>> futures = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; ++i) {
+                long from = Integer.MIN_VALUE + i * span;
+                long to = i == threads - 1 ? Integer.MIN_VALUE + NONCE_SPACE : from + span;
+                futures.add(workers.submit(() -> searchRange(midstate, tail, target, from, to, stop, found, abort)));
+            }
+        } catch (RejectedExecutionException e) {
+            // shut down meanwhile, let the ranges already submitted end
+            stop.set(true);
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            stop.set(true);
+            throw new HyperLedgerException(e);
+        } catch (ExecutionException e) {
+            stop.set(true);
+            throw new HyperLedgerException(e.getCause());
+        }
+        return found.get();
+    }
+
+    private static void searchRange(SHA256Digest midstate, byte[] headerTail, byte[] target, long from, long to,
+                                    AtomicBoolean stop, AtomicReference<Integer> found, BooleanSupplier abort) {
+        SHA256Digest digest = new SHA256Digest(midstate);
+        byte[] tail = Arrays.copyOf(headerTail, headerTail.length);
+        byte[] first = new byte[32];
+        byte[] hash = new byte[32];
+        for (long n = from; n < to; ++n) {
+            if ((n & ABORT_CHECK_MASK) == 0 && (stop.get() || abort.getAsBoolean())) {
+                stop.set(true);
+                return;
+            }
+            int nonce = (int) n;
+            // nonce is the last 4 bytes of the header, little endian
+            tail[12] = (byte) nonce;
+            tail[13] = (byte) (nonce >>> 8);
+            tail[14] = (byte) (nonce >>> 16);
+            tail[15] = (byte) (nonce >>> 24);
+
+            digest.reset(midstate);
+            digest.update(tail, 0, tail.length);
+            digest.doFinal(first, 0);
+            // doFinal resets the digest
+            digest.update(first, 0, first.length);
+            digest.doFinal(hash, 0);
+
+            if (BitcoinDifficulty.isBelowTarget(hash, target)) {
+                if (found.compareAndSet(null, nonce)) {
+                    stop.set(true);
+                }
+                return;
+            }
+        }
+    }
+}
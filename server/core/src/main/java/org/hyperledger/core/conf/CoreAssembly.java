@@ -30,9 +30,11 @@ public class CoreAssembly {
     private final CoreOutbox coreOutbox;
     private final ClientEventQueue clientEventQueue;
     private final PrunerSettings prunerSettings;
+    private final GroupCommitSettings groupCommitSettings;
+    private final WarmUpSettings warmUpSettings;
     private BlockSignatureConfig blockSignatureConfig;
     private MiningConfig miningConfig;
-    private final BitcoinBlockStore blockStore;
+    private final DefaultBlockStore blockStore;
     private BitcoinMiner miner;
 
     public CoreAssembly(ValidatorChain validatorChain,
@@ -40,6 +42,8 @@ public class CoreAssembly {
                         CoreOutbox coreOutbox,
                         ClientEventQueue clientEventQueue,
                         PrunerSettings prunerSettings,
+                        GroupCommitSettings groupCommitSettings,
+                        WarmUpSettings warmUpSettings,
                         BlockSignatureConfig blockSignatureConfig,
                         MiningConfig miningConfig) {
 
@@ -48,6 +52,8 @@ public class CoreAssembly {
         this.coreOutbox = coreOutbox;
         this.clientEventQueue = clientEventQueue;
         this.prunerSettings = prunerSettings;
+        this.groupCommitSettings = groupCommitSettings;
+        this.warmUpSettings = warmUpSettings;
         this.blockSignatureConfig = blockSignatureConfig;
         this.miningConfig = miningConfig;
         this.blockStore = new DefaultBlockStore(validatorChain,
@@ -55,7 +61,9 @@ public class CoreAssembly {
                 coreOutbox,
                 clientEventQueue,
                 prunerSettings,
-                blockSignatureConfig);
+                blockSignatureConfig,
+                groupCommitSettings,
+                warmUpSettings);
     }
 
     public void start() throws HyperLedgerException {
@@ -67,7 +75,8 @@ public class CoreAssembly {
     }
 
     public void stop() {
-        if (miningConfig.enabled()) {
+        // also mines on request if not enabled, its workers are stopped either way
+        if (miner != null) {
             miner.stop();
         }
         blockStore.stop();
@@ -97,6 +106,21 @@ public class CoreAssembly {
         return prunerSettings;
     }
 
+    public GroupCommitSettings getGroupCommitSettings() {
+        return groupCommitSettings;
+    }
+
+    public WarmUpSettings getWarmUpSettings() {
+        return warmUpSettings;
+    }
+
+    /**
+     * @return progress of reading caches after start, for holding off traffic until complete
+     */
+    public WarmUpStatistics getWarmUpStatistics() {
+        return blockStore.getWarmUpStatistics();
+    }
+
     public BlockSignatureConfig getBlockSignatureConfig() {
         return blockSignatureConfig;
     }
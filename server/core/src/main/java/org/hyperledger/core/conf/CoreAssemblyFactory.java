@@ -32,6 +32,7 @@ import org.hyperledger.core.signed.SignedRegtestValidatorConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
@@ -68,6 +69,8 @@ public class CoreAssemblyFactory {
         ValidatorConfigFactory vf = new ValidatorConfigFactory(config, bs.get());
         PersistentBlocksFactory p = new PersistentBlocksFactory(config);
         PrunerSettingsFactory pr = new PrunerSettingsFactory(config);
+        GroupCommitSettingsFactory gc = new GroupCommitSettingsFactory(config);
+        WarmUpSettingsFactory wu = new WarmUpSettingsFactory(config, p.directory);
         MiningSettingsFactory ms = new MiningSettingsFactory(config);
 
         return new CoreAssembly(
@@ -76,6 +79,8 @@ public class CoreAssemblyFactory {
                 new CoreOutbox(),
                 new ClientEventQueue(),
                 pr.get(),
+                gc.get(),
+                wu.get(),
                 bs.get(),
                 ms.get()
         );
@@ -92,15 +97,23 @@ public class CoreAssemblyFactory {
     static class LevelDBStoreFactory implements Supplier<LevelDBStore> {
         final String db;
         final int cacheSize;
+        final boolean syncWrites;
+        final File headerSnapshot;
 
         public LevelDBStoreFactory(Config config) {
             this.db = config.getString("database");
             this.cacheSize = config.getInt("cacheSize");
+            this.syncWrites = config.hasPath("syncWrites") && config.getBoolean("syncWrites");
+            // kept in the database directory, so it goes with the database
+            if (!config.hasPath("headerSnapshot") || config.getBoolean("headerSnapshot"))
+                this.headerSnapshot = new File(db, "headers.snapshot");
+            else
+                this.headerSnapshot = null;
         }
 
         @Override
         public LevelDBStore get() {
-            return new LevelDBStore(db, cacheSize);
+            return new LevelDBStore(db, cacheSize, syncWrites);
         }
     }
 
@@ -113,6 +126,9 @@ public class CoreAssemblyFactory {
 
     static class PersistentBlocksFactory implements Supplier<PersistentBlocks> {
         final Supplier<? extends OrderedMapStore> storeFactory;
+        File headerSnapshot = null;
+        // of the database, null if in memory
+        File directory = null;
 
         public PersistentBlocksFactory(Config config) {
             if (config.hasPath("store.leveldb") && config.hasPath("store.memory")) {
@@ -122,7 +138,10 @@ public class CoreAssemblyFactory {
                 if (config.hasPath("store.default-leveldb"))
                     leveldbConfig = leveldbConfig.withFallback(config.getConfig("store.default-leveldb"));
 
-                storeFactory = new LevelDBStoreFactory(leveldbConfig);
+                LevelDBStoreFactory leveldbFactory = new LevelDBStoreFactory(leveldbConfig);
+                storeFactory = leveldbFactory;
+                headerSnapshot = leveldbFactory.headerSnapshot;
+                directory = new File(leveldbFactory.db);
             } else if (config.hasPath("store.memory")) {
                 storeFactory = new MemstoreFactory();
             } else {
@@ -132,7 +151,7 @@ public class CoreAssemblyFactory {
 
         @Override
         public PersistentBlocks get() {
-            return new BitcoinPersistentBlocks(storeFactory.get());
+            return new BitcoinPersistentBlocks(storeFactory.get(), headerSnapshot);
         }
     }
 
@@ -155,6 +174,50 @@ public class CoreAssemblyFactory {
         }
     }
 
+    static class GroupCommitSettingsFactory implements Supplier<GroupCommitSettings> {
+        private final GroupCommitSettings settings;
+
+        public GroupCommitSettingsFactory(Config config) {
+            if (config.hasPath("store.groupCommit")) {
+                Config gc = config.getConfig("store.groupCommit");
+                this.settings = new GroupCommitSettings(
+                        gc.getBoolean("enabled"),
+                        gc.hasPath("maxBytes") ? gc.getBytes("maxBytes") : 32 * 1048576,
+                        gc.hasPath("maxMillis") ? gc.getLong("maxMillis") : 2000);
+            } else {
+                this.settings = GroupCommitSettings.NO_GROUPING;
+            }
+        }
+
+        @Override
+        public GroupCommitSettings get() {
+            return settings;
+        }
+    }
+
+    static class WarmUpSettingsFactory implements Supplier<WarmUpSettings> {
+        private final WarmUpSettings settings;
+
+        public WarmUpSettingsFactory(Config config, File directory) {
+            if (config.hasPath("store.warmUp")) {
+                Config wu = config.getConfig("store.warmUp");
+                this.settings = new WarmUpSettings(
+                        wu.getBoolean("enabled"),
+                        wu.hasPath("blocks") ? wu.getInt("blocks") : 10,
+                        wu.hasPath("recentTransactions") ? wu.getInt("recentTransactions") : 10000,
+                        wu.hasPath("maxReadsPerSecond") ? wu.getInt("maxReadsPerSecond") : 2000,
+                        directory != null ? new File(directory, "recent.transactions") : null);
+            } else {
+                this.settings = WarmUpSettings.NO_WARM_UP;
+            }
+        }
+
+        @Override
+        public WarmUpSettings get() {
+            return settings;
+        }
+    }
+
     static class ValidatorConfigFactory implements Supplier<ValidatorChain> {
         ValidatorChain validatorChain;
 
@@ -228,9 +291,11 @@ public class CoreAssemblyFactory {
                     String minerPrivateKey = c.getString("minerPrivateKey");
                     int requiredSignatureCount = c.getInt("requiredSignatureCount");
                     List<String> publicKeyStrings = c.getStringList("publicKeys");
+                    boolean unsignedProofOfWork = c.hasPath("unsignedProofOfWork") && c.getBoolean("unsignedProofOfWork");
                     if (minerPrivateKey != null && requiredSignatureCount > 0 && !publicKeyStrings.isEmpty()) {
                         try {
-                            tempBlockSignatureConfig = new BlockSignatureConfig(true, minerPrivateKey, requiredSignatureCount, publicKeyStrings);
+                            tempBlockSignatureConfig = new BlockSignatureConfig(true, minerPrivateKey, requiredSignatureCount, publicKeyStrings,
+                                    unsignedProofOfWork);
                         } catch (HyperLedgerException e) {
                             LoggedHyperLedgerException.loggedError(log, "Invalid blockSignature config", e);
                         }
@@ -262,7 +327,8 @@ public class CoreAssemblyFactory {
                     minerAddress = c.getString("minerAddress");
                     if (enabled) {
                         int delayBetweenMiningBlocksSecs = c.getInt("delayBetweenMiningBlocksSecs");
-                        miningConfig = new MiningConfig(true, minerAddress, delayBetweenMiningBlocksSecs);
+                        int minerThreads = c.hasPath("minerThreads") ? c.getInt("minerThreads") : 1;
+                        miningConfig = new MiningConfig(true, minerAddress, delayBetweenMiningBlocksSecs, minerThreads);
                     } else {
                         miningConfig = new MiningConfig(false, minerAddress, 0);
                     }
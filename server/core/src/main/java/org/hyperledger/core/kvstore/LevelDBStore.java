@@ -21,10 +21,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import static org.fusesource.leveldbjni.JniDBFactory.factory;
 
@@ -33,21 +31,38 @@ public class LevelDBStore implements OrderedMapStore {
 
     private static int MEMPOOL = 1024 * 512;
 
+    // marks a key removed in a batch or group, compared by identity
+    private static final byte[] DELETED = new byte[0];
+
     private String database = "data";
 
     private long cacheSize = 100 * 1048576;
 
+    private final WriteOptions writeOptions;
+
     private static class BatchContext {
         public TreeMap<byte[], byte[]> cache;
-        public WriteBatch batch;
     }
 
     private static ThreadLocal<BatchContext> threadContext = new ThreadLocal<>();
     private DB db;
 
+    // batches ended while a group is open, readable by all threads until written with endGroup
+    private final Object groupLock = new Object();
+    private volatile ConcurrentSkipListMap<byte[], byte[]> group;
+    private long groupSize;
+
     public LevelDBStore(String database, long cacheSize) {
+        this(database, cacheSize, false);
+    }
+
+    /**
+     * @param syncWrites wait for each write (of a group if grouped) to reach the disk
+     */
+    public LevelDBStore(String database, long cacheSize, boolean syncWrites) {
         this.database = database;
         this.cacheSize = cacheSize;
+        this.writeOptions = new WriteOptions().sync(syncWrites);
     }
 
     private static BatchContext getBatchContext() {
@@ -59,19 +74,17 @@ public class LevelDBStore implements OrderedMapStore {
 
     @Override
     public void put(byte[] key, byte[] data) {
-        try {
-            JniDBFactory.pushMemoryPool(MEMPOOL);
-
-            BatchContext bcontext = getBatchContext();
+        BatchContext bcontext = getBatchContext();
 
-            if (bcontext.batch != null) {
-                bcontext.batch.put(key, data);
-                bcontext.cache.put(key, data);
-            } else {
-                db.put(key, data);
+        if (bcontext.cache != null) {
+            bcontext.cache.put(key, data);
+        } else if (!addToGroup(Collections.singletonMap(key, data))) {
+            try {
+                JniDBFactory.pushMemoryPool(MEMPOOL);
+                db.put(key, data, writeOptions);
+            } finally {
+                JniDBFactory.popMemoryPool();
             }
-        } finally {
-            JniDBFactory.popMemoryPool();
         }
     }
 
@@ -79,11 +92,10 @@ public class LevelDBStore implements OrderedMapStore {
     public void remove(byte[] key) {
         BatchContext bcontext = getBatchContext();
 
-        if (bcontext.batch != null) {
-            bcontext.batch.delete(key);
-            bcontext.cache.remove(key);
-        } else {
-            db.delete(key);
+        if (bcontext.cache != null) {
+            bcontext.cache.put(key, DELETED);
+        } else if (!addToGroup(Collections.singletonMap(key, DELETED))) {
+            db.delete(key, writeOptions);
         }
     }
 
@@ -97,10 +109,17 @@ public class LevelDBStore implements OrderedMapStore {
             return null;
         }
         BatchContext bcontext = getBatchContext();
-        if (bcontext.batch != null) {
+        if (bcontext.cache != null) {
             byte[] data = bcontext.cache.get(key);
             if (data != null) {
-                return data;
+                return data == DELETED ? null : data;
+            }
+        }
+        Map<byte[], byte[]> g = group;
+        if (g != null) {
+            byte[] data = g.get(key);
+            if (data != null) {
+                return data == DELETED ? null : data;
             }
         }
         try {
@@ -115,7 +134,6 @@ public class LevelDBStore implements OrderedMapStore {
     @Override
     public void startBatch() {
         BatchContext bcontext = getBatchContext();
-        bcontext.batch = db.createWriteBatch();
         bcontext.cache = new TreeMap<>(new OrderedMapStoreKey.KeyComparator());
     }
 
@@ -123,15 +141,10 @@ public class LevelDBStore implements OrderedMapStore {
     public void endBatch() {
         BatchContext bcontext = getBatchContext();
         try {
-            if (bcontext.batch != null) {
-                db.write(bcontext.batch);
-                try {
-                    bcontext.batch.close();
-                } catch (IOException ignored) {
-                }
+            if (bcontext.cache != null && !addToGroup(bcontext.cache)) {
+                write(bcontext.cache);
             }
         } finally {
-            bcontext.batch = null;
             bcontext.cache = null;
         }
     }
@@ -139,12 +152,66 @@ public class LevelDBStore implements OrderedMapStore {
     @Override
     public void cancelBatch() {
         BatchContext bcontext = getBatchContext();
-        try {
-            bcontext.batch.close();
+        bcontext.cache = null;
+    }
+
+    @Override
+    public void startGroup() {
+        synchronized (groupLock) {
+            if (group == null) {
+                group = new ConcurrentSkipListMap<>(new OrderedMapStoreKey.KeyComparator());
+            }
+        }
+    }
+
+    @Override
+    public long getGroupSize() {
+        synchronized (groupLock) {
+            return groupSize;
+        }
+    }
+
+    @Override
+    public void endGroup() {
+        synchronized (groupLock) {
+            if (group != null) {
+                try {
+                    write(group);
+                } finally {
+                    group = null;
+                    groupSize = 0;
+                }
+            }
+        }
+    }
+
+    private boolean addToGroup(Map<byte[], byte[]> entries) {
+        synchronized (groupLock) {
+            if (group == null) {
+                return false;
+            }
+            for (Map.Entry<byte[], byte[]> e : entries.entrySet()) {
+                groupSize += e.getKey().length + e.getValue().length;
+            }
+            group.putAll(entries);
+            return true;
+        }
+    }
+
+    private void write(Map<byte[], byte[]> entries) {
+        try (WriteBatch batch = db.createWriteBatch()) {
+            JniDBFactory.pushMemoryPool(MEMPOOL);
+            for (Map.Entry<byte[], byte[]> e : entries.entrySet()) {
+                if (e.getValue() == DELETED) {
+                    batch.delete(e.getKey());
+                } else {
+                    batch.put(e.getKey(), e.getValue());
+                }
+            }
+            db.write(batch, writeOptions);
         } catch (IOException ignored) {
         } finally {
-            bcontext.batch = null;
-            bcontext.cache = null;
+            JniDBFactory.popMemoryPool();
         }
     }
 
@@ -223,50 +290,56 @@ public class LevelDBStore implements OrderedMapStore {
 
                 }
             }
-            // use the greatest of the keys found in the db and in the cache
-            BatchContext bcontext = getBatchContext();
-            if (bcontext.cache != null) {
-                byte[] bfk = bcontext.cache.floorKey(key);
-                if (bfk != null && (fk == null || OrderedMapStoreKey.compareByteArrays(bfk, fk) > 0)) {
-                    fk = bfk;
-                }
-            }
+            // use the greatest of the keys found in the db, in the group and in the cache
+            fk = floorKey(group, key, fk);
+            fk = floorKey(getBatchContext().cache, key, fk);
         } finally {
             JniDBFactory.popMemoryPool();
         }
         return fk;
     }
 
+    private static byte[] floorKey(NavigableMap<byte[], byte[]> overlay, byte[] key, byte[] fk) {
+        if (overlay != null) {
+            Map.Entry<byte[], byte[]> e = overlay.floorEntry(key);
+            while (e != null && e.getValue() == DELETED) {
+                e = overlay.lowerEntry(e.getKey());
+            }
+            if (e != null && (fk == null || OrderedMapStoreKey.compareByteArrays(e.getKey(), fk) > 0)) {
+                return e.getKey();
+            }
+        }
+        return fk;
+    }
+
     @Override
     public void forAll(OrderedMapStoreKey.KeyType t, DataProcessor processor) throws HyperLedgerException {
+        forAll(t, new byte[0], processor);
+    }
 
-        Set<byte[]> keysInCache = new TreeSet<>(new OrderedMapStoreKey.KeyComparator());
+    @Override
+    public void forAll(OrderedMapStoreKey.KeyType t, byte[] partialKey, DataProcessor processor) throws HyperLedgerException {
+        byte[] from = OrderedMapStoreKey.createKey(t, partialKey);
 
-        BatchContext bcontext = getBatchContext();
-        if (bcontext.cache != null) {
-            for (Map.Entry<byte[], byte[]> entry : bcontext.cache.tailMap(OrderedMapStoreKey.minKey(t)).entrySet()) {
-                byte[] key = entry.getKey();
-                if (!OrderedMapStoreKey.hasType(t, key)) {
-                    break;
-                }
-                keysInCache.add(key);
-                if (!processor.process(key, entry.getValue())) {
-                    break;
-                }
-            }
+        // keys of the batch of this thread and of the group shadow those of the db
+        Set<byte[]> keysSeen = new TreeSet<>(new OrderedMapStoreKey.KeyComparator());
+        if (!forAll(getBatchContext().cache, t, partialKey, keysSeen, processor) ||
+                !forAll(group, t, partialKey, keysSeen, processor)) {
+            return;
         }
 
         DBIterator iterator = db.iterator();
         try {
             JniDBFactory.pushMemoryPool(MEMPOOL);
 
-            iterator.seek(OrderedMapStoreKey.minKey(t));
+            iterator.seek(from);
             while (iterator.hasNext()) {
                 Map.Entry<byte[], byte[]> entry = iterator.next();
-                if (!OrderedMapStoreKey.hasType(t, entry.getKey())) {
+                byte[] key = entry.getKey();
+                if (!hasPrefix(t, partialKey, key)) {
                     break;
                 }
-                if (!keysInCache.contains(entry.getKey()) && !processor.process(entry.getKey(), entry.getValue())) {
+                if (!keysSeen.contains(key) && !processor.process(key, entry.getValue())) {
                     break;
                 }
             }
@@ -279,71 +352,44 @@ public class LevelDBStore implements OrderedMapStore {
         }
     }
 
-    @Override
-    public void forAll(OrderedMapStoreKey.KeyType t, byte[] partialKey, DataProcessor processor) throws HyperLedgerException {
-
-        Set<byte[]> keysInCache = new TreeSet<>(new OrderedMapStoreKey.KeyComparator());
-
-        BatchContext bcontext = getBatchContext();
-        if (bcontext.cache != null) {
-            for (Map.Entry<byte[], byte[]> entry : bcontext.cache.tailMap(OrderedMapStoreKey.createKey(t, partialKey)).entrySet()) {
-                byte[] key = entry.getKey();
-                if (!OrderedMapStoreKey.hasType(t, key)) {
-                    break;
-                }
-                boolean found = true;
-                for (int i = 0; i < partialKey.length; ++i) {
-                    if (key[i + 1] != partialKey[i]) {
-                        found = false;
-                        break;
-                    }
-                }
-                if (!found) {
-                    break;
-                }
-                keysInCache.add(key);
-                if (!processor.process(key, entry.getValue())) {
-                    break;
-                }
+    /**
+     * @return false if the processor stopped
+     */
+    private static boolean forAll(NavigableMap<byte[], byte[]> overlay, OrderedMapStoreKey.KeyType t, byte[] partialKey,
+                                  Set<byte[]> keysSeen, DataProcessor processor) throws HyperLedgerException {
+        if (overlay == null) {
+            return true;
+        }
+        for (Map.Entry<byte[], byte[]> entry : overlay.tailMap(OrderedMapStoreKey.createKey(t, partialKey)).entrySet()) {
+            byte[] key = entry.getKey();
+            if (!hasPrefix(t, partialKey, key)) {
+                break;
+            }
+            if (keysSeen.add(key) && entry.getValue() != DELETED && !processor.process(key, entry.getValue())) {
+                return false;
             }
         }
+        return true;
+    }
 
-        DBIterator iterator = db.iterator();
-        try {
-            JniDBFactory.pushMemoryPool(MEMPOOL);
-
-            iterator.seek(OrderedMapStoreKey.createKey(t, partialKey));
-            while (iterator.hasNext()) {
-                Map.Entry<byte[], byte[]> entry = iterator.next();
-                byte[] key = entry.getKey();
-                if (!OrderedMapStoreKey.hasType(t, key)) {
-                    break;
-                }
-                boolean found = true;
-                for (int i = 0; i < partialKey.length; ++i) {
-                    if (key[i + 1] != partialKey[i]) {
-                        found = false;
-                        break;
-                    }
-                }
-                if (!found) {
-                    break;
-                }
-                if (!keysInCache.contains(entry.getKey()) && !processor.process(entry.getKey(), entry.getValue())) {
-                    break;
-                }
-            }
-        } finally {
-            try {
-                iterator.close();
-            } catch (IOException ignored) {
+    private static boolean hasPrefix(OrderedMapStoreKey.KeyType t, byte[] partialKey, byte[] key) {
+        if (!OrderedMapStoreKey.hasType(t, key) || key.length <= partialKey.length) {
+            return false;
+        }
+        for (int i = 0; i < partialKey.length; ++i) {
+            if (key[i + 1] != partialKey[i]) {
+                return false;
             }
-            JniDBFactory.popMemoryPool();
         }
+        return true;
     }
 
     @Override
     public boolean isEmpty() {
+        Map<byte[], byte[]> g = group;
+        if (g != null && !g.isEmpty()) {
+            return false;
+        }
         try (DBIterator iterator = db.iterator()) {
             iterator.seekToFirst();
             return !iterator.hasNext();
@@ -28,9 +28,13 @@ public class MemoryStore implements OrderedMapStore {
 
     private final TreeMap<byte[], byte[]> db = new TreeMap<>(new OrderedMapStoreKey.KeyComparator());
     private TreeMap<byte[], byte[]> batch = null;
+    private long groupSize = -1;
 
     @Override
     public synchronized void put(byte[] key, byte[] data) {
+        if (groupSize >= 0) {
+            groupSize += key.length + data.length;
+        }
         if (batch != null) {
             batch.put(key, data);
         } else {
@@ -101,6 +105,24 @@ public class MemoryStore implements OrderedMapStore {
         batch = null;
     }
 
+    // writes are immediate, a group only counts their size
+    @Override
+    public synchronized void startGroup() {
+        if (groupSize < 0) {
+            groupSize = 0;
+        }
+    }
+
+    @Override
+    public synchronized long getGroupSize() {
+        return Math.max(0, groupSize);
+    }
+
+    @Override
+    public synchronized void endGroup() {
+        groupSize = -1;
+    }
+
     @Override
     public void forAll(OrderedMapStoreKey.KeyType t, DataProcessor processor) throws HyperLedgerException {
         for (Map.Entry<byte[], byte[]> entry : db.tailMap(OrderedMapStoreKey.minKey(t)).entrySet()) {
@@ -40,6 +40,19 @@ public interface OrderedMapStore {
 
     void cancelBatch();
 
+    /**
+     * Collect the batches ended until endGroup into a single write. What is collected is readable by all threads,
+     * but durable only after endGroup.
+     */
+    void startGroup();
+
+    /**
+     * @return bytes collected since startGroup
+     */
+    long getGroupSize();
+
+    void endGroup();
+
     void forAll(OrderedMapStoreKey.KeyType t, DataProcessor processor) throws HyperLedgerException;
 
     void forAll(OrderedMapStoreKey.KeyType t, byte[] partialKey, DataProcessor processor) throws HyperLedgerException;
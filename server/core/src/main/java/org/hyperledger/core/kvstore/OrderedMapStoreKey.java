@@ -17,7 +17,11 @@ import java.util.Comparator;
 
 public class OrderedMapStoreKey {
     public enum KeyType {
-        TX, BLOCKHEADER, BLOCKCONTENT, OUTSCRIPT, SPEND, MISC
+        TX, BLOCKHEADER, BLOCKCONTENT, OUTSCRIPT, SPEND, MISC,
+        // ids of headers in the order stored, keyed by sequence number. New types go last, ordinals are persisted.
+        HEADERLOG,
+        // what connecting a block changed, see BlockUndo
+        UNDO
     }
 
     public static byte[] createKey(KeyType kt, byte[] key) {
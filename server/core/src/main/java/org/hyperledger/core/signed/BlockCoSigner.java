@@ -0,0 +1,37 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core.signed;
+
+import org.hyperledger.common.BitcoinHeader;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A holder of one of the block signature keys, asked by the miner to co-sign a mined header. Co-signers are asked
+ * once per block found, so only for headers which proof of work does not cover the signatures.
+ */
+public interface BlockCoSigner {
+    /**
+     * @return index of the signer's key in BlockSignatureConfig.getPublicKeys()
+     */
+    int getKeyIndex();
+
+    /**
+     * Request a signature of the header.
+     *
+     * @param header a header that meets its proof of work
+     * @return signature of Hash.keyHash(header.toByteArray()), completed exceptionally if the signer refuses
+     */
+    CompletableFuture<byte[]> sign(BitcoinHeader header);
+}
@@ -32,9 +32,20 @@ public class BlockSignatureConfig implements ValidatorConfig {
     private int requiredSignatureCount;
     private List<PublicKey> publicKeys;
     private int privateKeyIndex;
+    private final boolean unsignedProofOfWork;
 
     public BlockSignatureConfig(boolean enabled, String minerPrivateKeyWIF, int requiredSignatureCount, List<String> publicKeyStrings) throws HyperLedgerException {
+        this(enabled, minerPrivateKeyWIF, requiredSignatureCount, publicKeyStrings, false);
+    }
+
+    /**
+     * @param unsignedProofOfWork accept and mine headers which proof of work does not cover the signatures,
+     *                            a change of consensus, all nodes of the chain must have it before any mines so
+     */
+    public BlockSignatureConfig(boolean enabled, String minerPrivateKeyWIF, int requiredSignatureCount, List<String> publicKeyStrings,
+                                boolean unsignedProofOfWork) throws HyperLedgerException {
         this.enabled = enabled;
+        this.unsignedProofOfWork = unsignedProofOfWork;
         if (enabled) {
             publicKeys = new ArrayList<>(publicKeyStrings.size());
             minerPrivateKey = PrivateKey.parseWIF(minerPrivateKeyWIF);
@@ -72,6 +83,10 @@ public class BlockSignatureConfig implements ValidatorConfig {
         return privateKeyIndex;
     }
 
+    public boolean isUnsignedProofOfWork() {
+        return unsignedProofOfWork;
+    }
+
 
     static {
         BlockSignatureConfig bs = null;
@@ -35,13 +35,25 @@ public class BlockSignatureHeaderValidator implements BlockHeaderValidator {
 
     @Override
     public void validateHeader(BlockStore blockStore, StoredHeader header) throws HyperLedgerException {
+        StoredHeader previous = blockStore.getHeader(header.getPreviousID());
+        checkHeader(header, previous != null ? previous.getHeader() : null);
+    }
+
+    @Override
+    public void checkHeader(StoredHeader header, Header previous) throws HyperLedgerException {
         // assuming that BitcoinValidator is also used, and that would check POW
 
         if (!(header.getHeader() instanceof HeaderWithSignatures)) {
             throw new HyperLedgerException("block header is not a signed one");
         }
+        if (!(previous instanceof HeaderWithSignatures)) {
+            throw new HyperLedgerException("previous block header is not a signed one");
+        }
 
         HeaderWithSignatures hws = (HeaderWithSignatures) header.getHeader();
+        if (hws.hasUnsignedProofOfWork() && !config.isUnsignedProofOfWork()) {
+            throw new HyperLedgerException("proof of work without signatures is not enabled on this chain");
+        }
         Script inScript = hws.getInScript();
         if (!inScript.isPushOnly()) {
             throw new HyperLedgerException("non-push operations in the signature script");
@@ -56,7 +68,7 @@ public class BlockSignatureHeaderValidator implements BlockHeaderValidator {
 
             ScriptValidator.ScriptValidation scriptEvaluator = getScriptValidation();
             JavaBitcoinScriptEvaluation evaluator = (JavaBitcoinScriptEvaluation) scriptEvaluator;
-            HeaderWithSignatures prevHws = (HeaderWithSignatures) blockStore.getHeader(hws.getPreviousID()).getHeader();
+            HeaderWithSignatures prevHws = (HeaderWithSignatures) previous;
 
             Script hashCheckerScript = Script.create().op(Opcode.OP_HASH160).data(prevHws.getNextScriptHash()).op(Opcode.OP_EQUAL).build();
             Script headerAndInScript = Script.create().data(headerBytes).concat(inScript).build();
@@ -70,6 +82,11 @@ public class BlockSignatureHeaderValidator implements BlockHeaderValidator {
 
     }
 
+    @Override
+    public void validateHeaderInContext(BlockStore blockStore, StoredHeader header) throws HyperLedgerException {
+        // signatures only depend on the previous header
+    }
+
     @Override
     public void validatePath(BlockStore blockStore, StoredHeader join, List<StoredHeader> path) throws HyperLedgerException {
         // nothing to do
@@ -22,7 +22,12 @@ import org.hyperledger.core.kvstore.MemoryStore;
 import org.hyperledger.core.signed.BlockSignatureConfig;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 import static org.junit.Assert.*;
@@ -77,6 +82,67 @@ public class BlockStoreTest {
 
         blockStore.addBlock(b3);
         assertTrue(blockStore.getMissingBlocks(10).isEmpty());
+
+        Block b4 = Block.create().header(BitcoinHeader.create().previousID(b3.getID()).build()).build();
+        blockStore.addHeader(b4.getHeader());
+        Set<Hash> known = blockStore.filterKnown(Arrays.asList(b2.getID(), b4.getID(), t3.getID(), TID.INVALID));
+        assertEquals(2, known.size());
+        assertTrue(known.contains(b2.getID()));
+        assertTrue(known.contains(t3.getID()));
+
+        // only stored blocks, b4 is a header
+        assertEquals(Arrays.asList(b1.getID(), b2.getID(), b3.getID()), blockStore.getTrunkBlocksAfter(genesis.getID(), 10));
+        assertEquals(Arrays.asList(b2.getID()), blockStore.getTrunkBlocksAfter(b1.getID(), 1));
+        assertTrue(blockStore.getTrunkBlocksAfter(b3.getID(), 10).isEmpty());
+        assertTrue(blockStore.getTrunkBlocksAfter(BID.INVALID, 10).isEmpty());
+    }
+
+    @Test
+    public void snapshotAheadOfDatabaseIsRebuilt() throws Exception {
+        ValidatorChain validatorChain = new ValidatorChain(new UnitTestBitcoinValidatorFactory());
+        File snapshot = File.createTempFile("headers", ".snapshot");
+        snapshot.deleteOnExit();
+        File crashed = File.createTempFile("crashed", ".snapshot");
+        crashed.deleteOnExit();
+
+        DefaultBlockStore complete = new DefaultBlockStore(validatorChain,
+                new BitcoinPersistentBlocks(new MemoryStore(), snapshot), new CoreOutbox(), new ClientEventQueue(),
+                PrunerSettings.NO_PRUNING, BlockSignatureConfig.DISABLED);
+        complete.start();
+        BID genesis = complete.getFullTop();
+        Block b1 = Block.create().header(BitcoinHeader.create().previousID(genesis).build())
+                .transactions(Transaction.create().inputs(TransactionInput.create().build())
+                        .outputs(TransactionOutput.create().value(1).build()).build()).build();
+        Block b2 = Block.create().header(BitcoinHeader.create().previousID(b1.getID()).build())
+                .transactions(Transaction.create().inputs(TransactionInput.create().build())
+                        .outputs(TransactionOutput.create().value(2).build()).build()).build();
+        complete.addBlock(b1);
+        complete.addBlock(b2);
+        Files.copy(snapshot.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        complete.stop();
+
+        // the database lost b2 in a crash, the snapshot was written with it
+        MemoryStore db = new MemoryStore();
+        DefaultBlockStore lost = new DefaultBlockStore(validatorChain,
+                new BitcoinPersistentBlocks(db), new CoreOutbox(), new ClientEventQueue(),
+                PrunerSettings.NO_PRUNING, BlockSignatureConfig.DISABLED);
+        lost.start();
+        lost.addBlock(b1);
+        lost.stop();
+
+        DefaultBlockStore restarted = new DefaultBlockStore(validatorChain,
+                new BitcoinPersistentBlocks(db, crashed), new CoreOutbox(), new ClientEventQueue(),
+                PrunerSettings.NO_PRUNING, BlockSignatureConfig.DISABLED);
+        restarted.start();
+        assertEquals(1, restarted.getFullHeight());
+        assertEquals(b1.getID(), restarted.getFullTop());
+        assertNull(restarted.getHeader(b2.getID()));
+        assertEquals(0, restarted.getStartupStatistics().getSnapshotHeaders());
+        assertEquals(2, restarted.getStartupStatistics().getDatabaseHeaders());
+        restarted.stop();
+
+        // rewritten for the database
+        assertEquals(2, new HeaderSnapshot(crashed).load(new CompactHeaderStore(), 2));
     }
 
     @Test
@@ -171,4 +237,114 @@ public class BlockStoreTest {
         assertEquals(blockStore.getFullTop(), genesis.getID());
         assertEquals(blockStore.getSpvTop(), b7.getID());
     }
+
+    @Test
+    public void addHeadersTest() throws HyperLedgerException {
+        ValidatorChain validatorChain = new ValidatorChain(
+                new UnitTestBitcoinValidatorFactory(),
+                new ColoredValidatorFactory(new ColoredValidatorConfig(true, false))
+        );
+
+        DefaultBlockStore blockStore = new DefaultBlockStore(
+                validatorChain,
+                new BitcoinPersistentBlocks(new MemoryStore()), new CoreOutbox(), new ClientEventQueue(), PrunerSettings.NO_PRUNING, BlockSignatureConfig.DISABLED);
+
+        Block genesis = GenesisBlocks.regtest;
+
+        blockStore.addGenesis(genesis);
+
+        // g - b1 - b2 - b3
+        BitcoinHeader b1 = BitcoinHeader.create().previousID(genesis.getID()).build();
+        BitcoinHeader b2 = BitcoinHeader.create().previousID(b1.getID()).build();
+        BitcoinHeader b3 = BitcoinHeader.create().previousID(b2.getID()).build();
+
+        List<HeaderStoredInfo> infos = blockStore.addHeaders(Arrays.asList(b1, b2, b3));
+        assertEquals(1, infos.size());
+        assertEquals(3, infos.get(0).getSpvHeight());
+        assertArrayEquals(new BID[]{b1.getID(), b2.getID(), b3.getID()}, infos.get(0).getAddedToTrunk().toArray());
+        assertEquals(b3.getID(), blockStore.getSpvTop());
+        assertEquals(genesis.getID(), blockStore.getFullTop());
+        assertEquals(2, blockStore.getHeader(b2.getID()).getHeight());
+
+        // g - b1 - b2 - b3
+        //          + -- b4 - b5 - b6
+        // known b1 is skipped, b4 is a side chain, b5 reorgs, b6 extends the trunk again
+        BitcoinHeader b4 = BitcoinHeader.create().createTime(1).previousID(b2.getID()).build();
+        BitcoinHeader b5 = BitcoinHeader.create().previousID(b4.getID()).build();
+        BitcoinHeader b6 = BitcoinHeader.create().previousID(b5.getID()).build();
+
+        infos = blockStore.addHeaders(Arrays.asList(b1, b4, b5, b6));
+        assertEquals(3, infos.size());
+        assertTrue(infos.get(0).getAddedToTrunk().isEmpty());
+        assertArrayEquals(new BID[]{b4.getID(), b5.getID()}, infos.get(1).getAddedToTrunk().toArray());
+        assertArrayEquals(new BID[]{b3.getID()}, infos.get(1).getRemovedFromFrunk().toArray());
+        assertArrayEquals(new BID[]{b6.getID()}, infos.get(2).getAddedToTrunk().toArray());
+        assertEquals(5, blockStore.getSpvHeight());
+        assertEquals(b6.getID(), blockStore.getSpvTop());
+
+        // unconnected header stops the batch, the headers before it are stored
+        BitcoinHeader b7 = BitcoinHeader.create().previousID(b6.getID()).build();
+        BitcoinHeader unconnected = BitcoinHeader.create().previousID(BID.INVALID).build();
+        try {
+            blockStore.addHeaders(Arrays.asList(b7, unconnected));
+            fail("unconnected header must be rejected");
+        } catch (HyperLedgerException e) {
+            // expected
+        }
+        assertEquals(b7.getID(), blockStore.getSpvTop());
+    }
+
+    @Test
+    public void prepareAndCommitTest() throws HyperLedgerException {
+        ValidatorChain validatorChain = new ValidatorChain(
+                new UnitTestBitcoinValidatorFactory(),
+                new ColoredValidatorFactory(new ColoredValidatorConfig(true, false))
+        );
+
+        DefaultBlockStore blockStore = new DefaultBlockStore(
+                validatorChain,
+                new BitcoinPersistentBlocks(new MemoryStore()), new CoreOutbox(), new ClientEventQueue(), PrunerSettings.NO_PRUNING, BlockSignatureConfig.DISABLED);
+
+        Block genesis = GenesisBlocks.regtest;
+
+        blockStore.addGenesis(genesis);
+
+        Transaction t1 = Transaction.create().inputs(TransactionInput.create().build())
+                .outputs(TransactionOutput.create().value(1).build()).build();
+
+        Transaction t2 = Transaction.create().inputs(TransactionInput.create().build())
+                .outputs(TransactionOutput.create().value(2).build()).build();
+
+        Block b1 = Block.create().header(BitcoinHeader.create().previousID(genesis.getID()).build()).transactions(t1).build();
+        PreparedBlock p1 = blockStore.prepareBlock(b1);
+        assertEquals(b1.getID(), blockStore.getSpvTop());
+        assertFalse(blockStore.hasBlock(b1.getID()));
+
+        BlockStoredInfo info = blockStore.commitBlock(p1);
+        assertArrayEquals(new BID[]{b1.getID()}, info.getAddedToTrunk().toArray());
+        assertEquals(b1.getID(), blockStore.getFullTop());
+
+        // g - b1 - b2
+        //        + b3
+        Block b2 = Block.create().header(BitcoinHeader.create().previousID(b1.getID()).build()).transactions(t2).build();
+        Block b3 = Block.create().header(BitcoinHeader.create().createTime(1).previousID(b1.getID()).build()).transactions(t2).build();
+        PreparedBlock p2 = blockStore.prepareBlock(b2);
+        PreparedBlock p3 = blockStore.prepareBlock(b3);
+
+        blockStore.commitBlock(p2);
+        assertEquals(b2.getID(), blockStore.getFullTop());
+
+        // tops moved since b3 was prepared, it is validated again and stored off trunk
+        info = blockStore.commitBlock(p3);
+        assertTrue(info.getAddedToTrunk().isEmpty());
+        assertTrue(blockStore.hasBlock(b3.getID()));
+        assertEquals(b2.getID(), blockStore.getFullTop());
+
+        try {
+            blockStore.commitBlock(p2);
+            fail("duplicate must be rejected");
+        } catch (HyperLedgerException e) {
+            // expected
+        }
+    }
 }
@@ -0,0 +1,83 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.TID;
+import org.hyperledger.core.bitcoin.BitcoinPersistentBlocks;
+import org.hyperledger.core.kvstore.MemoryStore;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CacheWarmerTest {
+
+    private static TID tid(int i) {
+        byte[] id = new byte[32];
+        id[0] = (byte) i;
+        return TID.createFromSafeArray(id);
+    }
+
+    private static List<TID> read(File file) throws Exception {
+        ByteBuffer ids = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        List<TID> recent = new ArrayList<>();
+        while (ids.hasRemaining()) {
+            byte[] id = new byte[32];
+            ids.get(id);
+            recent.add(TID.createFromSafeArray(id));
+        }
+        return recent;
+    }
+
+    @Test
+    public void recentTransactionsKept() throws Exception {
+        File file = File.createTempFile("recent", ".transactions");
+        file.deleteOnExit();
+        WarmUpSettings settings = new WarmUpSettings(true, 10, 3, 0, file);
+        PersistentBlocks blocks = new BitcoinPersistentBlocks(new MemoryStore());
+
+        CacheWarmer warmer = new CacheWarmer(blocks, settings);
+        warmer.queried(tid(1));
+        warmer.queried(tid(2));
+        warmer.queried(tid(3));
+        warmer.stop();
+        assertEquals(Arrays.asList(tid(3), tid(2), tid(1)), read(file));
+
+        // after a restart the previous queries are read, most recent first, and the oldest is displaced
+        warmer = new CacheWarmer(blocks, settings);
+        List<List<StoredBlock>> loaded = new ArrayList<>();
+        warmer.start(Collections.emptyList(), loaded::add);
+        warmer.queried(tid(4));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!warmer.getStatistics().isComplete() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        WarmUpStatistics statistics = warmer.getStatistics();
+        assertTrue(statistics.isComplete());
+        assertEquals(3, statistics.getSteps());
+        assertEquals(3, statistics.getStepsDone());
+        assertEquals(1.0, statistics.getProgress(), 0.0);
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.get(0).isEmpty());
+        warmer.stop();
+        assertEquals(Arrays.asList(tid(4), tid(3), tid(2)), read(file));
+    }
+}
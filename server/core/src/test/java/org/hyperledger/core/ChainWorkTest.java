@@ -0,0 +1,62 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChainWorkTest {
+    private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(256);
+
+    @Test
+    public void addAndCompareAsBigInteger() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; ++i) {
+            // vary the length so that carries across the longs are common
+            BigInteger a = new BigInteger(1 + random.nextInt(256), random);
+            BigInteger b = new BigInteger(1 + random.nextInt(256), random);
+            ChainWork wa = ChainWork.valueOf(a);
+            ChainWork wb = ChainWork.valueOf(b);
+            assertEquals(a, wa.toBigInteger());
+            assertEquals(a.add(b).mod(MODULUS), wa.add(wb).toBigInteger());
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(wa.compareTo(wb)));
+        }
+    }
+
+    @Test
+    public void carry() {
+        ChainWork allOnes = ChainWork.valueOf(BigInteger.ONE.shiftLeft(192).subtract(BigInteger.ONE));
+        assertEquals(BigInteger.ONE.shiftLeft(192), allOnes.add(ChainWork.ONE).toBigInteger());
+        assertTrue(allOnes.add(ChainWork.ONE).compareTo(allOnes) > 0);
+    }
+
+    @Test
+    public void bytesRoundtrip() {
+        ChainWork work = ChainWork.valueOf(new BigInteger("123456789abcdef0123456789abcdef0123456789", 16));
+        byte[] bytes = work.toByteArray();
+        assertEquals(ChainWork.BYTES, bytes.length);
+        assertEquals(work, ChainWork.fromByteArray(bytes));
+        assertEquals(work.toBigInteger(), new BigInteger(1, bytes));
+    }
+
+    @Test
+    public void fromDouble() {
+        assertEquals(ChainWork.valueOf(1378), ChainWork.valueOf(1378.0));
+        assertEquals(1.5e20, ChainWork.valueOf(1.5e20).doubleValue(), 0.0);
+    }
+}
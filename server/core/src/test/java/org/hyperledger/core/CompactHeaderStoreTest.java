@@ -0,0 +1,82 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompactHeaderStoreTest {
+
+    private static List<StoredHeader> chain(int count) {
+        List<StoredHeader> chain = new ArrayList<>();
+        BID previousID = BID.INVALID;
+        for (int i = 0; i < count; ++i) {
+            StoredHeader h = new StoredHeader(BitcoinHeader.create().previousID(previousID)
+                    .merkleRoot(new MerkleRoot(Hash.hash(new byte[]{(byte) i})))
+                    .createTime(i).difficultyTarget(0x207fffff).nonce(i).build(), ChainWork.valueOf(i * 2), i);
+            chain.add(h);
+            previousID = h.getID();
+        }
+        return chain;
+    }
+
+    @Test
+    public void headersRoundtrip() throws Exception {
+        CompactHeaderStore store = new CompactHeaderStore();
+        StoredHeader original = chain(1).get(0);
+        store.put(original.getID(), original);
+
+        StoredHeader view = store.get(original.getID());
+        assertArrayEquals(original.toWireHeaderBytes(), view.toWireHeaderBytes());
+        assertEquals(original.getID(), view.getHeader().getID());
+        assertEquals(ChainWork.ZERO, view.getChainWork());
+        assertNull(store.get(new BID(Hash.hash(new byte[]{1}))));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void signedHeadersKeptWhole() throws Exception {
+        CompactHeaderStore store = new CompactHeaderStore();
+        HeaderWithSignatures signed = HeaderWithSignatures.create().inScript(new byte[]{1, 2, 3}).nextScriptHash(new byte[20])
+                .previousID(BID.INVALID).build();
+        store.put(signed.getID(), new StoredHeader(signed, ChainWork.ONE, 0));
+
+        assertArrayEquals(signed.toWireHeaderBytes(), store.get(signed.getID()).toWireHeaderBytes());
+    }
+
+    @Test
+    public void growsAndRelinks() {
+        CompactHeaderStore store = new CompactHeaderStore();
+        List<StoredHeader> chain = chain(40000);
+        List<StoredHeader> shuffled = new ArrayList<>(chain);
+        Collections.shuffle(shuffled);
+        for (StoredHeader h : shuffled) {
+            store.put(h.getID(), h);
+        }
+        store.relink();
+
+        assertEquals(40000, store.size());
+        StoredHeader top = store.get(chain.get(39999).getID());
+        assertEquals(39999, top.getHeight());
+        assertEquals(chain.get(39998).getID(), top.getPrevious().getID());
+        assertEquals(chain.get(12345).getID(), top.getAncestor(12345).getID());
+        assertNull(store.get(chain.get(0).getID()).getPrevious());
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.BID;
+import org.hyperledger.common.BitcoinHeader;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeaderSnapshotTest {
+
+    private static List<StoredHeader> extend(CompactHeaderStore headers, int count) {
+        List<StoredHeader> chain = new ArrayList<>();
+        BID previousID = BID.INVALID;
+        for (int i = 0; i < count; ++i) {
+            StoredHeader h = new StoredHeader(BitcoinHeader.create().previousID(previousID).nonce(i).build(), ChainWork.valueOf(i), i);
+            headers.put(h.getID(), h);
+            chain.add(h);
+            previousID = h.getID();
+        }
+        return chain;
+    }
+
+    @Test
+    public void writeAppendLoad() throws Exception {
+        File file = File.createTempFile("headers", ".snapshot");
+        file.deleteOnExit();
+        CompactHeaderStore headers = new CompactHeaderStore();
+        List<StoredHeader> chain = extend(headers, 100);
+
+        HeaderSnapshot snapshot = new HeaderSnapshot(file);
+        snapshot.write(headers, 100);
+        snapshot.close();
+
+        // reopen and append the rest of the chain
+        snapshot = new HeaderSnapshot(file);
+        CompactHeaderStore loaded = new CompactHeaderStore();
+        assertEquals(100, snapshot.load(loaded, 100));
+        snapshot.resume();
+        for (StoredHeader h : extend(headers, 150).subList(100, 150)) {
+            chain.add(h);
+            snapshot.append(headers, h.getSlot(), chain.size());
+        }
+        snapshot.close();
+
+        loaded = new CompactHeaderStore();
+        assertEquals(150, new HeaderSnapshot(file).load(loaded, 150));
+        loaded.relink();
+        assertEquals(150, loaded.size());
+        StoredHeader top = loaded.get(chain.get(149).getID());
+        assertEquals(149, top.getHeight());
+        assertEquals(ChainWork.valueOf(149), top.getChainWork());
+        assertEquals(chain.get(149).getHeader(), top.getHeader());
+        assertEquals(chain.get(7).getID(), top.getAncestor(7).getID());
+    }
+
+    @Test
+    public void damagedIsIgnored() throws Exception {
+        File file = File.createTempFile("headers", ".snapshot");
+        file.deleteOnExit();
+        CompactHeaderStore headers = new CompactHeaderStore();
+        extend(headers, 10);
+        HeaderSnapshot snapshot = new HeaderSnapshot(file);
+        snapshot.write(headers, 10);
+        snapshot.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(100);
+            int b = raf.read();
+            raf.seek(100);
+            raf.write(b ^ 1);
+        }
+        CompactHeaderStore loaded = new CompactHeaderStore();
+        assertEquals(-1, new HeaderSnapshot(file).load(loaded, 10));
+        assertEquals(0, loaded.size());
+
+        assertEquals(-1, new HeaderSnapshot(new File(file.getPath() + ".missing")).load(loaded, 10));
+    }
+
+    @Test
+    public void aheadOfLogIsIgnored() throws Exception {
+        File file = File.createTempFile("headers", ".snapshot");
+        file.deleteOnExit();
+        CompactHeaderStore headers = new CompactHeaderStore();
+        extend(headers, 10);
+        HeaderSnapshot snapshot = new HeaderSnapshot(file);
+        snapshot.write(headers, 10);
+        snapshot.close();
+
+        // the last blocks were not durably written
+        CompactHeaderStore loaded = new CompactHeaderStore();
+        assertEquals(-1, new HeaderSnapshot(file).load(loaded, 8));
+        assertEquals(0, loaded.size());
+    }
+}
@@ -78,4 +78,48 @@ public class MempoolTest {
         assertNull(mempool.get(t2.getID()));
         assertMempool(mempool);
     }
+
+    @Test
+    public void compactEntries() throws HyperLedgerException {
+        Mempool mempool = new Mempool();
+        ValidatedTransaction t1 = new ValidatedTransaction(new Transaction.Builder().inputs(
+                new TransactionInput.Builder().source(new Outpoint(TID.BITCOIN_NATIVE, 3)).build()).outputs(
+                new TransactionOutput.Builder().value(1).build()).build(), 42);
+        mempool.add(t1);
+        assertTrue(mempool.getHeapSize() > 0);
+        assertEquals(1, mempool.getStatistics().getSize());
+        assertEquals(mempool.getHeapSize(), mempool.getStatistics().getHeapPerTransaction());
+
+        // repeated lookups of a parent are not decoded again
+        assertSame(mempool.get(t1.getID()), mempool.get(t1.getID()));
+
+        ValidatedTransaction decoded = mempool.get(t1.getID());
+        assertEquals(t1, decoded);
+        assertEquals(42, decoded.getFee());
+        assertEquals(t1.getInput(0).getSource(), decoded.getInput(0).getSource());
+        assertTrue(mempool.isAvailable(new Outpoint(t1.getID(), 0)));
+        assertFalse(mempool.isAvailable(new Outpoint(t1.getID(), 1)));
+
+        mempool.remove(t1.getID(), false);
+        assertEquals(0, mempool.getHeapSize());
+        assertNull(mempool.get(t1.getID()));
+    }
+
+    @Test
+    public void orderWithoutDecoding() throws HyperLedgerException {
+        Mempool mempool = new Mempool();
+        ValidatedTransaction parent = new ValidatedTransaction(new Transaction.Builder().outputs(
+                new TransactionOutput.Builder().value(1).build()).build(), 1);
+        ValidatedTransaction child = new ValidatedTransaction(new Transaction.Builder().inputs(
+                new TransactionInput.Builder().source(new Outpoint(parent.getID(), 0)).build()).outputs(
+                new TransactionOutput.Builder().value(1).build()).build(), 10);
+        mempool.add(child);
+        mempool.add(parent);
+
+        // the child pays more, but its parent comes first
+        assertEquals(Arrays.asList(parent.getID(), child.getID()), mempool.getOrder());
+
+        mempool.remove(parent.getID(), false);
+        assertEquals(Arrays.asList(child), mempool.getAll(Arrays.asList(parent.getID(), child.getID())));
+    }
 }
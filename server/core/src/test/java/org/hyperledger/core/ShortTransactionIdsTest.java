@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.BID;
+import org.hyperledger.common.TID;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ShortTransactionIdsTest {
+
+    private static BID bid(int i) {
+        byte[] id = new byte[32];
+        id[31] = (byte) i;
+        return BID.createFromSafeArray(id);
+    }
+
+    private static TID tid(int i) {
+        byte[] id = new byte[32];
+        id[0] = (byte) i;
+        id[1] = (byte) (i >>> 8);
+        return TID.createFromSafeArray(id);
+    }
+
+    @Test
+    public void sameKeySameIds() {
+        ShortTransactionIds sender = new ShortTransactionIds(bid(1), 42);
+        ShortTransactionIds receiver = new ShortTransactionIds(bid(1), 42);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(sender.shortId(tid(i)), receiver.shortId(tid(i)));
+        }
+    }
+
+    @Test
+    public void keyedByBlockAndNonce() {
+        ShortTransactionIds ids = new ShortTransactionIds(bid(1), 42);
+        ShortTransactionIds otherNonce = new ShortTransactionIds(bid(1), 43);
+        ShortTransactionIds otherBlock = new ShortTransactionIds(bid(2), 42);
+        assertNotEquals(ids.shortId(tid(1)), otherNonce.shortId(tid(1)));
+        assertNotEquals(ids.shortId(tid(1)), otherBlock.shortId(tid(1)));
+    }
+
+    @Test
+    public void fortyEightBits() {
+        ShortTransactionIds ids = new ShortTransactionIds(bid(1), -1L);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 10000; ++i) {
+            long id = ids.shortId(tid(i));
+            assertEquals(0, id >>> ShortTransactionIds.SHORT_ID_BITS);
+            seen.add(id);
+        }
+        assertEquals(10000, seen.size());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.*;
+import org.hyperledger.core.bitcoin.BitcoinPersistentBlocks;
+import org.hyperledger.core.bitcoin.GenesisBlocks;
+import org.hyperledger.core.kvstore.MemoryStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.*;
+
+public class StoredTransactionFilterTest {
+
+    private static TID tid(int i) {
+        byte[] id = new byte[32];
+        id[0] = (byte) i;
+        id[1] = (byte) (i >>> 8);
+        id[31] = 1;
+        return TID.createFromSafeArray(id);
+    }
+
+    @Test
+    public void storedAndAddedIdsContained() throws Exception {
+        PersistentBlocks blocks = new BitcoinPersistentBlocks(new MemoryStore());
+        List<StoredTransaction> stored = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            stored.add(new StoredTransaction(Transaction.create().inputs(TransactionInput.create().build())
+                    .outputs(TransactionOutput.create().value(i + 1).build()).build(), 0));
+        }
+        Block genesis = GenesisBlocks.regtest;
+        blocks.writeBlock(new StoredBlock(new StoredHeader(genesis.getHeader(), ChainWork.ONE, 0), stored));
+
+        StoredTransactionFilter filter = new StoredTransactionFilter(blocks, new ReentrantReadWriteLock());
+        // not read yet, everything has to be looked up
+        assertTrue(filter.mightContain(tid(1)));
+
+        filter.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!filter.isComplete() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(filter.isComplete());
+        for (StoredTransaction t : stored) {
+            assertTrue(filter.mightContain(t.getID()));
+        }
+
+        filter.add(tid(1));
+        assertTrue(filter.mightContain(tid(1)));
+
+        // about 1% false positives
+        int positives = 0;
+        for (int i = 2; i < 10002; ++i) {
+            if (filter.mightContain(tid(i))) {
+                ++positives;
+            }
+        }
+        assertTrue(positives < 300);
+        filter.stop();
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core;
+
+import org.hyperledger.common.BID;
+import org.hyperledger.common.BitcoinHeader;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrunkTest {
+    private final CompactHeaderStore headers = new CompactHeaderStore();
+
+    private List<StoredHeader> extend(StoredHeader from, int count, int salt) {
+        List<StoredHeader> chain = new ArrayList<>();
+        StoredHeader prev = from;
+        for (int i = 0; i < count; ++i) {
+            BID previousID = prev == null ? BID.INVALID : prev.getID();
+            StoredHeader h = new StoredHeader(BitcoinHeader.create().previousID(previousID).nonce(salt + i).build(),
+                    ChainWork.ZERO, prev == null ? 0 : prev.getHeight() + 1);
+            headers.put(h.getID(), h);
+            chain.add(h);
+            prev = h;
+        }
+        return chain;
+    }
+
+    @Test
+    public void ancestorsFollowSkipLinks() {
+        List<StoredHeader> chain = extend(null, 1000, 0);
+        StoredHeader top = chain.get(999);
+        for (int height = 0; height < 1000; ++height) {
+            assertEquals(chain.get(height).getID(), top.getAncestor(height).getID());
+        }
+        assertNull(top.getAncestor(1000));
+        assertNull(top.getAncestor(-1));
+    }
+
+    @Test
+    public void trunkIndexedByHeight() {
+        List<StoredHeader> chain = extend(null, 100, 0);
+        Trunk trunk = new Trunk(headers);
+        trunk.reset(chain.get(99));
+        assertEquals(100, trunk.size());
+        assertEquals(chain.get(42).getID(), trunk.get(42).getID());
+        assertTrue(trunk.contains(chain.get(42).getID()));
+
+        List<StoredHeader> branch = extend(chain.get(60), 50, 1000);
+        assertFalse(trunk.contains(branch.get(0).getID()));
+        assertEquals(chain.get(60).getID(), trunk.findFork(branch.get(49)).getID());
+        assertEquals(chain.get(60).getID(), trunk.findFork(chain.get(60)).getID());
+
+        Trunk snapshot = trunk.snapshot(70);
+
+        // reorg to the branch
+        for (int i = 99; i > 60; --i) {
+            trunk.pop();
+        }
+        for (StoredHeader h : branch) {
+            trunk.push(h);
+        }
+        assertEquals(111, trunk.size());
+        assertFalse(trunk.contains(chain.get(61).getID()));
+        assertTrue(trunk.contains(branch.get(0).getID()));
+        assertEquals(chain.get(60).getID(), trunk.findFork(chain.get(99)).getID());
+
+        // the snapshot keeps the trunk as it was
+        assertEquals(70, snapshot.size());
+        assertTrue(snapshot.contains(chain.get(65).getID()));
+        assertFalse(snapshot.contains(branch.get(0).getID()));
+    }
+}
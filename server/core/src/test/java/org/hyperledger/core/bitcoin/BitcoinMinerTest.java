@@ -19,21 +19,29 @@ import org.hyperledger.core.*;
 import org.hyperledger.core.color.ColoredValidatorConfig;
 import org.hyperledger.core.color.ColoredValidatorFactory;
 import org.hyperledger.core.kvstore.MemoryStore;
+import org.hyperledger.core.signed.BlockCoSigner;
 import org.hyperledger.core.signed.BlockSignatureConfig;
+import org.hyperledger.core.signed.BlockSignatureHeaderValidator;
 import org.hyperledger.core.signed.BlockSignatureValidatorFactory;
 import org.hyperledger.core.signed.SignedRegtestValidatorConfig;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BitcoinMinerTest {
 
     private PrivateKey minerPrivateKey;
+    private PrivateKey coSignerPrivateKey;
     private Address minerAddress;
     private List<String> publicKeyStrings;
 
@@ -45,7 +53,8 @@ public class BitcoinMinerTest {
 
         publicKeyStrings = new ArrayList<>();
         publicKeyStrings.add(ByteUtils.toHex(minerPrivateKey.getPublic().toByteArray()));
-        publicKeyStrings.add(ByteUtils.toHex(PrivateKey.createNew(true).getPublic().toByteArray()));
+        coSignerPrivateKey = PrivateKey.createNew(true);
+        publicKeyStrings.add(ByteUtils.toHex(coSignerPrivateKey.getPublic().toByteArray()));
         publicKeyStrings.add(ByteUtils.toHex(PrivateKey.createNew(true).getPublic().toByteArray()));
     }
 
@@ -78,6 +87,7 @@ public class BitcoinMinerTest {
 
         // do not mine on top of a block not in the block store
         assertNotEquals(block2.getID(), notStoredBlock.getPreviousID());
+        miner.stop();
     }
 
     @Test
@@ -100,6 +110,7 @@ public class BitcoinMinerTest {
         BitcoinMiner miner = new BitcoinMiner(blockStore, new MiningConfig(true, minerAddress.toString(), 0), validatorConfig, blockSignatureConfig);
         Block block1 = miner.mineAndStoreOneBlock();
         assertEquals(HeaderWithSignatures.class, block1.getHeader().getClass());
+        assertFalse(((HeaderWithSignatures) block1.getHeader()).hasUnsignedProofOfWork());
 
         Block notStoredBlock = miner.mineOneBlock();
         assertEquals(HeaderWithSignatures.class, notStoredBlock.getHeader().getClass());
@@ -113,5 +124,85 @@ public class BitcoinMinerTest {
 
         // do not mine on top of a block not in the block store
         assertNotEquals(block2.getID(), notStoredBlock.getPreviousID());
+        miner.stop();
+    }
+
+    @Test
+    public void mineSignedChainWithUnsignedProofOfWork() throws HyperLedgerException {
+        BlockSignatureConfig blockSignatureConfig = new BlockSignatureConfig(true, PrivateKey.serializeWIF(minerPrivateKey), 1, publicKeyStrings, true);
+
+        ValidatorChain validatorChain = new ValidatorChain(
+                new UnitTestBitcoinValidatorFactory(),
+                new ColoredValidatorFactory(new ColoredValidatorConfig(true, false)),
+                new BlockSignatureValidatorFactory(blockSignatureConfig)
+        );
+        DefaultBlockStore blockStore = new DefaultBlockStore(validatorChain,
+                new BitcoinPersistentBlocks(new MemoryStore()), new CoreOutbox(), new ClientEventQueue(), PrunerSettings.NO_PRUNING, BlockSignatureConfig.DISABLED);
+
+        byte[] inScriptBytes = Script.create().blockSignature(blockSignatureConfig.getRequiredSignatureCount(), blockSignatureConfig.getPublicKeys()).build().toByteArray();
+        Block genesisBlock = GenesisBlocks.unittestWithHeaderSignature(inScriptBytes);
+        blockStore.addGenesis(genesisBlock);
+
+        BitcoinMiner miner = new BitcoinMiner(blockStore, new MiningConfig(true, minerAddress.toString(), 0), new SignedRegtestValidatorConfig(), blockSignatureConfig);
+        Block block1 = miner.mineAndStoreOneBlock();
+        HeaderWithSignatures header = (HeaderWithSignatures) block1.getHeader();
+        assertTrue(header.hasUnsignedProofOfWork());
+        assertEquals(block1.getID(), blockStore.getHighestBlock().getID());
+        assertNotEquals(header.getID(), header.getProofOfWorkHash());
+        assertTrue(BitcoinDifficulty.meetsTarget(header.getProofOfWorkHash(), block1.getEncodedDifficulty()));
+        miner.stop();
+
+        // a node of the chain that did not enable it rejects the header
+        BlockSignatureHeaderValidator validator = new BlockSignatureHeaderValidator(
+                new BlockSignatureConfig(true, PrivateKey.serializeWIF(minerPrivateKey), 1, publicKeyStrings));
+        try {
+            validator.checkHeader(new StoredHeader(header, ChainWork.ZERO, 1), genesisBlock.getHeader());
+            fail("unsigned proof of work must be rejected if not enabled");
+        } catch (HyperLedgerException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void mineSignedChainWithCoSigner() throws HyperLedgerException {
+        BlockSignatureConfig blockSignatureConfig = new BlockSignatureConfig(true, PrivateKey.serializeWIF(minerPrivateKey), 2, publicKeyStrings, true);
+
+        ValidatorChain validatorChain = new ValidatorChain(
+                new UnitTestBitcoinValidatorFactory(),
+                new ColoredValidatorFactory(new ColoredValidatorConfig(true, false)),
+                new BlockSignatureValidatorFactory(blockSignatureConfig)
+        );
+        DefaultBlockStore blockStore = new DefaultBlockStore(validatorChain,
+                new BitcoinPersistentBlocks(new MemoryStore()), new CoreOutbox(), new ClientEventQueue(), PrunerSettings.NO_PRUNING, BlockSignatureConfig.DISABLED);
+
+        byte[] inScriptBytes = Script.create().blockSignature(blockSignatureConfig.getRequiredSignatureCount(), blockSignatureConfig.getPublicKeys()).build().toByteArray();
+        Block genesisBlock = GenesisBlocks.unittestWithHeaderSignature(inScriptBytes);
+        blockStore.addGenesis(genesisBlock);
+
+        BitcoinMiner miner = new BitcoinMiner(blockStore, new MiningConfig(true, minerAddress.toString(), 0), new SignedRegtestValidatorConfig(), blockSignatureConfig);
+        miner.addCoSigner(new BlockCoSigner() {
+            @Override
+            public int getKeyIndex() {
+                return 1;
+            }
+
+            @Override
+            public CompletableFuture<byte[]> sign(BitcoinHeader header) {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return coSignerPrivateKey.sign(Hash.keyHash(header.toByteArray()));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+        });
+
+        // stored only if both signatures validate
+        Block block1 = miner.mineAndStoreOneBlock();
+        HeaderWithSignatures header = (HeaderWithSignatures) block1.getHeader();
+        assertTrue(header.hasUnsignedProofOfWork());
+        assertEquals(block1.getID(), blockStore.getHighestBlock().getID());
+        miner.stop();
     }
 }
@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core.bitcoin;
+
+import org.hyperledger.common.*;
+import org.hyperledger.core.ValidatedTransaction;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BlockTemplateTest {
+
+    private static ValidatedTransaction createTransaction(TID source, int ix, long value) {
+        return new ValidatedTransaction(Transaction.create()
+                .inputs(TransactionInput.create().source(source, ix).build())
+                .outputs(TransactionOutput.create().value(value).build()).build(), 0);
+    }
+
+    private static Transaction createCoinbase(long value) {
+        return Transaction.create()
+                .inputs(TransactionInput.create().source(TID.INVALID, 0).build())
+                .outputs(TransactionOutput.create().value(value).build()).build();
+    }
+
+    @Test
+    public void merkleRootMatchesFullComputation() {
+        BlockTemplate template = new BlockTemplate(BID.INVALID, Integer.MAX_VALUE, 0);
+        for (int i = 0; i < 20; ++i) {
+            Transaction coinbase = createCoinbase(i);
+            assertEquals(MerkleTree.computeMerkleRoot(template.getTransactions(coinbase)), template.getMerkleRoot(coinbase));
+            // a different coinbase on the same cached branch
+            Transaction otherCoinbase = createCoinbase(i + 100);
+            assertEquals(MerkleTree.computeMerkleRoot(template.getTransactions(otherCoinbase)), template.getMerkleRoot(otherCoinbase));
+
+            assertTrue(template.add(createTransaction(TID.BITCOIN_NATIVE, i, i), 1));
+        }
+    }
+
+    @Test
+    public void skipsOversizedAndDependent() {
+        BlockTemplate template = new BlockTemplate(BID.INVALID, 100, 10);
+        ValidatedTransaction large = createTransaction(TID.BITCOIN_NATIVE, 0, 1);
+        ValidatedTransaction child = createTransaction(large.getID(), 0, 1);
+        ValidatedTransaction small = createTransaction(TID.BITCOIN_NATIVE, 1, 1);
+
+        assertFalse(template.add(large, 91));
+        assertFalse(template.add(child, 10));
+        assertTrue(template.add(small, 90));
+        // already considered
+        assertTrue(template.add(small, 90));
+
+        assertEquals(1, template.getTransactionCount());
+        assertEquals(100, template.getSize());
+    }
+
+    @Test
+    public void excludedAllowDependents() {
+        BlockTemplate template = new BlockTemplate(BID.INVALID, Integer.MAX_VALUE, 0);
+        ValidatedTransaction pending = createTransaction(TID.BITCOIN_NATIVE, 0, 1);
+        ValidatedTransaction child = createTransaction(pending.getID(), 0, 1);
+
+        template.exclude(pending.getID());
+        template.add(pending, 10);
+        assertTrue(template.add(child, 10));
+
+        assertEquals(1, template.getTransactionCount());
+        assertEquals(10, template.getSize());
+    }
+
+    @Test
+    public void skipsBySizeWithoutTransaction() {
+        BlockTemplate template = new BlockTemplate(BID.INVALID, 200, 10);
+        ValidatedTransaction large = createTransaction(TID.BITCOIN_NATIVE, 0, 1);
+        ValidatedTransaction child = createTransaction(large.getID(), 0, 1);
+
+        assertTrue(template.skipIfTooLarge(large.getID(), 191));
+        assertFalse(template.add(child, 60));
+        assertFalse(template.skipIfTooLarge(TID.BITCOIN_NATIVE, 190));
+
+        assertTrue(template.add(createTransaction(TID.BITCOIN_NATIVE, 1, 1), 130));
+        assertTrue(template.hasRoom());
+        assertTrue(template.add(createTransaction(TID.BITCOIN_NATIVE, 2, 1), 10));
+        // less than the smallest transaction left
+        assertFalse(template.hasRoom());
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.core.bitcoin;
+
+import org.hyperledger.common.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NonceSearchTest {
+
+    private static boolean meetsTarget(BitcoinHeader header) {
+        return header.getID().toBigInteger().compareTo(BitcoinDifficulty.getTarget(header.getEncodedDifficulty())) <= 0;
+    }
+
+    @Test
+    public void findsValidNonce() throws HyperLedgerException {
+        for (int threads = 1; threads <= 4; ++threads) {
+            BitcoinHeader header = new BitcoinHeader(1, BID.INVALID, new MerkleRoot(Hash.hash(new byte[]{(byte) threads})), 1234567, 0x1f00ffff, 0);
+            NonceSearch search = new NonceSearch(threads);
+            try {
+                Integer nonce = search.search(header, () -> false);
+                assertNotNull(nonce);
+                assertTrue(meetsTarget(new BitcoinHeader(1, BID.INVALID, header.getMerkleRoot(), 1234567, 0x1f00ffff, nonce)));
+            } finally {
+                search.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void targetBytesMatchBigInteger() {
+        for (int target : new int[]{0x1d00ffff, 0x1f00ffff, 0x207fffff}) {
+            byte[] bytes = BitcoinDifficulty.getTargetBytes(target);
+            assertTrue(BitcoinDifficulty.isBelowTarget(bytes, bytes));
+            assertEquals(BitcoinDifficulty.getTarget(target), new Hash(bytes).toBigInteger());
+        }
+    }
+
+    @Test
+    public void abort() throws HyperLedgerException {
+        BitcoinHeader header = new BitcoinHeader(1, BID.INVALID, MerkleRoot.INVALID, 1, 0x1d00ffff, 0);
+        NonceSearch search = new NonceSearch(2);
+        try {
+            assertNull(search.search(header, () -> true));
+        } finally {
+            search.shutdown();
+        }
+    }
+
+    @Test
+    public void searchAfterShutdown() throws HyperLedgerException {
+        BitcoinHeader header = new BitcoinHeader(1, BID.INVALID, MerkleRoot.INVALID, 1234567, 0x207fffff, 0);
+        NonceSearch search = new NonceSearch(2);
+        try {
+            assertNotNull(search.search(header, () -> false));
+            search.shutdown();
+            // workers are started again
+            assertNotNull(search.search(header, () -> false));
+        } finally {
+            search.shutdown();
+        }
+    }
+}
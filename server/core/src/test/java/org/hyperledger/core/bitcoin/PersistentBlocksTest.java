@@ -14,6 +14,8 @@
 package org.hyperledger.core.bitcoin;
 
 import org.hyperledger.common.*;
+import org.hyperledger.core.BlockUndo;
+import org.hyperledger.core.ChainWork;
 import org.hyperledger.core.PersistentBlocks;
 import org.hyperledger.core.StoredBlock;
 import org.hyperledger.core.StoredHeader;
@@ -26,10 +28,14 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class PersistentBlocksTest {
@@ -48,7 +54,7 @@ public class PersistentBlocksTest {
             storedTxList.add(new StoredTransaction(t, 0));
         }
 
-        return new StoredBlock(new StoredHeader(b.getHeader(), 0.0, 0), storedTxList);
+        return new StoredBlock(new StoredHeader(b.getHeader(), ChainWork.ZERO, 0), storedTxList);
     }
 
     @Test
@@ -63,6 +69,20 @@ public class PersistentBlocksTest {
         assertTrue(blocks.hasBlock(new BID("000000000000000001f942eb4bfa0aeccb6a14c268f4c72d5fff17270da771b9")));
         assertTrue(blocks.hasTransaction(new TID("df39000a50d3d115cee18ab7ad1a65f0b1f012e5c58cc248ba325392b174201b")));
 
+        // the header log lists each write
+        assertEquals(2, blocks.getHeaderLogSize());
+        assertEquals(Collections.singletonList(b1.getID()), blocks.readHeaderLog(1));
+        // the undo record lists the transactions with what they spent
+        BlockUndo undo = blocks.readUndo(b1.getID());
+        assertEquals(b1.getTransactions().size(), undo.getTransactions().size());
+        assertEquals(b1.getTransactions().get(1).getID(), undo.getTransactions().get(1).getID());
+        assertEquals(b1.getTransactions().get(1).getInputs().get(0).getSource(), undo.getTransactions().get(1).getSpent().get(0));
+        assertTrue(undo.getTransactions().get(0).getSpent().isEmpty());
+
+        PersistentBlocks reopened = new BitcoinPersistentBlocks(memstore);
+        reopened.start();
+        assertEquals(2, reopened.getHeaderLogSize());
+
         blocks.readBlock(new BID("000000000000000001f942eb4bfa0aeccb6a14c268f4c72d5fff17270da771b9"));
 
         int spentOutputs = 0;
@@ -205,4 +225,34 @@ public class PersistentBlocksTest {
         assert (nUses == 28533);
         diskstore.close();
     }
+
+    @Test
+    public void diskGroupTest() throws Exception {
+        String database = "/tmp/" + UUID.randomUUID();
+        LevelDBStore diskstore = new LevelDBStore(database, 100);
+        diskstore.open();
+        PersistentBlocks blocks = new BitcoinPersistentBlocks(diskstore);
+        blocks.startGroup();
+        StoredBlock b1 = readBlock("000000000000000001f942eb4bfa0aeccb6a14c268f4c72d5fff17270da771b9.hexblock");
+        blocks.writeBlock(b1);
+        assertTrue(blocks.getGroupSize() > 0);
+
+        // the group is readable by other threads before it is written
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        assertTrue(reader.submit(() -> blocks.hasBlock(b1.getID())).get());
+        assertTrue(reader.submit(() -> blocks.hasTransaction(new TID("df39000a50d3d115cee18ab7ad1a65f0b1f012e5c58cc248ba325392b174201b"))).get());
+        assertEquals(Collections.singletonList(b1.getID()), reader.submit(() -> blocks.readHeaderLog(0)).get());
+        reader.shutdown();
+
+        blocks.endGroup();
+        assertEquals(0, blocks.getGroupSize());
+        diskstore.close();
+
+        diskstore = new LevelDBStore(database, 100);
+        PersistentBlocks reopened = new BitcoinPersistentBlocks(diskstore);
+        reopened.start();
+        assertEquals(1, reopened.getHeaderLogSize());
+        assertTrue(reopened.hasBlock(b1.getID()));
+        diskstore.close();
+    }
 }
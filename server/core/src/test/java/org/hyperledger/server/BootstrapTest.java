@@ -205,7 +205,7 @@ public class BootstrapTest {
             assertEquals(0xd9b4bef9, magic);
             int size = reader.readUint32();
             BitcoinHeader b = BitcoinHeader.fromWire(reader);
-            StoredHeader sh = new StoredHeader(b, 0.0, 0);
+            StoredHeader sh = new StoredHeader(b, ChainWork.ZERO, 0);
             headers.put(b.getID(), sh);
             filenames.put(b.getID(), inputStream.getCurrentFile());
             inputStream.skip(size - 80);
@@ -215,10 +215,10 @@ public class BootstrapTest {
     private LinkedList<StoredHeader> computeTrunk() {
         System.out.println("Computing trunk...");
         BID top = BID.INVALID;
-        double highestWork = 0.0;
+        ChainWork highestWork = ChainWork.ZERO;
 
         for (StoredHeader h : headers.values()) {
-            if (h.getChainWork() > highestWork) {
+            if (h.getChainWork().compareTo(highestWork) > 0) {
                 highestWork = h.getChainWork();
                 top = h.getID();
             }
@@ -250,7 +250,7 @@ public class BootstrapTest {
                 } while (prev != null && prev.getHeight() == 0);
                 if (prev != null) {
                     for (StoredHeader n : path) {
-                        n.setChainWork(prev.getChainWork() + diff.getDifficulty(n.getEncodedDifficulty()));
+                        n.setChainWork(prev.getChainWork().add(diff.getWork(n.getEncodedDifficulty())));
                         n.setHeight(prev.getHeight() + 1);
                         prev = n;
                     }
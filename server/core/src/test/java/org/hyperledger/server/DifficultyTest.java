@@ -13,13 +13,19 @@
  */
 package org.hyperledger.server;
 
+import org.hyperledger.common.Hash;
+import org.hyperledger.core.ChainWork;
 import org.hyperledger.core.bitcoin.BitcoinProductionValidatorConfig;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import static org.hyperledger.core.bitcoin.BitcoinDifficulty.getEncodedDifficulty;
 import static org.hyperledger.core.bitcoin.BitcoinDifficulty.getTarget;
+import static org.hyperledger.core.bitcoin.BitcoinDifficulty.getTargetBytes;
+import static org.hyperledger.core.bitcoin.BitcoinDifficulty.meetsTarget;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class DifficultyTest {
@@ -45,5 +51,16 @@ public class DifficultyTest {
         BitcoinProductionValidatorConfig config = new BitcoinProductionValidatorConfig();
         assertTrue(config.getDifficulty().getDifficulty(456101533) == 1378.0);
         assertTrue(config.getDifficulty().getDifficulty(486604799) == 1.0);
+        assertTrue(config.getDifficulty().getWork(456101533).equals(ChainWork.valueOf(1378)));
+        assertTrue(config.getDifficulty().getWork(486604799).equals(ChainWork.ONE));
+    }
+
+    @Test
+    public void meetsTargetTest() {
+        byte[] target = getTargetBytes(486604799);
+        assertTrue(meetsTarget(Hash.createFromSafeArray(target), 486604799));
+        byte[] above = Arrays.copyOf(target, 32);
+        above[28] = 1;
+        assertFalse(meetsTarget(Hash.createFromSafeArray(above), 486604799));
     }
 }
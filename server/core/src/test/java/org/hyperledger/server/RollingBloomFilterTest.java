@@ -0,0 +1,52 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.server;
+
+import org.hyperledger.common.Hash;
+import org.hyperledger.core.RollingBloomFilter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RollingBloomFilterTest {
+    @Test
+    public void rollingTest() {
+        int n = 100;
+        RollingBloomFilter filter = new RollingBloomFilter(n, 0.000001);
+        List<Hash> added = new ArrayList<>();
+        for (int i = 0; i < 3 * n; ++i) {
+            Hash h = new Hash(Hash.hash(new byte[]{(byte) i, (byte) (i >> 8)}));
+            added.add(h);
+            filter.add(h);
+        }
+        // the last generation and the one before are kept
+        for (Hash h : added.subList(n, 3 * n)) {
+            assertTrue(filter.contains(h));
+        }
+        int forgotten = 0;
+        for (Hash h : added.subList(0, n)) {
+            if (!filter.contains(h)) {
+                ++forgotten;
+            }
+        }
+        assertTrue(forgotten > n / 2);
+
+        filter.clear();
+        assertFalse(filter.contains(added.get(3 * n - 1)));
+    }
+}
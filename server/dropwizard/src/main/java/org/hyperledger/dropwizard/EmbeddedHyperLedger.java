@@ -22,6 +22,7 @@ import org.hyperledger.api.BCSAPI;
 import org.hyperledger.connector.BCSAPIClient;
 import org.hyperledger.connector.ConnectorFactory;
 import org.hyperledger.connector.InMemoryConnectorFactory;
+import org.hyperledger.core.WarmUpStatistics;
 import org.hyperledger.core.conf.CoreAssembly;
 import org.hyperledger.main.BCSAPIServer;
 import org.hyperledger.network.HyperLedgerExtension;
@@ -47,6 +48,7 @@ public class EmbeddedHyperLedger implements HyperLedgerConfiguration {
 
             public ActorSystem system;
             private BCSAPIServer server;
+            private CoreAssembly core;
 
             @Override
             public BCSAPI getBCSAPI() {
@@ -58,7 +60,7 @@ public class EmbeddedHyperLedger implements HyperLedgerConfiguration {
                 system = ActorSystem.create("EmbeddedHyperLedger", fullConfig);
                 HyperLedgerExtension hyperLedger = HyperLedgerExtension.get(system);
 
-                CoreAssembly core = hyperLedger.coreAssembly();
+                core = hyperLedger.coreAssembly();
 
                 server = new BCSAPIServer(core.getBlockStore(), core.getClientEventQueue(), factory);
                 server.init();
@@ -66,6 +68,11 @@ public class EmbeddedHyperLedger implements HyperLedgerConfiguration {
                 client.init();
             }
 
+            @Override
+            public WarmUpStatistics getWarmUpStatistics() {
+                return core != null ? core.getWarmUpStatistics() : new WarmUpStatistics(0, 0, 0, 0, false);
+            }
+
             @Override
             public void stop() throws Exception {
                 client.destroy();
@@ -22,6 +22,7 @@ import org.hyperledger.api.BCSAPI;
 import org.hyperledger.connector.BCSAPIClient;
 import org.hyperledger.connector.ConnectorFactory;
 import org.hyperledger.connector.InMemoryConnectorFactory;
+import org.hyperledger.core.WarmUpStatistics;
 import org.hyperledger.core.conf.CoreAssembly;
 import org.hyperledger.main.BCSAPIServer;
 import org.hyperledger.pbft.PbftExtension;
@@ -48,6 +49,7 @@ public class EmbeddedPbft implements HyperLedgerConfiguration {
 
             public ActorSystem system;
             private BCSAPIServer server;
+            private CoreAssembly core;
 
             @Override
             public BCSAPI getBCSAPI() {
@@ -59,7 +61,7 @@ public class EmbeddedPbft implements HyperLedgerConfiguration {
                 system = ActorSystem.create("EmbeddedPbft", fullConfig);
                 PbftExtension pbftExtension = PbftExtension.get(system);
                 system.actorOf(PbftServer.props(pbftExtension.settings().bindAddress()));
-                CoreAssembly core = pbftExtension.coreAssembly();
+                core = pbftExtension.coreAssembly();
 
                 server = new BCSAPIServer(core.getBlockStore(), core.getClientEventQueue(), factory);
                 server.init();
@@ -67,6 +69,11 @@ public class EmbeddedPbft implements HyperLedgerConfiguration {
                 client.init();
             }
 
+            @Override
+            public WarmUpStatistics getWarmUpStatistics() {
+                return core != null ? core.getWarmUpStatistics() : new WarmUpStatistics(0, 0, 0, 0, false);
+            }
+
             @Override
             public void stop() throws Exception {
                 client.destroy();
@@ -20,6 +20,7 @@ import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import org.hyperledger.api.BCSAPI;
 import org.hyperledger.api.BCSAPIException;
+import org.hyperledger.core.WarmUpStatistics;
 import org.hyperledger.dropwizard.hocon.HoconModule;
 import org.hyperledger.jackson.SupernodeModule;
 import org.slf4j.Logger;
@@ -63,6 +64,17 @@ public abstract class HyperLedgerBundle<T extends Configuration> implements Conf
 
             }
         });
+        // unhealthy until caches are read after start, so that a load balancer holds traffic
+        environment.healthChecks().register("warm-up", new HealthCheck() {
+            @Override
+            protected Result check() throws Exception {
+                WarmUpStatistics statistics = managedBCSAPI.getWarmUpStatistics();
+                if (statistics.isComplete()) {
+                    return Result.healthy(statistics.toString());
+                }
+                return Result.unhealthy(String.format("%.0f%% %s", statistics.getProgress() * 100, statistics));
+            }
+        });
     }
 
     public BCSAPI getBCSAPI() {
@@ -15,7 +15,15 @@ package org.hyperledger.dropwizard;
 
 import io.dropwizard.lifecycle.Managed;
 import org.hyperledger.api.BCSAPI;
+import org.hyperledger.core.WarmUpStatistics;
 
 public interface ManagedBCSAPI extends Managed {
     BCSAPI getBCSAPI();
+
+    /**
+     * @return progress of reading caches after start of an embedded server, complete if not embedded
+     */
+    default WarmUpStatistics getWarmUpStatistics() {
+        return WarmUpStatistics.COMPLETE;
+    }
 }
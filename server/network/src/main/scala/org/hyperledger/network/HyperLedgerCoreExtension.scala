@@ -74,6 +74,12 @@ trait HyperLedger {
   def addHeaders(headers: List[Header]): Future[Unit]
   def addBlocks(blocks: List[Block]): Future[(List[BID], List[BlockStoredInfo])]
 
+  /**
+   * Add blocks certified by consensus in chain order, skipping checks the certificate vouches for.
+   * The returned tuple contains BIDs of rejected blocks (first member) and info on stored blocks (second member)
+   */
+  def addCertifiedBlocks(blocks: List[Block]): Future[(List[BID], List[BlockStoredInfo])]
+
   /**
    * Add all transactions to the mempool. The returned tuple contains TIDs for failed addition (first member) and
    * TIDs for successfully added transactions (second member)
@@ -112,12 +118,19 @@ class HyperLedgerAkka(system: ActorSystem, core: CoreAssembly, implicit val exec
 
   def hasTransaction(h: TID): Future[Boolean] = Future(blockStore.hasTransaction(h))
 
-  def filterUnknown(inventories: List[InventoryVector]) = Future.traverse(inventories) {
-    case inv if inv.typ == InventoryVectorType.MSG_BLOCK => hasBlock(new BID(inv.hash)).map(inv -> _)
-    case inv if inv.typ == InventoryVectorType.MSG_TX    => hasTransaction(new TID(inv.hash)).map(inv -> _)
-  }.map(_.collect { case (inv, known) if !known => inv })
+  def filterUnknown(inventories: List[InventoryVector]) = Future {
+    val ids = inventories.map { inv => inv -> inventoryId(inv) }
+    val known = blockStore.filterKnown(ids.flatMap(_._2).asJava)
+    ids.collect { case (inv, Some(id)) if !known.contains(id) => inv }
+  }
+
+  private def inventoryId(inv: InventoryVector): Option[Hash] = inv.typ match {
+    case InventoryVectorType.MSG_BLOCK => Some(new BID(inv.hash))
+    case InventoryVectorType.MSG_TX    => Some(new TID(inv.hash))
+    case _                             => None
+  }
 
-  def addHeaders(headers: List[Header]) = Future(headers foreach blockStore.addHeader)
+  def addHeaders(headers: List[Header]) = Future(blockStore.addHeaders(headers.asJava)).map(_ => ())
 
   def addBlocks(blocks: List[Block]): Future[(List[BID], List[BlockStoredInfo])] = Future {
     blocks.foldMap { block =>
@@ -130,6 +143,17 @@ class HyperLedgerAkka(system: ActorSystem, core: CoreAssembly, implicit val exec
     }
   }
 
+  def addCertifiedBlocks(blocks: List[Block]): Future[(List[BID], List[BlockStoredInfo])] = Future {
+    blocks.foldMap { block =>
+      try {
+        (Nil, blockStore.addCertifiedBlock(block) :: Nil)
+      } catch {
+        case _: LoggedHyperLedgerException => (block.getID :: Nil, Nil)
+        case e: Throwable                  => throw e
+      }
+    }
+  }
+
   /**
    * Add all transactions to the mempool. The returned tuple contains TIDs for failed addition (first member) and
    * TIDs for successfully added transactions (second member)
@@ -151,7 +175,7 @@ class HyperLedgerAkka(system: ActorSystem, core: CoreAssembly, implicit val exec
 
   def fetchHeader(h: BID): StoredHeader = blockStore.getHeader(h)
 
-  def mempool(): Future[List[TID]] = Future(blockStore.getMempoolContent.asScala.toList.map(_.getID))
+  def mempool(): Future[List[TID]] = Future(blockStore.getMempoolOrder.asScala.toList)
 
   def alert(a: Alert, sig: BitVector) = println(s"Alert received $a")
 
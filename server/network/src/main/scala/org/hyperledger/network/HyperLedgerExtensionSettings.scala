@@ -19,6 +19,7 @@ import com.typesafe.config.Config
 import com.typesafe.config.ConfigException.BadValue
 
 import scala.collection.JavaConverters._
+import scala.concurrent.duration._
 
 case class FixedAddressDiscovery(addresses: List[InetSocketAddress])
 
@@ -46,6 +47,23 @@ class HyperLedgerExtensionSettings(fullConfig: Config) {
     Some(new InetSocketAddress(InetAddress.getByName(config.getString("network.bindAddress")), port))
   } else None
 
+  // transactions are announced to peers in batches collected over this interval, blocks are announced at once
+  val inventoryTrickleInterval = FiniteDuration(
+    if (config.hasPath("network.inventoryTrickleMillis")) config.getLong("network.inventoryTrickleMillis") else 500,
+    MILLISECONDS)
+
+  // initial block download, see InitialBlockDownloaderConfig
+  private def ibd[T](path: String, default: T)(get: String => T): T =
+    if (config.hasPath(s"network.ibd.$path")) get(s"network.ibd.$path") else default
+
+  val ibdDownloadWindow = ibd("downloadWindow", 1024)(config.getInt)
+  val ibdMinBatchSize = ibd("minBatchSize", 1)(config.getInt)
+  val ibdMaxBatchSize = ibd("maxBatchSize", 128)(config.getInt)
+  val ibdTargetBatchMillis = ibd("targetBatchMillis", 2000L)(config.getLong)
+  val ibdStallTimeoutMillis = ibd("stallTimeoutMillis", 10000L)(config.getLong)
+  val ibdBufferBytes = ibd("bufferMegabytes", 256L)(config.getLong) * 1024 * 1024
+  val ibdPrefetchBlocks = ibd("prefetchBlocks", 4)(config.getInt)
+
   // TODO if we don't specify bindAddress, we still have to add something to the VersionMessage. What would be correct value here?
   def localAddress = bindAddress.getOrElse(InetSocketAddress.createUnresolved("127.0.0.1", chain.defaultPort))
 
@@ -101,18 +101,19 @@ object Messages {
   implicit val txMessageCodec = txCodec.hlist.as[TxMessage]
 
   implicit val blockMessageD = discriminator[BlockMessage]("block")
-  implicit val blockMessageCodec = blockCodec.hlist.as[BlockMessage]
+  // mapped rather than an hlist, so a cached block encoding reaches the framing as is and its checksum is reused
+  implicit val blockMessageCodec: Codec[BlockMessage] = blockCodec.xmap[BlockMessage](BlockMessage(_), _.block)
 
   implicit val signedBlockMessageD = discriminator[SignedBlockMessage]("sigblock")
-  implicit val signedBlockMessageCodec = signedBlockCodec.hlist.as[SignedBlockMessage]
+  implicit val signedBlockMessageCodec: Codec[SignedBlockMessage] = signedBlockCodec.xmap[SignedBlockMessage](SignedBlockMessage(_), _.block)
 
   implicit val headersMessageD = discriminator[HeadersMessage]("headers")
-  implicit val headersMessageCodec: Codec[HeadersMessage] = varIntSizeSeq(headerCodec ~ ignore(8)).xmap[HeadersMessage](
-    x => HeadersMessage(x.map(_._1)),
-    hm => hm.headers.map((_, ())))
+  // up to 2000 headers, read with one reader rather than element by element
+  implicit val headersMessageCodec: Codec[HeadersMessage] = headerListCodec.xmap[HeadersMessage](HeadersMessage(_), _.headers)
 
   implicit val signedHeadersMessageD = discriminator[SignedHeadersMessage]("sighdrs")
-  implicit val signedHeadersMessageCodec = varIntSizeSeq(signedHeaderCodec).hlist.as[SignedHeadersMessage]
+  implicit val signedHeadersMessageCodec: Codec[SignedHeadersMessage] =
+    signedHeaderListCodec.xmap[SignedHeadersMessage](SignedHeadersMessage(_), _.headers)
 
   implicit val getaddrD = discriminator[GetAddrMessage]("getaddr")
   implicit val getaddrCodec = provide(GetAddrMessage())
@@ -32,13 +32,24 @@ object HyperledgerCodecs {
     attemptCatch(bytes => wireFormat.fromWire(bytes.toArray)),
     attemptCatch(tx => ByteVector(wireFormat.toWireBytes(tx))))
 
-  implicit val blockCodec: Codec[Block] = wireFormatCodec(SizeBound.atLeast(640),
+  // a varint counted list of transactions decoded with a single reader
+  val txListCodec: Codec[List[Transaction]] = wireFormatCodec(SizeBound.atLeast(8),
+    { (txs: List[Transaction]) => (writer: WireFormat.Writer) =>
+      writer.writeVarInt(txs.size)
+      txs.foreach(wireFormat.toWire(_, writer))
+    },
+    { reader => List.fill(reader.readVarInt.toInt)(wireFormat.fromWire(reader)) })
+
+  // a new block is requested by most peers shortly after it was announced
+  val encodedBlocks = new EncodingCache[BID](16)
+
+  implicit val blockCodec: Codec[Block] = cachedEncoding(wireFormatCodec(SizeBound.atLeast(640),
     _.toWire,
-    { reader => Block.fromWire(reader, wireFormat, classOf[BitcoinHeader]) })
+    { reader => Block.fromWire(reader, wireFormat, classOf[BitcoinHeader]) }), encodedBlocks)(_.getID)
 
-  val signedBlockCodec: Codec[Block] = wireFormatCodec(SizeBound.atLeast(640),
+  val signedBlockCodec: Codec[Block] = cachedEncoding(wireFormatCodec(SizeBound.atLeast(640),
     _.toWire,
-    { reader => Block.fromWire(reader, wireFormat, classOf[HeaderWithSignatures]) })
+    { reader => Block.fromWire(reader, wireFormat, classOf[HeaderWithSignatures]) }), encodedBlocks)(_.getID)
 
   implicit val headerCodec: Codec[Header] = wireFormatCodec(SizeBound.exact(640),
     _.toWireHeader,
@@ -48,6 +59,21 @@ object HyperledgerCodecs {
     _.toWireHeader,
     HeaderWithSignatures.fromWire)
 
+  // a header of a headers message is followed by an empty transaction count
+  val headerListCodec: Codec[List[Header]] = wireFormatListCodec[Header](
+    { header => writer =>
+      header.toWireHeader(writer)
+      writer.writeByte(0)
+    },
+    { reader =>
+      val header = BitcoinHeader.fromWire(reader)
+      reader.readByte
+      header
+    })
+
+  val signedHeaderListCodec: Codec[List[HeaderWithSignatures]] =
+    wireFormatListCodec[HeaderWithSignatures](_.toWireHeader, HeaderWithSignatures.fromWire)
+
   //  implicit val blockCodec: Codec[Block] = bytes.exmap(
   //    attemptCatch(bytes => Block.fromWire(bytes.toArray, wireFormat, classOf[BitcoinHeader])),
   //    attemptCatch(block => ByteVector(block.toWireBytes))
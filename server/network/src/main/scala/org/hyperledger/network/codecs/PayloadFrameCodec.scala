@@ -24,6 +24,37 @@ object PayloadFrameCodec {
     def apply[M](c: Codec[M]) = new PayloadFrameCodec(c)
   }
 
+  // payloads below this are not worth remembering, larger ones are mostly cached block encodings
+  val CachedChecksumMinBytes = 8192L
+
+  private final class Identity(val bits: BitVector) {
+    override def hashCode = System.identityHashCode(bits)
+    override def equals(other: Any) = other match {
+      case i: Identity => i.bits eq bits
+      case _ => false
+    }
+  }
+
+  /**
+    * Checksums of the most recent large payloads by identity, a block served from the encoding cache to several
+    * peers is the same vector each time, so its double SHA-256 is computed once.
+    */
+  private val checksums = new java.util.LinkedHashMap[Identity, BitVector](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[Identity, BitVector]): Boolean = size > 16
+  }
+
+  def computeChecksum(bits: BitVector): BitVector = bits.digest("SHA-256").digest("SHA-256").take(32)
+
+  def cachedChecksum(bits: BitVector): BitVector =
+    if (bits.size < CachedChecksumMinBytes * 8) computeChecksum(bits)
+    else {
+      val key = new Identity(bits)
+      Option(checksums.synchronized(checksums.get(key))) getOrElse {
+        val ck = computeChecksum(bits)
+        checksums.synchronized(checksums.put(key, ck))
+        ck
+      }
+    }
 }
 
 /**
@@ -38,7 +69,7 @@ class PayloadFrameCodec[M](wrapped: Codec[M]) extends Codec[M] {
   override def encode(value: M): Attempt[BitVector] = for {
     encoded <- wrapped.encode(value)
     length <- lenC.encode(encoded.length / 8).mapErr(e => Err.General(s"failed to encode size of [$value]: ${e.messageWithContext}", List("size")))
-    ck <- Attempt.successful(computeChecksum(encoded))
+    ck <- Attempt.successful(cachedChecksum(encoded))
   } yield length ++ ck ++ encoded
 
   private val decoder: Decoder[M] = for {
@@ -50,7 +81,6 @@ class PayloadFrameCodec[M](wrapped: Codec[M]) extends Codec[M] {
   } yield payload
   override def decode(bits: BitVector): Attempt[DecodeResult[M]] = decoder.decode(bits)
 
-  def computeChecksum(bits: BitVector) = bits.digest("SHA-256").digest("SHA-256").take(32)
   def verifyChecksum(payload: BitVector, actual: BitVector) = {
     val expected = computeChecksum(payload)
 
@@ -15,7 +15,7 @@ package org.hyperledger.network.codecs
 
 import java.io.{InputStream, OutputStream}
 
-import org.hyperledger.common.WireFormat.{InsufficientBytesException, Reader, Writer}
+import org.hyperledger.common.WireFormat.{ArrayReader, BufferWriter, InsufficientBytesException, Reader, SizeWriter, Writer}
 import scodec._
 import scodec.bits.{BitVector, ByteVector}
 
@@ -24,10 +24,11 @@ object WireFormatCodec {
     def apply = new ByteVectorOutputStream
 
     def wireWriter[M](f: Writer => Unit): BitVector = {
-      val bvos = new ByteVectorOutputStream
-      val writer = new Writer(bvos)
+      val sizer = new SizeWriter
+      f(sizer)
+      val writer = new BufferWriter(sizer.size)
       f(writer)
-      bvos.bytes.bits
+      ByteVector.view(writer.toByteArray).bits
     }
   }
 
@@ -50,11 +51,14 @@ object WireFormatCodec {
   object ByteVectorInputStream {
     def apply(bytes: ByteVector) = new ByteVectorInputStream(bytes)
 
+    /**
+      * The bits are copied into one array per call, a sequence of wire format values should therefore be read by a
+      * single call, see [[wireFormatListCodec]], rather than one per element.
+      */
     def wireReader[M](bits: BitVector)(f: Reader => M): (M, BitVector) = {
-      val bvis = new ByteVectorInputStream(bits.bytes)
-      val reader = new Reader(bvis)
+      val reader = new ArrayReader(bits.toByteArray)
       val value = f(reader)
-      (value, bvis.bytes.bits)
+      (value, bits.drop(reader.getPosition * 8L))
     }
 
   }
@@ -71,6 +75,41 @@ object WireFormatCodec {
 
   def wireFormatCodec[T](size: SizeBound, writer: T => (Writer => Unit), reader: Reader => T): Codec[T] =
     new WireFormatCodec(size, writer, reader)
+
+  /**
+    * A varint counted list of wire format values, decoded with a single reader over the frame.
+    */
+  def wireFormatListCodec[T](writer: T => (Writer => Unit), reader: Reader => T): Codec[List[T]] =
+    wireFormatCodec[List[T]](SizeBound.atLeast(8),
+      { values => w =>
+        w.writeVarInt(values.size)
+        values.foreach(writer(_)(w))
+      },
+      { r => List.fill(r.readVarInt.toInt)(reader(r)) })
+
+  /**
+    * Remembers the most recent encodings, so that e.g. a block sent to several peers is serialized once.
+    */
+  class EncodingCache[K](capacity: Int) {
+    private val cache = new java.util.LinkedHashMap[K, BitVector](capacity, 0.75f, true) {
+      override def removeEldestEntry(eldest: java.util.Map.Entry[K, BitVector]): Boolean = size > capacity
+    }
+
+    def getOrElseUpdate(key: K)(encode: => Attempt[BitVector]): Attempt[BitVector] =
+      Option(cache.synchronized(cache.get(key))) match {
+        case Some(bits) => Attempt.successful(bits)
+        case None => encode.map { bits =>
+          cache.synchronized(cache.put(key, bits))
+          bits
+        }
+      }
+  }
+
+  def cachedEncoding[T, K](codec: Codec[T], cache: EncodingCache[K])(key: T => K): Codec[T] = new Codec[T] {
+    override def sizeBound = codec.sizeBound
+    override def encode(value: T) = cache.getOrElseUpdate(key(value))(codec.encode(value))
+    override def decode(bits: BitVector) = codec.decode(bits)
+  }
 }
 
 /**
@@ -69,7 +69,7 @@ object Bitcoin {
         import GraphDSL.Implicits._
 
         val protocolMerge = b.add(Merge[BlockchainMessage](7))
-        val protocolRoute = b.add(Broadcast[BlockchainMessage](8))
+        val protocolRoute = b.add(Broadcast[BlockchainMessage](9))
 
         // format: OFF
         protocolRoute ~> dataFlow(api, peer) ~> protocolMerge
@@ -80,6 +80,7 @@ object Bitcoin {
         protocolRoute ~> pingPongFlow(peer)  ~> protocolMerge
         protocolRoute ~> rejectFlow(api)
         protocolRoute ~> alertFlow(api)
+        protocolRoute ~> peerInventoryFlow(peer)
         broadcast                            ~> protocolMerge
         //format: ON
 
@@ -132,6 +133,15 @@ object Bitcoin {
     .collect({ case AlertMessage(alert, sig) => api.alert(alert, sig) })
     .to(Sink.ignore)
 
+  def peerInventoryFlow(peer: PeerInterface[BlockchainMessage]) = Flow[BlockchainMessage]
+    .collect {
+      case InvMessage(inventory)     => inventory
+      case TxMessage(tx)             => List(InventoryVector.tx(tx.getID))
+      case BlockMessage(block)       => List(InventoryVector.block(block.getID))
+      case SignedBlockMessage(block) => List(InventoryVector.block(block.getID))
+    }
+    .to(Sink.foreach(peer.inventoryReceived))
+
   def pingPongFlow(peer: PeerInterface[BlockchainMessage]) = Flow[BlockchainMessage].collect {
     case p: PingMessage => p
     case p: PongMessage => p
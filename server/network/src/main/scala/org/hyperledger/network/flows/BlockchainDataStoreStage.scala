@@ -14,7 +14,7 @@
 package org.hyperledger.network.flows
 
 import org.hyperledger.common.{ Block, Transaction }
-import org.hyperledger.network.InventoryVectorType.MSG_BLOCK
+import org.hyperledger.network.InventoryVectorType.{ MSG_BLOCK, MSG_TX }
 import org.hyperledger.network.Messages._
 import org.hyperledger.network.server.TransactionDownloadState._
 import org.hyperledger.network.server.{ BlockDownloadState, TransactionDownloadState }
@@ -46,7 +46,8 @@ class BlockchainDataStoreStage(hyperLedger: HyperLedger, broadcast: BlockchainMe
   }
 
   private def receiveInvs(invs: List[InventoryVector])(state: BlockStoreState) = {
-    hyperLedger.filterUnknown(invs).map { missingInvs =>
+    val candidates = invs.filterNot(i => i.typ == MSG_TX && hyperLedger.blockStore.isRecentlyRejectedOrConfirmed(i.hash.toTID))
+    hyperLedger.filterUnknown(candidates).map { missingInvs =>
       missingInvs
         .partition(_.typ == MSG_BLOCK)
         .rightMap(_.filterNot(i => state.txs.isKnown(i.hash.toTID)))
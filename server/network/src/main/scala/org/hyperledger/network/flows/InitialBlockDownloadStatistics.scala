@@ -0,0 +1,62 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.network.flows
+
+import java.lang.management.ManagementFactory
+import javax.management.ObjectName
+
+import org.hyperledger.network.flows.InitialBlockDownloader.IBDStatistics
+
+/**
+ * Progress of the initial block download, exported over JMX
+ */
+trait InitialBlockDownloadStatisticsMBean {
+  def getBlocksStored: Long
+  def getBlocksPerSecond: Double
+  def getBufferedBlocks: Int
+  def getBufferedBytes: Long
+  def getDownloads: Int
+  def getStalls: Long
+}
+
+class InitialBlockDownloadStatistics extends InitialBlockDownloadStatisticsMBean {
+  @volatile private var current = IBDStatistics(0, 0.0, 0, 0, 0, 0)
+
+  def update(statistics: IBDStatistics) = current = statistics
+
+  override def getBlocksStored = current.blocksStored
+  override def getBlocksPerSecond = current.blocksPerSecond
+  override def getBufferedBlocks = current.bufferedBlocks
+  override def getBufferedBytes = current.bufferedBytes
+  override def getDownloads = current.downloads
+  override def getStalls = current.stalls
+}
+
+object InitialBlockDownloadStatistics {
+  def objectName(systemName: String) =
+    new ObjectName(s"org.hyperledger.network:type=InitialBlockDownloadStatistics,system=$systemName")
+
+  def register(systemName: String, statistics: InitialBlockDownloadStatistics) = {
+    val server = ManagementFactory.getPlatformMBeanServer
+    val name = objectName(systemName)
+    if (server.isRegistered(name)) server.unregisterMBean(name)
+    server.registerMBean(statistics, name)
+  }
+
+  def unregister(systemName: String) = {
+    val server = ManagementFactory.getPlatformMBeanServer
+    val name = objectName(systemName)
+    if (server.isRegistered(name)) server.unregisterMBean(name)
+  }
+}
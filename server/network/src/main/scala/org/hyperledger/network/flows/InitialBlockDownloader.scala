@@ -20,6 +20,7 @@ import org.hyperledger.network.server.InitialBlockDownloaderState._
 import org.hyperledger.network.server.{BlockStoreWorker, InitialBlockDownloaderConfig, InitialBlockDownloaderState}
 
 import scala.collection.immutable.Queue
+import scala.concurrent.duration._
 import scalaz.Scalaz._
 import scalaz._
 
@@ -31,6 +32,23 @@ object InitialBlockDownloader {
   case object CheckMissingHeaders extends IBDMessage
   case class RequestBlockDownloadBatch(bids: List[BID]) extends IBDMessage
   case class CompleteBlockDownload(blocks: Block) extends IBDMessage
+  case object CheckStalledDownloads extends IBDMessage
+  case object GetStatistics extends IBDMessage
+
+  /**
+    * @param blocksStored    blocks stored since start
+    * @param blocksPerSecond blocks stored per second over the last check interval
+    * @param bufferedBlocks  blocks downloaded but not yet stored
+    * @param bufferedBytes   approximate size of the buffered blocks
+    * @param downloads       downloads in progress
+    * @param stalls          downloads reassigned since start because their peer stalled
+    */
+  case class IBDStatistics(blocksStored: Long,
+    blocksPerSecond: Double,
+    bufferedBlocks: Int,
+    bufferedBytes: Long,
+    downloads: Int,
+    stalls: Long)
 
   def props(blockStore: ActorRef, config: InitialBlockDownloaderConfig) =
     Props(classOf[InitialBlockDownloader], blockStore, config)
@@ -42,12 +60,55 @@ import org.hyperledger.network.flows.InitialBlockDownloader._
  * Actor for keeping and managing the state of the initial block download phase.
  */
 class InitialBlockDownloader(blockStore: ActorRef, config: InitialBlockDownloaderConfig) extends Actor with ActorLogging {
+  import context.dispatcher
 
   var state = InitialBlockDownloaderState.empty
 
   var peers = Set.empty[ActorRef]
 
+  // storage throughput, measured over the interval of the stall check
+  var storedCount = 0L
+  var blocksPerSecond = 0.0
+  var stalls = 0L
+  var measuredAt = config.now
+  var measuredBlocks = 0L
+
+  val checkInterval = math.max(1L, config.stallTimeoutMillis / 2).millis
+  val stallCheck = context.system.scheduler.schedule(checkInterval, checkInterval, self, CheckStalledDownloads)
+
+  val exported = new InitialBlockDownloadStatistics
+
+  override def preStart(): Unit = InitialBlockDownloadStatistics.register(context.system.name, exported)
+
+  override def postStop(): Unit = {
+    stallCheck.cancel()
+    InitialBlockDownloadStatistics.unregister(context.system.name)
+  }
+
+  def statistics = IBDStatistics(storedCount, blocksPerSecond, state.bufferedBlocks, state.bufferedBytes,
+    state.pendingDownloads.count(!_.isComplete), stalls)
+
+  def measureThroughput(): Unit = {
+    val now = config.now
+    if (now > measuredAt) {
+      blocksPerSecond = (storedCount - measuredBlocks) * 1000.0 / (now - measuredAt)
+      if (storedCount > measuredBlocks)
+        log.info(s"Initial block download $statistics")
+      measuredAt = now
+      measuredBlocks = storedCount
+    }
+    exported.update(statistics)
+  }
+
   def receive = {
+    case CheckStalledDownloads =>
+      measureThroughput()
+      if (state.pendingDownloads.nonEmpty)
+        stalls += runBlockDownloadAction(reassignStalled.map((_, Queue.empty))).size
+
+    case GetStatistics =>
+      sender() ! statistics
+
     case CheckMissingHeaders =>
       log.debug("Received CheckMissingHeaders")
       runBlockDownloadAction(fillPendingDownloads.map((_, Queue.empty)))
@@ -78,13 +139,17 @@ class InitialBlockDownloader(blockStore: ActorRef, config: InitialBlockDownloade
 
     case BlockStoreWorker.BlockStoreRequest =>
       log.debug("Received BlockStoreWorker.BlockStoreRequest")
+      storedCount += state.storePending.size
       runBlockDownloadAction(for {
         toDownload <- blocksStored
         toStore <- requestForStore
       } yield (toDownload, toStore))
   }
 
-  def runBlockDownloadAction(action: BDLRWS[(List[PendingDownload], Queue[Block])]) = {
+  /**
+    * @return the downloads requested
+    */
+  def runBlockDownloadAction(action: BDLRWS[(List[PendingDownload], Queue[Block])]): List[PendingDownload] = {
     val (logs, (toDownload, toStore), newDLState) = action.run(config, state)
 
     logs foreach log.debug
@@ -92,10 +157,11 @@ class InitialBlockDownloader(blockStore: ActorRef, config: InitialBlockDownloade
       blockStore ! BlockStoreWorker.StoreBlocks(toStore)
     }
 
-    toDownload.foreach(dl => dl.connection ! RequestBlockDownloadBatch(dl.hashes))
+    toDownload.foreach(dl => dl.connection ! RequestBlockDownloadBatch(dl.missing))
 
     state = newDLState
     if (state.fullSize == 0)
       peers.foreach(_ ! ContinueAsNormal)
+    toDownload
   }
 }
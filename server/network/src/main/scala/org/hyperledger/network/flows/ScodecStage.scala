@@ -13,6 +13,8 @@
  */
 package org.hyperledger.network.flows
 
+import java.nio.ByteOrder
+
 import akka.stream.scaladsl.{BidiFlow, Flow}
 import akka.stream.stage._
 import akka.util.ByteString
@@ -42,13 +44,23 @@ object ScodecStage {
     }
   }
 
+  // magic, command, payload length and checksum
+  val HeaderLength = 24
+  val PayloadLengthOffset = 16
+  // as in Bitcoin Core
+  val MaxPayloadLength = 0x02000000L
+
+  /**
+   * Decodes messages framed as Bitcoin P2P messages. Received bytes are collected until the header and the
+   * payload length it announces are complete, only then the frame is decoded, once.
+   */
   class ScodecDecodeStage[M](codec: Codec[M]) extends PushPullStage[ByteString, M] {
-    var buffer = ByteVector.empty
+    var buffer = ByteString.empty
     val LOG = LoggerFactory.getLogger(classOf[ScodecDecodeStage[M]])
 
     override def onPush(elem: ByteString, ctx: Context[M]) = {
       LOG.debug(s"Received ${elem.length} bytes for parsing")
-      buffer = buffer ++ elem.toByteVector
+      buffer = buffer ++ elem
       doParse(ctx)
     }
 
@@ -71,17 +83,30 @@ object ScodecStage {
       else ctx.push(value)
     }
 
+    private def payloadLength =
+      buffer.drop(PayloadLengthOffset).iterator.getInt(ByteOrder.LITTLE_ENDIAN) & 0xFFFFFFFFL
+
     private def doParse(ctx: Context[M]) = {
-      codec.decode(buffer.bits) match {
-        case Attempt.Failure(ib: Err.InsufficientBits) =>
-          LOG.debug(s"Insufficient bits ${ib.have} / ${ib.needed}")
+      if (buffer.length < HeaderLength) tryPull(ctx)
+      else {
+        val length = payloadLength
+        if (length > MaxPayloadLength) ctx.fail(ScodecParserError(s"Payload of $length bytes exceeds the limit"))
+        else if (buffer.length < HeaderLength + length) {
+          LOG.debug(s"Waiting for frame of ${HeaderLength + length} bytes, have ${buffer.length}")
           tryPull(ctx)
-        case Attempt.Failure(err)                      => ctx.fail(new ScodecParserError(err.messageWithContext))
-        case Attempt.Successful(DecodeResult(value, rest)) =>
-          LOG.debug(s"Successfully parsed $value".take(160))
-          LOG.debug(s"Remaining bytes: ${rest.length / 8}")
-          buffer = rest.bytes
-          emitMessage(ctx, value)
+        } else {
+          val (frame, rest) = buffer.splitAt(HeaderLength + length.toInt)
+          // a view on the received chunks, not copied per frame
+          buffer = rest
+          // one bulk copy of the frame, the codec reads it in place
+          codec.decode(ByteVector.view(frame.toArray).bits) match {
+            case Attempt.Failure(err) => ctx.fail(new ScodecParserError(err.messageWithContext))
+            case Attempt.Successful(DecodeResult(value, _)) =>
+              LOG.debug(s"Successfully parsed $value".take(160))
+              LOG.debug(s"Remaining bytes: ${buffer.length}")
+              emitMessage(ctx, value)
+          }
+        }
       }
     }
   }
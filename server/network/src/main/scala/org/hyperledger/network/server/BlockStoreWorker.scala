@@ -24,16 +24,24 @@ object BlockStoreWorker {
   case object BlockStoreRequest
   case class StoreBlocks(blocks: Queue[Block])
 
-  def props(blockStore: BlockStore) = Props(classOf[BlockStoreWorker], blockStore)
+  def props(blockStore: BlockStore, prefetchBlocks: Int = 4) = Props(classOf[BlockStoreWorker], blockStore, prefetchBlocks)
 }
 
-class BlockStoreWorker(blockStore: BlockStore) extends Actor with ActorLogging {
+/**
+ * Stores blocks in order. The inputs of the next `prefetchBlocks` blocks are read in the background while a
+ * block is validated and written.
+ */
+class BlockStoreWorker(blockStore: BlockStore, prefetchBlocks: Int) extends Actor with ActorLogging {
   import BlockStoreWorker._
 
   def receive = {
     case StoreBlocks(blocks) =>
       log.debug(s"Storing batch ${blocks.size} blocks")
-      for (block <- blocks) {
+      val batch = blocks.toVector
+      batch.take(prefetchBlocks).foreach(blockStore.prefetchInputs)
+      for ((block, i) <- batch.zipWithIndex) {
+        if (prefetchBlocks > 0)
+          batch.lift(i + prefetchBlocks).foreach(blockStore.prefetchInputs)
         try {
           log.debug(s"Storing block ${block.getID}")
           blockStore.addBlock(block)
@@ -157,6 +157,11 @@ object PeerConnection {
 
   case class SendBroadcast(message: BlockchainMessage)
   case class Connected(actor: ActorRef)
+  case class InventoryReceived(inventory: List[InventoryVector])
+  case object Trickle
+
+  // inventory remembered per peer to avoid announcing it back
+  val KNOWN_INVENTORY_LIMIT = 50000
 
   sealed trait PeerState
   case object Handshake extends PeerState
@@ -164,7 +169,7 @@ object PeerConnection {
 
   sealed trait Data
   case class HandshakeData(broadcast: Option[ActorRef] = None, version: Option[Version] = None) extends Data
-  case class PeerData(broadcast: ActorRef, version: Version) extends Data
+  case class PeerData(broadcast: ActorRef, version: Version, announcements: InventoryAnnouncementState) extends Data
 
 }
 
@@ -184,7 +189,8 @@ class PeerConnection(address: InetSocketAddress, inbound: Boolean) extends Loggi
   def maybeRunning(hs: HandshakeData) = hs match {
     case HandshakeData(Some(broadcast), Some(version)) =>
       context.parent ! ShookHands(address, version)
-      goto(PeerRunning) using PeerData(broadcast, version)
+      setTimer("trickle", Trickle, hyperLedger.settings.inventoryTrickleInterval, repeat = true)
+      goto(PeerRunning) using PeerData(broadcast, version, InventoryAnnouncementState.empty(KNOWN_INVENTORY_LIMIT))
     case _ => stay using hs
   }
 
@@ -217,9 +223,17 @@ class PeerConnection(address: InetSocketAddress, inbound: Boolean) extends Loggi
   }
 
   when(PeerRunning) {
-    case Event(SendBroadcast(msg), PeerData(broadcast, version)) =>
+    case Event(SendBroadcast(msg), PeerData(broadcast, version, _)) =>
       context.parent ! ServerBroadcast(msg, Some(version.nonce))
       stay()
+
+    case Event(InventoryReceived(inventory), data: PeerData) =>
+      stay using data.copy(announcements = data.announcements.peerAnnounced(inventory))
+
+    case Event(Trickle, data: PeerData) =>
+      val (announcements, messages) = data.announcements.flush(Bitcoin.INV_MAX_SIZE)
+      messages.foreach(data.broadcast ! _)
+      stay using data.copy(announcements = announcements)
   }
 
   whenUnhandled {
@@ -232,11 +246,16 @@ class PeerConnection(address: InetSocketAddress, inbound: Boolean) extends Loggi
       log.error(error, "Peer connection closed with error")
       stop()
 
-    case Event(ServerBroadcast(msg, peerIdOpt), PeerData(broadcast, v)) =>
-      if (peerIdOpt.map(_ == v.nonce).getOrElse(true)) {
-        broadcast ! msg
-      }
-      stay()
+    case Event(ServerBroadcast(msg, peerIdOpt), data: PeerData) =>
+      if (peerIdOpt.map(_ == data.version.nonce).getOrElse(true)) msg match {
+        case InvMessage(inventory) =>
+          val (announcements, immediate) = data.announcements.announce(inventory)
+          if (immediate.nonEmpty) data.broadcast ! InvMessage(immediate)
+          stay using data.copy(announcements = announcements)
+        case _ =>
+          data.broadcast ! msg
+          stay()
+      } else stay()
   }
 
   onTermination {
@@ -257,6 +276,7 @@ trait PeerInterface[M] {
   def versionReceived(version: Version): Future[List[M] \/ List[M]]
   def misbehavior(m: PeerInterface.Misbehavior): Unit
   def broadcast(m: M): Unit
+  def inventoryReceived(inventory: List[InventoryVector]): Unit
   def latencyReport(latestLatency: FiniteDuration): Unit
 }
 
@@ -281,5 +301,6 @@ class DefaultPeerInterface(val inbound: Boolean, _ourVersion: Version, peerActor
   def misbehavior(m: Misbehavior): Unit = LOG.warn(s"Unexpected message $m".take(160))
   def versionReceived(version: Version) = (peerActor ? version).mapTo[List[BlockchainMessage] \/ List[BlockchainMessage]]
   def broadcast(m: BlockchainMessage) = peerActor ! SendBroadcast(m)
+  def inventoryReceived(inventory: List[InventoryVector]) = peerActor ! InventoryReceived(inventory)
   def latencyReport(latestLatency: FiniteDuration) = println(s"Latency: $latestLatency")
 }
@@ -16,24 +16,59 @@ package org.hyperledger.network.server
 import org.hyperledger.common.{ BID, Block }
 
 import akka.actor.ActorRef
+import scala.collection.JavaConverters._
 import scala.collection.immutable.Queue
 import scala.language.reflectiveCalls
 import scalaz.Scalaz._
 import scalaz._
 
+/**
+  * @param downloadWindow     the number of blocks requested or downloaded but not yet stored
+  * @param blockStoreQueueSize the number of blocks sent to the block store at once
+  * @param batchSize          the initial number of blocks requested from a peer at once
+  * @param minBatchSize       lower bound of the batch size of a peer adapted to its throughput
+  * @param maxBatchSize       upper bound of the batch size of a peer adapted to its throughput
+  * @param targetBatchMillis  the batch size of a peer is adapted so that it delivers a batch in about this time
+  * @param stallTimeoutMillis a download without progress for this long is reassigned to an other peer
+  * @param bufferBytes        approximate size of downloaded blocks buffered until they are stored
+  * @param clock              milliseconds for measuring the peers
+  */
 case class InitialBlockDownloaderConfig(missingBlocks: Int => List[BID],
-  downloadWindow: Int = 128,
+  downloadWindow: Int = 1024,
   blockStoreQueueSize: Int = 16,
-  batchSize: Int = 16)
+  batchSize: Int = 16,
+  minBatchSize: Int = 1,
+  maxBatchSize: Int = 128,
+  targetBatchMillis: Long = 2000,
+  stallTimeoutMillis: Long = 10000,
+  bufferBytes: Long = 256L * 1024 * 1024,
+  clock: () => Long = () => System.currentTimeMillis) {
+
+  def now = clock()
+
+  /**
+    * The next batch size of a peer which just completed a download: the number of blocks it would deliver
+    * in targetBatchMillis at the throughput it had, averaged with its current batch size.
+    */
+  def adaptBatchSize(current: Int, completed: InitialBlockDownloaderState.PendingDownload): Int = {
+    val elapsed = math.max(1L, completed.lastProgress - completed.requestedAt)
+    val target = completed.hashes.size * targetBatchMillis / elapsed
+    math.max(minBatchSize, math.min(maxBatchSize, (current + target) / 2)).toInt
+  }
+}
 
 /**
   * The block downloader maintain a state, which consists:
   * - connections: The active connections, can be used to send download requests to
-  * - pendingDownloads: A list of PendingDownload, which contains the connection the
-  *                     download request sent to, the requested block hashes, and the
-  *                     already downloaded blocks
+  * - pendingDownloads: A list of PendingDownload in the order of the requested blocks, which contains the
+  *                     connection the download request sent to, the requested block hashes, and the
+  *                     already downloaded blocks. This is also the reorder buffer: a complete download
+  *                     is held until all downloads before it are complete, while its peer is free for
+  *                     a new request.
   * - blockStoreQueue: This queue holds the downloaded blocks until they got stored
   * - storePending: Blocks, which sent to the block persister for storing
+  * - batchSizes: The number of blocks to request at once from a peer, adapted to its throughput
+  * - bufferedBytes: The approximate size of the downloaded, not yet stored blocks
   *
   * The block downloader responds to various events, all of which modifies this state:
   * - connectionsChanged: a new set of connections available, if a connection to a new peer
@@ -44,13 +79,35 @@ case class InitialBlockDownloaderConfig(missingBlocks: Int => List[BID],
   * - newBlock          : A block is downloaded by one of the connections.
   * - requestForStore   : The block store is idle, new blocks can be sent for storage if
   *                       available.
+  * - reassignStalled   : Downloads without progress for a while are reassigned to other peers.
+  *
+  * New downloads are only created while both the downloadWindow and the bufferBytes limit have room.
   */
 object InitialBlockDownloaderState {
   object PendingDownload {
-    def create(hashes: List[BID], connection: ActorRef) = new PendingDownload(hashes, connection, Nil)
+    def create(hashes: List[BID], connection: ActorRef, now: Long) =
+      new PendingDownload(hashes, connection, Map.empty, now, now)
   }
-  case class PendingDownload(hashes: List[BID], connection: ActorRef, blocks: List[Block] = Nil) {
-    def addBlock(block: Block) = copy(blocks = blocks :+ block)
+  case class PendingDownload(hashes: List[BID],
+    connection: ActorRef,
+    blocks: Map[BID, Block] = Map.empty,
+    requestedAt: Long = 0,
+    lastProgress: Long = 0) {
+
+    def addBlock(block: Block, now: Long) = copy(blocks = blocks + (block.getID -> block), lastProgress = now)
+
+    def isComplete = blocks.size == hashes.size
+
+    def isStalled(now: Long, timeout: Long) = !isComplete && now - math.max(requestedAt, lastProgress) > timeout
+
+    /**
+      * The hashes to request from the connection
+      */
+    def missing = hashes.filterNot(blocks.contains)
+
+    def orderedBlocks = hashes.map(blocks)
+
+    def reassign(peer: ActorRef, now: Long) = copy(connection = peer, requestedAt = now, lastProgress = now)
   }
 
   object ConnectionChange {
@@ -68,64 +125,107 @@ object InitialBlockDownloaderState {
   val rws = ReaderWriterStateT.rwstMonad[Id, InitialBlockDownloaderConfig, List[String], InitialBlockDownloaderState]
   import rws._
 
+  /**
+    * Approximate serialized size of a block, without serializing it.
+    */
+  def approximateSize(block: Block): Long = 80L + block.getTransactions.asScala.map { t =>
+    10L + t.getInputs.asScala.map(41L + _.getScript.size).sum + t.getOutputs.asScala.map(9L + _.getScript.size).sum
+  }.sum
+
   /**
     * When querying the missing blocks, we need to take into account the downloaded, but not yet stored blocks.
     * This function returns the number of hashes we need to request for the missing blocks call.
     */
-  val missingBlocksNeeded: BDLRWS[Int] = asks(_.batchSize) flatMap { size =>
-    gets(s => s.fullSize + (s.availablePeers.size * size))
+  val missingBlocksNeeded: BDLRWS[Int] = ask flatMap { conf =>
+    gets(s => s.fullSize + s.availablePeers.toList.map(s.batchSizeOf(_, conf.batchSize)).sum)
   }
 
   // format: OFF
   private val pendingDownloadsUpdate: BDLRWS[List[PendingDownload]] = for {
     conf          <- ask
     missingHashes <- missingBlocksNeeded map conf.missingBlocks
-    newDownloads  <- gets(_.createPendingDownloads(missingHashes, conf.batchSize))
+    room          <- gets(s => math.max(conf.downloadWindow - s.fullSize, conf.minBatchSize))
+    newDownloads  <- gets(_.createPendingDownloads(missingHashes, conf.batchSize, room, conf.now))
     _             <- condLog(newDownloads.nonEmpty, s"Missing blocks needed to download ${newDownloads.flatMap(_.hashes)}")
     _             <- modify(_.addPendingDownloads(newDownloads))
   } yield newDownloads
   // format: ON
 
-  val hasRoom: BDLRWS[Boolean] = apply2(asks(_.downloadWindow), gets(_.fullSize))(_ >= _)
-  val fillPendingDownloads: BDLRWS[List[PendingDownload]] = ifM(hasRoom, pendingDownloadsUpdate, pure(List.empty))
-
-  def orderBlocks(l: List[PendingDownload]) = l.flatMap { tdl =>
-    tdl.hashes.map(h => tdl.blocks.find(_.getID == h).get)
+  val hasRoom: BDLRWS[Boolean] = ask flatMap { conf =>
+    gets(s => s.fullSize <= conf.downloadWindow && s.bufferedBytes < conf.bufferBytes)
   }
+  val fillPendingDownloads: BDLRWS[List[PendingDownload]] = ifM(hasRoom, pendingDownloadsUpdate, pure(List.empty))
 
   /**
     * If a new block is downloaded, the block is added to the PendingDownload which is waiting for this block.
-    * After updating the PendingDownloads list, it moves all ready PendingDownloads from the head of the list
-    * to the `blockStoreQueue`, maintaining the order as the blocks requested.
+    * The download completed by the block adapts the batch size of its peer. Then it moves all complete
+    * PendingDownloads from the head of the list to the `blockStoreQueue`, maintaining the order as the
+    * blocks requested.
     */
-  // format: OFF
-  def newBlock(block: Block): BDLRWS[List[PendingDownload]] = for {
-    newPending <- gets(_.pendingDownloads.collect {
-      case pdl if pdl.hashes.contains(block.getID) => pdl.addBlock(block)
-      case pdl                                     => pdl
-    })
-    (toStore, stillPending) = newPending.partition(pdl => pdl.hashes.size == pdl.blocks.size).leftMap(orderBlocks)
-    _                      <- modify(s => s.copy(pendingDownloads = stillPending, blockStoreQueue = s.blockStoreQueue ++ toStore))
-    newDLs                 <- fillPendingDownloads
-  } yield newDLs
-  // format: ON
+  def newBlock(block: Block): BDLRWS[List[PendingDownload]] = addBlock(block) flatMap (_ => fillPendingDownloads)
+
+  private def addBlock(block: Block): BDLRWS[Unit] = ReaderWriterState {
+    case (conf, state) =>
+      val id = block.getID
+      state.pendingDownloads.indexWhere(pdl => pdl.hashes.contains(id) && !pdl.blocks.contains(id)) match {
+        case -1 => (Nil, (), state)
+        case i =>
+          val pdl = state.pendingDownloads(i).addBlock(block, conf.now)
+          val batchSizes =
+            if (pdl.isComplete)
+              state.batchSizes.updated(pdl.connection, conf.adaptBatchSize(state.batchSizeOf(pdl.connection, conf.batchSize), pdl))
+            else state.batchSizes
+          val (toStore, stillPending) = state.pendingDownloads.updated(i, pdl).span(_.isComplete)
+          val logs = if (pdl.isComplete)
+            List(s"Download of ${pdl.hashes.size} blocks from ${pdl.connection} took ${pdl.lastProgress - pdl.requestedAt} ms, next batch ${batchSizes(pdl.connection)}")
+          else Nil
+          (logs, (), state.copy(pendingDownloads = stillPending,
+            blockStoreQueue = state.blockStoreQueue ++ toStore.flatMap(_.orderedBlocks),
+            batchSizes = batchSizes,
+            bufferedBytes = state.bufferedBytes + approximateSize(block)))
+      }
+  }
 
   /**
     * If the set of connections changes, we need to reassign pending downloads from the disappearing connections
     * to the active ones. The returned list of PendingDownloads are these reassigned tasks.
     */
   def connectionsChanged(newConnections: Set[ActorRef]): BDLRWS[List[PendingDownload]] = ReaderWriterState {
-    case (_, state) =>
+    case (conf, state) =>
       val change = state.pendingDownloads.foldLeft(ConnectionChange(newConnections)) {
-        case (c, pdl) if newConnections(pdl.connection) => c.copy(allDownloads = c.allDownloads :+ pdl)
+        case (c, pdl) if newConnections(pdl.connection) || pdl.isComplete || c.peers.isEmpty =>
+          c.copy(allDownloads = c.allDownloads :+ pdl)
         case (c, pdl) =>
-          val newPdl = pdl.copy(connection = c.peers.head)
+          val newPdl = pdl.reassign(c.peers.head, conf.now)
           ConnectionChange(c.peers.tail, c.allDownloads :+ newPdl, c.reassignedDownload :+ newPdl)
       }
 
-      (change.reassignedDownload.map(pdl => s"Reassigning block download task to peer ${pdl.connection}, blocks: ${pdl.hashes}"),
+      (change.reassignedDownload.map(pdl => s"Reassigning block download task to peer ${pdl.connection}, blocks: ${pdl.missing}"),
         change.reassignedDownload,
-        state.copy(connections = newConnections, pendingDownloads = change.allDownloads))
+        state.copy(connections = newConnections, pendingDownloads = change.allDownloads,
+          batchSizes = state.batchSizes.filter { case (peer, _) => newConnections(peer) }))
+  }
+
+  /**
+    * Downloads without progress for stallTimeoutMillis are reassigned to an other peer, preferring idle and fast
+    * ones, and the batch size of the stalling peer drops to the minimum. The returned list of PendingDownloads
+    * are the reassigned tasks, only their missing blocks need to be requested.
+    */
+  val reassignStalled: BDLRWS[List[PendingDownload]] = ReaderWriterState {
+    case (conf, state) =>
+      val now = conf.now
+      val stalled = state.pendingDownloads.filter(_.isStalled(now, conf.stallTimeoutMillis))
+      val (_, pending, reassigned) = state.pendingDownloads.foldLeft(
+        (state.peersByPreference(conf.batchSize), List.empty[PendingDownload], List.empty[PendingDownload])) {
+          case ((peers, all, re), pdl) if pdl.isStalled(now, conf.stallTimeoutMillis) =>
+            val newPdl = pdl.reassign(peers.find(_ != pdl.connection).getOrElse(pdl.connection), now)
+            (peers.filterNot(_ == newPdl.connection) :+ newPdl.connection, all :+ newPdl, re :+ newPdl)
+          case ((peers, all, re), pdl) => (peers, all :+ pdl, re)
+        }
+      (reassigned.map(pdl => s"Block download stalled, reassigning to peer ${pdl.connection}, blocks: ${pdl.missing}"),
+        reassigned,
+        state.copy(pendingDownloads = pending,
+          batchSizes = stalled.foldLeft(state.batchSizes)((sizes, pdl) => sizes.updated(pdl.connection, conf.minBatchSize))))
   }
 
   val hasNoStorePending = gets(_.storePending.isEmpty)
@@ -145,7 +245,9 @@ object InitialBlockDownloaderState {
 
   val requestForStore: BDLRWS[Queue[Block]] = ifM(hasNoStorePending, moveToStorage, pure(Queue.empty))
 
-  val blocksStored: BDLRWS[List[PendingDownload]] = modify(_.copy(storePending = Queue.empty)) flatMap (_ => fillPendingDownloads)
+  val blocksStored: BDLRWS[List[PendingDownload]] = modify { s =>
+    s.copy(storePending = Queue.empty, bufferedBytes = math.max(0L, s.bufferedBytes - s.storePending.map(approximateSize).sum))
+  } flatMap (_ => fillPendingDownloads)
 
   def empty = InitialBlockDownloaderState(connections = Set.empty)
 
@@ -156,31 +258,56 @@ object InitialBlockDownloaderState {
 case class InitialBlockDownloaderState(connections: Set[ActorRef],
   pendingDownloads: List[InitialBlockDownloaderState.PendingDownload] = Nil,
   blockStoreQueue: Queue[Block] = Queue.empty,
-  storePending: Queue[Block] = Queue.empty) {
+  storePending: Queue[Block] = Queue.empty,
+  batchSizes: Map[ActorRef, Int] = Map.empty,
+  bufferedBytes: Long = 0) {
   import InitialBlockDownloaderState.PendingDownload
 
-  def busyPeers: Set[ActorRef] = pendingDownloads.map(_.connection).toSet
+  /**
+    * Peers with a download in progress. A peer whose download is complete but waits in the reorder buffer is not busy.
+    */
+  def busyPeers: Set[ActorRef] = pendingDownloads.filterNot(_.isComplete).map(_.connection).toSet
 
   /**
     * Peers available for download, that is peers which doesn't have pending downloads.
     */
   def availablePeers: Set[ActorRef] = connections diff busyPeers
 
+  def batchSizeOf(peer: ActorRef, default: Int): Int = batchSizes.getOrElse(peer, default)
+
+  /**
+    * Available peers first, faster peers first within.
+    */
+  def peersByPreference(default: Int): List[ActorRef] = {
+    val byThroughput = connections.toList.sortBy(p => -batchSizeOf(p, default))
+    val (available, busy) = byThroughput.partition(availablePeers)
+    available ++ busy
+  }
+
   def fullSize: Int = pendingDownloads.map(_.hashes.size).sum + blockStoreQueue.size + storePending.size
 
+  def bufferedBlocks: Int = pendingDownloads.map(_.blocks.size).sum + blockStoreQueue.size + storePending.size
+
   /**
     * Block hashes which are either already downloaded or download is pending
     */
   def downloadedHashes: Set[BID] = (blockStoreQueue.map(_.getID) ++
-    pendingDownloads.flatMap(_.blocks.map(_.getID)) ++
+    pendingDownloads.flatMap(_.hashes) ++
     storePending.map(_.getID)).toSet
 
-  def createPendingDownloads(missingHashes: List[BID], batchSize: Int) = missingHashes.filterNot(downloadedHashes)
-    .grouped(batchSize)
-    .zip(availablePeers.iterator)
-    .map((PendingDownload.create _).tupled)
-    .toList
+  /**
+    * Downloads of at most `room` missing blocks, the earliest blocks to the fastest available peers, each peer
+    * getting as many as its batch size.
+    */
+  def createPendingDownloads(missingHashes: List[BID], batchSize: Int, room: Int, now: Long) = {
+    val peers = availablePeers.toList.sortBy(p => -batchSizeOf(p, batchSize))
+    peers.foldLeft((missingHashes.filterNot(downloadedHashes).take(room), List.empty[PendingDownload])) {
+      case ((hashes, dls), peer) if hashes.nonEmpty =>
+        val (batch, rest) = hashes.splitAt(batchSizeOf(peer, batchSize))
+        (rest, dls :+ PendingDownload.create(batch, peer, now))
+      case (done, _) => done
+    }._2
+  }
 
   def addPendingDownloads(dls: List[PendingDownload]) = copy(pendingDownloads = pendingDownloads ++ dls)
 }
-
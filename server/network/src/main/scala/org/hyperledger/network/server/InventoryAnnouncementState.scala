@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.network.server
+
+import org.hyperledger.common.Hash
+import org.hyperledger.network.InventoryVector
+import org.hyperledger.network.InventoryVectorType.MSG_BLOCK
+import org.hyperledger.network.Messages.InvMessage
+
+import scala.collection.immutable.Queue
+
+object InventoryAnnouncementState {
+  def empty(knownLimit: Int) = InventoryAnnouncementState(knownLimit)
+
+  // inventory parsed from the wire carries plain hashes, ours carry BIDs and TIDs
+  private def key(inv: InventoryVector) = Hash.createFromSafeArray(inv.hash.unsafeGetArray())
+}
+
+import org.hyperledger.network.server.InventoryAnnouncementState._
+
+/**
+ * Inventory to announce to a single peer.
+ *
+ * Blocks are announced right away, transactions are queued until the next trickle and sent in batches.
+ * Nothing the peer announced to us or we already announced to it is announced again. Only the
+ * latest knownLimit of such inventory is remembered.
+ */
+case class InventoryAnnouncementState(knownLimit: Int,
+                                      pending: Vector[InventoryVector] = Vector.empty,
+                                      known: Set[Hash] = Set.empty,
+                                      knownOrder: Queue[Hash] = Queue.empty) {
+
+  def peerAnnounced(inventory: List[InventoryVector]) = {
+    val announced = inventory.map(key).toSet
+    remember(announced).copy(pending = pending.filterNot(i => announced(key(i))))
+  }
+
+  /**
+   * @return the new state and the inventory to announce immediately
+   */
+  def announce(inventory: List[InventoryVector]): (InventoryAnnouncementState, List[InventoryVector]) = {
+    val fresh = inventory.filterNot(i => known(key(i))).distinct
+    val (blocks, txs) = fresh.partition(_.typ == MSG_BLOCK)
+    remember(fresh.map(key)).copy(pending = pending ++ txs) -> blocks
+  }
+
+  /**
+   * @return the new state and the queued transactions in messages of at most maxSize items
+   */
+  def flush(maxSize: Int): (InventoryAnnouncementState, List[InvMessage]) =
+    copy(pending = Vector.empty) -> pending.grouped(maxSize).map(g => InvMessage(g.toList)).toList
+
+  private def remember(hashes: Iterable[Hash]) = {
+    val (newKnown, newOrder) = hashes.foldLeft((known, knownOrder)) {
+      case ((k, o), h) if k(h) => (k, o)
+      case ((k, o), h)         => (k + h, o.enqueue(h))
+    }
+    forget(newKnown, newOrder)
+  }
+
+  @scala.annotation.tailrec
+  private def forget(k: Set[Hash], o: Queue[Hash]): InventoryAnnouncementState =
+    if (k.size <= knownLimit) copy(known = k, knownOrder = o)
+    else {
+      val (oldest, rest) = o.dequeue
+      forget(k - oldest, rest)
+    }
+}
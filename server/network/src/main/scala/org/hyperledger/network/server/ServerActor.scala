@@ -33,9 +33,16 @@ class ServerActor extends Actor with ActorLogging {
   import ServerActor._
   val hyperLedger = HyperLedgerExtension(context.system)
 
-  val blockStore = context.actorOf(Props(classOf[BlockStoreWorker], hyperLedger.api.blockStore).withDispatcher(hyperLedger.settings.dispatcherName))
+  val blockStore = context.actorOf(BlockStoreWorker.props(hyperLedger.api.blockStore, hyperLedger.settings.ibdPrefetchBlocks)
+    .withDispatcher(hyperLedger.settings.dispatcherName))
   val blockDownloader = context.actorOf(
-    InitialBlockDownloader.props(blockStore, InitialBlockDownloaderConfig(hyperLedger.api.missingBlocks)),
+    InitialBlockDownloader.props(blockStore, InitialBlockDownloaderConfig(hyperLedger.api.missingBlocks,
+      downloadWindow = hyperLedger.settings.ibdDownloadWindow,
+      minBatchSize = hyperLedger.settings.ibdMinBatchSize,
+      maxBatchSize = hyperLedger.settings.ibdMaxBatchSize,
+      targetBatchMillis = hyperLedger.settings.ibdTargetBatchMillis,
+      stallTimeoutMillis = hyperLedger.settings.ibdStallTimeoutMillis,
+      bufferBytes = hyperLedger.settings.ibdBufferBytes)),
     "InitialBlockDownloader"
   )
 
@@ -22,6 +22,8 @@ package object akka {
   }
 
   implicit class EnrichedByteVector(val value: ByteVector) extends AnyVal {
-    def toByteString: ByteString = ByteString.fromByteBuffer(value.toByteBuffer)
+    // the vector is read in place through a buffer and copied once into the ByteString,
+    // Akka of this version has no public constructor that takes over an array
+    def toByteString: ByteString = ByteString(value.toByteBuffer)
   }
 }
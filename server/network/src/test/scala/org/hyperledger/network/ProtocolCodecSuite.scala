@@ -13,6 +13,7 @@
  */
 package org.hyperledger.network
 
+import org.hyperledger.common.{ BID, BitcoinHeader, Header }
 import org.hyperledger.network.Messages._
 import org.scalatest.{FunSuite, Matchers}
 import scodec._
@@ -379,6 +380,21 @@ class ProtocolCodecSuite extends FunSuite with Matchers {
     // todo test signature
   }
 
+  test("headers message of 2000 headers") {
+    val headers = (0 until 2000).toList.map { i =>
+      BitcoinHeader.create().previousID(BID.INVALID).nonce(i).build(): Header
+    }
+    val encoded = headersMessageCodec.encode(HeadersMessage(headers)).require
+    // a three byte count, then 80 bytes of header and an empty transaction count each
+    encoded.bytes.size shouldBe 3 + 2000 * 81
+
+    val trailing = hex"cafe".bits
+    val Attempt.Successful(DecodeResult(decoded, rest)) = headersMessageCodec.decode(encoded ++ trailing)
+    decoded.headers.map(_.getID) shouldEqual headers.map(_.getID)
+    decoded.headers.map(_.getNonce) shouldEqual (0 until 2000).toList
+    rest shouldEqual trailing
+  }
+
   //val codec = com.hyperledger.bitscale.blockchain.codec.messageCodec(ProductionBitcoinNetwork.p2pMagic)
   val codec = Messages.messageCodec(0xd9b4bef9)
   val regtestCodec = Messages.messageCodec(0xdab5bffa)
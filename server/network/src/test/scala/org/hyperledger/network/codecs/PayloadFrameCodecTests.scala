@@ -0,0 +1,39 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.network.codecs
+
+import org.scalatest.{FunSpec, Matchers}
+import scodec._
+import scodec.bits.ByteVector
+
+class PayloadFrameCodecTests extends FunSpec with Matchers {
+
+  describe("PayloadFrameCodec") {
+    it("should compute the checksum of a large payload once") {
+      val payload = ByteVector.fill(PayloadFrameCodec.CachedChecksumMinBytes)(7).bits
+      val first = PayloadFrameCodec.cachedChecksum(payload)
+      first shouldBe PayloadFrameCodec.computeChecksum(payload)
+      PayloadFrameCodec.cachedChecksum(payload) should be theSameInstanceAs first
+    }
+
+    it("should frame and unframe a payload") {
+      val codec = PayloadFrameCodec(codecs.bytes)
+      val payload = ByteVector.fill(PayloadFrameCodec.CachedChecksumMinBytes)(3)
+      val Attempt.Successful(framed) = codec.encode(payload)
+      codec.encode(payload) shouldBe Attempt.successful(framed)
+      val Attempt.Successful(DecodeResult(decoded, _)) = codec.decode(framed)
+      decoded shouldBe payload
+    }
+  }
+}
@@ -53,6 +53,24 @@ class WireFormatCodecTests extends FunSpec with Matchers {
         val Attempt.Failure(Err.InsufficientBits(32, 8, _)) = testCodec.decode(bytes.bits)
       }
     }
+    describe("when parsing a list") {
+      val listCodec = WireFormatCodec.wireFormatListCodec[TestData](_.toWire, TestData.fromWire)
+
+      it("should read all elements and return remaining bytes") {
+        val bytes = ByteVector(2, 12, 0, 0, 0, 13, 0, 0, 0, 32)
+        val Attempt.Successful(DecodeResult(list, rest)) = listCodec.decode(bytes.bits)
+        list shouldBe List(TestData(12), TestData(13))
+        rest shouldBe ByteVector(32).bits
+      }
+      it("should return error if an element is incomplete") {
+        val bytes = ByteVector(2, 12, 0, 0, 0, 13)
+        val Attempt.Failure(Err.InsufficientBits(32, 8, _)) = listCodec.decode(bytes.bits)
+      }
+      it("should write the count and the elements") {
+        val Attempt.Successful(bits) = listCodec.encode(List(TestData(12), TestData(13)))
+        bits shouldBe ByteVector(2, 12, 0, 0, 0, 13, 0, 0, 0).bits
+      }
+    }
     describe("when writing") {
       it ("should write the value") {
         val data = TestData(12)
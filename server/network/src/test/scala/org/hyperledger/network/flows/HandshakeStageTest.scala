@@ -59,6 +59,7 @@ class HandshakeStageTest extends TestKit(ActorSystem("HandshakeStageTest")) with
     }
 
     def broadcast(m: BlockchainMessage) = ()
+    def inventoryReceived(inventory: List[InventoryVector]) = ()
     def latencyReport(latestLatency: FiniteDuration) = println(s"Latency: $latestLatency")
   }
 
@@ -14,6 +14,7 @@
 
 package org.hyperledger.network.flows
 
+import java.lang.management.ManagementFactory
 import java.util.Collections
 
 import akka.actor.ActorSystem
@@ -49,7 +50,7 @@ class InitialBlockDownloaderTest
 
   implicit val ec = system.dispatcher
 
-  val config = InitialBlockDownloaderConfig(missingBlocksFn, 4, 2, 2)
+  val config = InitialBlockDownloaderConfig(missingBlocksFn, 4, 2, 2, clock = () => 0L)
 
   val blockStore = TestActorRef(new BlockStoreWorkerStub)
   def missingBlocksFn(i: Int): List[BID] = blockStore.underlyingActor.missingBlocks.take(i)
@@ -80,7 +81,7 @@ class InitialBlockDownloaderTest
         expectMsg(RequestBlockDownloadBatch(List(hash1, hash2)))
 
         downloaderState shouldBe InitialBlockDownloaderState(Set(testActor),
-          List(PendingDownload(List(hash1, hash2), testActor, Nil)),
+          List(PendingDownload(List(hash1, hash2), testActor)),
           Queue.empty,
           Queue.empty)
       }
@@ -105,5 +106,21 @@ class InitialBlockDownloaderTest
         blockStore.underlyingActor.storedBlocks shouldBe List(block1, block2, block3, block4)
       }
     }
+    describe("on the stall check") {
+      it("should export its statistics over JMX") {
+        blockStore.underlyingActor.missingBlocks = List(hash1, hash2)
+        downloader ! RegisterPeer(testActor)
+        expectMsg(RequestBlockDownloadBatch(List(hash1, hash2)))
+
+        downloader ! CompleteBlockDownload(block1)
+        downloader ! CheckStalledDownloads
+
+        val name = InitialBlockDownloadStatistics.objectName(system.name)
+        val stats = downloader.underlyingActor.statistics
+        ManagementFactory.getPlatformMBeanServer.getAttribute(name, "BlocksStored") shouldBe stats.blocksStored
+        ManagementFactory.getPlatformMBeanServer.getAttribute(name, "BlocksPerSecond") shouldBe stats.blocksPerSecond
+        ManagementFactory.getPlatformMBeanServer.getAttribute(name, "Downloads") shouldBe 1
+      }
+    }
   }
 }
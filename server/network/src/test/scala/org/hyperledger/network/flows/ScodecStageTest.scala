@@ -51,5 +51,14 @@ class ScodecStageTest extends FunSpec with Matchers {
         result shouldBe msgs
       }
     }
+
+    describe("when receiving a header announcing a too large payload") {
+      it("should fail without waiting for the payload") {
+        val header = ByteString(Array.fill[Byte](16)(0)) ++ ByteString(0xff, 0xff, 0xff, 0xff) ++ ByteString(Array.fill[Byte](4)(0))
+
+        val future = Source.single(header).via(decodeFlow).runWith(Sink.ignore)
+        an[ScodecStage.ScodecParserError] should be thrownBy Await.result(future, 1000.millis)
+      }
+    }
   }
 }
@@ -46,7 +46,7 @@ class InitialBlockDownloaderStateSpec extends FunSpec with Matchers {
   val block5 = BlockStub(hash5)
   val block6 = BlockStub(hash6)
 
-  val testConfig = InitialBlockDownloaderConfig(missingHashes.take, 4, 2, 2)
+  val testConfig = InitialBlockDownloaderConfig(missingHashes.take, 4, 2, 2, clock = () => 0L)
 
   implicit val actorSystem = ActorSystem("InitialBlockDownloaderStateSpec")
   def actorStub = new Actor {
@@ -88,7 +88,7 @@ class InitialBlockDownloaderStateSpec extends FunSpec with Matchers {
       }
     }
     describe("if it has one active connection with a pending download") {
-      val state = InitialBlockDownloaderState(Set(connection1), List(PendingDownload(List(hash1, hash2), connection1, Nil)), Queue.empty, Queue.empty)
+      val state = InitialBlockDownloaderState(Set(connection1), List(PendingDownload(List(hash1, hash2), connection1)), Queue.empty, Queue.empty)
       it("should produce no 'storePending' values") {
         val (_, toStore, newState) = InitialBlockDownloaderState.requestForStore.run(testConfig, state)
         toStore shouldBe empty
@@ -104,7 +104,7 @@ class InitialBlockDownloaderStateSpec extends FunSpec with Matchers {
         newDownloads shouldBe empty
         newState should not be state
         newState.pendingDownloads should have size 1
-        newState.pendingDownloads.head.blocks shouldBe block2 :: Nil
+        newState.pendingDownloads.head.blocks shouldBe Map(hash2 -> block2)
       }
       it("should add pending download to a new connection") {
         val (_, reassigned, newState) = InitialBlockDownloaderState.connectionsChanged(Set(connection1, connection2)).run(testConfig, state)
@@ -115,7 +115,7 @@ class InitialBlockDownloaderStateSpec extends FunSpec with Matchers {
         newDownloads should have size 1
         newDownloads.head.blocks shouldBe empty
         newDownloads.head.connection shouldBe connection2
-        newDownloads.head.hashes shouldBe List(hash1, hash2)
+        newDownloads.head.hashes shouldBe List(hash3, hash4)
         newState2.pendingDownloads should contain theSameElementsAs (newDownloads ++ state.pendingDownloads)
         newState2.connections shouldBe Set(connection1, connection2)
         newState2.availablePeers shouldBe empty
@@ -124,7 +124,7 @@ class InitialBlockDownloaderStateSpec extends FunSpec with Matchers {
       }
     }
     describe("if it has a pending download with one block missing") {
-      val state = InitialBlockDownloaderState(Set(connection1), List(PendingDownload(List(hash1, hash2), connection1, List(block2))), Queue.empty, Queue.empty)
+      val state = InitialBlockDownloaderState(Set(connection1), List(PendingDownload(List(hash1, hash2), connection1, Map(hash2 -> block2))), Queue.empty, Queue.empty)
       it("should produce no 'storePending' values") {
         val (_, toStore, newState) = InitialBlockDownloaderState.requestForStore.run(testConfig, state)
         toStore shouldBe empty
@@ -140,12 +140,12 @@ class InitialBlockDownloaderStateSpec extends FunSpec with Matchers {
         newDownloads should have size 1
         newState should not be state
         newState.pendingDownloads shouldBe newDownloads
-        newState.pendingDownloads shouldBe List(PendingDownload(List(hash3, hash4), connection1, Nil))
+        newState.pendingDownloads shouldBe List(PendingDownload(List(hash3, hash4), connection1))
         newState.blockStoreQueue shouldBe Queue(block1, block2)
       }
       it("should reassign the pending download the a new connection if the original disappears") {
         val (_, reassigned, newState) = InitialBlockDownloaderState.connectionsChanged(Set(connection2)).run(testConfig, state)
-        reassigned shouldBe List(PendingDownload(List(hash1, hash2), connection2, List(block2)))
+        reassigned shouldBe List(PendingDownload(List(hash1, hash2), connection2, Map(hash2 -> block2)))
         newState.connections shouldBe Set(connection2)
         newState.pendingDownloads shouldBe reassigned
       }
@@ -185,9 +185,59 @@ class InitialBlockDownloaderStateSpec extends FunSpec with Matchers {
       it("should request new downloads if the blocks are stored") {
         val testConfig_ = testConfig.copy(missingBlocks = missingHashes.tail.take)
         val (_, toDownload, newState) = InitialBlockDownloaderState.blocksStored.run(testConfig_, state)
-        toDownload shouldBe List(PendingDownload(List(hash6), connection1, Nil))
+        toDownload shouldBe List(PendingDownload(List(hash6), connection1))
         newState.storePending shouldBe empty
       }
     }
+    describe("if it has downloads from two connections") {
+      val state = InitialBlockDownloaderState(Set(connection1, connection2),
+        List(PendingDownload(List(hash1, hash2), connection1), PendingDownload(List(hash3, hash4), connection2)))
+      it("should hold a complete download until the downloads before it are complete, freeing its peer") {
+        val (_, newDownloads, newState) = (for {
+          _  <- InitialBlockDownloaderState.newBlock(block4)
+          dl <- InitialBlockDownloaderState.newBlock(block3)
+        } yield dl).run(testConfig, state)
+        newState.blockStoreQueue shouldBe empty
+        newDownloads shouldBe List(PendingDownload(List(hash5), connection2))
+        newState.busyPeers shouldBe Set(connection1, connection2)
+
+        val (_, _, newState2) = (for {
+          _ <- InitialBlockDownloaderState.newBlock(block2)
+          _ <- InitialBlockDownloaderState.newBlock(block1)
+        } yield ()).run(testConfig, newState)
+        newState2.blockStoreQueue shouldBe Queue(block1, block2, block3, block4)
+        newState2.pendingDownloads shouldBe newDownloads
+      }
+      it("should adapt the batch size of a peer to its throughput") {
+        var now = 0L
+        val config = testConfig.copy(maxBatchSize = 8, clock = () => now)
+        now = 10
+        val (_, _, fast) = InitialBlockDownloaderState.newBlock(block3).run(config, state)
+        val (_, _, fastDone) = InitialBlockDownloaderState.newBlock(block4).run(config, fast)
+        fastDone.batchSizes(connection2) shouldBe 8
+
+        now = 8000
+        val (_, _, slowDone) = InitialBlockDownloaderState.newBlock(block4).run(config, fast)
+        slowDone.batchSizes(connection2) shouldBe 1
+      }
+      it("should reassign the missing blocks of a stalled download to an other peer") {
+        val stalled = state.copy(pendingDownloads = List(PendingDownload(List(hash1, hash2), connection1, Map(hash2 -> block2))))
+        val (_, none, _) = InitialBlockDownloaderState.reassignStalled.run(testConfig, stalled)
+        none shouldBe empty
+
+        val (_, reassigned, newState) = InitialBlockDownloaderState.reassignStalled.run(testConfig.copy(clock = () => 20000L), stalled)
+        reassigned shouldBe List(PendingDownload(List(hash1, hash2), connection2, Map(hash2 -> block2), 20000L, 20000L))
+        reassigned.head.missing shouldBe List(hash1)
+        newState.pendingDownloads shouldBe reassigned
+        newState.batchSizes(connection1) shouldBe testConfig.minBatchSize
+      }
+    }
+    describe("if its buffer is full") {
+      val state = InitialBlockDownloaderState(Set(connection1), Nil, Queue(block1), Queue.empty, bufferedBytes = 1000)
+      it("should not request new downloads") {
+        val (_, newDownloads, _) = InitialBlockDownloaderState.fillPendingDownloads.run(testConfig.copy(bufferBytes = 1000), state)
+        newDownloads shouldBe empty
+      }
+    }
   }
 }
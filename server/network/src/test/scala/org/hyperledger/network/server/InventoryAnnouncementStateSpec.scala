@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.network.server
+
+import org.hyperledger.common._
+import org.hyperledger.network.InventoryVector
+import org.hyperledger.network.InventoryVectorType.MSG_TX
+import org.hyperledger.network.Messages.InvMessage
+import org.scalatest._
+
+class InventoryAnnouncementStateSpec extends FunSpec with Matchers {
+  val tx1 = InventoryVector.tx(new TID(Hash.hash(Array[Byte](1))))
+  val tx2 = InventoryVector.tx(new TID(Hash.hash(Array[Byte](2))))
+  val tx3 = InventoryVector.tx(new TID(Hash.hash(Array[Byte](3))))
+  val block = InventoryVector.block(new BID(Hash.hash(Array[Byte]('b'))))
+
+  describe("InventoryAnnouncementState") {
+    val s = InventoryAnnouncementState.empty(10)
+
+    it("should announce blocks immediately and queue transactions") {
+      val (s1, immediate) = s.announce(List(tx1, block, tx2))
+      immediate shouldBe List(block)
+      s1.flush(10)._2 shouldBe List(InvMessage(List(tx1, tx2)))
+    }
+
+    it("should send queued transactions in batches of the given size") {
+      val (s1, _) = s.announce(List(tx1, tx2, tx3))
+      val (s2, messages) = s1.flush(2)
+      messages shouldBe List(InvMessage(List(tx1, tx2)), InvMessage(List(tx3)))
+      s2.flush(2)._2 shouldBe Nil
+    }
+
+    it("should not announce anything twice") {
+      val (s1, _) = s.announce(List(tx1, block))
+      val (s2, immediate) = s1.flush(10)._1.announce(List(tx1, tx2, block, tx2))
+      immediate shouldBe Nil
+      s2.flush(10)._2 shouldBe List(InvMessage(List(tx2)))
+    }
+
+    it("should not announce inventory back to the peer it came from") {
+      // inventory parsed from the wire holds plain hashes
+      val fromPeer = InventoryVector(MSG_TX, Hash.createFromSafeArray(tx2.hash.toByteArray))
+      val (s1, _) = s.announce(List(tx1, tx2))
+      val (s2, _) = s1.peerAnnounced(List(fromPeer)).announce(List(tx2, tx3))
+      s2.flush(10)._2 shouldBe List(InvMessage(List(tx1, tx3)))
+    }
+
+    it("should forget the oldest inventory beyond its limit") {
+      val (s1, _) = InventoryAnnouncementState.empty(2).announce(List(tx1, tx2, tx3))
+      s1.known.size shouldBe 2
+      val (s2, _) = s1.flush(10)._1.announce(List(tx1))
+      s2.flush(10)._2 shouldBe List(InvMessage(List(tx1)))
+    }
+  }
+}
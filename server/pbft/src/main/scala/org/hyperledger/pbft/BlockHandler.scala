@@ -29,7 +29,14 @@ object BlockHandler {
   case object Running extends BlockHandlerState
   case object Stopped extends BlockHandlerState
 
-  case class BlockHandlerData(workers: Map[BID, ActorRef])
+  // format: OFF
+  case class BlockHandlerData(workers: Map[BID, ActorRef],
+                              inFlight: Map[BID, Block],                        // blocks in consensus, not yet stored
+                              deferred: Map[BID, List[(PrePrepare, ActorRef)]], // pre-prepares and their senders waiting for the parent to be stored
+                              agreed: Map[BID, Store])                          // agreed blocks waiting for their parent to be stored
+  // format: ON
+
+  val emptyData = BlockHandlerData(Map.empty, Map.empty, Map.empty, Map.empty)
 
   sealed trait BlockHandlerMessage
   case class Start() extends BlockHandlerMessage
@@ -39,6 +46,8 @@ object BlockHandler {
   case class SendPrepare(blockHeader: Header) extends BlockHandlerMessage
   case class SendCommit(blockHeader: Header) extends BlockHandlerMessage
   case class Store(block: Block, commits: List[Commit]) extends BlockHandlerMessage
+  case class EarlyPrePrepare(m: PrePrepare) extends BlockHandlerMessage
+  case class BlockCommitted(id: BID) extends BlockHandlerMessage
 
   def props(f: Int, parent: ActorRef) = Props(new BlockHandler(f, parent))
 
@@ -47,6 +56,12 @@ object BlockHandler {
   def rejectResponse(msg: String, id: BID): List[PbftMessage] =
     List(RejectMessage(Rejection.invalidBlock(msg)(id)))
 
+  // number of blocks in consensus ending with id
+  def pipelineDepth(id: BID, inFlight: Map[BID, Block]): Int = inFlight.get(id) match {
+    case Some(block) => 1 + pipelineDepth(block.getPreviousID, inFlight)
+    case None        => 0
+  }
+
 }
 
 class BlockHandler(f: Int, parent: ActorRef) extends LoggingFSM[BlockHandlerState, BlockHandlerData] {
@@ -58,31 +73,31 @@ class BlockHandler(f: Int, parent: ActorRef) extends LoggingFSM[BlockHandlerStat
   val settings = extension.settings
   val store = extension.blockStoreConn
 
-  startWith(Running, BlockHandlerData(Map.empty))
+  startWith(Running, emptyData)
 
   setTimer(timerName, ConsensusTimeout(), settings.protocolTimeout)
 
   when(Running) {
     case Event(m: PrePrepare, data) =>
-      val s = sender()
-
-      validate(m.block).onComplete {
-        case Success(true) =>
-          self ! ConsensusAction(m.block.getID, m, s)
-        case Success(false) =>
-          s ! rejectResponse("Block not accepted", m.block.getID)
-        case Failure(t) =>
-          log.debug(s"Error during block validation: ${t.getMessage}")
-          s ! emptyResponse
-      }
-
+      prePrepare(m, sender())
       stay()
 
+    case Event(EarlyPrePrepare(m), data) =>
+      val parent = m.block.getPreviousID
+      if (data.inFlight.contains(parent) && pipelineDepth(parent, data.inFlight) < settings.pipelineWindow) {
+        // validated once the parent is stored, the sender gets the response then
+        stay() using data.copy(deferred = data.deferred.updated(parent, (m, sender()) :: data.deferred.getOrElse(parent, Nil)))
+      } else {
+        log.debug(s"Unknown parent $parent in PrePrepare, recovery needed")
+        sender() ! List(extension.getHeadersMessage)
+        stay()
+      }
+
     case Event(m: StartConsensus, data) =>
       val id = m.block.getID
       val worker = getOrCreateWorker(id)
       worker ! m
-      stay() using data.copy(workers = data.workers.updated(id, worker))
+      stay() using data.copy(workers = data.workers.updated(id, worker), inFlight = data.inFlight.updated(id, m.block))
 
     case Event(m: Prepare, data) =>
       sendIn(m.blockHeader.getID, m, sender)
@@ -96,7 +111,11 @@ class BlockHandler(f: Int, parent: ActorRef) extends LoggingFSM[BlockHandlerStat
       val worker = getOrCreateWorker(id)
       worker ! m
       s ! emptyResponse
-      stay using data.copy(workers = data.workers.updated(id, worker))
+      val inFlight = m match {
+        case p: PrePrepare => data.inFlight.updated(id, p.block)
+        case _             => data.inFlight
+      }
+      stay using data.copy(workers = data.workers.updated(id, worker), inFlight = inFlight)
 
     case Event(SendPrepare(blockHeader), data) =>
       parent ! BroadcastPrepare(blockHeader)
@@ -106,29 +125,43 @@ class BlockHandler(f: Int, parent: ActorRef) extends LoggingFSM[BlockHandlerStat
       parent ! BroadcastCommit(blockHeader)
       stay()
 
-    case Event(Store(block, commits), data) =>
-      store.store(block, commits).onComplete {
-        case Success(true) =>
-          setTimer(timerName, ConsensusTimeout(), settings.protocolTimeout)
-          data.workers(block.getID) ! Stored()
-        case Success(false) => log.debug("Failed to store")
-        case Failure(t)     => log.debug(s"Failed to store: ${t.getMessage}")
+    case Event(m @ Store(block, commits), data) =>
+      if (data.inFlight.contains(block.getPreviousID)) {
+        // blocks are stored in chain order
+        stay() using data.copy(agreed = data.agreed.updated(block.getPreviousID, m))
+      } else {
+        store.store(block, commits).onComplete {
+          case Success(true)  => self ! BlockCommitted(block.getID)
+          case Success(false) => log.debug("Failed to store")
+          case Failure(t)     => log.debug(s"Failed to store: ${t.getMessage}")
+        }
+        stay()
       }
-      stay()
+
+    case Event(BlockCommitted(id), data) =>
+      setTimer(timerName, ConsensusTimeout(), settings.protocolTimeout)
+      data.workers.get(id).foreach(_ ! Stored())
+      data.deferred.getOrElse(id, Nil).reverse.foreach { case (m, s) => prePrepare(m, s) }
+      data.agreed.get(id).foreach(self ! _)
+      stay() using data.copy(inFlight = data.inFlight - id, deferred = data.deferred - id, agreed = data.agreed - id)
 
     case Event(ConsensusBye(id), data) =>
-      stay() using data.copy(workers = data.workers - id)
+      // the parent was not stored in time, those waiting for it have to recover
+      data.deferred.getOrElse(id, Nil).foreach { case (_, s) => s ! List(extension.getHeadersMessage) }
+      stay() using data.copy(workers = data.workers - id, inFlight = data.inFlight - id, deferred = data.deferred - id)
 
     case Event(m: ConsensusTimeout, data) =>
+      releaseDeferred(data)
       data.workers.values.foreach(context.stop)
       cancelTimer(timerName)
       parent ! m
-      goto(Stopped) using data.copy(workers = Map.empty)
+      goto(Stopped) using emptyData
 
     case Event(Stop(), data) =>
+      releaseDeferred(data)
       data.workers.values.foreach(context.stop)
       cancelTimer(timerName)
-      goto(Stopped) using data.copy(workers = Map.empty)
+      goto(Stopped) using emptyData
 
   }
 
@@ -137,25 +170,43 @@ class BlockHandler(f: Int, parent: ActorRef) extends LoggingFSM[BlockHandlerStat
       setTimer(timerName, ConsensusTimeout(), settings.protocolTimeout)
       goto(Running)
 
+    case Event(m @ (_: PrePrepare | _: EarlyPrePrepare), data) =>
+      log.debug(s"Discarded message $m".take(160))
+      sender() ! emptyResponse
+      stay()
+
     // format: OFF
-    case Event(m @ (_: PrePrepare |
-                    _: StartConsensus |
+    case Event(m @ (_: StartConsensus |
                     _: Prepare |
                     _: Commit |
                     _: ConsensusAction |
                     _: SendPrepare |
                     _: SendCommit |
-                    _: Store), data) =>
+                    _: Store |
+                    _: BlockCommitted), data) =>
       // format: ON
       log.debug(s"Discarded message $m".take(160))
       stay()
   }
 
+  def releaseDeferred(data: BlockHandlerData) =
+    for (waiting <- data.deferred.values; (_, s) <- waiting) s ! emptyResponse
+
   def getOrCreateWorker(id: BID): ActorRef = stateData.workers.get(id) match {
     case Some(worker) => worker
     case None         => context.actorOf(Consensus.props(f, id, self), s"consensus-$id")
   }
 
+  def prePrepare(m: PrePrepare, s: ActorRef) = validate(m.block).onComplete {
+    case Success(true) =>
+      self ! ConsensusAction(m.block.getID, m, s)
+    case Success(false) =>
+      s ! rejectResponse("Block not accepted", m.block.getID)
+    case Failure(t) =>
+      log.debug(s"Error during block validation: ${t.getMessage}")
+      s ! emptyResponse
+  }
+
   def has(blockID: BID) = store.hasBlock(blockID) map { result =>
     if (result) log.debug(s"Block already accepted: $blockID")
     result
@@ -0,0 +1,93 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.pbft
+
+import org.hyperledger.common.{ BID, Block, MerkleTree, Transaction }
+import org.hyperledger.core.ShortTransactionIds
+
+import scala.collection.JavaConverters._
+import scala.concurrent.{ ExecutionContext, Future }
+import scala.util.Random
+
+/**
+ * Relay of PrePrepare blocks with short transaction ids, replicas rebuild the block from their mempool
+ */
+object CompactBlocks {
+  // the coinbase is never in the mempool
+  val Prefilled = 1
+  val RelayedCacheSize = 16
+
+  // blocks sent compact, to answer requests for missing transactions
+  private val relayed = new java.util.LinkedHashMap[BID, Block](RelayedCacheSize, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[BID, Block]) = size > RelayedCacheSize
+  }
+
+  /**
+   * @param m a signed PrePrepare, its signature is carried in the compact form
+   */
+  def compact(m: PrePrepare): CompactPrePrepare = {
+    val block = m.block
+    val nonce = Random.nextLong()
+    val ids = new ShortTransactionIds(block.getID, nonce)
+    val (prefilled, rest) = block.getTransactions.asScala.toList.splitAt(Prefilled)
+    relayed.synchronized(relayed.put(block.getID, block))
+    CompactPrePrepare(m.node, m.viewSeq, block.getHeader, nonce, rest.map { t => ids.shortId(t.getID) }, prefilled, m.signature)
+  }
+
+  def missingTransactions(request: BlockTxnRequest): Option[BlockTxn] =
+    Option(relayed.synchronized(relayed.get(request.blockId))).map { block =>
+      val txs = block.getTransactions
+      BlockTxn(request.blockId, request.indexes.filter(i => i >= 0 && i < txs.size).map(txs.get))
+    }
+
+  /**
+   * A block being rebuilt, transactions not yet known are None
+   */
+  case class PartialBlock(prePrepare: CompactPrePrepare, transactions: Vector[Option[Transaction]]) {
+    def missing = transactions.indices.filter(transactions(_).isEmpty).toList
+
+    def fill(response: BlockTxn, indexes: List[Int]): PartialBlock =
+      copy(transactions = indexes.zip(response.transactions).foldLeft(transactions) {
+        case (txs, (i, t)) => txs.updated(i, Some(t))
+      })
+
+    /**
+     * @return the block if all transactions are known and match the merkle root of the signed header
+     */
+    def block: Option[Block] =
+      if (transactions.exists(_.isEmpty)) None
+      else {
+        val txs = transactions.flatten.asJava
+        if (MerkleTree.computeMerkleRoot(txs) == prePrepare.blockHeader.getMerkleRoot) Some(new Block(prePrepare.blockHeader, txs))
+        else None
+      }
+  }
+
+  def rebuild(m: CompactPrePrepare, store: PbftBlockstoreInterface)(implicit ec: ExecutionContext): Future[PartialBlock] = {
+    val ids = new ShortTransactionIds(m.blockHeader.getID, m.nonce)
+    val wanted = m.shortIds.toSet
+    store.mempoolTransactions { tid => wanted.contains(ids.shortId(tid)) }.map { found =>
+      val byShortId = found.map { t => ids.shortId(t.getID) -> t }.toMap
+      val partial = PartialBlock(m, (m.prefilled.map(Some(_)) ++ m.shortIds.map(byShortId.get)).toVector)
+      if (partial.missing.isEmpty && partial.block.isEmpty) {
+        // short id collision, ask for all transactions
+        partial.copy(transactions = partial.transactions.zipWithIndex.map {
+          case (t, i) => if (i < m.prefilled.size) t else None
+        })
+      } else {
+        partial
+      }
+    }
+  }
+}
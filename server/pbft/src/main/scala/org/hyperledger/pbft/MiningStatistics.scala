@@ -0,0 +1,84 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.pbft
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.atomic.AtomicLong
+import javax.management.ObjectName
+
+/**
+ * Counters of the PBFT block production, exported over JMX
+ */
+trait MiningStatisticsMBean {
+  def getSizeTriggers: Long
+  def getDeadlineTriggers: Long
+  def getEmptyRoundsSkipped: Long
+  def getBlocksMined: Long
+  def getTransactionsMined: Long
+  def getLastBatchTransactions: Long
+  def getLastBatchBytes: Long
+}
+
+class MiningStatistics extends MiningStatisticsMBean {
+  private val sizeTriggers = new AtomicLong
+  private val deadlineTriggers = new AtomicLong
+  private val emptyRoundsSkipped = new AtomicLong
+  private val blocksMined = new AtomicLong
+  private val transactionsMined = new AtomicLong
+  @volatile private var lastBatchTransactions = 0L
+  @volatile private var lastBatchBytes = 0L
+
+  def triggered(reason: MiningStatistics.Trigger) = reason match {
+    case MiningStatistics.SizeReached     => sizeTriggers.incrementAndGet()
+    case MiningStatistics.DeadlineExpired => deadlineTriggers.incrementAndGet()
+  }
+
+  def skipped() = emptyRoundsSkipped.incrementAndGet()
+
+  def mined(transactions: Int, bytes: Long) = {
+    blocksMined.incrementAndGet()
+    transactionsMined.addAndGet(transactions)
+    lastBatchTransactions = transactions
+    lastBatchBytes = bytes
+  }
+
+  override def getSizeTriggers = sizeTriggers.get
+  override def getDeadlineTriggers = deadlineTriggers.get
+  override def getEmptyRoundsSkipped = emptyRoundsSkipped.get
+  override def getBlocksMined = blocksMined.get
+  override def getTransactionsMined = transactionsMined.get
+  override def getLastBatchTransactions = lastBatchTransactions
+  override def getLastBatchBytes = lastBatchBytes
+}
+
+object MiningStatistics {
+  sealed trait Trigger
+  case object SizeReached extends Trigger
+  case object DeadlineExpired extends Trigger
+
+  def objectName(systemName: String) = new ObjectName(s"org.hyperledger.pbft:type=MiningStatistics,system=$systemName")
+
+  def register(systemName: String, statistics: MiningStatistics) = {
+    val server = ManagementFactory.getPlatformMBeanServer
+    val name = objectName(systemName)
+    if (server.isRegistered(name)) server.unregisterMBean(name)
+    server.registerMBean(statistics, name)
+  }
+
+  def unregister(systemName: String) = {
+    val server = ManagementFactory.getPlatformMBeanServer
+    val name = objectName(systemName)
+    if (server.isRegistered(name)) server.unregisterMBean(name)
+  }
+}
@@ -14,15 +14,17 @@
 package org.hyperledger.pbft
 
 import java.net.InetSocketAddress
+import java.util.function.Predicate
 
 import _root_.akka.actor._
 import org.hyperledger.common._
 import org.hyperledger.core.BlockStore.BlockListener
-import org.hyperledger.core.{ StoredHeader, BlockStoredInfo }
+import org.hyperledger.core.{ BlockStoredInfo, PreparedBlock, StoredHeader }
 import org.hyperledger.network._
 import scodec.{ Err, Attempt }
 import scodec.bits.BitVector
 
+import scala.collection.JavaConverters._
 import scala.concurrent.{ ExecutionContext, Future }
 import scala.util.Random
 import scalaz.\/
@@ -72,6 +74,7 @@ trait PbftBlockstoreInterface {
   def fetchHeader(h: BID): StoredHeader
   def fetchBlock(h: BID): Future[Option[Block]]
   def filterUnkown(inventories: List[InventoryVector]): Future[List[InventoryVector]]
+  def mempoolTransactions(filter: TID => Boolean): Future[List[Transaction]]
   def hasBlock(blockId: BID): Future[Boolean]
   def headerLocatorHashes: List[BID]
   def getHighestBlock: Block
@@ -85,26 +88,53 @@ trait PbftBlockstoreInterface {
 
   def store(block: Block, commits: List[Commit]): Future[Boolean]
   def storeBlock(block: Block): Future[(List[BID], List[BlockStoredInfo])]
+  def storeCertifiedBlocks(blocks: List[Block]): Future[(List[BID], List[BlockStoredInfo])]
+  def blockRange(after: BID, count: Int): Future[List[Block]]
+  def missingBlocks(max: Int): List[BID]
   def storeCommits(id: BID, commits: List[Commit]): Future[Boolean]
   def getCommits(blockId: BID): Attempt[List[Commit]]
   def validateBlock(block: Block): Future[Boolean]
   def validateAndAdd(header: Header, commits: List[Commit], settings: PbftSettings): Future[List[Commit]]
 }
 
+object PbftBlockstoreConnection {
+  val MaxPreparedBlocks = 16
+}
+
 class PbftBlockstoreConnection(hyperLedger: HyperLedger,
   settings: PbftSettings,
   protocolVersion: Int,
   implicit val executionContext: ExecutionContext)
   extends PbftBlockstoreInterface {
 
+  // blocks validated during prepare, committed without validating them again
+  private val prepared = new java.util.LinkedHashMap[BID, PreparedBlock]() {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[BID, PreparedBlock]) = size > PbftBlockstoreConnection.MaxPreparedBlocks
+  }
+
   def store(block: Block, commits: List[Commit]) = {
     storeBlock(block).flatMap { x => storeCommits(block.getID, commits) }
   }
 
-  def storeBlock(block: Block) = {
-    hyperLedger.addBlocks(List(block))
+  def storeBlock(block: Block): Future[(List[BID], List[BlockStoredInfo])] = prepared.synchronized(Option(prepared.remove(block.getID))) match {
+    case Some(p) => Future {
+      try {
+        (Nil, hyperLedger.blockStore.commitBlock(p) :: Nil)
+      } catch {
+        case _: LoggedHyperLedgerException => (block.getID :: Nil, Nil)
+      }
+    }
+    case None => hyperLedger.addBlocks(List(block))
+  }
+
+  def storeCertifiedBlocks(blocks: List[Block]) = hyperLedger.addCertifiedBlocks(blocks)
+
+  def blockRange(after: BID, count: Int) = Future {
+    hyperLedger.blockStore.getTrunkBlocksAfter(after, count).asScala.toList.flatMap { id => Option(hyperLedger.blockStore.getBlock(id)) }
   }
 
+  def missingBlocks(max: Int) = hyperLedger.missingBlocks(max)
+
   def storeCommits(id: BID, commits: List[Commit]) = {
     encodeCommits(commits).map { encoded => hyperLedger.blockStore.addMiscData(id, encoded.toByteArray) }
   }
@@ -118,15 +148,17 @@ class PbftBlockstoreConnection(hyperLedger: HyperLedger,
   def validateAndAdd(header: Header, commits: List[Commit], settings: PbftSettings) = {
     import SignatureValidator._
 
-    val (bad, _) = split(validateCommits(commits).run(settings))
-    if (bad.nonEmpty) {
-      Future.failed(new HyperLedgerException(bad.head._1.message))
-    } else if (!commits.forall(header.getID == _.blockHeader.getID)) {
-      Future.failed(new HyperLedgerException(s"Commits not for ${header.getID}"))
-    } else {
-      addHeaders(List(header))
-        .flatMap { _ => storeCommits(header.getID, commits) }
-        .map { _ => commits }
+    validateCommits(commits).run(settings).flatMap { validated =>
+      val (bad, _) = split(validated)
+      if (bad.nonEmpty) {
+        Future.failed(new HyperLedgerException(bad.head._1.message))
+      } else if (!commits.forall(header.getID == _.blockHeader.getID)) {
+        Future.failed(new HyperLedgerException(s"Commits not for ${header.getID}"))
+      } else {
+        addHeaders(List(header))
+          .flatMap { _ => storeCommits(header.getID, commits) }
+          .map { _ => commits }
+      }
     }
   }
 
@@ -134,6 +166,11 @@ class PbftBlockstoreConnection(hyperLedger: HyperLedger,
   def fetchHeader(h: BID) = hyperLedger.fetchHeader(h)
   def fetchBlock(h: BID) = hyperLedger.fetchBlock(h)
   def filterUnkown(inventories: List[InventoryVector]) = hyperLedger.filterUnknown(inventories)
+  def mempoolTransactions(filter: TID => Boolean) = Future {
+    hyperLedger.blockStore.getMempoolTransactions(new Predicate[TID] {
+      override def test(id: TID) = filter(id)
+    }).asScala.toList
+  }
   def hasBlock(blockId: BID) = hyperLedger.hasBlock(blockId)
   def headerLocatorHashes: List[BID] = hyperLedger.headerLocatorHashes()
   def getHighestBlock = hyperLedger.blockStore.getHighestBlock
@@ -180,6 +217,14 @@ class PbftBlockstoreConnection(hyperLedger: HyperLedger,
     }
   }
 
-  def validateBlock(block: Block): Future[Boolean] = Future(hyperLedger.blockStore.validateBlock(block))
+  def validateBlock(block: Block): Future[Boolean] = Future {
+    try {
+      val p = hyperLedger.blockStore.prepareBlock(block)
+      prepared.synchronized(prepared.put(block.getID, p))
+      true
+    } catch {
+      case _: LoggedHyperLedgerException => false
+    }
+  }
 
 }
@@ -17,12 +17,13 @@ import akka.actor._
 import akka.pattern.{ ask, pipe }
 import akka.util.Timeout
 import org.hyperledger.common.{ Block, Header }
-import org.hyperledger.pbft.BlockHandler.{ ConsensusTimeout, Start, Stop }
+import org.hyperledger.pbft.BlockHandler.{ ConsensusTimeout, EarlyPrePrepare, Start, Stop }
 import org.hyperledger.pbft.Consensus.StartConsensus
 import org.hyperledger.pbft.PbftHandler._
 import org.hyperledger.pbft.PbftMiner.{ StartMining, StopMining }
 import org.hyperledger.pbft.RecoveryActor.NewHeaders
 import org.hyperledger.pbft.ViewChangeHandler.StoreTimeout
+import scodec.Attempt
 
 import scala.util.{ Failure, Success }
 
@@ -73,6 +74,7 @@ class PbftHandler(broadcaster: ActorRef, miner: ActorRef) extends LoggingFSM[Pbf
 
   val blockHandler = context.actorOf(BlockHandler.props(fRounded, self), "blockhandler")
   val viewChangeHandler = context.actorOf(ViewChangeHandler.props(fRounded), "viewchangehandler")
+  val stateTransfer = context.actorOf(StateTransfer.props(broadcaster, fRounded), "statetransfer")
 
   if (primary(ourNodeId, 0)) startMining()
 
@@ -90,13 +92,14 @@ class PbftHandler(broadcaster: ActorRef, miner: ActorRef) extends LoggingFSM[Pbf
     case Event(PrePrepareMessage(m), data) =>
       val sdr = sender()
       store.hasBlock(m.block.getPreviousID).onComplete {
-        case Success(false) =>
+        case Success(false) if m.viewSeq != data.currentViewSeq || !primary(m.node, data.currentViewSeq) =>
           log.debug(s"Unknown parent ${m.block.getPreviousID} in PrePrepare, recovery needed")
           sdr ! List(extension.getHeadersMessage)
-        case Success(true) =>
+        case Success(parentStored) =>
           if (m.viewSeq == data.currentViewSeq) {
             if (primary(m.node, data.currentViewSeq)) {
-              ask(blockHandler, m) pipeTo sdr
+              // the parent may still be in consensus, the block handler responds to sdr once it is stored
+              blockHandler.tell(if (parentStored) m else EarlyPrePrepare(m), sdr)
             } else {
               log.debug(s"PrePrepare arrived from non-primary node ${m.node} in currentViewSeq ${data.currentViewSeq}")
               sdr ! emptyResponse
@@ -131,10 +134,13 @@ class PbftHandler(broadcaster: ActorRef, miner: ActorRef) extends LoggingFSM[Pbf
 
     case Event(BlockMined(block), data) =>
       if (primary(ourNodeId, data.currentViewSeq)) {
-        PrePrepare(ourNodeId, data.currentViewSeq, block).sign(privateKey).fold(
+        PrePrepare(ourNodeId, data.currentViewSeq, block).sign(privateKey).flatMap[PbftMessage] { signed =>
+          if (settings.compactPrePrepare) CompactBlocks.compact(signed).sign(privateKey).map(CompactPrePrepareMessage)
+          else Attempt.successful(PrePrepareMessage(signed))
+        }.fold(
           err => log.error(s"Could not sign PrePrepare: ${err.message}"),
-          signed => {
-            broadcaster ! PrePrepareMessage(signed)
+          message => {
+            broadcaster ! message
             blockHandler ! StartConsensus(block)
           })
       }
@@ -200,6 +206,12 @@ class PbftHandler(broadcaster: ActorRef, miner: ActorRef) extends LoggingFSM[Pbf
 
     case Event(m: NewHeaders, data) =>
       viewChangeHandler ! m
+      stateTransfer ! StateTransfer.CatchUp()
+      stay
+
+    case Event(m @ (_: CheckpointMessage | _: BlockRangeMessage), data) =>
+      stateTransfer ! m
+      sender ! emptyResponse
       stay
 
     case Event(BroadcastNewView(viewSeq, viewChanges, blockHeader, commits), data) =>
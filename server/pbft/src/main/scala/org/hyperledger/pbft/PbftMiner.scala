@@ -13,11 +13,19 @@
  */
 package org.hyperledger.pbft
 
-import akka.actor.{ Actor, ActorLogging, ActorRef, Props }
-import org.hyperledger.common.Block
+import java.util.concurrent.atomic.{ AtomicInteger, AtomicLong }
+
+import akka.actor.{ Actor, ActorLogging, ActorRef, Cancellable, Props }
+import org.hyperledger.HyperLedgerSettings
+import org.hyperledger.common.{ Block, Transaction, WireFormat }
+import org.hyperledger.core.BlockStore.{ BlockListener, TransactionListener }
+import org.hyperledger.core.{ BlockStoredInfo, ValidatedTransaction }
 import org.hyperledger.pbft.MinerWorker._
+import org.hyperledger.pbft.MiningStatistics.{ DeadlineExpired, SizeReached, Trigger }
 import org.hyperledger.pbft.PbftHandler.BlockMined
-import org.hyperledger.pbft.PbftMiner.{ StartMining, StopMining }
+import org.hyperledger.pbft.PbftMiner._
+
+import scala.collection.JavaConverters._
 
 object PbftMiner {
   def props() = Props(new PbftMiner())
@@ -25,31 +33,157 @@ object PbftMiner {
   sealed trait PbftMinerMessage
   case class StartMining() extends PbftMinerMessage
   case class StopMining() extends PbftMinerMessage
+
+  private case class Cut(reason: Trigger) extends PbftMinerMessage
+  private case object TransactionsPending extends PbftMinerMessage
+  private case object BlockStored extends PbftMinerMessage
 }
 
+/**
+ * Cuts a block as soon as the transactions accepted since the last block reach the configured count or size,
+ * or when the oldest of them waited blockFrequencySeconds. Rounds without transactions are skipped
+ * unless produceEmptyBlocks is set.
+ */
 class PbftMiner() extends Actor with ActorLogging {
   import context.dispatcher
 
   val worker = context.system.actorOf(Props[MinerWorker].withDispatcher("hyperledger.pbft.miner-dispatcher"))
   var requester: Option[ActorRef] = None
   val settings = PbftExtension(context.system).settings
+  val blockStore = PbftExtension(context.system).hyperLedgerCore.hyperLedger.blockStore
+  val wireFormatter = HyperLedgerSettings.getInstance.getTxWireFormatter
+  val statistics = new MiningStatistics
+
+  // mined blocks not yet stored, the next block is mined on top of them
+  var inFlight = List.empty[Block]
+
+  var mining = false
+  // a block to cut as soon as the worker is free and the pipeline window allows
+  var due: Option[Trigger] = None
+  // in flight blocks fill the pipeline window, mining resumes once one is stored
+  var windowFull = false
+  var deadline: Option[Cancellable] = None
+  var batchReason: Trigger = DeadlineExpired
+  var batchBytes = 0L
+
+  // transactions accepted since the last cut, updated on the threads of the block store
+  val pendingCount = new AtomicInteger
+  val pendingBytes = new AtomicLong
+
+  val transactionListener = new TransactionListener {
+    override def transactionAdded(transaction: ValidatedTransaction): Unit = {
+      val size = sizeOf(transaction)
+      val count = pendingCount.incrementAndGet()
+      val bytes = pendingBytes.addAndGet(size)
+      if (count == 1) self ! TransactionsPending
+      if (count == settings.blockMaxTransactions || (bytes >= settings.blockMaxBytes && bytes - size < settings.blockMaxBytes))
+        self ! Cut(SizeReached)
+    }
+  }
+
+  val blockListener = new BlockListener {
+    override def blockStored(content: BlockStoredInfo): Unit = self ! BlockStored
+  }
+
+  def sizeOf(t: Transaction) = {
+    val writer = new WireFormat.SizeWriter
+    wireFormatter.toWire(t, writer)
+    writer.size
+  }
+
+  override def preStart() = {
+    blockStore.addTransactionListener(transactionListener)
+    blockStore.addBlockListener(blockListener)
+    MiningStatistics.register(context.system.name, statistics)
+  }
+
+  override def postStop() = {
+    blockStore.removeTransactionListener(transactionListener)
+    blockStore.removeBlockListener(blockListener)
+    MiningStatistics.unregister(context.system.name)
+    cancelDeadline()
+  }
 
-  def scheduleMining() = context.system.scheduler.scheduleOnce(settings.blockFrequency, worker, Mine())
+  def armDeadline() = if (requester.isDefined && deadline.isEmpty) {
+    deadline = Some(context.system.scheduler.scheduleOnce(settings.blockFrequency, self, Cut(DeadlineExpired)))
+  }
+
+  def cancelDeadline() = {
+    deadline.foreach(_.cancel())
+    deadline = None
+  }
+
+  def cut(reason: Trigger) =
+    if (mining || windowFull) {
+      due = due orElse Some(reason)
+    } else {
+      batchReason = reason
+      cancelDeadline()
+      pendingCount.set(0)
+      batchBytes = pendingBytes.getAndSet(0)
+      mining = true
+      worker ! Mine(inFlight)
+    }
+
+  def cutDue() = if (!windowFull) {
+    due.foreach { reason =>
+      due = None
+      cut(reason)
+    }
+  }
 
   override def receive = {
 
     case StartMining() =>
       requester = Some(sender())
-      scheduleMining()
+      inFlight = Nil
+      // transactions may be waiting since before
+      if (pendingCount.get >= settings.blockMaxTransactions || pendingBytes.get >= settings.blockMaxBytes) cut(SizeReached)
+      else armDeadline()
 
     case StopMining() =>
       requester = None
+      inFlight = Nil
+      due = None
+      windowFull = false
+      cancelDeadline()
+
+    case TransactionsPending =>
+      armDeadline()
+
+    case Cut(reason) =>
+      if (reason == DeadlineExpired) deadline = None
+      if (requester.isDefined) cut(reason)
+
+    case BlockStored =>
+      if (windowFull) {
+        windowFull = false
+        cutDue()
+      }
 
-    case Mined(block) =>
+    case Mined(block, pending) =>
+      mining = false
       requester match {
         case Some(r) =>
-          block.foreach { r ! BlockMined(_) }
-          scheduleMining()
+          inFlight = pending
+          block match {
+            case Some(b) if b.getTransactions.size > 1 || settings.produceEmptyBlocks =>
+              inFlight = pending :+ b
+              statistics.triggered(batchReason)
+              statistics.mined(b.getTransactions.size - 1, batchBytes)
+              r ! BlockMined(b)
+            case Some(_) =>
+              log.debug("Skipping empty block")
+              statistics.skipped()
+            case None if pending.nonEmpty =>
+              // the window is full or the pending blocks do not extend the store yet
+              windowFull = true
+              due = due orElse Some(batchReason)
+            case None =>
+              log.debug("No block mined")
+          }
+          cutDue()
+          if (pendingCount.get > 0 || settings.produceEmptyBlocks) armDeadline()
         case None =>
           log.debug("Mined block discarded, mining stopped after scheduling")
       }
@@ -58,18 +192,30 @@ class PbftMiner() extends Actor with ActorLogging {
 }
 
 object MinerWorker {
-  sealed case class Mine()
-  sealed case class Mined(block: Option[Block])
+  sealed case class Mine(pending: List[Block])
+  sealed case class Mined(block: Option[Block], pending: List[Block])
 }
 
 class MinerWorker extends Actor with ActorLogging {
 
-  val miner = PbftExtension(context.system).hyperLedgerCore.hyperLedger.getMiner
+  val extension = PbftExtension(context.system)
+  val hyperLedger = extension.hyperLedgerCore.hyperLedger
+  val miner = hyperLedger.getMiner
 
   override def receive = {
-    case Mine() =>
-      val block = miner.flatMap { m => Option(m.mineOneBlock()) }
-      sender() ! Mined(block)
+    case Mine(pending) =>
+      val unstored = notStored(pending)
+      val block =
+        if (unstored.size < extension.settings.pipelineWindow) miner.flatMap { m => Option(m.mineOneBlock(unstored.asJava)) }
+        else None
+      sender() ! Mined(block, unstored)
+  }
+
+  // pending blocks are dropped if they no longer extend the highest stored block
+  def notStored(pending: List[Block]) = {
+    val unstored = pending.filterNot { b => hyperLedger.blockStore.hasBlock(b.getID) }
+    if (unstored.headOption.forall(_.getPreviousID == hyperLedger.blockStore.getHighestBlock.getID)) unstored
+    else Nil
   }
 
 }
@@ -37,6 +37,7 @@ object PbftServer {
     version: Version,
     peer: ActorRef) extends PbftConnectionEvent
   case class Broadcast(message: PbftMessage) extends PbftConnectionEvent
+  case class SendToNode(node: Int, message: PbftMessage) extends PbftConnectionEvent
 
   def keep3[L, LI, RI](l: L, r: (LI, RI)) = (l, r._1, r._2)
 
@@ -112,6 +113,15 @@ class PbftServer(bindAddress: InetSocketAddress) extends Actor with ActorLogging
         recoveryStarted = true
       }
 
+    case SendToNode(node, m) =>
+      val publicKey = settings.nodes(node).publicKey
+      connections.activeConnections.values.collectFirst {
+        case c: ConnectionManagement.ReplicaConnection if c.publicKey == publicKey => c.peer
+      } match {
+        case Some(peer) => peer ! m
+        case None       => log.debug(s"No connection to node $node, message dropped")
+      }
+
     case m: PbftMessage => connections.activeConnections.values.foreach(_.peer ! m)
   }
 }
@@ -74,9 +74,19 @@ object PbftSettings {
     val bindAddress = parseAddress(conf, "bindAddress")
     val protocolTimeoutSec = conf.getInt("protocolTimeoutSeconds")
     val blockFrequency = conf.getInt("blockFrequencySeconds")
-
-
-    PbftSettings(nodes, privateKey, bindAddress, protocolTimeoutSec, blockFrequency)
+    val pipelineWindow = if (conf.hasPath("pipelineWindow")) conf.getInt("pipelineWindow") else 1
+    if (pipelineWindow < 1) throw new BadValue(conf.origin(), "pipelineWindow", "Must be at least 1")
+    val blockMaxTransactions = if (conf.hasPath("blockMaxTransactions")) conf.getInt("blockMaxTransactions") else 2000
+    if (blockMaxTransactions < 1) throw new BadValue(conf.origin(), "blockMaxTransactions", "Must be at least 1")
+    val blockMaxBytes = if (conf.hasPath("blockMaxBytes")) conf.getBytes("blockMaxBytes").longValue else 1000000L
+    if (blockMaxBytes < 1) throw new BadValue(conf.origin(), "blockMaxBytes", "Must be at least 1")
+    val produceEmptyBlocks = conf.hasPath("produceEmptyBlocks") && conf.getBoolean("produceEmptyBlocks")
+    val stateTransferBatch = if (conf.hasPath("stateTransferBatch")) conf.getInt("stateTransferBatch") else 100
+    if (stateTransferBatch < 1) throw new BadValue(conf.origin(), "stateTransferBatch", "Must be at least 1")
+    val compactPrePrepare = !conf.hasPath("compactPrePrepare") || conf.getBoolean("compactPrePrepare")
+
+    PbftSettings(nodes, privateKey, bindAddress, protocolTimeoutSec, blockFrequency, pipelineWindow,
+      blockMaxTransactions, blockMaxBytes, produceEmptyBlocks, stateTransferBatch, compactPrePrepare)
   }
 
 }
@@ -88,7 +98,13 @@ case class PbftSettings(nodes: List[PbftSettings.NodeConfig],
                         privateKey: Option[PrivateKey],
                         bindAddress: InetSocketAddress,
                         protocolTimeoutSec: Int,
-                        blockFrequencySec: Int) {
+                        blockFrequencySec: Int,
+                        pipelineWindow: Int,
+                        blockMaxTransactions: Int,
+                        blockMaxBytes: Long,
+                        produceEmptyBlocks: Boolean,
+                        stateTransferBatch: Int,
+                        compactPrePrepare: Boolean) {
 
   val clientMode = privateKey.isEmpty
 
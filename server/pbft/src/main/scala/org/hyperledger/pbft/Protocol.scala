@@ -14,6 +14,7 @@
 package org.hyperledger.pbft
 
 import org.hyperledger.common._
+import org.hyperledger.core.ShortTransactionIds
 import org.hyperledger.network._
 import org.hyperledger.network.codecs._
 import org.hyperledger.network.{codecs => C, BlockDataRequest, Version, Rejection, InventoryVector}
@@ -28,6 +29,9 @@ sealed trait PbftMessage {
 }
 
 case class PrePrepareMessage(payload: PrePrepare) extends PbftMessage
+case class CompactPrePrepareMessage(payload: CompactPrePrepare) extends PbftMessage
+case class GetBlockTxnMessage(payload: BlockTxnRequest) extends PbftMessage
+case class BlockTxnMessage(payload: BlockTxn) extends PbftMessage
 case class PrepareMessage(payload: Prepare) extends PbftMessage
 case class CommitMessage(payload: Commit) extends PbftMessage
 case class ViewChangeMessage(payload: ViewChange) extends PbftMessage
@@ -43,6 +47,10 @@ case class InvMessage(payload: List[InventoryVector]) extends PbftMessage
 case class GetDataMessage(payload: List[InventoryVector]) extends PbftMessage
 case class GetHeadersMessage(payload: BlockDataRequest) extends PbftMessage
 case class HeadersMessage(payload: List[HeaderAndCommit]) extends PbftMessage
+case class GetCheckpointMessage(payload: Unit = ()) extends PbftMessage
+case class CheckpointMessage(payload: Checkpoint) extends PbftMessage
+case class GetBlockRangeMessage(payload: BlockRangeRequest) extends PbftMessage
+case class BlockRangeMessage(payload: BlockRange) extends PbftMessage
 
 object PbftMessage {
   implicit val discriminated: Discriminated[PbftMessage, String] = Discriminated(cmdCodec)
@@ -52,6 +60,15 @@ object PbftMessage {
   implicit val prePrepareD = discriminator[PrePrepareMessage](PrePrepare.command)
   implicit val prePrepareC = PrePrepare.codec.hlist.as[PrePrepareMessage]
 
+  implicit val compactPrePrepareD = discriminator[CompactPrePrepareMessage](CompactPrePrepare.command)
+  implicit val compactPrePrepareC = CompactPrePrepare.codec.hlist.as[CompactPrePrepareMessage]
+
+  implicit val getBlockTxnD = discriminator[GetBlockTxnMessage](BlockTxnRequest.command)
+  implicit val getBlockTxnC = BlockTxnRequest.codec.hlist.as[GetBlockTxnMessage]
+
+  implicit val blockTxnD = discriminator[BlockTxnMessage](BlockTxn.command)
+  implicit val blockTxnC = BlockTxn.codec.hlist.as[BlockTxnMessage]
+
   implicit val prepareD = discriminator[PrepareMessage](Prepare.command)
   implicit val prepareC = Prepare.codec.hlist.as[PrepareMessage]
 
@@ -97,6 +114,18 @@ object PbftMessage {
   implicit val headersD = discriminator[HeadersMessage](HeaderAndCommit.command)
   implicit val headersC: Codec[HeadersMessage] = ("payload" | C.varIntSizeSeq(HeaderAndCommit.codec)).as[HeadersMessage]
 
+  implicit val getCheckpointD = discriminator[GetCheckpointMessage]("getcheckpt")
+  implicit val getCheckpointC = provide(GetCheckpointMessage())
+
+  implicit val checkpointD = discriminator[CheckpointMessage](Checkpoint.command)
+  implicit val checkpointC = Checkpoint.codec.hlist.as[CheckpointMessage]
+
+  implicit val getBlockRangeD = discriminator[GetBlockRangeMessage](BlockRangeRequest.command)
+  implicit val getBlockRangeC = BlockRangeRequest.codec.hlist.as[GetBlockRangeMessage]
+
+  implicit val blockRangeD = discriminator[BlockRangeMessage](BlockRange.command)
+  implicit val blockRangeC = BlockRange.codec.hlist.as[BlockRangeMessage]
+
   val codec: Codec[PbftMessage] = Codec.coproduct[PbftMessage]
     .framing(PayloadFrameCodec.framing)
     .discriminatedBy(cmdCodec).auto
@@ -130,7 +159,7 @@ sealed trait PbftPayload[M <: PbftPayload[M]] {
     (for {
       h <- getHash.toOption
       pk <- keys(node)
-    } yield pk.verify(h.toByteArray, signature.toArray)).getOrElse(false)
+    } yield SignatureValidator.verify(h, signature, pk)).getOrElse(false)
   }
 }
 
@@ -158,6 +187,64 @@ case class PrePrepare(
   def withSignature(sig: ByteVector) = copy(signature = sig)
 }
 
+object CompactPrePrepare {
+  val command = "cmpctprepare"
+
+  implicit val codec = {
+    ("node" | int32L) ::
+      ("viewSeq" | int32L) ::
+      ("blockHeader" | headerCodec) ::
+      ("nonce" | int64L) ::
+      ("shortIds" | C.varIntSizeSeq(ulongL(ShortTransactionIds.SHORT_ID_BITS))) ::
+      ("prefilled" | txListCodec) ::
+      ("prePrepareSignature" | C.signatureCodec) ::
+      ("signature" | C.signatureCodec)
+  }.as[CompactPrePrepare]
+}
+
+/**
+ * A PrePrepare with the transactions of the block replaced by short ids, except the prefilled first ones.
+ * The signature covers the full header, thereby the merkle root of all transactions. The primary's signature
+ * of the full PrePrepare is carried along, a rebuilt PrePrepare is signed as if sent in full.
+ */
+case class CompactPrePrepare(
+  node: Int,
+  viewSeq: Int,
+  blockHeader: Header,
+  nonce: Long,
+  shortIds: List[Long],
+  prefilled: List[Transaction],
+  prePrepareSignature: ByteVector,
+  signature: ByteVector = ByteVector.empty) extends PbftPayload[CompactPrePrepare] {
+
+  val command = CompactPrePrepare.command
+  def withSignature(sig: ByteVector) = copy(signature = sig)
+
+  def toPrePrepare(block: Block) = PrePrepare(node, viewSeq, block, prePrepareSignature)
+}
+
+object BlockTxnRequest {
+  val command = "getblocktxn"
+
+  implicit val codec = {
+    ("blockId" | HashCodec.bidCodec) ::
+      ("indexes" | C.varIntSizeSeq(C.varInt))
+  }.as[BlockTxnRequest]
+}
+
+case class BlockTxnRequest(blockId: BID, indexes: List[Int])
+
+object BlockTxn {
+  val command = "blocktxn"
+
+  implicit val codec = {
+    ("blockId" | HashCodec.bidCodec) ::
+      ("transactions" | txListCodec)
+  }.as[BlockTxn]
+}
+
+case class BlockTxn(blockId: BID, transactions: List[Transaction])
+
 object Prepare {
   val command = "prepare"
 
@@ -262,3 +349,52 @@ object HeaderAndCommit {
 }
 
 case class HeaderAndCommit(header: Header, commits: List[Commit])
+
+object Checkpoint {
+  val command = "checkpoint"
+
+  implicit val codec = {
+    ("node" | int32L) ::
+      ("height" | int32L) ::
+      ("blockHeader" | headerCodec) ::
+      ("signature" | C.signatureCodec)
+  }.as[Checkpoint]
+}
+
+/**
+ * The highest block a replica stored, certified by the commits stored with its header
+ */
+case class Checkpoint(
+  node: Int,
+  height: Int,
+  blockHeader: Header,
+  signature: ByteVector = ByteVector.empty) extends PbftPayload[Checkpoint] {
+
+  val command = Checkpoint.command
+  def withSignature(sig: ByteVector) = copy(signature = sig)
+}
+
+object BlockRangeRequest {
+  val command = "getblkrange"
+
+  implicit val codec = {
+    ("after" | HashCodec.bidCodec) ::
+      ("count" | int32L)
+  }.as[BlockRangeRequest]
+}
+
+/**
+ * Request for count trunk blocks following the block after
+ */
+case class BlockRangeRequest(after: BID, count: Int)
+
+object BlockRange {
+  val command = "blkrange"
+
+  implicit val codec = {
+    ("after" | HashCodec.bidCodec) ::
+      ("blocks" | C.varIntSizeSeq(blockCodec))
+  }.as[BlockRange]
+}
+
+case class BlockRange(after: BID, blocks: List[Block])
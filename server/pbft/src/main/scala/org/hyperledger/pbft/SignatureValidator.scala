@@ -13,10 +13,14 @@
  */
 package org.hyperledger.pbft
 
+import java.util.concurrent.{ Executors, ThreadFactory }
+import java.util.concurrent.atomic.AtomicInteger
+
 import org.hyperledger.common.PublicKey
-import scodec.bits.BitVector
+import scodec.bits.{ BitVector, ByteVector }
 import scodec.{ Attempt, Err }
 
+import scala.concurrent.{ ExecutionContext, Future }
 import scalaz.Scalaz._
 import scalaz._
 
@@ -24,6 +28,36 @@ object SignatureValidator {
 
   type MessageOrErr[M] = \/[(Err, M), M]
 
+  val VerifierThreads = Runtime.getRuntime.availableProcessors
+  val VerifiedCacheSize = 10000
+
+  // signatures are verified on their own threads, not on stream or actor dispatchers
+  val verificationContext = ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(VerifierThreads, new ThreadFactory {
+    val count = new AtomicInteger()
+    override def newThread(r: Runnable) = {
+      val thread = new Thread(r, s"pbft-signature-${count.incrementAndGet}")
+      thread.setDaemon(true)
+      thread
+    }
+  }))
+
+  // the same message is verified again when it arrives nested in an other, e.g. commits in a ViewChange
+  private[pbft] val verified = new java.util.LinkedHashMap[(ByteVector, ByteVector, PublicKey), java.lang.Boolean](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[(ByteVector, ByteVector, PublicKey), java.lang.Boolean]) =
+      size > VerifiedCacheSize
+  }
+
+  def verify(hash: BitVector, signature: ByteVector, key: PublicKey): Boolean = {
+    val triple = (hash.bytes, signature, key)
+    verified.synchronized(Option(verified.get(triple))) match {
+      case Some(result) => result
+      case None =>
+        val result = key.verify(hash.toByteArray, signature.toArray)
+        verified.synchronized(verified.put(triple, result))
+        result
+    }
+  }
+
   // format: OFF
   def valid[M](getHash: M => Attempt[BitVector],
                getSig: M => Array[Byte])
@@ -32,7 +66,7 @@ object SignatureValidator {
     case Attempt.Failure(err) =>
       \/.left((err, m))
     case Attempt.Successful(hash) =>
-      k.verify(hash.toByteArray, getSig(m)) match {
+      verify(hash, ByteVector.view(getSig(m)), k) match {
         case true  => \/.right(m)
         case false => \/.left((Err("Incorrect signature"), m))
       }
@@ -49,15 +83,16 @@ object SignatureValidator {
   // format: OFF
   def validMessages[M](messages: List[M],
                        validator: (M, PublicKey) => MessageOrErr[M],
-                       pk: (PbftSettings, M) => PublicKey): Reader[PbftSettings, List[MessageOrErr[M]]] = Reader(settings => {
+                       pk: (PbftSettings, M) => PublicKey): Reader[PbftSettings, Future[List[MessageOrErr[M]]]] = Reader(settings => {
     // format: ON
-    messages.map { m => validator(m, pk(settings, m)) }
+    // completed on the verifier threads, callers must not wait for it on a dispatcher
+    Future.traverse(messages) { m => Future(validator(m, pk(settings, m)))(verificationContext) }(implicitly, verificationContext)
   })
 
-  def validateViewChanges(messages: List[ViewChange]): Reader[PbftSettings, List[MessageOrErr[ViewChange]]] =
+  def validateViewChanges(messages: List[ViewChange]): Reader[PbftSettings, Future[List[MessageOrErr[ViewChange]]]] =
     validMessages(messages, valid(getViewChangeHash, getViewChangeSig), pkViewChange)
 
-  def validateCommits(messages: List[Commit]): Reader[PbftSettings, List[MessageOrErr[Commit]]] =
+  def validateCommits(messages: List[Commit]): Reader[PbftSettings, Future[List[MessageOrErr[Commit]]]] =
     validMessages(messages, valid(getCommitHash, getCommitSig), pkCommit)
 
   def split[M](messages: List[MessageOrErr[M]]): (List[(Err, M)], List[M]) = messages.separate
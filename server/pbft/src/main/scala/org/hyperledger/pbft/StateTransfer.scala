@@ -0,0 +1,221 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.pbft
+
+import akka.actor.{ Actor, ActorLogging, ActorRef, Props, Status }
+import akka.pattern.pipe
+import org.hyperledger.common.{ BID, Block, MerkleTree }
+import org.hyperledger.pbft.PbftServer.SendToNode
+import org.hyperledger.pbft.StateTransfer._
+
+import scala.concurrent.Future
+
+object StateTransfer {
+  def props(broadcaster: ActorRef, f: Int) = Props(new StateTransfer(broadcaster, f))
+
+  // ranges requested from one replica at the same time
+  val RangesPerPeer = 2
+  // ranges planned at once, the next round starts when they are stored
+  val RangesPerRound = 64
+
+  sealed trait StateTransferMessage
+  case class CatchUp() extends StateTransferMessage
+  private case class CheckpointTimeout(round: Int) extends StateTransferMessage
+  private case class CheckpointChecked(round: Int, checkpoint: Checkpoint, stable: Boolean) extends StateTransferMessage
+  private case class RangeTimeout(round: Int, index: Int, node: Int) extends StateTransferMessage
+  private case class Verified(round: Int, index: Int, blocks: Option[List[Block]]) extends StateTransferMessage
+  private case class Appended(round: Int, index: Int, rejected: List[BID]) extends StateTransferMessage
+
+  // contiguous blocks following after, the last one at height
+  case class Range(index: Int, after: BID, ids: List[BID], height: Int)
+}
+
+/**
+ * Brings a replica lagging behind the certified header chain up to date.
+ *
+ * Replicas are asked for their stable checkpoint, the highest block they store with a commit certificate.
+ * Missing blocks are then requested as contiguous ranges from the replicas whose checkpoint covers them,
+ * several in parallel. Ranges are checked against the commits stored with their headers and appended in
+ * chain order without validating scripts again.
+ */
+class StateTransfer(broadcaster: ActorRef, f: Int) extends Actor with ActorLogging {
+  import SignatureValidator._
+  import context.dispatcher
+
+  val extension = PbftExtension(context.system)
+  val settings = extension.settings
+  val store = extension.blockStoreConn
+
+  var round = 0
+  var checkpoints = Map.empty[Int, Checkpoint]
+  var ranges = Vector.empty[Range]
+  // indexes of ranges to request
+  var queue = Vector.empty[Int]
+  // outstanding requests, range index to node
+  var requested = Map.empty[Int, Int]
+  // the node that last served or failed a range
+  var servedBy = Map.empty[Int, Int]
+  // verified ranges waiting for their predecessors
+  var received = Map.empty[Int, List[Block]]
+  var nextToAppend = 0
+  var appending = false
+
+  def receive = idle
+
+  def idle: Receive = {
+    case CatchUp() =>
+      if (store.missingBlocks(settings.stateTransferBatch + 1).size > settings.stateTransferBatch) {
+        round += 1
+        checkpoints = Map.empty
+        broadcaster ! GetCheckpointMessage()
+        context.system.scheduler.scheduleOnce(settings.protocolTimeout, self, CheckpointTimeout(round))
+        context.become(collecting)
+      }
+  }
+
+  def collecting: Receive = {
+    case CheckpointMessage(checkpoint) =>
+      val r = round
+      stable(checkpoint).map { CheckpointChecked(r, checkpoint, _) }.pipeTo(self)
+
+    case CheckpointChecked(r, checkpoint, true) if r == round =>
+      checkpoints += checkpoint.node -> checkpoint
+      if (checkpoints.size > f) transfer()
+
+    case CheckpointChecked(r, checkpoint, false) if r == round =>
+      log.debug(s"Checkpoint of node ${checkpoint.node} is not on our certified header chain")
+
+    case CheckpointTimeout(r) if r == round =>
+      if (checkpoints.nonEmpty) transfer()
+      else {
+        log.debug("No checkpoint received, state transfer abandoned")
+        context.become(idle)
+      }
+  }
+
+  def transferring: Receive = {
+    case BlockRangeMessage(BlockRange(after, blocks)) =>
+      ranges.find { r => r.after == after && requested.contains(r.index) }.foreach { range =>
+        requested -= range.index
+        val r = round
+        verify(range, blocks).map { ok => Verified(r, range.index, if (ok) Some(blocks) else None) }.pipeTo(self)
+        fill()
+      }
+
+    case Verified(r, index, Some(blocks)) if r == round =>
+      received += index -> blocks
+      append()
+
+    case Verified(r, index, None) if r == round =>
+      log.warning(s"Block range after ${ranges(index).after} from node ${servedBy(index)} failed verification")
+      queue :+= index
+      fill()
+
+    case RangeTimeout(r, index, node) if r == round && requested.get(index).contains(node) =>
+      log.debug(s"Block range after ${ranges(index).after} from node $node timed out")
+      requested -= index
+      queue :+= index
+      fill()
+
+    case Appended(r, index, rejected) if r == round =>
+      appending = false
+      if (rejected.nonEmpty) {
+        log.warning(s"Store rejected ${rejected.size} certified blocks, state transfer abandoned")
+        context.become(idle)
+      } else if (index + 1 == ranges.size) {
+        log.info(s"State transfer stored ${ranges.map(_.ids.size).sum} blocks up to height ${ranges.last.height}")
+        context.become(idle)
+        self ! CatchUp()
+      } else {
+        nextToAppend = index + 1
+        append()
+      }
+
+    case Status.Failure(e) =>
+      log.error(s"State transfer failed: ${e.getMessage}")
+      context.become(idle)
+  }
+
+  def transfer() = {
+    val top = store.getHighestBlock
+    val height = store.fetchHeader(top.getID).getHeight
+    val reachable = checkpoints.values.map(_.height).max
+    val missing = store.missingBlocks(settings.stateTransferBatch * RangesPerRound).take(reachable - height)
+    ranges = plan(top.getID, height, missing)
+    queue = ranges.map(_.index)
+    requested = Map.empty
+    servedBy = Map.empty
+    received = Map.empty
+    nextToAppend = 0
+    appending = false
+    log.info(s"State transfer of ${missing.size} blocks from ${checkpoints.size} replicas")
+    context.become(transferring)
+    fill()
+  }
+
+  def plan(after: BID, height: Int, missing: List[BID]) =
+    missing.grouped(settings.stateTransferBatch).zipWithIndex.foldLeft((after, height, Vector.empty[Range])) {
+      case ((a, h, planned), (ids, i)) => (ids.last, h + ids.size, planned :+ Range(i, a, ids, h + ids.size))
+    }._3
+
+  // request queued ranges while replicas covering them have capacity, preferring an other replica than last time
+  def fill() = queue = queue.filterNot(request)
+
+  def request(index: Int): Boolean = {
+    val range = ranges(index)
+    val load = requested.values.groupBy(identity).mapValues(_.size)
+    val candidates = checkpoints.values.filter(_.height >= range.height).map(_.node).toList
+      .filter { n => load.getOrElse(n, 0) < RangesPerPeer }
+      .sortBy { n => (servedBy.get(index).contains(n), load.getOrElse(n, 0)) }
+    candidates.headOption.exists { node =>
+      requested += index -> node
+      servedBy += index -> node
+      broadcaster ! SendToNode(node, GetBlockRangeMessage(BlockRangeRequest(range.after, range.ids.size)))
+      context.system.scheduler.scheduleOnce(settings.protocolTimeout, self, RangeTimeout(round, index, node))
+      true
+    }
+  }
+
+  def append() = if (!appending) {
+    received.get(nextToAppend).foreach { blocks =>
+      received -= nextToAppend
+      appending = true
+      val (r, index) = (round, nextToAppend)
+      store.storeCertifiedBlocks(blocks).map { case (rejected, _) => Appended(r, index, rejected) }.pipeTo(self)
+    }
+  }
+
+  def verify(range: Range, blocks: List[Block]): Future[Boolean] =
+    if (blocks.map(_.getID) != range.ids) Future.successful(false)
+    else Future(blocks.forall { b => MerkleTree.computeMerkleRoot(b.getTransactions) == b.getMerkleRoot }).flatMap {
+      case true  => certified(range.ids)
+      case false => Future.successful(false)
+    }
+
+  def stable(checkpoint: Checkpoint): Future[Boolean] = {
+    val id = checkpoint.blockHeader.getID
+    if (Option(store.fetchHeader(id)).exists(_.getHeight == checkpoint.height)) certified(List(id))
+    else Future.successful(false)
+  }
+
+  // all blocks have a quorum of valid commits stored with their headers, signatures are checked in one batch
+  def certified(ids: List[BID]): Future[Boolean] = {
+    val commits = ids.flatMap { id => store.getCommits(id).toOption.getOrElse(Nil) }
+    validateCommits(commits).run(settings).map { validated =>
+      val (_, good) = split(validated)
+      val signers = good.groupBy(_.blockHeader.getID).mapValues(_.map(_.node).distinct.size)
+      ids.forall { id => signers.getOrElse(id, 0) > 2 * f }
+    }
+  }
+}
@@ -18,6 +18,7 @@ import org.hyperledger.pbft.PbftHandler._
 import org.hyperledger.pbft.RecoveryActor.{ NewHeaders, RecoverTo }
 import org.hyperledger.pbft.ViewChangeHandler._
 
+import scala.concurrent.Future
 import scala.util.{ Failure, Success }
 import scalaz._
 
@@ -40,6 +41,9 @@ object ViewChangeHandler {
   case class RecoveryStarted(recoveryActor: ActorRef) extends ViewChangeHandlerMessage
   case class RecoveryFailed() extends ViewChangeHandlerMessage
   case class NoNewView(count: Int) extends ViewChangeHandlerMessage
+  // messages with enough good signatures, verified off the actor
+  case class GoodViewChange(m: ViewChange) extends ViewChangeHandlerMessage
+  case class GoodNewView(m: NewView) extends ViewChangeHandlerMessage
 
   val timerName = "no-new-view"
 
@@ -60,17 +64,15 @@ class ViewChangeHandler(f: Int) extends LoggingFSM[ViewChangeState, ViewChandeDa
   startWith(CountDuringNormal, ViewChandeData(Map.empty, 0, None))
 
   when(CountDuringNormal) {
-    case Event(m @ ViewChange(node, viewSeq, _, commits, _), data) =>
-      forEnoughGoodCommits(commits) {
-        val viewChanges = data.viewChanges.updated(node, m)
-        if (viewChanges.size > f) {
-          val minViewSeq = viewChanges.values.map(_.viewSeq).min
-          sender ! ViewChangeLimitReached()
-          sender ! BroadcastViewChange(minViewSeq)
-          goto(CountDuringViewChange) using data.copy(viewChanges = viewChanges, targetViewSeq = minViewSeq)
-        } else {
-          stay using data.copy(viewChanges = viewChanges)
-        }
+    case Event(GoodViewChange(m @ ViewChange(node, viewSeq, _, commits, _)), data) =>
+      val viewChanges = data.viewChanges.updated(node, m)
+      if (viewChanges.size > f) {
+        val minViewSeq = viewChanges.values.map(_.viewSeq).min
+        sender ! ViewChangeLimitReached()
+        sender ! BroadcastViewChange(minViewSeq)
+        goto(CountDuringViewChange) using data.copy(viewChanges = viewChanges, targetViewSeq = minViewSeq)
+      } else {
+        stay using data.copy(viewChanges = viewChanges)
       }
 
     case Event(StoreTimeout(viewSeq), data) =>
@@ -80,21 +82,19 @@ class ViewChangeHandler(f: Int) extends LoggingFSM[ViewChangeState, ViewChandeDa
   }
 
   when(CountDuringViewChange) {
-    case Event(m @ ViewChange(node, viewSeq, _, commits, _), data) =>
-      forEnoughGoodCommits(commits) {
-        val viewChanges = data.viewChanges.updated(node, m)
-        val viewChangesWithMostViewSeq = viewChanges.values.groupBy(_.viewSeq).maxBy(_._2.size)
-        val targetViewSeq = viewChangesWithMostViewSeq._1
-        val usedViewChanges = viewChangesWithMostViewSeq._2
-        if (primary(targetViewSeq) && usedViewChanges.size > 2 * f) {
-          val recoveryActor = context.actorOf(RecoveryActor.props(f, RecoveredBeforeNewView()))
-          sender ! BroadcastGetHeaders()
-          goto(Recovery) using
-            data.copy(viewChanges = viewChanges, targetViewSeq = targetViewSeq, recoveryActor = Some(recoveryActor))
-        } else {
-          log.debug(s"ViewChange limit not fullfilled yet in viewSeq $targetViewSeq, size: ${usedViewChanges.size}")
-          stay using data.copy(viewChanges = viewChanges)
-        }
+    case Event(GoodViewChange(m @ ViewChange(node, viewSeq, _, commits, _)), data) =>
+      val viewChanges = data.viewChanges.updated(node, m)
+      val viewChangesWithMostViewSeq = viewChanges.values.groupBy(_.viewSeq).maxBy(_._2.size)
+      val targetViewSeq = viewChangesWithMostViewSeq._1
+      val usedViewChanges = viewChangesWithMostViewSeq._2
+      if (primary(targetViewSeq) && usedViewChanges.size > 2 * f) {
+        val recoveryActor = context.actorOf(RecoveryActor.props(f, RecoveredBeforeNewView()))
+        sender ! BroadcastGetHeaders()
+        goto(Recovery) using
+          data.copy(viewChanges = viewChanges, targetViewSeq = targetViewSeq, recoveryActor = Some(recoveryActor))
+      } else {
+        log.debug(s"ViewChange limit not fullfilled yet in viewSeq $targetViewSeq, size: ${usedViewChanges.size}")
+        stay using data.copy(viewChanges = viewChanges)
       }
 
     case Event(NoNewView(count), data) =>
@@ -131,30 +131,42 @@ class ViewChangeHandler(f: Int) extends LoggingFSM[ViewChangeState, ViewChandeDa
       log.debug(s"ViewChange from node ${m.node} discarded, already during ViewChange (Recovery)")
       stay
 
+    case Event(GoodViewChange(m), data) =>
+      log.debug(s"ViewChange from node ${m.node} discarded, already during ViewChange (Recovery)")
+      stay
+
     case Event(StoreTimeout(_), data) =>
       log.debug("Store timeout discarded, already in ViewChange (Recovery)")
       stay
   }
 
   whenUnhandled {
-    case Event(NewView(_, viewSeq, viewChanges, blockHeader, commits, _), data) =>
-      forEnoughGoodViewChanges(viewChanges) {
-        forEnoughGoodCommits(commits) {
-          store.hasBlock(blockHeader.getID).onComplete {
-            case Success(true) =>
-              self ! RecoveredAfterNewView()
-            case Success(false) =>
-              val recoveryActor = context.actorOf(RecoveryActor.props(f, RecoveredAfterNewView()))
-              self ! RecoveryStarted(recoveryActor)
-              recoveryActor ! RecoverTo(blockHeader.getID)
-              context.parent ! BroadcastGetHeaders()
-            case Failure(t) =>
-              log.error(s"Failed to check block existance: ${t.getMessage}")
-              self ! RecoveryFailed()
-          }
-          goto(Recovery) using data.copy(targetViewSeq = viewSeq)
-        }
+    case Event(m: ViewChange, data) =>
+      whenGood(enoughGoodCommits(m.commits), GoodViewChange(m))
+      stay
+
+    case Event(m: NewView, data) =>
+      val enough = enoughGoodViewChanges(m.viewChanges).flatMap {
+        case true  => enoughGoodCommits(m.commits)
+        case false => Future.successful(false)
       }
+      whenGood(enough, GoodNewView(m))
+      stay
+
+    case Event(GoodNewView(NewView(_, viewSeq, viewChanges, blockHeader, commits, _)), data) =>
+      store.hasBlock(blockHeader.getID).onComplete {
+        case Success(true) =>
+          self ! RecoveredAfterNewView()
+        case Success(false) =>
+          val recoveryActor = context.actorOf(RecoveryActor.props(f, RecoveredAfterNewView()))
+          self ! RecoveryStarted(recoveryActor)
+          recoveryActor ! RecoverTo(blockHeader.getID)
+          context.parent ! BroadcastGetHeaders()
+        case Failure(t) =>
+          log.error(s"Failed to check block existance: ${t.getMessage}")
+          self ! RecoveryFailed()
+      }
+      goto(Recovery) using data.copy(targetViewSeq = viewSeq)
 
     case Event(m: NewHeaders, data) =>
       data.recoveryActor foreach { _ ! m }
@@ -173,18 +185,24 @@ class ViewChangeHandler(f: Int) extends LoggingFSM[ViewChangeState, ViewChandeDa
       cancelTimer(timerName)
   }
 
-  def forEnoughGoodCommits(commits: List[Commit])(func: => State): State = forEnoughGood(commits, validateCommits, func)
-  def forEnoughGoodViewChanges(viewChanges: List[ViewChange])(func: => State): State = forEnoughGood(viewChanges, validateViewChanges, func)
-
-  type ValidatorFunc[T] = List[T] => Reader[PbftSettings, List[MessageOrErr[T]]]
-  def forEnoughGood[T](messages: List[T], validate: ValidatorFunc[T], func: => State): State = {
-    val (bad, good) = split(validate(messages).run(settings))
-    bad.foreach { item => log.debug(s"Message ${item._2} failed validation: ${item._1}") }
-    if (good.size > 2 * f) {
-      func
-    } else {
-      log.debug(s"Message discarded because it failed signature validation")
-      stay
+  def enoughGoodCommits(commits: List[Commit]) = enoughGood(commits, validateCommits)
+  def enoughGoodViewChanges(viewChanges: List[ViewChange]) = enoughGood(viewChanges, validateViewChanges)
+
+  type ValidatorFunc[T] = List[T] => Reader[PbftSettings, Future[List[MessageOrErr[T]]]]
+  def enoughGood[T](messages: List[T], validate: ValidatorFunc[T]): Future[Boolean] =
+    validate(messages).run(settings).map { validated =>
+      val (bad, good) = split(validated)
+      bad.foreach { item => log.debug(s"Message ${item._2} failed validation: ${item._1}") }
+      good.size > 2 * f
+    }
+
+  // the verified message is handled as if it came from the original sender
+  def whenGood(enough: Future[Boolean], verified: ViewChangeHandlerMessage) = {
+    val sdr = sender()
+    enough.onComplete {
+      case Success(true)  => self.tell(verified, sdr)
+      case Success(false) => log.debug(s"Message discarded because it failed signature validation")
+      case Failure(t)     => log.error(s"Signature validation failed: ${t.getMessage}")
     }
   }
 
@@ -18,11 +18,12 @@ import akka.pattern.ask
 import akka.stream._
 import akka.stream.scaladsl._
 import akka.util.Timeout
-import org.hyperledger.common.{ Block, Transaction }
+import org.hyperledger.common.{ BID, Block, Transaction }
 import org.hyperledger.network.Implicits._
 import org.hyperledger.network.InventoryVectorType.{ MSG_BLOCK, MSG_TX }
 import org.hyperledger.network.flows.ScodecStage
 import org.hyperledger.network.{ BlockDataRequest, InventoryVector, Rejection, Version }
+import org.hyperledger.pbft.CompactBlocks.PartialBlock
 import org.hyperledger.pbft.PbftHandler.UpdateViewSeq
 import org.hyperledger.pbft.RecoveryActor.NewHeaders
 import org.hyperledger.pbft._
@@ -68,12 +69,61 @@ object PbftStreams {
           case m: CommitMessage     => m
           case m: ViewChangeMessage => m
           case m: NewViewMessage    => m
+          case m: CheckpointMessage => m
+          case m: BlockRangeMessage => m
         }
 
+        // a PrePrepare on a parent still in consensus is answered once the parent is stored,
+        // messages behind it must not wait for that
+        val forwardTimeout = Timeout(settings.protocolTimeout)
         val forwardToHandlerGen = Flow[PbftMessage]
-          .mapAsync(1)(m => (handler ? m).mapTo[List[PbftMessage]])
+          .mapAsyncUnordered(settings.pipelineWindow + 1)(m => handler.ask(m)(forwardTimeout).mapTo[List[PbftMessage]])
           .mapConcat[PbftMessage](identity)
 
+        // blocks of compact PrePrepares waiting for missing transactions
+        val partialBlocks = new java.util.LinkedHashMap[BID, PartialBlock]() {
+          override def removeEldestEntry(eldest: java.util.Map.Entry[BID, PartialBlock]) = size > CompactBlocks.RelayedCacheSize
+        }
+
+        val getKey = settings.nodes.map(_.publicKey).lift
+
+        // the signature of the full PrePrepare is checked as if it had been received
+        def forwardRebuilt(partial: PartialBlock) = partial.block match {
+          case Some(block) =>
+            val prePrepare = partial.prePrepare.toPrePrepare(block)
+            Future(prePrepare.verify(getKey))(SignatureValidator.verificationContext).flatMap {
+              case true =>
+                handler.ask(PrePrepareMessage(prePrepare))(forwardTimeout).mapTo[List[PbftMessage]]
+              case false =>
+                LOG.debug(s"Invalid signature of rebuilt PrePrepare for ${block.getID}")
+                Future.successful(List.empty[PbftMessage])
+            }
+          case None =>
+            LOG.debug(s"Could not rebuild block ${partial.prePrepare.blockHeader.getID}")
+            Future.successful(List.empty[PbftMessage])
+        }
+
+        val compactFlow = Flow[PbftMessage]
+          .mapAsync(1) {
+            case CompactPrePrepareMessage(m) =>
+              CompactBlocks.rebuild(m, store).flatMap { partial =>
+                partial.missing match {
+                  case Nil => forwardRebuilt(partial)
+                  case missing =>
+                    partialBlocks.synchronized(partialBlocks.put(m.blockHeader.getID, partial))
+                    Future.successful(List(GetBlockTxnMessage(BlockTxnRequest(m.blockHeader.getID, missing))))
+                }
+              }
+            case BlockTxnMessage(response) =>
+              Option(partialBlocks.synchronized(partialBlocks.remove(response.blockId))) match {
+                case Some(partial) => forwardRebuilt(partial.fill(response, partial.missing))
+                case None          => Future.successful(List.empty[PbftMessage])
+              }
+            case GetBlockTxnMessage(request) =>
+              Future.successful(CompactBlocks.missingTransactions(request).map(BlockTxnMessage).toList)
+            case _ => Future.successful(List.empty[PbftMessage])
+          }.mapConcat(identity)
+
         val txFlow = Flow[PbftMessage]
           .collect { case tx: TxMessage => tx }
           .mapAsync(1) { tm =>
@@ -122,7 +172,8 @@ object PbftStreams {
               Future.sequence(invVectors).map { ivs =>
                 handler ! NewHeaders()
                 val invVectors = ivs.flatten
-                if (invVectors.nonEmpty) {
+                // replicas fetch longer gaps through state transfer
+                if (invVectors.nonEmpty && (settings.clientMode || invVectors.size <= settings.stateTransferBatch)) {
                   List(GetDataMessage(invVectors))
                 } else {
                   List.empty
@@ -141,6 +192,24 @@ object PbftStreams {
             case _ => Future.successful(Nil)
           }.mapConcat(identity)
 
+        val stateTransferFlow = Flow[PbftMessage]
+          .mapAsync(1) {
+            case GetCheckpointMessage(_) =>
+              Future.successful(settings.privateKey.toList.flatMap { pk =>
+                val top = store.getHighestBlock
+                Checkpoint(settings.ourNodeId, store.fetchHeader(top.getID).getHeight, top.getHeader).sign(pk).fold(
+                  err => {
+                    LOG.error(s"Could not sign checkpoint: ${err.message}")
+                    Nil
+                  },
+                  signed => List(CheckpointMessage(signed)))
+              })
+            case GetBlockRangeMessage(BlockRangeRequest(after, count)) =>
+              store.blockRange(after, count min settings.stateTransferBatch)
+                .map { blocks => List(BlockRangeMessage(BlockRange(after, blocks))) }
+            case _ => Future.successful(List.empty[PbftMessage])
+          }.mapConcat(identity)
+
         val getDataFlow = Flow[PbftMessage]
           .mapConcat {
             case m: GetDataMessage => m.payload filter { msg => msg.typ == MSG_TX || msg.typ == MSG_BLOCK }
@@ -156,20 +225,22 @@ object PbftStreams {
             case Some(b: Block)       => BlockMessage(b)
           }
 
-        val verifySig = b.add(Flow[PbftMessage].transform(() => new VerifySignatureStage(settings)))
+        val verifySig = b.add(VerifySignatureStage(settings))
 
-        val inputRoute = b.add(Broadcast[PbftMessage](7))
-        val outMerge = b.add(Merge[PbftMessage](8, eagerClose = true))
+        val inputRoute = b.add(Broadcast[PbftMessage](9))
+        val outMerge = b.add(Merge[PbftMessage](10, eagerClose = true))
 
         // format: OFF
         //inputLogger ~>
         verifySig ~> inputRoute ~> forwardFilter ~> forwardToHandlerGen ~> outMerge
+                     inputRoute ~> compactFlow                          ~> outMerge
                      inputRoute ~> txFlow                               ~> outMerge //~> outputLogger
                      inputRoute ~> invFlow                              ~> outMerge
                      inputRoute ~> getDataFlow                          ~> outMerge
                      inputRoute ~> getHeadersFlow                       ~> outMerge
                      inputRoute ~> headersFlow                          ~> outMerge
                      inputRoute ~> blockFlow                            ~> outMerge
+                     inputRoute ~> stateTransferFlow                    ~> outMerge
                                    broadcast                            ~> outMerge
         // format: ON
 
@@ -13,21 +13,40 @@
  */
 package org.hyperledger.pbft.streams
 
-import akka.stream.stage.{ SyncDirective, Context, PushStage }
+import akka.stream.scaladsl.Flow
 import org.hyperledger.pbft._
 
-class VerifySignatureStage(settings: PbftSettings) extends PushStage[PbftMessage, PbftMessage] {
+import scala.concurrent.Future
+
+/**
+ * Verifies the signatures of PBFT messages on the verification pool, keeping message order
+ */
+object VerifySignatureStage {
 
   case class InvalidSignatureException(message: PbftMessage) extends RuntimeException(s"Invalid signature: $message".take(160))
 
-  val getKey = settings.nodes.map(_.publicKey).lift
+  def apply(settings: PbftSettings) = {
+    val getKey = settings.nodes.map(_.publicKey).lift
+
+    def valid(elem: PbftMessage) = elem.payload match {
+      case p: PrePrepare        => p.verify(getKey)
+      case p: CompactPrePrepare => p.verify(getKey)
+      case p: Prepare           => p.verify(getKey)
+      case p: Commit            => p.verify(getKey)
+      case p: ViewChange        => p.verify(getKey)
+      case p: NewView           => p.verify(getKey)
+      case p: Checkpoint        => p.verify(getKey)
+      case _                    => true
+    }
 
-  override def onPush(elem: PbftMessage, ctx: Context[PbftMessage]): SyncDirective = elem.payload match {
-    case p: PrePrepare if !p.verify(getKey) => ctx.fail(InvalidSignatureException(elem))
-    case p: Prepare if !p.verify(getKey)    => ctx.fail(InvalidSignatureException(elem))
-    case p: Commit if !p.verify(getKey)     => ctx.fail(InvalidSignatureException(elem))
-    case p: ViewChange if !p.verify(getKey) => ctx.fail(InvalidSignatureException(elem))
-    case p: NewView if !p.verify(getKey)    => ctx.fail(InvalidSignatureException(elem))
-    case _                                  => ctx.push(elem)
+    Flow[PbftMessage].mapAsync(SignatureValidator.VerifierThreads) { elem =>
+      elem.payload match {
+        case _: PrePrepare | _: CompactPrePrepare | _: Prepare | _: Commit | _: ViewChange | _: NewView | _: Checkpoint =>
+          Future {
+            if (valid(elem)) elem else throw InvalidSignatureException(elem)
+          }(SignatureValidator.verificationContext)
+        case _ => Future.successful(elem)
+      }
+    }
   }
 }
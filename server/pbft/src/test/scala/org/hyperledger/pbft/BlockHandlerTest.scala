@@ -0,0 +1,121 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.pbft
+
+import akka.actor.ActorSystem
+import akka.testkit.{ TestFSMRef, TestKit, TestProbe }
+import com.typesafe.config.ConfigFactory
+import org.hyperledger.pbft.BlockHandler._
+import org.hyperledger.pbft.Consensus.ConsensusBye
+import org.scalatest.{ BeforeAndAfterEach, Matchers, WordSpecLike }
+import TestBlockStore._
+
+class BlockHandlerTest extends TestKit(ActorSystem("test", ConfigFactory.load(
+  ConfigFactory.parseString("hyperledger.pbft.pipelineWindow: 2")
+    .withFallback(ConfigFactory.parseString(PbftLogicTest.config)))))
+  with WordSpecLike with BeforeAndAfterEach with Matchers {
+  import PbftHandler.emptyResponse
+
+  import scala.concurrent.duration._
+
+  val pbft = TestProbe()
+  val extension = PbftExtension(system)
+  val store = new TestBlockStore
+  extension.blockStoreConn = store
+  var handler: TestFSMRef[BlockHandlerState, BlockHandlerData, BlockHandler] = _
+
+  override def beforeEach(): Unit = {
+    store.reset()
+    handler = TestFSMRef(new BlockHandler(2, pbft.ref))
+  }
+
+  override def afterEach(): Unit = {
+    handler.stop()
+  }
+
+  def inConsensus(sender: TestProbe) = {
+    handler.tell(PrePrepare(0, 0, dummyBlock), sender.ref)
+    sender.expectMsg(emptyResponse)
+    awaitCond(handler.stateData.inFlight.contains(dummyBlock.getID))
+  }
+
+  def checkGetHeaders(response: Any) = response match {
+    case List(GetHeadersMessage(request)) => request.version shouldEqual extension.PROTOCOL_VERSION
+    case other                            => fail(s"Expected a GetHeadersMessage, got $other")
+  }
+
+  "PrePrepare on a parent in consensus" should {
+    "be answered once the parent is stored" in {
+      val first = TestProbe()
+      val second = TestProbe()
+      inConsensus(first)
+
+      handler.tell(EarlyPrePrepare(PrePrepare(0, 0, dummyBlock2)), second.ref)
+      second.expectNoMsg(200 millis)
+      handler.stateData.deferred(dummyBlock.getID).map(_._2) shouldEqual List(second.ref)
+
+      store.store(dummyBlock, Nil)
+      handler ! BlockCommitted(dummyBlock.getID)
+      second.expectMsg(emptyResponse)
+      awaitCond(handler.stateData.inFlight.contains(dummyBlock2.getID))
+      handler.stateData.inFlight.contains(dummyBlock.getID) shouldBe false
+      handler.stateData.deferred shouldBe empty
+    }
+
+    "send its rejection to the original sender" in {
+      val first = TestProbe()
+      val second = TestProbe()
+      inConsensus(first)
+
+      handler.tell(EarlyPrePrepare(PrePrepare(0, 0, dummyBlock2)), second.ref)
+      store.store(dummyBlock, Nil)
+      // already there by the time it is validated
+      store.store(dummyBlock2, Nil)
+      handler ! BlockCommitted(dummyBlock.getID)
+      second.expectMsg(rejectResponse("Block not accepted", dummyBlock2.getID))
+    }
+
+    "fall back to recovery if the parent is not stored in time" in {
+      val first = TestProbe()
+      val second = TestProbe()
+      inConsensus(first)
+
+      handler.tell(EarlyPrePrepare(PrePrepare(0, 0, dummyBlock2)), second.ref)
+      handler ! ConsensusBye(dummyBlock.getID)
+      checkGetHeaders(second.receiveOne(1 second))
+      awaitCond(handler.stateData.deferred.isEmpty)
+    }
+
+    "be answered when the handler stops" in {
+      val first = TestProbe()
+      val second = TestProbe()
+      inConsensus(first)
+
+      handler.tell(EarlyPrePrepare(PrePrepare(0, 0, dummyBlock2)), second.ref)
+      handler ! Stop()
+      second.expectMsg(emptyResponse)
+      awaitCond(handler.stateName == Stopped)
+    }
+  }
+
+  "PrePrepare on an unknown parent" should {
+    "trigger recovery" in {
+      val sender = TestProbe()
+      handler.tell(EarlyPrePrepare(PrePrepare(0, 0, dummyBlock2)), sender.ref)
+      checkGetHeaders(sender.receiveOne(1 second))
+      handler.stateData.deferred shouldBe empty
+    }
+  }
+
+}
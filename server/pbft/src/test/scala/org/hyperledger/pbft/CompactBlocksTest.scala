@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.pbft
+
+import org.hyperledger.common._
+import org.hyperledger.pbft.PbftLogicTest._
+import org.scalatest.{ Matchers, WordSpec }
+import TestBlockStore._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.concurrent.{ Await, Future }
+
+class CompactBlocksTest extends WordSpec with Matchers {
+
+  val getKey = keys.map(_.getPublic).lift
+
+  val transactions = (1 to 5).toList.map { i =>
+    new Transaction(1, i, List[TransactionInput]().asJava, List[TransactionOutput]().asJava)
+  }
+  val blockTransactions = (dummyTransaction :: transactions).asJava
+  val block = new Block(
+    new BitcoinHeader(1, genesisBlock.getID, MerkleTree.computeMerkleRoot(blockTransactions), 0, 1, 2),
+    blockTransactions)
+
+  val prePrepare = signature(PrePrepare(0, 0, block), 0)
+  val compact = signature(CompactBlocks.compact(prePrepare), 0)
+
+  def rebuild(mempool: List[Transaction]) = {
+    val store = new TestBlockStore {
+      override def mempoolTransactions(filter: TID => Boolean) = Future.successful(mempool.filter { t => filter(t.getID) })
+    }
+    Await.result(CompactBlocks.rebuild(compact, store), 10 seconds)
+  }
+
+  "A compact PrePrepare" should {
+    "carry the coinbase and short ids of the other transactions" in {
+      compact.prefilled shouldEqual List(dummyTransaction)
+      compact.shortIds.size shouldBe transactions.size
+      compact.shortIds.distinct.size shouldBe transactions.size
+      compact.verify(getKey) shouldBe true
+    }
+
+    "survive encoding" in {
+      val decoded = CompactPrePrepare.codec.encode(compact).flatMap(CompactPrePrepare.codec.decode).require.value
+      decoded.shortIds shouldEqual compact.shortIds
+      decoded.prePrepareSignature shouldEqual prePrepare.signature
+      decoded.verify(getKey) shouldBe true
+    }
+  }
+
+  "Rebuilding" should {
+    "take all transactions from the mempool" in {
+      val partial = rebuild(transactions)
+      partial.missing shouldBe empty
+      val rebuilt = compact.toPrePrepare(partial.block.get)
+      rebuilt.block.getID shouldEqual block.getID
+      rebuilt.signature shouldEqual prePrepare.signature
+      rebuilt.verify(getKey) shouldBe true
+    }
+
+    "fill missing transactions from a BlockTxn response" in {
+      val partial = rebuild(List(transactions(0), transactions(1), transactions(3)))
+      // the coinbase is at index 0
+      partial.missing shouldEqual List(3, 5)
+      partial.block shouldBe None
+
+      val response = CompactBlocks.missingTransactions(BlockTxnRequest(block.getID, partial.missing)).get
+      response.transactions shouldEqual List(transactions(2), transactions(4))
+      val filled = partial.fill(response, partial.missing)
+      filled.missing shouldBe empty
+      val rebuilt = compact.toPrePrepare(filled.block.get)
+      rebuilt.block.getID shouldEqual block.getID
+      rebuilt.verify(getKey) shouldBe true
+    }
+
+    "not accept transactions not matching the merkle root" in {
+      val partial = rebuild(transactions.take(4))
+      partial.missing shouldEqual List(5)
+      val filled = partial.fill(BlockTxn(block.getID, List(transactions(0))), partial.missing)
+      filled.missing shouldBe empty
+      filled.block shouldBe None
+    }
+
+    "not answer requests for blocks not relayed" in {
+      CompactBlocks.missingTransactions(BlockTxnRequest(dummyBlock2.getID, List(1))) shouldBe None
+    }
+  }
+
+}
@@ -13,6 +13,8 @@
  */
 package org.hyperledger.pbft
 
+import java.lang.management.ManagementFactory
+
 import akka.actor.ActorSystem
 import akka.testkit._
 import com.typesafe.config.ConfigFactory
@@ -33,6 +35,21 @@ class MinerTest extends TestKit(ActorSystem("test", ConfigFactory.parseString(co
       miner ! StartMining()
       expectMsgClass(15 seconds, classOf[BlockMined])
     }
+
+    "skip rounds without transactions" in {
+      val idle = ActorSystem("idle", ConfigFactory.parseString("hyperledger.pbft.produceEmptyBlocks: false")
+        .withFallback(ConfigFactory.parseString(config)))
+      try {
+        val probe = TestProbe()(idle)
+        val miner = idle.actorOf(PbftMiner.props())
+        probe.send(miner, StartMining())
+        probe.expectNoMsg(3 seconds)
+        ManagementFactory.getPlatformMBeanServer
+          .getAttribute(MiningStatistics.objectName("idle"), "EmptyRoundsSkipped") shouldBe 1L
+      } finally {
+        idle.shutdown()
+      }
+    }
   }
 
 }
@@ -59,6 +76,7 @@ object MinerTest {
        |    bindAddress: "localhost:9999",
        |    protocolTimeoutSeconds: 60
        |    blockFrequencySeconds: 1
+       |    produceEmptyBlocks: true
        |  }
        |
        |  store {
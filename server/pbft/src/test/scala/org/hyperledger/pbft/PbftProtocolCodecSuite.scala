@@ -82,6 +82,16 @@ class PbftProtocolCodecSuite extends FunSuite with Matchers {
     roundtrip(message)
   }
 
+  test("Checkpoint message") {
+    val message = CheckpointMessage(Checkpoint(dummyNode, 7, dummyBlockHeader, dummySig))
+    roundtrip(message)
+  }
+
+  test("Block range messages") {
+    roundtrip(GetBlockRangeMessage(BlockRangeRequest(dummyBlock.getPreviousID, 2)))
+    roundtrip(BlockRangeMessage(BlockRange(dummyBlock.getPreviousID, List(dummyBlock, dummyBlock))))
+  }
+
   test("Problematic message with -1 byte") {
     val message = BitVector(messageWithMinusOne.toByteBuffer)
     backwardTrip(message)
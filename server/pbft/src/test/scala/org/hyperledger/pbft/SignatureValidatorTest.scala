@@ -0,0 +1,101 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hyperledger.pbft
+
+import com.typesafe.config.ConfigFactory
+import org.hyperledger.pbft.PbftLogicTest._
+import org.scalatest.{ Matchers, WordSpec }
+import scodec.bits.ByteVector
+import TestBlockStore._
+
+import scala.concurrent.duration._
+import scala.concurrent.{ Await, Future }
+import scalaz.\/
+
+class SignatureValidatorTest extends WordSpec with Matchers {
+  import SignatureValidator._
+
+  val settings = PbftSettings.fromConfig(ConfigFactory.parseString(PbftLogicTest.config))
+
+  def commit(node: Int) = signature(Commit(node, 0, dummyBlockHeader), node)
+
+  def await[T](f: Future[T]) = Await.result(f, 10 seconds)
+
+  def cached(m: Commit, node: Int) =
+    verified.synchronized(Option(verified.get((m.getHash.require.bytes, m.signature, keys(node).getPublic))))
+
+  "validateCommits" should {
+    "separate forged commits and keep the order of the others" in {
+      val good = (0 to 4).map(commit).toList
+      // signed by node 5, claiming to be from node 6
+      val forged = commit(5).copy(node = 6)
+      val (bad, valid) = split(await(validateCommits(good.take(2) ++ (forged :: good.drop(2))).run(settings)))
+      valid shouldEqual good
+      bad.map(_._2) shouldEqual List(forged)
+    }
+
+    "validate a single commit" in {
+      val (bad, valid) = split(await(validateCommits(List(commit(3))).run(settings)))
+      bad shouldBe empty
+      valid shouldEqual List(commit(3))
+    }
+
+    "verify on the verifier threads" in {
+      val threads = new java.util.concurrent.ConcurrentLinkedQueue[String]
+      val messages = (0 to 6).map(commit).toList
+      val validated = validMessages[Commit](messages, { (m, k) =>
+        threads.add(Thread.currentThread.getName)
+        \/.right(m)
+      }, pkCommit).run(settings)
+      await(validated).map(_.toOption.get) shouldEqual messages
+      threads.size shouldBe messages.size
+      threads.toArray.foreach { name => name.toString should startWith("pbft-signature-") }
+    }
+  }
+
+  "verify" should {
+    "cache the result by hash, signature and key" in {
+      val m = commit(2)
+      val hash = m.getHash.require
+      verify(hash, m.signature, keys(2).getPublic) shouldBe true
+      cached(m, 2) shouldEqual Some(true)
+      // the same signature under an other key
+      verify(hash, m.signature, keys(4).getPublic) shouldBe false
+      cached(m, 4) shouldEqual Some(false)
+    }
+
+    "answer from the cache" in {
+      val m = commit(1)
+      val hash = m.getHash.require
+      val triple = (hash.bytes, m.signature, keys(1).getPublic)
+      verified.synchronized(verified.put(triple, false))
+      verify(hash, m.signature, keys(1).getPublic) shouldBe false
+      verified.synchronized(verified.remove(triple))
+      verify(hash, m.signature, keys(1).getPublic) shouldBe true
+    }
+
+    "keep a bounded number of results" in {
+      val m = commit(0)
+      verify(m.getHash.require, m.signature, keys(0).getPublic)
+      verified.synchronized {
+        (0 until VerifiedCacheSize).foreach { i =>
+          verified.put((ByteVector.fromInt(i), ByteVector.empty, keys(0).getPublic), true)
+        }
+      }
+      verified.synchronized(verified.size) shouldBe VerifiedCacheSize
+      cached(m, 0) shouldBe None
+    }
+  }
+
+}
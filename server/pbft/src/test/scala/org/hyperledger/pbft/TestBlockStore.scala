@@ -62,6 +62,8 @@ class TestBlockStore extends PbftBlockstoreInterface {
 
   override def filterUnkown(inventories: List[InventoryVector]) = Future.successful(Nil)
 
+  override def mempoolTransactions(filter: TID => Boolean) = Future.successful(Nil)
+
   override def fetchHeader(h: BID): StoredHeader = ???
 
   override def catchUpHeaders(bids: List[BID], hashStop: BID, limit: Int): List[BID] = ???
@@ -72,6 +74,12 @@ class TestBlockStore extends PbftBlockstoreInterface {
 
   override def storeBlock(block: Block): Future[(List[BID], List[BlockStoredInfo])] = ???
 
+  override def storeCertifiedBlocks(blocks: List[Block]): Future[(List[BID], List[BlockStoredInfo])] = ???
+
+  override def blockRange(after: BID, count: Int) = Future.successful(Nil)
+
+  override def missingBlocks(max: Int) = Nil
+
   override def getHighestHeader: Header = blockStore.last._1.getHeader
 
   override def removeBlockListener(listener: BlockListener): Unit =
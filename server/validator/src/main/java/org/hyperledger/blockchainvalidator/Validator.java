@@ -93,7 +93,7 @@ public class Validator {
         HashSet<Header> result = new HashSet<>();
 
         for (StoredHeader header : headers.values()) {
-            if (header.getID().toBigInteger().compareTo(BitcoinDifficulty.getTarget(header.getEncodedDifficulty())) > 0) {
+            if (header.getProofOfWorkHash().toBigInteger().compareTo(BitcoinDifficulty.getTarget(header.getEncodedDifficulty())) > 0) {
                 result.add(header);
             }
         }
@@ -153,7 +153,7 @@ public class Validator {
             while (iterator.hasNext()) {
                 currentHeader = prevHeader;
                 prevHeader = iterator.next();
-                if (prevHeader.getChainWork() != currentHeader.getChainWork() - difficulty.getDifficulty(currentHeader.getEncodedDifficulty())) {
+                if (!prevHeader.getChainWork().add(difficulty.getWork(currentHeader.getEncodedDifficulty())).equals(currentHeader.getChainWork())) {
                     violators.add(currentHeader.getID());
                 }
             }
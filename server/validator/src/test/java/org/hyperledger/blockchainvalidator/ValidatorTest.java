@@ -15,6 +15,7 @@ package org.hyperledger.blockchainvalidator;
 
 import org.hyperledger.common.BID;
 import org.hyperledger.common.BitcoinHeader;
+import org.hyperledger.core.ChainWork;
 import org.hyperledger.core.StoredHeader;
 import org.junit.Before;
 import org.junit.Test;
@@ -70,14 +71,14 @@ public class ValidatorTest {
                 char c = getaChar(headers[headerIndex], i);
                 if (c == '.') {
                     StoredHeader prevStoredHeader = prevStoredHeaders[headerIndex];
-                    StoredHeader storedHeader = new StoredHeader(BitcoinHeader.create().previousID(getBlockIdOrInvalidId(prevStoredHeader)).nonce(allHeaders.size()).build(), 1.0, 1);
+                    StoredHeader storedHeader = new StoredHeader(BitcoinHeader.create().previousID(getBlockIdOrInvalidId(prevStoredHeader)).nonce(allHeaders.size()).build(), ChainWork.ONE, 1);
                     allHeaders.add(storedHeader);
                     prevStoredHeaders[headerIndex] = storedHeader;
                 } else if ('0' <= c && c <= '9') {
 
                     // create new header and link to the given chain
                     StoredHeader prevStoredHeader = prevStoredHeaders[c - '0'];
-                    StoredHeader storedHeader = new StoredHeader(BitcoinHeader.create().previousID(getBlockIdOrInvalidId(prevStoredHeader)).nonce(allHeaders.size()).build(), 1.0, 1);
+                    StoredHeader storedHeader = new StoredHeader(BitcoinHeader.create().previousID(getBlockIdOrInvalidId(prevStoredHeader)).nonce(allHeaders.size()).build(), ChainWork.ONE, 1);
                     allHeaders.add(storedHeader);
                     prevStoredHeaders[headerIndex] = storedHeader;
                 } else if (c != ' ') {